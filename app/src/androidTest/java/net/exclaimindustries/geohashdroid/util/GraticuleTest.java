@@ -0,0 +1,174 @@
+/*
+ * GraticuleTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * Tests {@link Graticule}'s canonical instances: that asking for the same
+ * graticule twice gets the same object, that IDs go both ways, and that the
+ * negative zeroes stay distinct.
+ * </p>
+ *
+ * <p>
+ * Most of all, it checks {@link Graticule#createOffsetFrom(Graticule, int, int)}
+ * against the old way of doing it, the gratuitously loopy one that worked out
+ * the equator and Prime Meridian crossings by hand, for every graticule on the
+ * planet.
+ * </p>
+ */
+public class GraticuleTest {
+    // Small offsets (what nearby points actually use), plus some big ones to
+    // fling things across the equator, off the poles, and around the planet.
+    private static final int[] OFFSETS = {-3, -2, -1, 0, 1, 2, 3};
+    private static final int[] BIG_OFFSETS = {-360, -200, -180, -179, -90, -45, 45, 90, 179, 180, 200, 360};
+
+    /**
+     * This is how createOffsetFrom used to work, before the row/column IDs
+     * came along.  It's here exactly as it was, only making Graticules with
+     * the constructor, same as it always did.
+     */
+    private static Graticule oldCreateOffsetFrom(Graticule g, int latOff, int lonOff) {
+        if(latOff == 0 && lonOff == 0) return g;
+
+        boolean goingSouth = (latOff < 0);
+        latOff = Math.abs(latOff);
+
+        int finalLat = g.getLatitude();
+        int finalLon = g.getLongitude();
+        boolean finalSouth = g.isSouth();
+        boolean finalWest = g.isWest();
+
+        if(latOff != 0) {
+            if(g.isSouth() == goingSouth) {
+                finalLat = g.getLatitude() + latOff;
+            } else {
+                if(g.getLatitude() < latOff) {
+                    latOff--;
+                    finalSouth = !finalSouth;
+                }
+                finalLat = Math.abs(g.getLatitude() - latOff);
+            }
+        }
+
+        if(finalWest)
+            finalLon = -finalLon + 179;
+        else
+            finalLon += 180;
+
+        finalLon += lonOff;
+        finalLon %= 360;
+
+        if(finalLon < 0) finalLon = 360 - Math.abs(finalLon);
+
+        if(finalLon >= 180) {
+            finalWest = false;
+            finalLon -= 180;
+        } else {
+            finalWest = true;
+            finalLon -= 179;
+        }
+
+        finalLon = Math.abs(finalLon);
+
+        return new Graticule(finalLat, finalSouth, finalLon, finalWest);
+    }
+
+    private static void checkOffset(Graticule g, int latOff, int lonOff) {
+        Graticule expected = oldCreateOffsetFrom(g, latOff, lonOff);
+        Graticule actual = Graticule.createOffsetFrom(g, latOff, lonOff);
+
+        String which = g + " offset " + latOff + ", " + lonOff;
+        assertEquals(which, expected, actual);
+        assertSame(which + " isn't canonical", Graticule.fromId(actual.getId()), actual);
+    }
+
+    @Test
+    public void offsetsMatchTheOldWay() {
+        for(int id = 0; id < Graticule.COUNT; id++) {
+            Graticule g = Graticule.fromId(id);
+
+            for(int latOff : OFFSETS) {
+                for(int lonOff : OFFSETS)
+                    checkOffset(g, latOff, lonOff);
+            }
+        }
+    }
+
+    @Test
+    public void bigOffsetsMatchTheOldWay() {
+        // Every 7th graticule or so is plenty here, plus the ones right on
+        // the edges.
+        for(int id = 0; id < Graticule.COUNT; id += 7) {
+            Graticule g = Graticule.fromId(id);
+
+            for(int big : BIG_OFFSETS) {
+                checkOffset(g, big, 0);
+                checkOffset(g, 0, big);
+                checkOffset(g, big, big);
+                checkOffset(g, -big, big);
+            }
+        }
+
+        Graticule[] edges = {
+                Graticule.of(89, false, 179, false),
+                Graticule.of(89, true, 179, true),
+                Graticule.of(0, false, 0, false),
+                Graticule.of(0, true, 0, true),
+        };
+        for(Graticule g : edges) {
+            for(int big : BIG_OFFSETS) {
+                checkOffset(g, big, big);
+                checkOffset(g, -big, big);
+            }
+        }
+    }
+
+    @Test
+    public void canonicalInstances() {
+        Graticule g = Graticule.of(37, false, 122, true);
+
+        assertSame(g, Graticule.of(37, false, 122, true));
+        assertSame(g, Graticule.of(37.5, -122.5));
+        assertSame(g, Graticule.of("37", "-122"));
+        assertSame(g, Graticule.fromId(g.getId()));
+        assertEquals(new Graticule(37, false, 122, true), g);
+
+        // Every ID should come back to itself, and match what the constructor
+        // would've made.
+        for(int id = 0; id < Graticule.COUNT; id++) {
+            Graticule fromId = Graticule.fromId(id);
+            assertEquals(id, fromId.getId());
+            assertEquals(new Graticule(fromId.getLatitude(), fromId.isSouth(),
+                    fromId.getLongitude(), fromId.isWest()), fromId);
+        }
+    }
+
+    @Test
+    public void negativeZeroesStayNegative() {
+        Graticule north = Graticule.of(0, false, 0, false);
+        Graticule south = Graticule.of("-0", "-0");
+
+        assertNotSame(north, south);
+        assertTrue(south.isSouth());
+        assertTrue(south.isWest());
+        assertFalse(north.isSouth());
+        assertFalse(north.isWest());
+
+        // One step south of 0N is 0S, not 1S.
+        assertSame(Graticule.of(0, true, 0, false), Graticule.createOffsetFrom(north, -1, 0));
+        assertSame(Graticule.of(0, false, 0, true), Graticule.createOffsetFrom(north, 0, -1));
+
+        // Things past the edges get clamped, just like the constructor does.
+        assertSame(Graticule.of(89, false, 179, false), Graticule.of(95, false, 200, false));
+    }
+}
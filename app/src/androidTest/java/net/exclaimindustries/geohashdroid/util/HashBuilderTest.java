@@ -0,0 +1,219 @@
+/*
+ * HashBuilderTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.exclaimindustries.tools.HexFraction;
+import net.exclaimindustries.tools.MD5Tools;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Calendar;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * Tests the hash math in {@link HashBuilder}.  First, the one hash everybody
+ * knows: the xkcd example.  After that, a pile of 30W, non-30W, and globalhash
+ * cases get checked against the old way of doing things, that being
+ * String.format, the hex MD5 digest, and {@link HexFraction#calculate(String)}.
+ * </p>
+ *
+ * <p>
+ * Remember, the hash itself always uses the REAL date.  The 30W Rule only
+ * decides which day's stock goes into it, which is the caller's problem, not
+ * the hash math's.
+ * </p>
+ *
+ * <p>
+ * Then, {@link HashBuilder#getStoredHashRange(Context, Calendar, Calendar, boolean)}
+ * gets checked against building the same days one at a time.  That one needs
+ * the stock cache, so it gets wiped when it's done.
+ * </p>
+ */
+public class HashBuilderTest {
+    // 37, -122, on 2005-05-26, with the Dow opening at 10458.68.
+    private static final int XKCD_DAY = EpochDay.of(2005, 5, 26);
+    private static final String XKCD_STOCK = "10458.68";
+
+    // Four-ish digits after the decimal point is the best any of the known
+    // examples bother with, but the old way and the new way should agree all
+    // the way down.
+    private static final double EXACT = 1e-12;
+
+    private static double[] referenceFractions(int epochDay, String stock) {
+        Calendar cal = EpochDay.toCalendar(epochDay);
+        String hash = MD5Tools.MD5hash(String.format(Locale.US,
+                "%4d-%02d-%02d-%s",
+                cal.get(Calendar.YEAR),
+                cal.get(Calendar.MONTH) + 1,
+                cal.get(Calendar.DAY_OF_MONTH),
+                stock));
+
+        return new double[] {HexFraction.calculate(hash.substring(0, 16)),
+                HexFraction.calculate(hash.substring(16, 32))};
+    }
+
+    private static Info makeInfo(int epochDay, String stock, Graticule g) {
+        return HashBuilder.createInfo(EpochDay.toCalendar(epochDay), StockValue.parse(stock), g);
+    }
+
+    private static void assertMatchesReference(int epochDay, String stock, Graticule g) {
+        String which = EpochDay.toHyphenatedString(epochDay) + "-" + stock + " on " + g;
+        double[] ref = referenceFractions(epochDay, stock);
+        Info info = makeInfo(epochDay, stock, g);
+
+        assertTrue(which, info.isValid());
+        assertEquals(which, ref[0], info.getLatitudeHash(), EXACT);
+        assertEquals(which, ref[1], info.getLongitudeHash(), EXACT);
+
+        if(g == null) {
+            // Globalhashes stretch the fractions over the whole planet.
+            assertEquals(which, ref[0] * 180 - 90, info.getLatitude(), EXACT);
+            assertEquals(which, ref[1] * 360 - 180, info.getLongitude(), EXACT);
+        } else {
+            assertEquals(which, (g.getLatitude() + ref[0]) * (g.isSouth() ? -1 : 1), info.getLatitude(), EXACT);
+            assertEquals(which, (g.getLongitude() + ref[1]) * (g.isWest() ? -1 : 1), info.getLongitude(), EXACT);
+        }
+    }
+
+    @Test
+    public void xkcdExample() {
+        Info info = makeInfo(XKCD_DAY, XKCD_STOCK, Graticule.of(37, false, 122, true));
+
+        assertEquals(37.857713, info.getLatitude(), 0.000001);
+        assertEquals(-122.544544, info.getLongitude(), 0.000001);
+        assertEquals(0.857713, info.getLatitudeHash(), 0.000001);
+        assertEquals(0.544544, info.getLongitudeHash(), 0.000001);
+
+        // And the same thing the old way, just to be sure.
+        assertMatchesReference(XKCD_DAY, XKCD_STOCK, Graticule.of(37, false, 122, true));
+    }
+
+    @Test
+    public void thirtyWestCases() {
+        // All of these are east of -30, so they'd be using the previous day's
+        // stock.  The hash still gets the real date, though.
+        Graticule[] graticules = {
+                Graticule.of(52, false, 13, false),
+                Graticule.of(51, false, 0, true),
+                Graticule.of(33, true, 151, false),
+                Graticule.of(0, true, 29, true),
+        };
+        String[] stocks = {"10464.00", "12345.6", "9999.99", "34600.38"};
+
+        for(Graticule g : graticules) {
+            assertTrue(g + " should use the 30W Rule", g.uses30WRule());
+            for(int i = 0; i < stocks.length; i++)
+                assertMatchesReference(EpochDay.of(2008, 5, 27) + i * 97, stocks[i], g);
+        }
+    }
+
+    @Test
+    public void nonThirtyWestCases() {
+        Graticule[] graticules = {
+                Graticule.of(37, false, 122, true),
+                Graticule.of(40, false, 74, true),
+                Graticule.of(23, true, 46, true),
+                Graticule.of(0, false, 30, true),
+        };
+        String[] stocks = {XKCD_STOCK, "10458.6", "7", "0.01"};
+
+        for(Graticule g : graticules) {
+            assertFalse(g + " shouldn't use the 30W Rule", g.uses30WRule());
+            for(int i = 0; i < stocks.length; i++)
+                assertMatchesReference(XKCD_DAY + i * 1009, stocks[i], g);
+        }
+    }
+
+    @Test
+    public void globalhashCases() {
+        String[] stocks = {XKCD_STOCK, "10464.00", "17001.22", "28000.1"};
+
+        for(int i = 0; i < stocks.length; i++)
+            assertMatchesReference(XKCD_DAY + i * 365, stocks[i], null);
+    }
+
+    @Test
+    public void yearsPadTheSameWay() {
+        // The year's "%4d", so anything before 1000 gets spaces, not zeroes.
+        // Nobody's hashing those dates, but the two ways still shouldn't
+        // disagree.
+        assertMatchesReference(EpochDay.of(999, 12, 31), "100.00", Graticule.of(37, false, 122, true));
+        assertMatchesReference(EpochDay.of(1928, 10, 1), "239.43", null);
+    }
+
+    @Test
+    public void hashRangeMatchesOneAtATime() throws IOException {
+        Context con = ApplicationProvider.getApplicationContext();
+        TradingCalendar.loadClosures(con);
+
+        // A month and change of 2010, which includes the July 4th holiday
+        // being observed on Monday the 5th.  Every trading day gets a stock
+        // except June 15th, which should come back invalid (along with
+        // anything that'd use its stock).
+        int start = EpochDay.of(2010, 6, 1);
+        int end = EpochDay.of(2010, 7, 10);
+        int skipped = EpochDay.of(2010, 6, 15);
+
+        StringBuilder csv = new StringBuilder("Date,Open\n");
+        for(int day = start - 7; day <= end; day++) {
+            if(day == skipped || !TradingCalendar.isTradingDay(day)) continue;
+            csv.append(EpochDay.toHyphenatedString(day)).append(',')
+                    .append(10000 + (day - start) * 13).append(".").append(10 + (day % 90)).append('\n');
+        }
+
+        try {
+            HashBuilder.makeStockBackfill(con).importCsv(new StringReader(csv.toString()));
+
+            checkRange(con, start, end, Graticule.of(52, false, 13, false));
+            checkRange(con, start, end, Graticule.of(37, false, 122, true));
+        } finally {
+            HashBuilder.deleteCache(con);
+        }
+    }
+
+    private static void checkRange(Context con, int start, int end, Graticule g) {
+        boolean uses30W = g.uses30WRule();
+        HashBuilder.HashRange range = HashBuilder.getStoredHashRange(con,
+                EpochDay.toCalendar(start), EpochDay.toCalendar(end), uses30W);
+
+        assertEquals(end - start + 1, range.size());
+        assertEquals(start, range.getStartEpochDay());
+        assertEquals(uses30W, range.uses30WRule());
+
+        int invalid = 0;
+        for(int i = 0; i < range.size(); i++) {
+            int day = start + i;
+            String which = EpochDay.toHyphenatedString(day) + (uses30W ? " with 30W" : " without 30W");
+            String stock = HashBuilder.getStoredStock(con, EpochDay.makeAdjusted(day, uses30W));
+
+            if(stock == null) {
+                assertFalse(which + " shouldn't have a hash", range.isValid(i));
+                invalid++;
+                continue;
+            }
+
+            assertTrue(which + " should have a hash", range.isValid(i));
+            Info info = HashBuilder.createInfo(EpochDay.toCalendar(day), StockValue.parse(stock), g);
+            assertEquals(which, info.getLatitudeHash(), range.getLatitudeHash(i), EXACT);
+            assertEquals(which, info.getLongitudeHash(), range.getLongitudeHash(i), EXACT);
+        }
+
+        // Just the one day (or the day after it, for 30W) should be missing.
+        assertEquals(1, invalid);
+    }
+}
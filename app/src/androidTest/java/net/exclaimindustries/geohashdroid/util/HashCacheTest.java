@@ -0,0 +1,157 @@
+/*
+ * HashCacheTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link HashCache}, making sure it throws out the least recently used
+ * entry (with "used" meaning both gets and puts), that its counters count what
+ * they say they count, and that the index doesn't lose track of anything after
+ * a whole lot of evictions.
+ */
+public class HashCacheTest {
+    private static final int DAY = EpochDay.of(2005, 5, 26);
+
+    private static long key(int offset) {
+        return HashCache.makeKey(DAY + offset, false);
+    }
+
+    @Test
+    public void keysKeepThirtyWestApart() {
+        HashCache cache = new HashCache(4);
+        double[] out = new double[2];
+
+        cache.put(HashCache.makeKey(DAY, false), 0.1, 0.2);
+        cache.put(HashCache.makeKey(DAY, true), 0.3, 0.4);
+        assertEquals(2, cache.size());
+
+        assertTrue(cache.get(HashCache.makeKey(DAY, false), out));
+        assertEquals(0.1, out[0], 0);
+        assertEquals(0.2, out[1], 0);
+        assertTrue(cache.get(HashCache.makeKey(DAY, true), out));
+        assertEquals(0.3, out[0], 0);
+        assertEquals(0.4, out[1], 0);
+        assertFalse(cache.get(HashCache.makeKey(DAY + 1, false), out));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        HashCache cache = new HashCache(3);
+        double[] out = new double[2];
+
+        cache.put(key(0), 0.0, 0.0);
+        cache.put(key(1), 0.1, 0.1);
+        cache.put(key(2), 0.2, 0.2);
+
+        // Touching 0 means 1 is now the oldest, so that's what goes.
+        assertTrue(cache.get(key(0), out));
+        cache.put(key(3), 0.3, 0.3);
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertFalse(cache.get(key(1), out));
+
+        // Replacing 2 counts as using it, and the new value sticks.  That
+        // leaves 0 as the oldest.
+        cache.put(key(2), 0.25, 0.25);
+        cache.put(key(4), 0.4, 0.4);
+        assertEquals(2, cache.getEvictions());
+        assertFalse(cache.get(key(0), out));
+        assertTrue(cache.get(key(2), out));
+        assertEquals(0.25, out[0], 0);
+        assertTrue(cache.get(key(3), out));
+        assertTrue(cache.get(key(4), out));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        HashCache cache = new HashCache(2);
+        double[] out = new double[2];
+
+        assertFalse(cache.get(key(0), out));
+        cache.put(key(0), 0.5, 0.5);
+        assertTrue(cache.get(key(0), out));
+        assertTrue(cache.get(key(0), out));
+        assertFalse(cache.get(key(1), out));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+
+        // Clearing empties it, but leaves the counters alone.
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertFalse(cache.get(key(0), out));
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        // And it should still work afterward.
+        cache.put(key(1), 0.6, 0.6);
+        assertTrue(cache.get(key(1), out));
+        assertEquals(0.6, out[0], 0);
+    }
+
+    @Test
+    public void survivesLotsOfEvictions() {
+        // Random puts and gets over far more keys than will fit, checked
+        // against a dumb array-based LRU.  If removing things from the index
+        // ever leaves a hole in a probe run, something in here gets lost.
+        int capacity = 16;
+        HashCache cache = new HashCache(capacity);
+        long[] lru = new long[capacity];
+        int lruSize = 0;
+        double[] out = new double[2];
+        Random random = new Random(20050526);
+
+        for(int n = 0; n < 100000; n++) {
+            int offset = random.nextInt(64);
+            long k = HashCache.makeKey(DAY + offset, (offset & 1) == 0);
+
+            // Where's it in the reference LRU, if anywhere?  Index zero is
+            // the most recently used.
+            int at = -1;
+            for(int i = 0; i < lruSize; i++) {
+                if(lru[i] == k) {
+                    at = i;
+                    break;
+                }
+            }
+
+            if(random.nextBoolean()) {
+                assertEquals("lookup " + n, at >= 0, cache.get(k, out));
+                if(at < 0) continue;
+                assertEquals(offset, out[0], 0);
+            } else {
+                cache.put(k, offset, -offset);
+                if(at < 0) at = Math.min(lruSize++, capacity - 1);
+            }
+
+            // Move (or push) it to the front.
+            System.arraycopy(lru, 0, lru, 1, at);
+            lru[0] = k;
+            lruSize = Math.min(lruSize, capacity);
+
+            assertEquals(lruSize, cache.size());
+        }
+
+        // Everything the reference says should be there had better be there.
+        for(int i = 0; i < lruSize; i++)
+            assertTrue(cache.get(lru[i], out));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsRoomForSomething() {
+        new HashCache(0);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * NotPostedCacheTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link NotPostedCache}, making sure a "not posted" answer from before
+ * the market opens sticks until 9:30am in New York (on whichever side of a
+ * daylight saving change that lands), one from after the open only sticks for
+ * a couple minutes, and that forgetting things works.
+ */
+public class NotPostedCacheTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    // 2021's daylight saving changes were Sunday, March 14th and Sunday,
+    // November 7th.  These are the trading days on either side of them.
+    private static final int BEFORE_SPRING = EpochDay.of(2021, 3, 12);
+    private static final int AFTER_SPRING = EpochDay.of(2021, 3, 15);
+    private static final int BEFORE_FALL = EpochDay.of(2021, 11, 5);
+    private static final int AFTER_FALL = EpochDay.of(2021, 11, 8);
+
+    private static long utc(int sDay, int hour, int minute) {
+        Calendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        cal.clear();
+        cal.set(EpochDay.getYear(sDay), EpochDay.getMonth(sDay) - 1, EpochDay.getDayOfMonth(sDay), hour, minute);
+        return cal.getTimeInMillis();
+    }
+
+    @Test
+    public void opensAtNineThirtyNewYorkTime() {
+        // 9:30am EST is 14:30 UTC, and 9:30am EDT is 13:30 UTC.
+        assertEquals(utc(BEFORE_SPRING, 14, 30), NotPostedCache.getExpectedPostTime(BEFORE_SPRING));
+        assertEquals(utc(AFTER_SPRING, 13, 30), NotPostedCache.getExpectedPostTime(AFTER_SPRING));
+        assertEquals(utc(BEFORE_FALL, 13, 30), NotPostedCache.getExpectedPostTime(BEFORE_FALL));
+        assertEquals(utc(AFTER_FALL, 14, 30), NotPostedCache.getExpectedPostTime(AFTER_FALL));
+    }
+
+    @Test
+    public void beforeTheOpenSticksUntilTheOpen() {
+        NotPostedCache cache = new NotPostedCache();
+        long open = NotPostedCache.getExpectedPostTime(BEFORE_SPRING);
+
+        // Asked at 6:30am, so there's no point asking again until 9:30am, no
+        // matter how long the retry is.
+        cache.markNotPosted(BEFORE_SPRING, open - 3 * HOUR);
+        assertTrue(cache.isNotPosted(BEFORE_SPRING, open - 3 * HOUR + 10 * MINUTE));
+        assertTrue(cache.isNotPosted(BEFORE_SPRING, open - 1));
+        assertFalse(cache.isNotPosted(BEFORE_SPRING, open));
+
+        // Once it's expired, it's gone, even if the clock goes backwards.
+        assertFalse(cache.isNotPosted(BEFORE_SPRING, open - 1));
+        assertEquals(2, cache.getHits());
+
+        // Other dates were never involved.
+        assertFalse(cache.isNotPosted(AFTER_SPRING, open - 1));
+    }
+
+    @Test
+    public void beforeTheOpenAcrossDaylightSaving() {
+        NotPostedCache cache = new NotPostedCache();
+
+        // 9:00am EDT on the first Monday of daylight saving time is 13:00
+        // UTC.  If the open were still figured in EST, this would stick for
+        // another hour past when it should.
+        cache.markNotPosted(AFTER_SPRING, utc(AFTER_SPRING, 13, 0));
+        assertTrue(cache.isNotPosted(AFTER_SPRING, utc(AFTER_SPRING, 13, 29)));
+        assertFalse(cache.isNotPosted(AFTER_SPRING, utc(AFTER_SPRING, 13, 30)));
+
+        // And the other way around in the fall: 9:00am EST is 14:00 UTC,
+        // which would already be past the open in EDT.
+        cache.markNotPosted(AFTER_FALL, utc(AFTER_FALL, 14, 0));
+        assertTrue(cache.isNotPosted(AFTER_FALL, utc(AFTER_FALL, 14, 29)));
+        assertFalse(cache.isNotPosted(AFTER_FALL, utc(AFTER_FALL, 14, 30)));
+    }
+
+    @Test
+    public void afterTheOpenOnlySticksForAMoment() {
+        NotPostedCache cache = new NotPostedCache();
+        long open = NotPostedCache.getExpectedPostTime(BEFORE_FALL);
+        long asked = open + 10 * MINUTE;
+
+        cache.markNotPosted(BEFORE_FALL, asked);
+        assertTrue(cache.isNotPosted(BEFORE_FALL, asked + NotPostedCache.DEFAULT_RETRY_AFTER_OPEN_MS - 1));
+        assertFalse(cache.isNotPosted(BEFORE_FALL, asked + NotPostedCache.DEFAULT_RETRY_AFTER_OPEN_MS));
+
+        // A shorter retry applies to anything marked after it's set.
+        cache.setRetryAfterOpen(30 * 1000);
+        cache.markNotPosted(BEFORE_FALL, asked);
+        assertTrue(cache.isNotPosted(BEFORE_FALL, asked + 29 * 1000));
+        assertFalse(cache.isNotPosted(BEFORE_FALL, asked + 30 * 1000));
+
+        // Negative makes no sense, so that's just "don't stick at all".
+        cache.setRetryAfterOpen(-5);
+        cache.markNotPosted(BEFORE_FALL, asked);
+        assertFalse(cache.isNotPosted(BEFORE_FALL, asked));
+    }
+
+    @Test
+    public void removeAndClearForget() {
+        NotPostedCache cache = new NotPostedCache();
+        long now = NotPostedCache.getExpectedPostTime(BEFORE_SPRING) - HOUR;
+
+        cache.markNotPosted(BEFORE_SPRING, now);
+        cache.markNotPosted(AFTER_SPRING, now);
+
+        // The stock showed up for one of them.
+        cache.remove(BEFORE_SPRING);
+        assertFalse(cache.isNotPosted(BEFORE_SPRING, now));
+        assertTrue(cache.isNotPosted(AFTER_SPRING, now));
+
+        cache.clear();
+        assertFalse(cache.isNotPosted(AFTER_SPRING, now));
+
+        // Removing something that isn't there is fine, too.
+        cache.remove(BEFORE_FALL);
+        assertFalse(cache.isNotPosted(BEFORE_FALL, now));
+    }
+}
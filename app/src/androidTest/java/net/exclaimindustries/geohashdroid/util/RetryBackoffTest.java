@@ -0,0 +1,61 @@
+/*
+ * RetryBackoffTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link RetryBackoff}, making sure the delays double up to the limit
+ * and the jitter never takes them outside the half-to-whole range.
+ */
+public class RetryBackoffTest {
+    private static final long INITIAL = 15000;
+    private static final long MAX = 30 * 60 * 1000;
+
+    @Test
+    public void ceilingDoublesUpToTheMax() {
+        RetryBackoff backoff = new RetryBackoff(INITIAL, MAX, new Random(0));
+
+        assertEquals(INITIAL, backoff.getCeiling(0));
+        assertEquals(INITIAL * 2, backoff.getCeiling(1));
+        assertEquals(INITIAL * 4, backoff.getCeiling(2));
+        assertEquals(MAX, backoff.getCeiling(7));
+        assertEquals(MAX, backoff.getCeiling(63));
+        assertEquals(MAX, backoff.getCeiling(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void jitterStaysInRange() {
+        RetryBackoff backoff = new RetryBackoff(INITIAL, MAX, new Random(42));
+
+        for(int attempt = 0; attempt < 12; attempt++) {
+            long ceiling = backoff.getCeiling(attempt);
+            boolean varied = false;
+            long first = backoff.getDelay(attempt);
+
+            for(int i = 0; i < 100; i++) {
+                long delay = backoff.getDelay(attempt);
+                assertTrue("Delay " + delay + " was under half of " + ceiling, delay >= ceiling / 2);
+                assertTrue("Delay " + delay + " was over " + ceiling, delay <= ceiling);
+                if(delay != first) varied = true;
+            }
+
+            assertTrue("Delays for attempt " + attempt + " never varied", varied);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxCantBeUnderInitial() {
+        new RetryBackoff(INITIAL, INITIAL - 1, new Random());
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * StockArchiveTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.util.SparseArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link StockArchive}, making sure stocks come back out of the archive
+ * and the delta file exactly the way they went in, that a delta file with a
+ * half-written record at the end doesn't throw everything off, and that the
+ * delta file doesn't grow forever.
+ */
+public class StockArchiveTest {
+    // The xkcd example, plus the day before it.
+    private static final int DAY = EpochDay.of(2005, 5, 26);
+    private static final String STOCK = "10458.68";
+    private static final String PREVIOUS_STOCK = "10464.00";
+
+    private File mDelta;
+
+    @Before
+    public void setUp() throws IOException {
+        mDelta = File.createTempFile("stock_delta", ".bin");
+        assertTrue(mDelta.delete());
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mDelta.delete();
+    }
+
+    private static ByteBuffer makeArchive() throws IOException {
+        SparseArray<String> stocks = new SparseArray<>();
+        stocks.put(DAY - 1, PREVIOUS_STOCK);
+        stocks.put(DAY, STOCK);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StockArchive.writeArchive(stocks, out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    @Test
+    public void encodingIsLossless() {
+        String[] good = {"10458.68", "10464.00", "0.01", "9.90", "34600.38"};
+        for(String s : good) {
+            int encoded = StockArchive.encode(s);
+            assertNotEquals(s + " should've been encodable", 0, encoded);
+            assertEquals(s, StockValue.toString(StockArchive.decode(encoded)));
+        }
+
+        // None of these would come back out the same way.
+        String[] bad = {"10458.6", "10458.680", "10458", "010458.68", "-1.00", "1e4.00", "", " 1.00"};
+        for(String s : bad) {
+            assertEquals("\"" + s + "\" shouldn't have been encodable", 0, StockArchive.encode(s));
+        }
+    }
+
+    @Test
+    public void archiveLookups() throws IOException {
+        StockArchive archive = new StockArchive(makeArchive(), mDelta);
+
+        assertEquals(2, archive.getArchivedDayCount());
+        assertEquals(STOCK, archive.getStock(DAY));
+        assertEquals(PREVIOUS_STOCK, archive.getStock(DAY - 1));
+        assertNull(archive.getStock(DAY - 2));
+        assertNull(archive.getStock(DAY + 1));
+    }
+
+    @Test
+    public void garbageArchiveIsIgnored() {
+        StockArchive archive = new StockArchive(ByteBuffer.wrap("This isn't an archive".getBytes()), mDelta);
+
+        assertEquals(0, archive.getArchivedDayCount());
+        assertNull(archive.getStock(DAY));
+    }
+
+    @Test
+    public void deltaSurvivesReopening() throws IOException {
+        StockArchive archive = new StockArchive(makeArchive(), mDelta);
+
+        // Already in the archive, so that one shouldn't go in the delta.
+        archive.append(DAY, STOCK);
+        archive.append(DAY + 1, "10542.55");
+        archive.append(DAY + 2, "10542.5");
+        assertEquals(1, archive.getDeltaSize());
+        assertEquals(8, mDelta.length());
+
+        StockArchive reopened = new StockArchive(null, mDelta);
+        assertEquals("10542.55", reopened.getStock(DAY + 1));
+        assertNull(reopened.getStock(DAY + 2));
+        assertNull(reopened.getStock(DAY));
+    }
+
+    @Test
+    public void partialDeltaRecordIsTrimmed() throws IOException {
+        new StockArchive(null, mDelta).append(DAY, STOCK);
+
+        // Pretend the app died halfway through the next write.
+        try(FileOutputStream out = new FileOutputStream(mDelta, true)) {
+            out.write(new byte[] {1, 2, 3});
+        }
+
+        StockArchive reopened = new StockArchive(null, mDelta);
+        assertEquals(STOCK, reopened.getStock(DAY));
+        assertEquals(8, mDelta.length());
+
+        reopened.append(DAY + 1, "10542.55");
+        assertEquals("10542.55", new StockArchive(null, mDelta).getStock(DAY + 1));
+    }
+
+    @Test
+    public void writeArchiveRoundTrip() throws IOException {
+        // Thirty-odd years of weekdays, with some holes, a few stocks that
+        // can't be stored exactly, and nothing at all on either end of it.
+        Random random = new Random(20050526);
+        SparseArray<String> stocks = new SparseArray<>();
+        int first = EpochDay.of(1990, 1, 2);
+        int last = EpochDay.of(2021, 12, 31);
+
+        for(int day = first; day <= last; day++) {
+            if(EpochDay.clampWeekend(day) != day || random.nextInt(50) == 0) continue;
+
+            int cents = 100000 + random.nextInt(3500000);
+            String stock = (cents / 100) + "." + String.format(Locale.US, "%02d", cents % 100);
+            if(random.nextInt(200) == 0) stock = stock.substring(0, stock.length() - 1);
+            stocks.put(day, stock);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StockArchive.writeArchive(stocks, out);
+        StockArchive archive = new StockArchive(ByteBuffer.wrap(out.toByteArray()), mDelta);
+
+        assertEquals(stocks.keyAt(stocks.size() - 1) - stocks.keyAt(0) + 1, archive.getArchivedDayCount());
+        assertNull(archive.getStock(first - 1));
+        assertNull(archive.getStock(last + 1));
+
+        for(int day = first; day <= last; day++) {
+            String stock = stocks.get(day);
+            String which = EpochDay.toHyphenatedString(day);
+
+            if(stock == null || StockArchive.encode(stock) == 0)
+                assertNull(which, archive.getStock(day));
+            else
+                assertEquals(which, stock, archive.getStock(day));
+        }
+
+        // An empty one should still read back, just with nothing in it.
+        out.reset();
+        StockArchive.writeArchive(new SparseArray<>(), out);
+        archive = new StockArchive(ByteBuffer.wrap(out.toByteArray()), mDelta);
+        assertEquals(0, archive.getArchivedDayCount());
+        assertNull(archive.getStock(DAY));
+    }
+
+    @Test
+    public void deltaIsCapped() throws IOException {
+        StockArchive archive = new StockArchive(null, mDelta);
+        int count = StockArchive.MAX_DELTA_SIZE + 1;
+
+        for(int i = 0; i < count; i++)
+            archive.append(DAY + i, STOCK);
+
+        // Going over the limit should've cut it back, oldest first, both in
+        // memory and on disk.
+        int kept = archive.getDeltaSize();
+        assertTrue(kept <= StockArchive.MAX_DELTA_SIZE);
+        assertEquals(kept * 8L, mDelta.length());
+        assertNull(archive.getStock(DAY));
+        assertEquals(STOCK, archive.getStock(DAY + count - 1));
+        assertEquals(STOCK, archive.getStock(DAY + count - kept));
+        assertNull(archive.getStock(DAY + count - kept - 1));
+
+        StockArchive reopened = new StockArchive(null, mDelta);
+        assertEquals(kept, reopened.getDeltaSize());
+        assertEquals(STOCK, reopened.getStock(DAY + count - 1));
+        assertNull(reopened.getStock(DAY));
+    }
+
+    @Test
+    public void oversizedDeltaIsCutOnOpen() throws IOException {
+        // Say an older version wrote way more than the limit.
+        int count = StockArchive.MAX_DELTA_SIZE + 100;
+        ByteBuffer buf = ByteBuffer.allocate(count * 8);
+        for(int i = 0; i < count; i++)
+            buf.putInt(DAY + i).putInt(StockArchive.encode(STOCK));
+        try(FileOutputStream out = new FileOutputStream(mDelta)) {
+            out.write(buf.array());
+        }
+
+        StockArchive archive = new StockArchive(null, mDelta);
+        assertEquals(StockArchive.MAX_DELTA_SIZE, archive.getDeltaSize());
+        assertEquals(StockArchive.MAX_DELTA_SIZE * 8L, mDelta.length());
+        assertNull(archive.getStock(DAY + 99));
+        assertEquals(STOCK, archive.getStock(DAY + 100));
+    }
+
+    @Test
+    public void archivedDeltaEntriesArePruned() throws IOException {
+        // Fetched before the archive knew about them...
+        StockArchive archive = new StockArchive(null, mDelta);
+        archive.append(DAY - 1, PREVIOUS_STOCK);
+        archive.append(DAY, STOCK);
+        archive.append(DAY + 1, "10542.55");
+        assertEquals(24, mDelta.length());
+
+        // ...and then an update came along with a newer archive.
+        StockArchive updated = new StockArchive(makeArchive(), mDelta);
+        assertEquals(1, updated.getDeltaSize());
+        assertEquals(8, mDelta.length());
+        assertEquals(STOCK, updated.getStock(DAY));
+        assertEquals("10542.55", updated.getStock(DAY + 1));
+    }
+}
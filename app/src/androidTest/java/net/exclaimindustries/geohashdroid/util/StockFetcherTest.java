@@ -0,0 +1,468 @@
+/*
+ * StockFetcherTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cz.msebera.android.httpclient.client.config.RequestConfig;
+import cz.msebera.android.httpclient.impl.client.CloseableHttpClient;
+import cz.msebera.android.httpclient.impl.client.HttpClients;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link StockFetcher} against stub stock servers running on this very
+ * device, each of which can be told to take its time or give a bad answer.
+ * This makes sure a slow server gets hedged around, a fast one doesn't, and
+ * that the right error comes back when nobody has the stock.  It also uses
+ * stub sources that never touch the network at all to check that the fastest
+ * source gets asked first and a failing one gets benched.
+ */
+public class StockFetcherTest {
+    // A Wednesday, for no particular reason.
+    private static final int DAY = EpochDay.of(2021, 6, 2);
+    private static final String STOCK = "34600.38";
+
+    // Timeouts for the client.  Long enough that a "slow" server won't time
+    // out on its own, so if we get an answer quickly, it's because of hedging.
+    private static final int TIMEOUT_MS = 10000;
+    private static final long SLOW_MS = 4000;
+
+    /**
+     * A tiny HTTP server that answers every request the same way, after
+     * waiting however long it's told to.  It also remembers what paths it was
+     * asked for.
+     */
+    private static class StubServer implements Runnable {
+        private final ServerSocket mSocket;
+        private final int mStatus;
+        private final String mBody;
+        private final long mLatencyMs;
+        private final Thread mThread;
+
+        final AtomicInteger requests = new AtomicInteger();
+        final List<String> paths = new ArrayList<>();
+
+        StubServer(int status, String body, long latencyMs) throws IOException {
+            mSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            mStatus = status;
+            mBody = body;
+            mLatencyMs = latencyMs;
+            mThread = new Thread(this, "StubServer");
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+
+        String getTemplate() {
+            return "http://127.0.0.1:" + mSocket.getLocalPort() + "/djia/%Y/%m/%d";
+        }
+
+        @Override
+        public void run() {
+            while(!mSocket.isClosed()) {
+                final Socket client;
+                try {
+                    client = mSocket.accept();
+                } catch(IOException ioe) {
+                    return;
+                }
+
+                // Each connection gets its own thread, so one slow answer
+                // doesn't hold up anything else.
+                Thread t = new Thread(() -> answer(client));
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+
+        private void answer(Socket client) {
+            try(Socket s = client) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+                String requestLine = in.readLine();
+                if(requestLine == null) return;
+
+                // Skip the rest of the headers.
+                String line;
+                while((line = in.readLine()) != null && !line.isEmpty()) { }
+
+                requests.incrementAndGet();
+                synchronized(paths) {
+                    paths.add(requestLine.split(" ")[1]);
+                }
+
+                if(mLatencyMs > 0) Thread.sleep(mLatencyMs);
+
+                byte[] body = mBody.getBytes(StandardCharsets.US_ASCII);
+                OutputStream out = s.getOutputStream();
+                out.write(("HTTP/1.1 " + mStatus + " Whatever\r\n"
+                        + "Content-Type: text/plain\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.flush();
+            } catch(IOException | InterruptedException e) {
+                // The client probably hung up on us, which is what's supposed
+                // to happen to the loser.
+            }
+        }
+
+        void stop() {
+            try {
+                mSocket.close();
+            } catch(IOException ioe) {
+                // Oh well.
+            }
+        }
+    }
+
+    private final List<StubServer> mServers = new ArrayList<>();
+    private CloseableHttpClient mClient;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mClient = HttpClients.custom()
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(TIMEOUT_MS)
+                        .setSocketTimeout(TIMEOUT_MS)
+                        .build())
+                .build();
+        mExecutor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for(StubServer s : mServers) s.stop();
+        mServers.clear();
+        mExecutor.shutdownNow();
+        mClient.close();
+    }
+
+    private StubServer makeServer(int status, String body, long latencyMs) throws IOException {
+        StubServer s = new StubServer(status, body, latencyMs);
+        mServers.add(s);
+        return s;
+    }
+
+    /**
+     * A StockSource that doesn't go near the network at all.  It fails the
+     * first however-many times it's asked, then answers after however long
+     * it's told to take.
+     */
+    private static class StubSource implements StockSource {
+        private final String mName;
+        private final long mLatencyMs;
+        private final AtomicInteger mFailuresLeft;
+
+        final AtomicInteger requests = new AtomicInteger();
+
+        StubSource(String name, long latencyMs, int failures) {
+            mName = name;
+            mLatencyMs = latencyMs;
+            mFailuresLeft = new AtomicInteger(failures);
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @NonNull
+        @Override
+        public Request makeRequest(int sDay) {
+            return new Request() {
+                @NonNull
+                @Override
+                public String execute() throws IOException {
+                    requests.incrementAndGet();
+                    if(mFailuresLeft.getAndDecrement() > 0)
+                        throw new IOException(mName + " is having a bad day");
+
+                    try {
+                        if(mLatencyMs > 0) Thread.sleep(mLatencyMs);
+                    } catch(InterruptedException ie) {
+                        throw new InterruptedIOException();
+                    }
+                    return STOCK;
+                }
+
+                @Override
+                public void cancel() {
+                    // The executor interrupts us, that's good enough.
+                }
+            };
+        }
+    }
+
+    private StockFetcher makeFetcher(long hedgeDelayMs, StubServer... servers) {
+        // Every stub server's on the same host, so the default names won't do.
+        List<StockSource> sources = new ArrayList<>();
+        for(int i = 0; i < servers.length; i++)
+            sources.add(new HttpStockSource("stub" + i, servers[i].getTemplate(), mClient));
+        return new StockFetcher(sources, mExecutor, hedgeDelayMs);
+    }
+
+    private StockFetcher makeFetcher(long hedgeDelayMs, StubSource... sources) {
+        return new StockFetcher(Arrays.asList(sources), mExecutor, hedgeDelayMs);
+    }
+
+    private static StockFetcher.MirrorHealth getHealth(StockFetcher fetcher, String name) {
+        for(StockFetcher.MirrorHealth h : fetcher.getMirrorHealth()) {
+            if(h.name.equals(name)) return h;
+        }
+        fail("There's no source named " + name + "!");
+        return null;
+    }
+
+    @Test
+    public void fillsInTheDate() throws IOException {
+        StubServer primary = makeServer(200, STOCK, 0);
+
+        assertEquals(STOCK, makeFetcher(StockFetcher.HEDGE_NEVER, primary).fetch(DAY));
+        assertEquals("/djia/2021/06/02", primary.paths.get(0));
+    }
+
+    @Test
+    public void fastPrimaryIsNotHedged() throws IOException {
+        StubServer primary = makeServer(200, STOCK, 0);
+        StubServer secondary = makeServer(200, "1.0", 0);
+
+        assertEquals(STOCK, makeFetcher(1000, primary, secondary).fetch(DAY));
+        assertEquals(1, primary.requests.get());
+        assertEquals(0, secondary.requests.get());
+    }
+
+    @Test
+    public void slowPrimaryIsHedged() throws IOException {
+        StubServer primary = makeServer(200, "1.0", SLOW_MS);
+        StubServer secondary = makeServer(200, STOCK, 0);
+
+        long start = System.currentTimeMillis();
+        String result = makeFetcher(200, primary, secondary).fetch(DAY);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(STOCK, result);
+        assertEquals(1, secondary.requests.get());
+        assertTrue("Hedged fetch took " + elapsed + "ms", elapsed < SLOW_MS / 2);
+    }
+
+    @Test
+    public void zeroDelayAsksEveryoneAtOnce() throws IOException {
+        StubServer primary = makeServer(200, "1.0", SLOW_MS);
+        StubServer secondary = makeServer(200, STOCK, 300);
+
+        long start = System.currentTimeMillis();
+        String result = makeFetcher(0, primary, secondary).fetch(DAY);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(STOCK, result);
+        assertEquals(1, primary.requests.get());
+        assertTrue("Zero-delay fetch took " + elapsed + "ms", elapsed < SLOW_MS / 2);
+    }
+
+    @Test
+    public void neverHedgeWaitsOutTheFirstServer() throws IOException {
+        StubServer primary = makeServer(200, STOCK, 500);
+        StubServer secondary = makeServer(200, "1.0", 0);
+
+        assertEquals(STOCK, makeFetcher(StockFetcher.HEDGE_NEVER, primary, secondary).fetch(DAY));
+        assertEquals(0, secondary.requests.get());
+    }
+
+    @Test
+    public void failureMovesOnWithoutWaiting() throws IOException {
+        StubServer primary = makeServer(500, "Oops", 0);
+        StubServer secondary = makeServer(200, STOCK, 0);
+
+        long start = System.currentTimeMillis();
+        String result = makeFetcher(SLOW_MS, primary, secondary).fetch(DAY);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(STOCK, result);
+        assertTrue("Fetch after a failure took " + elapsed + "ms", elapsed < SLOW_MS / 2);
+    }
+
+    @Test
+    public void garbageIsNotAStock() throws IOException {
+        StubServer primary = makeServer(200, "<html>Not a stock</html>", 0);
+        StubServer secondary = makeServer(200, STOCK, 200);
+
+        assertEquals(STOCK, makeFetcher(0, primary, secondary).fetch(DAY));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void notPostedBeatsServerError() throws IOException {
+        StubServer primary = makeServer(404, "Not Found", 0);
+        StubServer secondary = makeServer(500, "Oops", 0);
+
+        makeFetcher(0, primary, secondary).fetch(DAY);
+    }
+
+    @Test
+    public void allServerErrorsIsAServerError() {
+        StubServer primary;
+        StubServer secondary;
+
+        try {
+            primary = makeServer(500, "Oops", 0);
+            secondary = makeServer(502, "Bad Gateway", 0);
+        } catch(IOException ioe) {
+            fail("Couldn't start the stub servers: " + ioe);
+            return;
+        }
+
+        try {
+            makeFetcher(100, primary, secondary).fetch(DAY);
+            fail("That shouldn't have found a stock!");
+        } catch(FileNotFoundException fnfe) {
+            fail("That should've been a server error, not a not-posted error!");
+        } catch(IOException ioe) {
+            // Good!
+        }
+
+        assertEquals(1, primary.requests.get());
+        assertEquals(1, secondary.requests.get());
+    }
+
+    @Test
+    public void failureDuringAHedgeMovesOnWithoutWaiting() throws IOException {
+        // The first one's slow enough to get hedged, the hedge fails right
+        // away, and the third should get asked then and there, not after
+        // another whole delay with the first one still going.
+        StubSource slow = new StubSource("slow", SLOW_MS, 0);
+        StubSource broken = new StubSource("broken", 0, Integer.MAX_VALUE);
+        StubSource fast = new StubSource("fast", 0, 0);
+        long delay = 500;
+
+        long start = System.currentTimeMillis();
+        String result = makeFetcher(delay, slow, broken, fast).fetch(DAY);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(STOCK, result);
+        assertEquals(1, broken.requests.get());
+        assertEquals(1, fast.requests.get());
+        assertTrue("Fetch after a failed hedge took " + elapsed + "ms", elapsed < delay * 2);
+    }
+
+    @Test
+    public void fasterSourceGetsAskedFirst() throws IOException {
+        StubSource slow = new StubSource("slow", 300, 0);
+        StubSource fast = new StubSource("fast", 0, 0);
+        StockFetcher fetcher = makeFetcher(StockFetcher.HEDGE_NEVER, slow, fast);
+
+        // Nobody knows anything yet, so the first one goes first, then the
+        // one nobody's asked yet.  After that, the fast one should win out.
+        fetcher.fetch(DAY);
+        fetcher.fetch(DAY);
+        assertEquals(1, slow.requests.get());
+        assertEquals(1, fast.requests.get());
+
+        for(int i = 0; i < 3; i++) fetcher.fetch(DAY);
+        assertEquals(1, slow.requests.get());
+        assertEquals(4, fast.requests.get());
+        assertTrue(getHealth(fetcher, "fast").latencyMs < getHealth(fetcher, "slow").latencyMs);
+    }
+
+    @Test
+    public void failingSourceGetsBenched() throws IOException {
+        StubSource broken = new StubSource("broken", 0, Integer.MAX_VALUE);
+        StubSource working = new StubSource("working", 100, 0);
+        // Zero delay asks both every time, so the broken one keeps getting
+        // asked even after it drops to second place.  The working one takes
+        // a moment, so the broken one's failure always comes in first.
+        StockFetcher fetcher = makeFetcher(0, broken, working);
+        fetcher.setCircuitBreaker(3, 60000);
+
+        for(int i = 0; i < 3; i++) assertEquals(STOCK, fetcher.fetch(DAY));
+        assertEquals(3, broken.requests.get());
+        assertEquals(StockFetcher.BreakerState.OPEN, getHealth(fetcher, "broken").state);
+
+        // Benched, so it shouldn't even get asked now.
+        fetcher.fetch(DAY);
+        assertEquals(3, broken.requests.get());
+        assertEquals(4, working.requests.get());
+    }
+
+    @Test
+    public void benchedSourceGetsAnotherChance() throws IOException, InterruptedException {
+        StubSource flaky = new StubSource("flaky", 0, 2);
+        StockFetcher fetcher = makeFetcher(StockFetcher.HEDGE_NEVER, flaky);
+        fetcher.setCircuitBreaker(2, 100);
+
+        for(int i = 0; i < 2; i++) {
+            try {
+                fetcher.fetch(DAY);
+                fail("That shouldn't have found a stock!");
+            } catch(IOException ioe) {
+                // Good!
+            }
+        }
+        assertEquals(StockFetcher.BreakerState.OPEN, getHealth(fetcher, "flaky").state);
+
+        // Once the cooldown's up, the trial request works, and it's back.
+        Thread.sleep(200);
+        assertEquals(STOCK, fetcher.fetch(DAY));
+        assertEquals(StockFetcher.BreakerState.CLOSED, getHealth(fetcher, "flaky").state);
+        assertEquals(0, getHealth(fetcher, "flaky").consecutiveFailures);
+    }
+
+    @Test
+    public void sourcesCanComeAndGo() throws IOException {
+        StubSource first = new StubSource("first", 0, 0);
+        StockFetcher fetcher = makeFetcher(StockFetcher.HEDGE_NEVER, first);
+
+        StubSource second = new StubSource("second", 0, 0);
+        fetcher.addSource(second);
+        assertEquals(2, fetcher.getSources().size());
+
+        try {
+            fetcher.addSource(new StubSource("second", 0, 0));
+            fail("Two sources with the same name shouldn't be allowed!");
+        } catch(IllegalArgumentException iae) {
+            // Good!
+        }
+
+        assertTrue(fetcher.removeSource("first"));
+        assertFalse(fetcher.removeSource("first"));
+
+        fetcher.fetch(DAY);
+        assertEquals(0, first.requests.get());
+        assertEquals(1, second.requests.get());
+
+        assertTrue(fetcher.removeSource("second"));
+        try {
+            fetcher.fetch(DAY);
+            fail("There shouldn't be anyone left to ask!");
+        } catch(IOException ioe) {
+            // Good!
+        }
+    }
+}
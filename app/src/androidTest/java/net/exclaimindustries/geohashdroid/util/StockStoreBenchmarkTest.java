@@ -0,0 +1,115 @@
+/*
+ * StockStoreBenchmarkTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.SparseLongArray;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks {@link StockStoreLog} against {@link StockStoreDatabase}: how
+ * long it takes to open each with anywhere from ten to a hundred thousand
+ * stocks in it, and how long a single write and a single read take.  The
+ * numbers go to logcat under the StockStoreBenchmarkTest tag; they depend far
+ * too much on the device to assert anything about them.
+ */
+public class StockStoreBenchmarkTest {
+    private static final String DEBUG_TAG = "StockStoreBenchmarkTest";
+    private static final String DATABASE_NAME = "stockstore_benchmark";
+    private static final int DAY = EpochDay.of(1928, 10, 1);
+    private static final int[] SIZES = {10, 100, 1000, 10000, 100000};
+    private static final int WRITES = 100;
+    private static final int READS = 1000;
+    private static final int BATCH_SIZE = 1000;
+
+    private interface Opener {
+        StockStore open() throws IOException;
+    }
+
+    private Context mContext;
+    private File mLogFile;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mLogFile = new File(mContext.getCacheDir(), "stockstore_benchmark.log");
+        deleteBoth();
+    }
+
+    @After
+    public void tearDown() {
+        deleteBoth();
+    }
+
+    private void deleteBoth() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        //noinspection ResultOfMethodCallIgnored
+        mLogFile.delete();
+    }
+
+    @Test
+    public void benchmarkEngines() throws IOException {
+        for(int size : SIZES) {
+            deleteBoth();
+            run("SQLite", size, () -> new StockStoreDatabase().init(mContext, DATABASE_NAME, true));
+            run("Log", size, () -> new StockStoreLog(mLogFile));
+        }
+    }
+
+    private void run(String name, int size, Opener opener) throws IOException {
+        StockStore store = opener.open();
+
+        // Fill it up first.  That's not what's being measured, so it goes in
+        // batches.
+        for(int start = 0; start < size; start += BATCH_SIZE) {
+            SparseLongArray stocks = new SparseLongArray();
+            for(int i = start; i < Math.min(size, start + BATCH_SIZE); i++)
+                stocks.append(DAY + i, StockValue.pack(1000000 + i, 2));
+            store.storeBatch(stocks, null);
+        }
+
+        // Then, some single writes, one at a time.
+        long writeStart = System.nanoTime();
+        for(int i = 0; i < WRITES; i++)
+            store.storeStock(DAY + size + i, StockValue.pack(2000000 + i, 2));
+        long writeNanos = System.nanoTime() - writeStart;
+
+        // Now, how long it takes to open back up with all that in there.
+        store.finish();
+        long openStart = System.nanoTime();
+        store = opener.open();
+        long openNanos = System.nanoTime() - openStart;
+
+        // And some reads, scattered all over.
+        Random random = new Random(size);
+        long readStart = System.nanoTime();
+        for(int i = 0; i < READS; i++) {
+            int day = DAY + random.nextInt(size);
+            assertNotEquals(StockValue.NONE, store.getStockValue(day));
+        }
+        long readNanos = System.nanoTime() - readStart;
+
+        store.finish();
+
+        Log.i(DEBUG_TAG, name + " with " + size + " entries: open " + (openNanos / 1000) + "us, write "
+                + (writeNanos / WRITES) + "ns each, read " + (readNanos / READS) + "ns each");
+    }
+}
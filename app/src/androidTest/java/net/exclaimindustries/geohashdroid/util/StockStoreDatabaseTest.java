@@ -0,0 +1,155 @@
+/*
+ * StockStoreDatabaseTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link StockStoreDatabase}'s batch writes and backfilling, and
+ * benchmarks the batch writes against storing things one at a time, with and
+ * without write-ahead logging.  The numbers go to logcat under the
+ * StockStoreDatabaseTest tag; they depend far too much on the device to
+ * assert anything about them.
+ */
+public class StockStoreDatabaseTest {
+    private static final String DEBUG_TAG = "StockStoreDatabaseTest";
+    private static final String DATABASE_NAME = "stockstore_test";
+    private static final int DAY = EpochDay.of(2005, 5, 26);
+    private static final int ROWS = 500;
+
+    private Context mContext;
+    private StockStoreDatabase mStore;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if(mStore != null) mStore.finish();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    private static List<Info> makeInfos() {
+        List<Info> infos = new ArrayList<>(ROWS);
+        for(int i = 0; i < ROWS; i++) {
+            infos.add(new Info(i / (double)ROWS, 0.5, null, EpochDay.toCalendar(DAY + i)));
+        }
+        return infos;
+    }
+
+    private static SparseLongArray makeStocks() {
+        SparseLongArray stocks = new SparseLongArray(ROWS);
+        for(int i = 0; i < ROWS; i++) {
+            stocks.append(DAY + i, StockValue.pack(1045868 + i, 2));
+        }
+        return stocks;
+    }
+
+    @Test
+    public void batchStoresEverythingOnce() {
+        mStore = new StockStoreDatabase().init(mContext, DATABASE_NAME, true);
+
+        List<Info> infos = makeInfos();
+        SparseLongArray stocks = makeStocks();
+        assertEquals(ROWS * 2, mStore.storeBatch(stocks, infos));
+
+        // Storing it all again shouldn't store anything.
+        assertEquals(0, mStore.storeBatch(stocks, infos));
+        assertEquals(0, mStore.storeBatch(null, null));
+
+        for(int i = 0; i < ROWS; i++) {
+            assertEquals(stocks.valueAt(i), mStore.getStockValue(stocks.keyAt(i)));
+
+            Info stored = mStore.getInfo(EpochDay.toCalendar(DAY + i), null);
+            assertNotNull(stored);
+            assertEquals(infos.get(i).getLatitudeHash(), stored.getLatitudeHash(), 0);
+            assertEquals(infos.get(i).getLongitudeHash(), stored.getLongitudeHash(), 0);
+        }
+    }
+
+    @Test
+    public void benchmarkInserts() {
+        for(boolean wal : new boolean[] { false, true }) {
+            for(boolean batch : new boolean[] { false, true }) {
+                mContext.deleteDatabase(DATABASE_NAME);
+                mStore = new StockStoreDatabase().init(mContext, DATABASE_NAME, wal);
+
+                List<Info> infos = makeInfos();
+                SparseLongArray stocks = makeStocks();
+
+                long start = System.nanoTime();
+                if(batch) {
+                    mStore.storeBatch(stocks, infos);
+                } else {
+                    for(int i = 0; i < ROWS; i++) {
+                        mStore.storeStock(stocks.keyAt(i), stocks.valueAt(i));
+                        mStore.storeInfo(infos.get(i));
+                    }
+                }
+                long elapsed = Math.max(1, System.nanoTime() - start);
+
+                Log.i(DEBUG_TAG, (wal ? "WAL" : "Rollback journal") + ", "
+                        + (batch ? "one batch" : "one at a time") + ": "
+                        + (ROWS * 2 * 1000000000L / elapsed) + " inserts/s");
+
+                // Whichever way it went in, it'd better all be there.
+                assertNotEquals(StockValue.NONE, mStore.getStockValue(DAY + ROWS - 1));
+
+                mStore.finish();
+                mStore = null;
+            }
+        }
+    }
+
+    @Test
+    public void backfillFlagsWhatWasAlreadyThere() {
+        mStore = new StockStoreDatabase().init(mContext, DATABASE_NAME, true);
+
+        // Looked up the ordinary way first...
+        mStore.storeStock(DAY, StockValue.parse("10458.68"));
+        mStore.storeStock(DAY + 1, StockValue.parse("10542.55"));
+
+        // ...then backfilled over the top of it.  The stocks already there
+        // stay as they were, but they're backfilled now.
+        SparseArray<String> backfill = new SparseArray<>();
+        backfill.append(DAY, "99999.99");
+        backfill.append(DAY + 2, "10500.00");
+        assertEquals(1, mStore.storeStocks(backfill));
+        assertEquals("10458.68", mStore.getStock(DAY));
+
+        // That's what'd get moved over if the engine got switched.
+        SparseLongArray backfilled = mStore.getBackfilledStockValues();
+        assertEquals(2, backfilled.size());
+        assertEquals(StockValue.parse("10458.68"), backfilled.get(DAY));
+        assertEquals(StockValue.parse("10500.00"), backfilled.get(DAY + 2));
+
+        // Nothing backfilled is ever too old, even if everything is.
+        mStore.compact(100, -60 * 60 * 1000);
+        assertEquals("10458.68", mStore.getStock(DAY));
+        assertEquals("10500.00", mStore.getStock(DAY + 2));
+        assertNull(mStore.getStock(DAY + 1));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * StockStoreLogTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link StockStoreLog}, making sure what goes in comes back out (even
+ * after it's closed and opened again), that a half-written record doesn't
+ * throw everything off, and that compaction keeps what it should.
+ */
+public class StockStoreLogTest {
+    // The xkcd example, and a few days around it.
+    private static final int DAY = EpochDay.of(2005, 5, 26);
+
+    private File mFile;
+    private StockStoreLog mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("stockstore", ".log");
+        assertTrue(mFile.delete());
+        mStore = new StockStoreLog(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mStore.finish();
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    private void reopen() throws IOException {
+        mStore.finish();
+        mStore = new StockStoreLog(mFile);
+    }
+
+    @Test
+    public void storesAndFindsEverything() throws IOException {
+        SparseLongArray stocks = new SparseLongArray();
+        List<Info> infos = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            stocks.append(DAY + i, StockValue.pack(1045868 + i, 2));
+            infos.add(new Info(i / 100.0, 0.25, null, EpochDay.toCalendar(DAY + i)));
+        }
+
+        assertEquals(200, mStore.storeBatch(stocks, infos));
+        assertEquals(0, mStore.storeBatch(stocks, infos));
+        mStore.storeStock(DAY, StockValue.parse("1.00"));
+        assertEquals(200, mStore.size());
+
+        reopen();
+        assertEquals(200, mStore.size());
+
+        for(int i = 0; i < 100; i++) {
+            assertEquals(stocks.valueAt(i), mStore.getStockValue(DAY + i));
+
+            Info stored = mStore.getInfo(EpochDay.toCalendar(DAY + i), null);
+            assertNotNull(stored);
+            assertEquals(i / 100.0, stored.getLatitudeHash(), 0);
+            assertEquals(0.25, stored.getLongitudeHash(), 0);
+        }
+
+        assertEquals(StockValue.NONE, mStore.getStockValue(DAY - 1));
+        assertNull(mStore.getInfo(EpochDay.toCalendar(DAY - 1), null));
+        assertEquals(10, mStore.getStockValues(DAY - 5, DAY + 9).size());
+        assertEquals("10458.68", mStore.getStock(DAY));
+    }
+
+    @Test
+    public void halfWrittenRecordIsChoppedOff() throws IOException {
+        mStore.storeStock(DAY, StockValue.parse("10458.68"));
+        mStore.storeStock(DAY + 1, StockValue.parse("10464.00"));
+        mStore.finish();
+
+        // Mangle the last byte of the second record, then tack half a record
+        // onto the end for good measure.
+        long goodLength;
+        try(RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            goodLength = raf.length() - 32;
+            raf.seek(raf.length() - 1);
+            raf.write(0x55);
+            raf.seek(raf.length());
+            raf.write(new byte[17]);
+        }
+
+        mStore = new StockStoreLog(mFile);
+        assertEquals(1, mStore.size());
+        assertEquals(goodLength, mFile.length());
+        assertEquals("10458.68", mStore.getStock(DAY));
+        assertNull(mStore.getStock(DAY + 1));
+
+        // And it should still take new records.
+        mStore.storeStock(DAY + 1, StockValue.parse("10464.00"));
+        reopen();
+        assertEquals("10464.00", mStore.getStock(DAY + 1));
+    }
+
+    @Test
+    public void compactionKeepsBackfilledAndMostRecent() throws IOException {
+        SparseArray<String> backfill = new SparseArray<>();
+        for(int i = 0; i < 3; i++) backfill.append(DAY - 10 + i, "1000" + i + ".00");
+        assertEquals(3, mStore.storeStocks(backfill));
+
+        for(int i = 0; i < 5; i++) mStore.storeStock(DAY + i, StockValue.pack(1045868 + i, 2));
+
+        // Everything was used in the same minute, so the newest two stay.
+        assertEquals(3, mStore.compact(2, StockStore.DEFAULT_MAX_AGE_MS));
+        reopen();
+        assertEquals(5, mStore.size());
+        assertEquals(StockValue.NONE, mStore.getStockValue(DAY + 2));
+        assertNotEquals(StockValue.NONE, mStore.getStockValue(DAY + 3));
+        assertNotEquals(StockValue.NONE, mStore.getStockValue(DAY + 4));
+
+        // Anything not backfilled is too old if the cutoff's in the future.
+        assertEquals(2, mStore.compact(100, -60 * 60 * 1000));
+        reopen();
+        assertEquals(3, mStore.size());
+        assertEquals("10000.00", mStore.getStock(DAY - 10));
+
+        assertTrue(mStore.deleteCache());
+        assertEquals(0, mStore.size());
+        reopen();
+        assertEquals(0, mStore.size());
+    }
+
+    @Test
+    public void backfillFlagsWhatWasAlreadyThere() throws IOException {
+        // Looked up the ordinary way first...
+        mStore.storeStock(DAY, StockValue.parse("10458.68"));
+        mStore.storeStock(DAY + 1, StockValue.parse("10542.55"));
+
+        // ...then backfilled over the top of it.  The stocks already there
+        // stay as they were, but they're backfilled now.
+        SparseArray<String> backfill = new SparseArray<>();
+        backfill.append(DAY, "99999.99");
+        backfill.append(DAY + 2, "10500.00");
+        assertEquals(1, mStore.storeStocks(backfill));
+        assertEquals("10458.68", mStore.getStock(DAY));
+
+        // That's what'd get moved over if the engine got switched.
+        SparseLongArray backfilled = mStore.getBackfilledStockValues();
+        assertEquals(2, backfilled.size());
+        assertEquals(StockValue.parse("10458.68"), backfilled.get(DAY));
+        assertEquals(StockValue.parse("10500.00"), backfilled.get(DAY + 2));
+
+        // Nothing backfilled is ever too old, even if everything is.
+        assertEquals(1, mStore.compact(100, -60 * 60 * 1000));
+        assertEquals("10458.68", mStore.getStock(DAY));
+        assertEquals("10500.00", mStore.getStock(DAY + 2));
+        assertNull(mStore.getStock(DAY + 1));
+
+        // And that should all have made it to the file.
+        reopen();
+        assertEquals(2, mStore.size());
+        assertEquals(0, mStore.compact(100, -60 * 60 * 1000));
+        assertEquals("10458.68", mStore.getStock(DAY));
+
+        // Flagging it before compaction ever gets to it has to survive a
+        // reopen, too.
+        mStore.storeStock(DAY + 3, StockValue.parse("10600.00"));
+        SparseArray<String> again = new SparseArray<>();
+        again.append(DAY + 3, "10600.00");
+        assertEquals(0, mStore.storeStocks(again));
+        reopen();
+        assertEquals(0, mStore.compact(100, -60 * 60 * 1000));
+        assertEquals("10600.00", mStore.getStock(DAY + 3));
+    }
+}
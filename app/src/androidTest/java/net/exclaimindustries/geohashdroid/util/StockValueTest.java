@@ -0,0 +1,59 @@
+/*
+ * StockValueTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link StockValue}, making sure every stock that can be packed comes
+ * back out as the exact same text, and that anything that wouldn't doesn't get
+ * packed in the first place.
+ */
+public class StockValueTest {
+    @Test
+    public void packingIsLossless() {
+        String[] good = {"10458.68", "10464.00", "10458.6", "10458.680", "10458",
+                "0.01", "0.5", "9.90", "34600.38", "1.0", "7"};
+        for(String s : good) {
+            long packed = StockValue.parse(s);
+            assertNotEquals(s + " should've been packable", StockValue.NONE, packed);
+            assertEquals(s, StockValue.toString(packed));
+            assertEquals(s.length(), StockValue.getLength(packed));
+
+            // writeAscii should put exactly those bytes where it's told to.
+            byte[] buf = new byte[s.length() + 2];
+            assertEquals(s.length() + 1, StockValue.writeAscii(packed, buf, 1));
+            assertEquals(s, new String(buf, 1, s.length(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void nonCanonicalIsRejected() {
+        // None of these would come back out the same way (or are stocks).
+        String[] bad = {"", ".", "1.", ".5", "010458.68", "00.5", "-1.00", "+1.00",
+                "1e4", "1.0.0", " 1.00", "1.00 ", "10458.68\n", "<html>Not a stock</html>",
+                "1.0000000000000000", "99999999999999999999"};
+        for(String s : bad) {
+            assertEquals("\"" + s + "\" shouldn't have been packable", StockValue.NONE, StockValue.parse(s));
+        }
+    }
+
+    @Test
+    public void sameValueDifferentTextIsDifferent() {
+        // Same number, different hash, so they'd better not be equal.
+        assertNotEquals(StockValue.parse("10458.6"), StockValue.parse("10458.60"));
+        assertEquals(StockValue.parse("10458.60"), StockValue.pack(1045860, 2));
+        assertEquals(1045860, StockValue.getUnscaled(StockValue.parse("10458.60")));
+        assertEquals(2, StockValue.getScale(StockValue.parse("10458.60")));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * TradingCalendarTest.java
+ * Copyright (C) 2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+
+package net.exclaimindustries.geohashdroid.util;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * Tests {@link TradingCalendar} against a table of days the NYSE really was
+ * (and wasn't) closed.  That's the regular holidays, including the ones that
+ * moved because they landed on a weekend, Good Friday, MLK Day only from 1998
+ * on, Juneteenth only from 2022 on, and the one-offs from the market_closures
+ * resource.  Getting any of these wrong means hashing the wrong day's stock.
+ * </p>
+ *
+ * <p>
+ * It also makes sure {@link EpochDay} gets dates there and back again the
+ * same way GregorianCalendar does, since everything in here leans on that.
+ * </p>
+ */
+public class TradingCalendarTest {
+    // Weekdays the NYSE was closed, and why.
+    private static final String[][] CLOSED = {
+            {"2005-05-30", "Memorial Day"},
+            {"2010-07-05", "Independence Day, observed Monday"},
+            {"2015-07-03", "Independence Day, observed Friday"},
+            {"2004-12-24", "Christmas, observed Friday"},
+            {"2022-12-26", "Christmas, observed Monday"},
+            {"2017-01-02", "New Year's Day, observed Monday"},
+            {"2000-04-21", "Good Friday"},
+            {"2008-03-21", "Good Friday"},
+            {"2019-04-19", "Good Friday"},
+            {"2024-03-29", "Good Friday"},
+            {"1998-01-19", "the first MLK Day"},
+            {"2021-01-18", "MLK Day"},
+            {"2020-02-17", "Presidents' Day"},
+            {"2022-06-20", "the first Juneteenth, observed Monday"},
+            {"2023-06-19", "Juneteenth"},
+            {"2019-09-02", "Labor Day"},
+            {"1999-11-25", "Thanksgiving"},
+            {"2020-11-26", "Thanksgiving"},
+            {"1994-04-27", "Nixon's funeral"},
+            {"2001-09-11", "September 11"},
+            {"2001-09-14", "September 11"},
+            {"2004-06-11", "Reagan's funeral"},
+            {"2007-01-02", "Ford's funeral"},
+            {"2012-10-29", "Hurricane Sandy"},
+            {"2012-10-30", "Hurricane Sandy"},
+            {"2018-12-05", "Bush's funeral"},
+    };
+
+    // Weekdays the NYSE was open, even though something nearby might make you
+    // think otherwise.
+    private static final String[][] OPEN = {
+            {"2005-05-26", "the xkcd example"},
+            {"1997-01-20", "MLK Day, but before 1998"},
+            {"2021-06-18", "Juneteenth would've been observed, but before 2022"},
+            {"2010-12-31", "New Year's Day is Saturday, but that's next year"},
+            {"2021-12-31", "New Year's Day is Saturday, but that's next year"},
+            {"2020-11-27", "the day after Thanksgiving"},
+            {"2001-09-17", "reopening after September 11"},
+            {"2012-10-31", "reopening after Hurricane Sandy"},
+            {"2008-03-24", "Easter Monday"},
+            {"2019-12-24", "Christmas Eve"},
+    };
+
+    // Days and the last trading day on or before them.
+    private static final String[][] LAST_TRADING = {
+            {"2005-05-26", "2005-05-26"},
+            {"2005-05-28", "2005-05-27"},
+            {"2005-05-30", "2005-05-27"},
+            {"2010-07-04", "2010-07-02"},
+            {"2010-07-05", "2010-07-02"},
+            {"2008-03-21", "2008-03-20"},
+            {"2001-09-14", "2001-09-10"},
+            {"2001-09-16", "2001-09-10"},
+            {"2012-10-30", "2012-10-26"},
+            {"2022-12-26", "2022-12-23"},
+            {"2017-01-02", "2016-12-30"},
+            {"1998-01-19", "1998-01-16"},
+    };
+
+    @Before
+    public void setUp() {
+        TradingCalendar.loadClosures(ApplicationProvider.getApplicationContext());
+    }
+
+    private static int parse(String date) {
+        return EpochDay.of(Integer.parseInt(date.substring(0, 4)),
+                Integer.parseInt(date.substring(5, 7)),
+                Integer.parseInt(date.substring(8, 10)));
+    }
+
+    @Test
+    public void knownClosures() {
+        for(String[] row : CLOSED) {
+            int day = parse(row[0]);
+            assertEquals(row[0] + " should be a weekday", day, EpochDay.clampWeekend(day));
+            assertFalse(row[0] + " (" + row[1] + ") should be closed", TradingCalendar.isTradingDay(day));
+        }
+    }
+
+    @Test
+    public void knownOpenings() {
+        for(String[] row : OPEN) {
+            assertTrue(row[0] + " (" + row[1] + ") should be open", TradingCalendar.isTradingDay(parse(row[0])));
+        }
+    }
+
+    @Test
+    public void lastTradingDays() {
+        for(String[] row : LAST_TRADING) {
+            assertEquals(row[0], row[1], EpochDay.toHyphenatedString(TradingCalendar.getLastTradingDay(parse(row[0]))));
+        }
+    }
+
+    @Test
+    public void outsideTheTableIsJustWeekends() {
+        // 1985-12-25 was a Wednesday, and 2100-01-02 is a Saturday.
+        assertEquals(parse("1985-12-25"), TradingCalendar.getLastTradingDay(parse("1985-12-25")));
+        assertEquals(parse("2100-01-01"), TradingCalendar.getLastTradingDay(parse("2100-01-02")));
+    }
+
+    @Test
+    public void neverGoesBackTooFar() {
+        // The longest the NYSE has been closed since 1990 is September 11,
+        // which with the weekend before and after is still under a week.
+        for(int day = parse("1990-01-01"); day <= parse("2099-12-31"); day++) {
+            int last = TradingCalendar.getLastTradingDay(day);
+            assertTrue(EpochDay.toHyphenatedString(day), last <= day && day - last < 7);
+            assertTrue(EpochDay.toHyphenatedString(day), TradingCalendar.isTradingDay(last));
+        }
+    }
+
+    @Test
+    public void epochDaysRoundTrip() {
+        // Every day from 1900 through 2100, checked against GregorianCalendar.
+        Calendar cal = new GregorianCalendar(1900, Calendar.JANUARY, 1);
+        int day = EpochDay.of(1900, 1, 1);
+
+        while(cal.get(Calendar.YEAR) <= 2100) {
+            int year = cal.get(Calendar.YEAR);
+            int month = cal.get(Calendar.MONTH) + 1;
+            int dom = cal.get(Calendar.DAY_OF_MONTH);
+            String which = year + "-" + month + "-" + dom;
+
+            assertEquals(which, day, EpochDay.of(year, month, dom));
+            assertEquals(which, day, EpochDay.fromCalendar(cal));
+            assertEquals(which, year, EpochDay.getYear(day));
+            assertEquals(which, month, EpochDay.getMonth(day));
+            assertEquals(which, dom, EpochDay.getDayOfMonth(day));
+            assertEquals(which, cal.get(Calendar.DAY_OF_WEEK), EpochDay.getDayOfWeek(day));
+            assertEquals(which, year * 10000 + month * 100 + dom, EpochDay.getDateKey(day));
+            assertEquals(which, day, EpochDay.fromDateKey(EpochDay.getDateKey(day)));
+            assertEquals(which, day, EpochDay.fromCalendar(EpochDay.toCalendar(day)));
+            assertEquals(which, day, parse(EpochDay.toHyphenatedString(day)));
+
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+            day++;
+        }
+
+        assertEquals(0, EpochDay.of(1970, 1, 1));
+    }
+}
@@ -12,12 +12,23 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.BlockJUnit4ClassRunner;
 
+import java.util.Locale;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 
 /**
- * This tests {@link HexFraction}.  At present, this just runs down a series of
- * sixteen tests, each of which is a single repeated hexit sixteen times.
- * Hopefully this breaks spectacularly if something's amiss.
+ * <p>
+ * This tests {@link HexFraction}.  First, this runs down a series of sixteen
+ * tests, each of which is a single repeated hexit sixteen times.  Hopefully
+ * this breaks spectacularly if something's amiss.
+ * </p>
+ *
+ * <p>
+ * After that, it makes sure the fast mode matches the BigDecimal mode down to
+ * the last bit.  That's a few million inputs, some random and some picked to
+ * land right on the rounding edges, so this one takes a while.
+ * </p>
  */
 @RunWith(BlockJUnit4ClassRunner.class)
 public class HexFractionTest {
@@ -100,4 +111,127 @@ public class HexFractionTest {
     public void calculatesAllFs() {
         assertEquals(1.0d, HexFraction.calculate("FFFFFFFFFFFFFFFF"), 0d);
     }
+
+    @Test
+    public void fastMatchesRepeatedHexits() {
+        for(char c : "0123456789abcdefABCDEF".toCharArray()) {
+            String s = new String(new char[16]).replace('\0', c);
+            assertSameDouble(s, HexFraction.calculate(s), HexFraction.calculateFast(s));
+        }
+    }
+
+    @Test
+    public void fastMatchesShortStrings() {
+        Random r = new Random(8675309L);
+
+        for(int len = 0; len <= 16; len++) {
+            for(int i = 0; i < 1000; i++) {
+                String s = randomHexits(r, len);
+                assertSameDouble(s, HexFraction.calculate(s), HexFraction.calculateFast(s));
+            }
+        }
+    }
+
+    @Test
+    public void fastMatchesRandomLongs() {
+        Random r = new Random(20080521L);
+
+        for(int i = 0; i < 1000000; i++) {
+            long bits = r.nextLong();
+            assertFastMatches(bits);
+        }
+    }
+
+    @Test
+    public void fastMatchesRoundingEdges() {
+        Random r = new Random(31337L);
+
+        // A double has 53 bits of mantissa, so anything with its top bit
+        // somewhere past 53 has to round something off.  For every possible
+        // top bit, run through every pattern of the twelve bits just below
+        // where the mantissa ends.  That covers exact ties, just-over and
+        // just-under ties, and the round-to-even cases, in both the "signed"
+        // and "unsigned" halves of the long.
+        for(int top = 63; top >= 0; top--) {
+            long topBit = 1L << top;
+            int dropped = Math.max(0, top - 52);
+
+            for(int pattern = 0; pattern < 4096; pattern++) {
+                long bits = topBit | (r.nextLong() & (topBit - 1));
+
+                if(dropped > 0) {
+                    int shift = Math.max(0, dropped - 12);
+                    long mask = ((1L << Math.min(12, dropped)) - 1) << shift;
+                    bits = (bits & ~mask) | (((long)pattern << shift) & mask);
+
+                    // Every so often, zero out everything below the pattern,
+                    // too, so we get honest-to-goodness ties.
+                    if((pattern & 1) == 0)
+                        bits &= ~((1L << shift) - 1);
+                }
+
+                assertFastMatches(bits);
+            }
+        }
+    }
+
+    @Test
+    public void fastMatchesExtremes() {
+        long[] extremes = {0L, 1L, 2L, -1L, -2L, Long.MAX_VALUE, Long.MIN_VALUE,
+                Long.MIN_VALUE + 1, 0xFFFFFFFFFFFFFC00L, 0xFFFFFFFFFFFFFBFFL,
+                0xFFFFFFFFFFFFF800L, 0x7FFFFFFFFFFFFE00L, 0x7FFFFFFFFFFFFDFFL,
+                0x0020000000000001L, 0x0020000000000003L};
+
+        for(long bits : extremes) {
+            assertFastMatches(bits);
+        }
+    }
+
+    @Test
+    public void fromBytesMatchesHexString() {
+        Random r = new Random(42L);
+        byte[] bytes = new byte[16];
+
+        for(int i = 0; i < 100000; i++) {
+            r.nextBytes(bytes);
+
+            StringBuilder sb = new StringBuilder();
+            for(byte b : bytes) {
+                sb.append(String.format(Locale.US, "%02x", b & 0xFF));
+            }
+            String hex = sb.toString();
+
+            assertSameDouble(hex, HexFraction.calculate(hex.substring(0, 16)), HexFraction.fromBytes(bytes, 0));
+            assertSameDouble(hex, HexFraction.calculate(hex.substring(16, 32)), HexFraction.fromBytes(bytes, 8));
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void fastRejectsNonHex() {
+        HexFraction.calculateFast("0123456789abcdeg");
+    }
+
+    private static void assertFastMatches(long bits) {
+        String s = String.format(Locale.US, "%016x", bits);
+        double expected = HexFraction.calculate(s);
+
+        assertSameDouble(s, expected, HexFraction.fromLong(bits));
+        assertSameDouble(s, expected, HexFraction.calculateFast(s));
+    }
+
+    private static void assertSameDouble(String input, double expected, double actual) {
+        // Comparing the raw bits means there's no wiggle room at all, not even
+        // a delta of zero.
+        assertEquals("Mismatch on " + input,
+                Double.doubleToRawLongBits(expected),
+                Double.doubleToRawLongBits(actual));
+    }
+
+    private static String randomHexits(Random r, int len) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < len; i++) {
+            sb.append(Character.forDigit(r.nextInt(16), 16));
+        }
+        return sb.toString();
+    }
 }
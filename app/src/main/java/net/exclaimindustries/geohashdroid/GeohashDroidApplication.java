@@ -0,0 +1,28 @@
+/*
+ * GeohashDroidApplication.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid;
+
+import android.app.Application;
+
+import net.exclaimindustries.geohashdroid.util.HashBuilder;
+
+/**
+ * The Application, which exists pretty much only to get the stock database
+ * opening as soon as the process starts, before CentralMap (or one of the
+ * workers) gets around to asking for a hashpoint.  See
+ * {@link HashBuilder#warmUp(android.content.Context)}.
+ */
+public class GeohashDroidApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // This goes off on its own thread, so it won't hold up anything here.
+        HashBuilder.warmUp(this);
+    }
+}
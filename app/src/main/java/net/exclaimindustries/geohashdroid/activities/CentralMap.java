@@ -23,6 +23,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.MenuItem;
@@ -69,10 +70,12 @@ import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -102,10 +105,21 @@ public class CentralMap
     private static final String STATE_WAS_GLOBALHASH = "globalhash";
     private static final String STATE_WAS_RESOLVING_CONNECTION_ERROR = "resolvingError";
     private static final String STATE_WERE_PERMISSIONS_DENIED = "permissionsDenied";
+
+    // Every stock request gets its own ID, even for the same date, so an
+    // answer to an older request can never be mistaken for the newest one.
+    // It's static so a CentralMap that got recreated (say, by rotating the
+    // screen) won't reuse an ID the old one has a StockWorker out on.
+    private static final AtomicLong mNextRequestId = new AtomicLong();
     private static final String STATE_LAST_GRATICULE = "lastGraticule";
     private static final String STATE_LAST_CALENDAR = "lastCalendar";
     private static final String STATE_LAST_MODE_BUNDLE = "lastModeBundle";
 
+    // The unique work name for stock requests from here.  A new request for
+    // this replaces whatever one was still going, since if the user's picked
+    // some other Graticule or date, the old one's useless.
+    private static final String STOCK_WORK_NAME = "net.exclaimindustries.geohashdroid.CENTRALMAP_STOCK";
+
     private static final int LOCATION_PERMISSION_REQUEST = 1;
 
     public static final String ACTION_START_CLOSEST_HASHPOINT = "net.exclaimindustries.geohashdroid.START_CLOSEST_HASHPOINT";
@@ -540,11 +554,20 @@ public class CentralMap
         private final static String DEBUG_TAG = "StockReceiver";
 
         // This allows us to NOT blast out responses if the current mode didn't
-        // request it.
-        private final Set<Long> mWaitingList;
+        // request it.  Each request ID maps to when it was requested, so we
+        // can tell how long it took to come back.
+        private final Map<Long, Long> mWaitingList;
+
+        // The request IDs the progress spinner is up for, each mapped to
+        // whether or not the user asked for it.  The spinner only comes down
+        // once the last of these comes back (or gets cancelled), so a quick
+        // answer to something else doesn't hide it while a network lookup is
+        // still going.
+        private final Map<Long, Boolean> mSpinningFor;
 
         public StockReceiver() {
-            mWaitingList = new HashSet<>();
+            mWaitingList = new HashMap<>();
+            mSpinningFor = new HashMap<>();
         }
 
         /**
@@ -554,7 +577,27 @@ public class CentralMap
          * @param id the request ID
          */
         public void addToWaitingList(long id) {
-            mWaitingList.add(id);
+            mWaitingList.put(id, SystemClock.elapsedRealtime());
+        }
+
+        /**
+         * Checks if the given ID is still on the waiting list.  It won't be if
+         * the answer already came in, or if something else superseded it.
+         *
+         * @param id the request ID
+         * @return true if it's still wanted
+         */
+        public boolean isWaitingFor(long id) {
+            return mWaitingList.containsKey(id);
+        }
+
+        /**
+         * Checks if there's anything on the waiting list at all.
+         *
+         * @return true if anything's still wanted
+         */
+        public boolean isWaiting() {
+            return !mWaitingList.isEmpty();
         }
 
         /**
@@ -566,21 +609,82 @@ public class CentralMap
             mWaitingList.clear();
         }
 
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            Log.d(DEBUG_TAG, "Stock has come in!");
+        /**
+         * Puts the progress spinner up for the given request ID, which is
+         * about to go off to StockWorker.
+         *
+         * @param id the request ID
+         * @param userInitiated true if the user asked for it (and thus it'll be
+         *                      cancelled if the user asks for something else)
+         */
+        public void showProgressFor(long id, boolean userInitiated) {
+            mSpinningFor.put(id, userInitiated);
+            mProgress.animate().translationY(0.0f).alpha(1.0f);
+        }
 
-            // Progress goes away!
+        /**
+         * Forgets about the spinner for anything the user asked for, since
+         * that's all been cancelled.  If that leaves nothing to spin for, the
+         * spinner comes down.
+         */
+        public void dropUserProgress() {
+            mSpinningFor.values().removeAll(Collections.singleton(true));
+            if(mSpinningFor.isEmpty()) hideProgress();
+        }
+
+        /**
+         * Takes the progress spinner down no matter what it was spinning for.
+         */
+        public void clearProgress() {
+            mSpinningFor.clear();
+            hideProgress();
+        }
+
+        private void hideProgress() {
             mProgress.animate().translationY(-mProgressHeight).alpha(0.0f);
+        }
 
+        @Override
+        public void onReceive(Context context, Intent intent) {
             Bundle bun = intent.getBundleExtra(StockWorker.EXTRA_STUFF);
             assert bun != null;
             bun.setClassLoader(getClassLoader());
 
+            handleResult(bun);
+        }
+
+        /**
+         * Deals with a stock result that didn't come in by broadcast, that
+         * is, one StockWorker answered in-process.  If the Activity's already
+         * gone, or nobody's waiting on it anymore, it gets dropped.  This
+         * won't take the progress spinner down, since the spinner only goes up
+         * for requests that go to StockWorker, and whatever it's spinning for
+         * is something else.
+         *
+         * @param bun the same Bundle that would've come in as
+         *            {@link StockWorker#EXTRA_STUFF}
+         */
+        public void deliver(@NonNull Bundle bun) {
+            if(isDestroyed() || !isWaitingFor(bun.getLong(StockWorker.EXTRA_REQUEST_ID, -1))) {
+                Log.d(DEBUG_TAG, "Got an in-process stock result nobody wants anymore, ignoring...");
+                return;
+            }
+
+            handleResult(bun);
+        }
+
+        private void handleResult(@NonNull Bundle bun) {
+            Log.d(DEBUG_TAG, "Stock has come in!");
+
             // A stock result arrives!  Let's get data!  That oughta tell us
             // whether or not we're even going to bother with it.
             int reqFlags = bun.getInt(StockWorker.EXTRA_REQUEST_FLAGS, 0);
             long reqId = bun.getLong(StockWorker.EXTRA_REQUEST_ID, -1);
+
+            // Progress goes away, if this was the last thing it was spinning
+            // for!
+            if(mSpinningFor.remove(reqId) != null && mSpinningFor.isEmpty())
+                hideProgress();
             Calendar cal = (Calendar)bun.getSerializable(StockWorker.EXTRA_DATE);
 
             // Now, if the flags state this was from the alarm or somewhere else
@@ -595,7 +699,16 @@ public class CentralMap
             // Since the mode switchers wipe all requests from a given mode, all
             // we need for a mode match is whether or not the item exists in the
             // waiting list.
-            boolean modeMatches = mWaitingList.remove(reqId);
+            Long requestedAt = mWaitingList.remove(reqId);
+            boolean modeMatches = requestedAt != null;
+
+            if(modeMatches) {
+                int respFlags = bun.getInt(StockWorker.EXTRA_RESPONSE_FLAGS, 0);
+                Log.d(DEBUG_TAG, "Request ID " + reqId + " came back in "
+                        + (SystemClock.elapsedRealtime() - requestedAt) + "ms"
+                        + ((respFlags & StockWorker.FLAG_IN_PROCESS) != 0 ? " (in-process)"
+                        : ((respFlags & StockWorker.FLAG_CACHED) != 0 ? " (cached, via StockWorker)" : " (via StockWorker)")));
+            }
 
             if(responseCode == StockWorker.RESPONSE_OKAY) {
                 // Hey, would you look at that, it actually worked!  So, get
@@ -857,6 +970,9 @@ public class CentralMap
         // Make sure that mode's been cleaned up first.
         mCurrentMode.cleanUp();
 
+        // If we're going away for good, so is anything we were waiting on.
+        if(isFinishing()) StockWorker.cancelWork(this, STOCK_WORK_NAME);
+
         super.onDestroy();
     }
 
@@ -887,7 +1003,7 @@ public class CentralMap
             mLastModeBundle = new Bundle();
             mLastModeBundle.putParcelable(CentralMapMode.INFO, info);
 
-            mStockReceiver.clearWaitingList();
+            cancelStockRequests();
             mCurrentMode = new ExpeditionMode();
             doReadyChecks();
         } else {
@@ -1115,30 +1231,90 @@ public class CentralMap
     }
 
     /**
+     * <p>
      * Requests a stock.  This'll come back and be handled appropriately by
      * CentralMap, which more or less amounts to handling the ErrorBanner and
      * sending the result off to the active CentralMapMode.
+     * </p>
+     *
+     * <p>
+     * StockWorker only gets involved (and WorkManager with it) if we actually
+     * need to go to the internet.  If the answer's in the quick cache, it's
+     * handled before this even returns; if it's in the database, it comes
+     * back from a background thread in a few milliseconds.
+     * </p>
      *
      * @param g the Graticule (can be null for globalhashes)
-     * @param cal the date
+     * @param requested the date
      * @param flags the {@link StockWorker} flags
      */
-    private void requestStock(@Nullable Graticule g, @NonNull Calendar cal, int flags) {
-        // Progress shows up!
-        mProgress.animate().translationY(0.0f).alpha(1.0f);
+    private void requestStock(@Nullable Graticule g, @NonNull Calendar requested, int flags) {
+        // This might sit around on another thread for a bit, so make sure
+        // nobody changes it out from under us.
+        Calendar cal = (Calendar)requested.clone();
+
+        // Each request gets a brand new ID.  The date won't do, since picking
+        // two graticules on the same date would make both requests look the
+        // same, and whichever came back first would get taken as the answer
+        // to the second.
+        long requestId = mNextRequestId.incrementAndGet();
+        boolean autoInitiated = (flags & StockWorker.FLAG_AUTO_INITIATED) != 0;
+
+        if(!autoInitiated) {
+            // Anything the user asked for replaces whatever they asked for
+            // before.  If that's still going, it gets stopped (and its network
+            // requests aborted) instead of finishing just so we can ignore it.
+            // Requests made behind the user's back don't replace anything the
+            // user asked for, though.  They just tag along.
+            if(mStockReceiver.isWaiting()) StockWorker.cancelWork(this, STOCK_WORK_NAME);
+            mStockReceiver.clearWaitingList();
+            mStockReceiver.dropUserProgress();
+        }
 
-        // As a request ID, we'll use the current date, because why not?
-        long date = cal.getTimeInMillis();
+        mStockReceiver.addToWaitingList(requestId);
 
-        Intent i = new Intent(this, StockWorker.class)
-                .putExtra(StockWorker.EXTRA_DATE, cal)
-                .putExtra(StockWorker.EXTRA_GRATICULE, g)
-                .putExtra(StockWorker.EXTRA_REQUEST_ID, date)
-                .putExtra(StockWorker.EXTRA_REQUEST_FLAGS, flags);
+        // If it's already in memory, we can have it on the map right now.
+        Bundle quick = StockWorker.getQuickResult(cal, g, requestId, flags);
+        if(quick != null) {
+            mStockReceiver.deliver(quick);
+            return;
+        }
 
-        mStockReceiver.addToWaitingList(date);
+        // If not, maybe it's stored.  If THAT doesn't work, then it's time to
+        // go through StockWorker.
+        StockWorker.lookUpStored(this, cal, g, requestId, flags, result -> {
+            if(result != null) {
+                mStockReceiver.deliver(result);
+                return;
+            }
 
-        StockWorker.enqueueWork(this, i);
+            // If something else came along while we were looking, we don't
+            // want this anymore.
+            if(!mStockReceiver.isWaitingFor(requestId) || isDestroyed()) return;
+
+            // Progress shows up!
+            mStockReceiver.showProgressFor(requestId, !autoInitiated);
+
+            Intent i = new Intent(this, StockWorker.class)
+                    .putExtra(StockWorker.EXTRA_DATE, cal)
+                    .putExtra(StockWorker.EXTRA_GRATICULE, g)
+                    .putExtra(StockWorker.EXTRA_REQUEST_ID, requestId)
+                    .putExtra(StockWorker.EXTRA_REQUEST_FLAGS, flags);
+
+            StockWorker.enqueueWork(this, i, autoInitiated ? null : STOCK_WORK_NAME);
+        });
+    }
+
+    /**
+     * Cancels any stock request that's still going.  This is for when the mode
+     * changes, at which point nothing the old mode asked for matters.
+     */
+    private void cancelStockRequests() {
+        mStockReceiver.clearWaitingList();
+        StockWorker.cancelWork(this, STOCK_WORK_NAME);
+
+        // That won't come back, so the progress needs to go away now.
+        mStockReceiver.clearProgress();
     }
 
     /**
@@ -1153,7 +1329,7 @@ public class CentralMap
         mLastModeBundle = new Bundle();
         mCurrentMode.onSaveInstanceState(mLastModeBundle);
         mCurrentMode.cleanUp();
-        mStockReceiver.clearWaitingList();
+        cancelStockRequests();
         mCurrentMode = new SelectAGraticuleMode();
         doReadyChecks();
     }
@@ -1172,7 +1348,7 @@ public class CentralMap
         mLastModeBundle = new Bundle();
         mCurrentMode.onSaveInstanceState(mLastModeBundle);
         mCurrentMode.cleanUp();
-        mStockReceiver.clearWaitingList();
+        cancelStockRequests();
         mCurrentMode = new ExpeditionMode();
         doReadyChecks();
     }
@@ -1367,7 +1543,7 @@ public class CentralMap
         Graticule g;
 
         try {
-            g = new Graticule(lastLat, lastLon);
+            g = Graticule.of(lastLat, lastLon);
         } catch(Exception e) {
             // If a problem popped up, we just assume there was no
             // actual graticule data.
@@ -1419,7 +1595,7 @@ public class CentralMap
                 Graticule g;
 
                 try {
-                    g = new Graticule(lastLat, lastLon);
+                    g = Graticule.of(lastLat, lastLon);
                 } catch(Exception e) {
                     // If a problem popped up, we just assume there was no
                     // actual graticule data.
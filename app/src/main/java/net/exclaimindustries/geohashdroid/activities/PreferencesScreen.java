@@ -8,6 +8,7 @@
 
 package net.exclaimindustries.geohashdroid.activities;
 
+import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.backup.BackupManager;
@@ -17,7 +18,10 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.text.InputType;
 import android.view.View;
@@ -27,11 +31,15 @@ import android.widget.Toast;
 
 import net.exclaimindustries.geohashdroid.R;
 import net.exclaimindustries.geohashdroid.services.AlarmWorker;
+import net.exclaimindustries.geohashdroid.services.BackfillWorker;
 import net.exclaimindustries.geohashdroid.services.WikiService;
 import net.exclaimindustries.geohashdroid.util.GHDConstants;
 import net.exclaimindustries.geohashdroid.util.HashBuilder;
+import net.exclaimindustries.geohashdroid.util.StockFetcher;
 import net.exclaimindustries.tools.QueueService;
 
+import java.util.Calendar;
+import java.util.List;
 import java.util.Objects;
 
 import androidx.annotation.NonNull;
@@ -475,6 +483,10 @@ public class PreferencesScreen extends AppCompatActivity
     public static class OtherPreferenceFragment extends PreferenceFragmentCompat {
         private static final String WIPE_DIALOG = "wipeDialog";
         private static final String RESET_BUGGING_ME_DIALOG = "resetBuggingMe";
+        private static final String STOCK_SOURCES_DIALOG = "stockSources";
+        private static final String BACKFILL_DIALOG = "stockBackfill";
+
+        private static final int IMPORT_CSV = 1;
 
         /**
          * This is the {@link DialogFragment} that shows up when the user wants
@@ -489,25 +501,116 @@ public class PreferencesScreen extends AppCompatActivity
                         .setTitle(R.string.pref_stockwipe_title)
                         .setPositiveButton(R.string.dialog_stockwipe_yes, (dialog, which) -> {
                             // Well, you heard the orders!
+                            Context context = requireActivity().getApplicationContext();
                             dismiss();
 
-                            if(HashBuilder.deleteCache(requireActivity())) {
-                                Toast.makeText(
-                                        getActivity(),
-                                        R.string.toast_stockwipe_success,
-                                        Toast.LENGTH_SHORT).show();
-                            } else {
-                                Toast.makeText(
-                                        getActivity(),
-                                        R.string.toast_stockwipe_failure,
-                                        Toast.LENGTH_SHORT).show();
-                            }
+                            // That might have to wait on the stock store
+                            // opening (and it's disk work besides), so it
+                            // goes on its own thread.  The dialog's gone by
+                            // the time it's done, so the Toast goes out on
+                            // the application's Context.
+                            Handler handler = new Handler(Looper.getMainLooper());
+                            Thread t = new Thread(() -> {
+                                boolean success = HashBuilder.deleteCache(context);
+                                handler.post(() -> Toast.makeText(
+                                        context,
+                                        success ? R.string.toast_stockwipe_success : R.string.toast_stockwipe_failure,
+                                        Toast.LENGTH_SHORT).show());
+                            }, "StockWipe");
+                            t.start();
                         })
                         .setNegativeButton(R.string.dialog_stockwipe_no, (dialog, which) -> dismiss())
                         .create();
             }
         }
 
+        /**
+         * This is the {@link DialogFragment} that asks how far back to
+         * download stocks.  The actual downloading happens in a
+         * {@link BackfillWorker}, which waits for a network connection and
+         * keeps going after the user's left.
+         */
+        public static class BackfillDialogFragment extends DialogFragment {
+            @NonNull
+            @Override
+            public Dialog onCreateDialog(Bundle savedInstanceState) {
+                return new AlertDialog.Builder(getActivity())
+                        .setTitle(R.string.pref_stockbackfill_dialogtitle)
+                        .setItems(R.array.pref_stockbackfill_entries, (dialog, which) -> {
+                            Context context = requireActivity().getApplicationContext();
+                            int[] days = getResources().getIntArray(R.array.pref_stockbackfill_days);
+                            dismiss();
+
+                            // Today back to however far was asked for.  If
+                            // today's stock isn't out yet, the worker will
+                            // sort that out.
+                            Calendar end = Calendar.getInstance();
+                            Calendar start = Calendar.getInstance();
+                            start.add(Calendar.DAY_OF_MONTH, -days[which]);
+                            BackfillWorker.enqueueWork(context, start, end);
+
+                            Toast.makeText(
+                                    context,
+                                    R.string.toast_stockbackfill_started,
+                                    Toast.LENGTH_SHORT).show();
+                        })
+                        .setNegativeButton(R.string.cancel_label, (dialog, which) -> dismiss())
+                        .create();
+            }
+        }
+
+        /**
+         * This is the {@link DialogFragment} that shows how each stock server
+         * has been doing lately.  It's just for looking at; the servers sort
+         * themselves out on their own.
+         */
+        public static class StockSourcesDialogFragment extends DialogFragment {
+            @NonNull
+            @Override
+            public Dialog onCreateDialog(Bundle savedInstanceState) {
+                return new AlertDialog.Builder(getActivity()).setMessage(makeReport())
+                        .setTitle(R.string.pref_stocksources_title)
+                        .setPositiveButton(R.string.ok_label, (dialog, which) -> dismiss())
+                        .create();
+            }
+
+            @NonNull
+            private String makeReport() {
+                List<StockFetcher.MirrorHealth> health = HashBuilder.getStockSourceHealth();
+                if(health.isEmpty()) return getString(R.string.pref_stocksources_none);
+
+                StringBuilder sb = new StringBuilder();
+                for(StockFetcher.MirrorHealth h : health) {
+                    String state;
+                    switch(h.state) {
+                        case OPEN:
+                            state = getString(R.string.pref_stocksources_state_open, (int)(h.retryInMs / 1000));
+                            break;
+                        case HALF_OPEN:
+                            state = getString(R.string.pref_stocksources_state_half_open);
+                            break;
+                        default:
+                            state = getString(R.string.pref_stocksources_state_closed);
+                    }
+
+                    String stats;
+                    if(h.latencyMs < 0)
+                        stats = getString(R.string.pref_stocksources_unasked);
+                    else
+                        stats = getString(R.string.pref_stocksources_stats,
+                                Math.round(h.latencyMs),
+                                Math.round(h.errorRate * 100),
+                                h.successes,
+                                h.failures);
+
+                    if(sb.length() > 0) sb.append("\n\n");
+                    sb.append(getString(R.string.pref_stocksources_line, h.name, state, stats));
+                }
+
+                return sb.toString();
+            }
+        }
+
         public static class ResetBuggingMeDialogFragment extends DialogFragment {
             @NonNull
             @Override
@@ -543,6 +646,7 @@ public class PreferencesScreen extends AppCompatActivity
             setPreferencesFromResource(R.xml.pref_other, rootKey);
 
             bindPreferenceSummaryToValue(Objects.requireNonNull(findPreference(GHDConstants.PREF_STOCK_CACHE_SIZE)));
+            bindPreferenceSummaryToValue(Objects.requireNonNull(findPreference(GHDConstants.PREF_STOCK_STORE_ENGINE)));
 
             // The stock alarm preference needs to enable/disable the alarm as
             // need be.
@@ -581,6 +685,40 @@ public class PreferencesScreen extends AppCompatActivity
                 });
             }
 
+            // Backfilling is a dialog to pick how far back to go.
+            pref = findPreference("_stockBackfill");
+            if(pref != null) {
+                pref.setOnPreferenceClickListener(preference -> {
+                    DialogFragment frag = new BackfillDialogFragment();
+                    frag.show(getParentFragmentManager(), BACKFILL_DIALOG);
+                    return true;
+                });
+            }
+
+            // Importing goes off to whatever can hand us a file.  CSVs tend to
+            // show up as any number of text types, so take any of them.
+            pref = findPreference("_stockImport");
+            if(pref != null) {
+                pref.setOnPreferenceClickListener(preference -> {
+                    Intent i = new Intent(Intent.ACTION_OPEN_DOCUMENT)
+                            .addCategory(Intent.CATEGORY_OPENABLE)
+                            .setType("text/*");
+
+                    startActivityForResult(i, IMPORT_CSV);
+                    return true;
+                });
+            }
+
+            // The stock server report's just a dialog, too.
+            pref = findPreference("_stockSources");
+            if(pref != null) {
+                pref.setOnPreferenceClickListener(preference -> {
+                    DialogFragment frag = new StockSourcesDialogFragment();
+                    frag.show(getParentFragmentManager(), STOCK_SOURCES_DIALOG);
+                    return true;
+                });
+            }
+
             // As is the reminder unremindening.
             pref = findPreference("_resetBuggingMe");
             if(pref != null) {
@@ -592,6 +730,40 @@ public class PreferencesScreen extends AppCompatActivity
             }
         }
 
+        @Override
+        public void onActivityResult(int requestCode, int resultCode, Intent data) {
+            if(requestCode == IMPORT_CSV) {
+                Uri uri = (data != null) ? data.getData() : null;
+
+                if(resultCode == Activity.RESULT_OK && uri != null) {
+                    Context context = requireActivity().getApplicationContext();
+
+                    // The import might not run until after we're gone, so
+                    // hang on to permission to read the file.  BackfillWorker
+                    // lets go of it once it's done.  If whatever gave us the
+                    // file won't allow that, it'll probably still work so long
+                    // as the import starts soon, which it usually does.
+                    try {
+                        context.getContentResolver().takePersistableUriPermission(uri,
+                                Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                    } catch(SecurityException se) {
+                        // Oh well.
+                    }
+
+                    BackfillWorker.enqueueImport(context, uri);
+
+                    Toast.makeText(
+                            context,
+                            R.string.toast_stockimport_started,
+                            Toast.LENGTH_SHORT).show();
+                }
+
+                return;
+            }
+
+            super.onActivityResult(requestCode, resultCode, data);
+        }
+
         @Override
         public void onStop() {
             BackupManager bm = new BackupManager(getActivity());
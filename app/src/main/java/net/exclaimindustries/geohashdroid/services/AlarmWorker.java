@@ -16,27 +16,30 @@ import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Color;
 import android.os.Bundle;
-import android.os.Parcelable;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
+import android.util.SparseArray;
 
 import net.exclaimindustries.geohashdroid.R;
 import net.exclaimindustries.geohashdroid.activities.CentralMap;
+import net.exclaimindustries.geohashdroid.util.EpochDay;
 import net.exclaimindustries.geohashdroid.util.GHDConstants;
 import net.exclaimindustries.geohashdroid.util.Graticule;
 import net.exclaimindustries.geohashdroid.util.HashBuilder;
+import net.exclaimindustries.geohashdroid.util.HashBuilder.StockRunner;
 import net.exclaimindustries.geohashdroid.util.Info;
 import net.exclaimindustries.geohashdroid.util.KnownLocation;
+import net.exclaimindustries.geohashdroid.util.RetryBackoff;
 import net.exclaimindustries.geohashdroid.util.UnitConverter;
-import net.exclaimindustries.tools.DateTools;
+import net.exclaimindustries.tools.AndroidUtil;
 
 import java.text.DateFormat;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.Random;
 import java.util.TimeZone;
 
 import androidx.annotation.IdRes;
@@ -61,9 +64,17 @@ import androidx.work.WorkerParameters;
  * <code>AlarmWorker</code> is a background service that retrieves the current
  * stock value around 9:30am ET (that is, a reasonable time after the opening of
  * the New York Stock Exchange, at which time the DJIA opening value is known).
- * It makes requests to {@link StockWorker}, which then stores the result away
- * in the cache so that later instances of hashing will have that data available
- * right away.
+ * It gets both stocks it needs (the one for today west of 30W and the one for
+ * tomorrow east of it, which are usually the same one) in one go, then works
+ * out and caches the hashes for every date those stocks cover, so that later
+ * instances of hashing will have that data available right away.
+ * </p>
+ *
+ * <p>
+ * If the stock isn't posted yet, it keeps polling for a few minutes, waiting a
+ * bit longer each time (with some randomness thrown in so every copy of the
+ * app isn't asking at the same instant).  If it's still not there after that,
+ * it sets an alarm to come back later, backing off further each time.
  * </p>
  *
  * <p>
@@ -133,15 +144,24 @@ public class AlarmWorker extends Worker {
      */
     private static final String DATA_ACTION = "alarmAction";
     /**
-     * Data key for the response from StockWorker, if appropriate.
+     * Data key for how many times in a row the stock's come up missing.  This
+     * decides how long the next retry waits.
      */
-    private static final String DATA_STOCK_RESPONSE = "stockResponse";
+    private static final String DATA_ATTEMPT = "attempt";
     /**
-     * Data key for whether or not the Graticule that came in from a response
-     * from StockWorker is a 30W Graticule (which, in turn, tells whether or not
-     * AlarmWorker needs to do make another request).
+     * Intent extra for the same thing as {@link #DATA_ATTEMPT}, so it survives
+     * the trip through the retry alarm.
      */
-    private static final String DATA_IS_30W = "is30w";
+    private static final String EXTRA_ATTEMPT = "net.exclaimindustries.geohashdroid.EXTRA_ATTEMPT";
+
+    // The first retry comes this soon after a miss (give or take the jitter),
+    // and retries never wait longer than the maximum.  The servers usually
+    // have the stock within a minute or two of the opening bell.
+    private static final long RETRY_INITIAL_MS = 15 * 1000;
+    private static final long RETRY_MAX_MS = 30 * 60 * 1000;
+    // How long one run will keep polling on its own before leaving the rest
+    // to the retry alarm.  WorkManager only gives a Worker ten minutes.
+    private static final long POLL_BUDGET_MS = 5 * 60 * 1000;
 
     /**
      * Notification group for all non-globalhash notifications, if the user has
@@ -188,35 +208,11 @@ public class AlarmWorker extends Worker {
             // of whatever we need handled.
             Intent i = new Intent(context, AlarmWorker.class);
             i.setAction(intent.getAction());
+            i.putExtra(EXTRA_ATTEMPT, intent.getIntExtra(EXTRA_ATTEMPT, 0));
             enqueueWork(context, i);
         }
     }
 
-    /**
-     * This listens for any update from StockService, throwing out anything that
-     * isn't related to the alarm.
-     */
-    public static class StockReceiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            // Check the Intent for the alarm flag.  We'll just straight give up
-            // if it's not an alarm, since we don't really care.
-            Bundle stuff = intent.getBundleExtra(StockWorker.EXTRA_STUFF);
-            int flags = 0;
-            if(stuff != null) {
-                flags = stuff.getInt(StockWorker.EXTRA_REQUEST_FLAGS, 0);
-            }
-
-            if((flags & StockWorker.FLAG_ALARM) != 0) {
-                Log.d(DEBUG_TAG, "StockService returned with an alarming response!");
-
-                // It's ours!  Send it to the wakeful part!
-                intent.setClass(context, AlarmWorker.class);
-                enqueueWork(context, intent);
-            }
-        }
-    }
-
     /**
      * When bootup happens, this makes sure AlarmWorker is ready to go if the
      * user's got that set up.
@@ -338,12 +334,15 @@ public class AlarmWorker extends Worker {
         NotificationManagerCompat.from(context).cancel(R.id.alarm_notification);
     }
 
-    private static void snooze(@NonNull Context context) {
+    private static void snooze(@NonNull Context context, long delayMs, int attempt) {
         Calendar cal = Calendar.getInstance();
-        cal.add(Calendar.MINUTE, 30);
+        cal.add(Calendar.MILLISECOND, (int)delayMs);
+
+        Log.d(DEBUG_TAG, "Snoozing until " + cal.getTime() + " (attempt " + attempt + ")...");
 
         Intent alarmIntent = new Intent(context, StockAlarmReceiver.class);
         alarmIntent.setAction(STOCK_ALARM_RETRY);
+        alarmIntent.putExtra(EXTRA_ATTEMPT, attempt);
 
         // Even if the user's added us to the whitelist, we won't be able to use
         // the plain set call in Marshmallow or higher.  Not with Doze to worry
@@ -355,7 +354,8 @@ public class AlarmWorker extends Worker {
                         context,
                         0,
                         alarmIntent,
-                        PendingIntent.FLAG_IMMUTABLE));
+                        PendingIntent.FLAG_UPDATE_CURRENT
+                                | PendingIntent.FLAG_IMMUTABLE));
     }
 
     /**
@@ -415,44 +415,128 @@ public class AlarmWorker extends Worker {
                         PendingIntent.FLAG_IMMUTABLE));
     }
 
-    private static void sendRequest(@NonNull Context context,
+    /**
+     * <p>
+     * Gets the stocks and caches the hashes, polling for a while if they're
+     * not posted yet.  If they're still not posted when the polling runs out
+     * (or something else goes wrong), this sets the retry alarm.
+     * </p>
+     *
+     * <p>
+     * This blocks for as long as {@link #POLL_BUDGET_MS}, which is fine, since
+     * it's running in a Worker.
+     * </p>
+     *
+     * @param context a Context
+     * @param attempt how many times in a row this has come up empty so far
+     */
+    private void prefetch(@NonNull Context context, int attempt) {
+        // Today west of 30W and tomorrow east of it.  On a weekday after the
+        // opening bell, those are both today's stock.  On a weekend or a
+        // holiday, they're both the last trading day's, and we probably
+        // already have that.
+        Calendar tomorrow = Calendar.getInstance();
+        tomorrow.add(Calendar.DATE, 1);
+        Calendar[] dates = { getMostRecentStockDate(null), getMostRecentStockDate(tomorrow) };
+        Graticule[] graticules = { GHDConstants.DUMMY_TODAY, GHDConstants.DUMMY_YESTERDAY };
+
+        RetryBackoff backoff = new RetryBackoff(RETRY_INITIAL_MS, RETRY_MAX_MS, new Random());
+        long deadline = SystemClock.elapsedRealtime() + POLL_BUDGET_MS;
+
+        while(true) {
+            int status = StockRunner.ALL_OKAY;
+
+            for(int i = 0; i < dates.length && status == StockRunner.ALL_OKAY; i++) {
+                if(!AndroidUtil.isConnected(context)) {
+                    // No connection means we just set up the receiver and
+                    // wait.  And wait.  And wait.
+                    Log.d(DEBUG_TAG, "No network connection available, waiting until we get one...");
+                    waitForNetwork(context);
+                    clearNotification(context);
+                    return;
+                }
+
+                status = resolveStock(context, dates[i], graticules[i]);
+            }
+
+            if(status == StockRunner.ALL_OKAY) {
+                // Hooray!  Our job is done!
+                Log.d(DEBUG_TAG, "Got both stocks!  We're done!");
+                clearNotification(context);
+
+                // And since it's done, we can go off to the part where we
+                // deal with KnownLocations!
+                doKnownLocations(context);
+
+                // This runs once a day, which makes it a good time to tidy up
+                // the stock cache, too.
+                HashBuilder.compactStore(context);
+                return;
+            }
+
+            // A network error that ISN'T "no connection" is usually really
+            // bad.  But, with Doze in effect, that might mean something weird
+            // with how it denies us network access, so it gets retried just
+            // like a stock that isn't posted yet.
+            long delay = backoff.getDelay(attempt);
+            attempt++;
+
+            if(isStopped() || SystemClock.elapsedRealtime() + delay > deadline) {
+                Log.d(DEBUG_TAG, (status == StockRunner.ERROR_NOT_POSTED ? "Stock wasn't posted yet" : "Network reported an error")
+                        + ", leaving it to the retry alarm...");
+                snooze(context, delay, attempt);
+                clearNotification(context);
+                return;
+            }
+
+            Log.d(DEBUG_TAG, (status == StockRunner.ERROR_NOT_POSTED ? "Stock wasn't posted yet" : "Network reported an error")
+                    + ", trying again in " + delay + "ms...");
+            try {
+                Thread.sleep(delay);
+            } catch(InterruptedException ie) {
+                // Well, somebody wants us gone.  The alarm can take it from
+                // here.
+                snooze(context, delay, attempt);
+                clearNotification(context);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the stock for the given date and Graticule (well, for that side of
+     * the 30W line), and if that works, caches the hashes for every date that
+     * stock covers.
+     *
+     * @return the StockRunner status
+     */
+    private static int resolveStock(@NonNull Context context,
+                                    @NonNull Calendar cal,
                                     @NonNull Graticule g) {
-        // The Graticule will be one of the dummies, as all we really care about
-        // is if it's 30W or not.  And we don't really care about it THAT much,
-        // just enough to put the right string in the notification.  Otherwise,
-        // StockService works it out.
-        Calendar cal = Calendar.getInstance();
+        int sDay = EpochDay.makeAdjusted(EpochDay.fromCalendar(cal), g);
 
-        // However, if it IS 30W, we want to generate a stock cache value for
-        // TOMORROW, as the 30W Rule allows us to know what tomorrow's hash is,
-        // and we WANT that owing to when it triggers.
-        if(g.uses30WRule()) cal.add(Calendar.DATE, 1);
-        cal = getMostRecentStockDate(cal);
-
-        Intent request = new Intent(context, StockWorker.class);
-        request.setAction(StockWorker.ACTION_STOCK_REQUEST)
-                .putExtra(StockWorker.EXTRA_GRATICULE, g)
-                .putExtra(StockWorker.EXTRA_DATE, cal)
-                .putExtra(StockWorker.EXTRA_REQUEST_ID, cal.getTimeInMillis() / 1000)
-                .putExtra(StockWorker.EXTRA_REQUEST_FLAGS, StockWorker.FLAG_ALARM)
-                .putExtra(StockWorker.EXTRA_RESPOND_TO, StockReceiver.class);
-
-        // The notification goes up first, if need be.
-        if(HashBuilder.getStoredStock(context, cal) != null) {
-            // Hold up, we've already got a stock for that.  Don't throw up the
-            // notification; StockService will send the Intent immediately.
-            Log.d(DEBUG_TAG, "Stock is already cached for "
-                    + DateTools.getHyphenatedDateString(cal)
-                    + ", ignoring the notification...");
-        } else {
+        if(HashBuilder.getStoredStock(context, sDay) == null) {
+            // We're about to go to the network, so the notification goes up.
+            // Remember, the stock's stored under the ADJUSTED date.
             Log.d(DEBUG_TAG, "Notification going up for a fetch on "
-                    + DateTools.getHyphenatedDateString(cal)
-                    + "...");
-            showNotification(context, Info.makeAdjustedCalendar(cal, g));
+                    + EpochDay.toHyphenatedString(sDay) + "...");
+            showNotification(context, EpochDay.toCalendar(sDay));
+
+            // We're polling on purpose, so don't let the not-posted cache
+            // answer for the servers.  It'd just tell us what the last poll
+            // said.
+            HashBuilder.getNotPostedCache().remove(sDay);
+
+            StockRunner runner = HashBuilder.requestStockRunner(context, cal, g);
+            runner.runStock();
+            if(runner.getStatus() != StockRunner.ALL_OKAY) return runner.getStatus();
+        } else {
+            Log.d(DEBUG_TAG, "Stock is already cached for "
+                    + EpochDay.toHyphenatedString(sDay) + ", just working out the hashes...");
         }
 
-        // THEN we send the request.
-        StockWorker.enqueueWork(context, request);
+        HashBuilder.precomputeHashes(context, sDay);
+        return StockRunner.ALL_OKAY;
     }
 
     public AlarmWorker(Context appContext, WorkerParameters workerParams) {
@@ -464,28 +548,13 @@ public class AlarmWorker extends Worker {
      * requests look suspiciously like Worker Data requests.
      */
     public static void enqueueWork(Context context, Intent work) {
-        // AlarmWorker's Intent might have some extra data in it in the event
-        // that this is coming back from StockWorker.  Specifically, we'd have
-        // a StockWorker result enum and a Graticule that tells us whether or
-        // not we need to stop.
-        Bundle stuff = work.getBundleExtra(StockWorker.EXTRA_STUFF);
-        boolean is30w = false;
-        int response = StockWorker.RESPONSE_OKAY;
-        if(stuff != null) {
-            stuff.setClassLoader(context.getClassLoader());
-            response = stuff.getInt(StockWorker.EXTRA_RESPONSE_CODE, StockWorker.RESPONSE_NETWORK_ERROR);
-            Parcelable p = stuff.getParcelable(StockWorker.EXTRA_GRATICULE);
-            if(p instanceof Graticule) {
-                is30w = ((Graticule) p).uses30WRule();
-            }
-        }
-
+        // If this came in from the retry alarm, it knows how many times we've
+        // tried so far.
         WorkManager.getInstance(context).enqueue(
                 new OneTimeWorkRequest.Builder(AlarmWorker.class)
                         .setInputData(new Data.Builder()
                                 .putString(DATA_ACTION, work.getAction())
-                                .putBoolean(DATA_IS_30W, is30w)
-                                .putInt(DATA_STOCK_RESPONSE, response)
+                                .putInt(DATA_ATTEMPT, work.getIntExtra(EXTRA_ATTEMPT, 0))
                                 .build())
                         .build());
     }
@@ -541,7 +610,6 @@ public class AlarmWorker extends Worker {
             case STOCK_ALARM:
             case STOCK_ALARM_RETRY:
             case STOCK_ALARM_NETWORK_BACK:
-            case StockWorker.ACTION_STOCK_RESULT:
                 // Aha!  NOW we've got something!
                 Log.d(DEBUG_TAG, "AlarmWorker has business to attend to!");
 
@@ -554,10 +622,12 @@ public class AlarmWorker extends Worker {
                 }
 
                 // If we just got the stock alarm, we need to reschedule right
-                // away.
+                // away.  It's also a fresh start as far as backing off goes.
+                int attempt = data.getInt(DATA_ATTEMPT, 0);
                 if(action.equals(STOCK_ALARM)) {
                     Log.d(DEBUG_TAG, "Rescheduling next STOCK_ALARM...");
                     setNextAlarm(context, true);
+                    attempt = 0;
                 }
 
                 // If we got the REAL stock alarm while still waiting on the
@@ -572,67 +642,9 @@ public class AlarmWorker extends Worker {
                                 .setClass(context, StockAlarmReceiver.class),
                         PendingIntent.FLAG_IMMUTABLE));
 
-                // StockService takes care of all the network connectivity
-                // checks and other things that the alarm-checking StockService
-                // used to take care of.  It'll also tell us if the stock hasn't
-                // been posted just yet.  So, we can count on that for error
-                // checking.
-                if(action.equals(StockWorker.ACTION_STOCK_RESULT)) {
-                    Log.d(DEBUG_TAG, "Just got a stock result!");
-
-                    int result = data.getInt(DATA_STOCK_RESPONSE,
-                            StockWorker.RESPONSE_NOT_POSTED_YET);
-                    boolean is30w = data.getBoolean(DATA_IS_30W, false);
-
-                    if(result == StockWorker.RESPONSE_NO_CONNECTION) {
-                        // No connection means we just set up the receiver and
-                        // wait.  And wait.  And wait.
-                        Log.d(DEBUG_TAG, "No network connection available, waiting until we get one...");
-
-                        waitForNetwork(context);
-
-                        clearNotification(context);
-                    } else if(result == StockWorker.RESPONSE_NOT_POSTED_YET) {
-                        // Not posted yet means we hit the snooze and try again
-                        // in a half hour or so.  Good night!
-                        Log.d(DEBUG_TAG, "Stock wasn't posted yet, snoozing for a half hour...");
-                        snooze(context);
-                        clearNotification(context);
-                    } else if(result == StockWorker.RESPONSE_NETWORK_ERROR) {
-                        // A network error that ISN'T "no connection" is usually
-                        // really bad.  But, with Doze in effect, that might
-                        // mean something weird with how it denies us network
-                        // access, so let's just snooze for now.
-                        Log.w(DEBUG_TAG, "Network reported an error, snoozing for a half hour...");
-                        snooze(context);
-                        clearNotification(context);
-                    } else if(result == StockWorker.RESPONSE_OKAY) {
-                        // An okay response means the Graticule IS good.  If
-                        // not, fix StockService.
-                        if(is30w) {
-                            // If the response we just checked for was a 30W one
-                            // and it came back okay, then we fire off a check
-                            // for the non-30W one.
-                            Log.d(DEBUG_TAG, "That was the 30W response, going up to non-30W...");
-                            sendRequest(context, GHDConstants.DUMMY_TODAY);
-                        } else {
-                            // If, however, we got the non-30W back, then our
-                            // job is done!  Yay!
-                            Log.d(DEBUG_TAG, "The 30W response!  We're done!");
-                            clearNotification(context);
-
-                            // And since it's done, we can go off to the part
-                            // where we deal with KnownLocations!
-                            doKnownLocations(context);
-                        }
-                    }
-                } else {
-                    // If it's NOT a result, that means we're starting a new
-                    // check at a 30W hash for some reason.  Doesn't matter what
-                    // reason.  We just need to do it.
-                    Log.d(DEBUG_TAG, "That wasn't a result, so asking for a 30W...");
-                    sendRequest(context, GHDConstants.DUMMY_YESTERDAY);
-                }
+                // Off we go.  This handles the network checks, the not-posted
+                // polling, and the retry alarm, if it comes to that.
+                prefetch(context, attempt);
                 break;
             default:
                 // Stop doing this!
@@ -782,34 +794,33 @@ public class AlarmWorker extends Worker {
 
                     // Our list of matches is already sorted, so the order in
                     // which we add Graticules matches which Graticules have the
-                    // closest matches.  LinkedHashMap is what we want.
-                    Map<Graticule, List<KnownLocationMatchData>> byGraticule = new LinkedHashMap<>();
+                    // closest matches.  So, we keep a list of lists in that
+                    // order, and a SparseArray keyed by Graticule ID to find
+                    // the right list for each match.  The list of lists is what
+                    // we'll be picking apart afterward, since we need to remove
+                    // specific indexed entries on the fly.
+                    SparseArray<List<KnownLocationMatchData>> byGraticule = new SparseArray<>();
+                    List<List<KnownLocationMatchData>> byGraticuleList = new LinkedList<>();
 
                     for(KnownLocationMatchData single : matched) {
                         Graticule matchGrat = single.bestInfo.getGraticule();
-                        if(!byGraticule.containsKey(matchGrat)) {
+
+                        // These are all from KnownLocations, so they won't be
+                        // Globalhashes, but just in case, give those their own
+                        // spot past the end of the IDs.
+                        int id = matchGrat != null ? matchGrat.getId() : Graticule.COUNT;
+
+                        List<KnownLocationMatchData> list = byGraticule.get(id);
+                        if(list == null) {
                             // We haven't added this Graticule yet.  Let's add
-                            // it to the map.
-                            byGraticule.put(matchGrat, new LinkedList<>());
+                            // it to the lists.
+                            list = new LinkedList<>();
+                            byGraticule.put(id, list);
+                            byGraticuleList.add(list);
                         }
 
                         // Add it in!
-                        //noinspection ConstantConditions
-                        byGraticule.get(matchGrat).add(single);
-                    }
-
-                    // Okay, now we have an in-order map associating Graticules
-                    // to a list of corresponding KnownLocations, sorted by
-                    // their respective distances from the best Infos they have.
-                    // For convenience, let's make a list of lists.  By
-                    // "convenience", I mean the Map interface doesn't make it
-                    // clear how to iterate it in such a way that I can remove
-                    // specific indexed entries on the fly, which I guess makes
-                    // sense because that's not what a Map is there to do.
-                    List<List<KnownLocationMatchData>> byGraticuleList = new LinkedList<>();
-
-                    for(Map.Entry<Graticule, List<KnownLocationMatchData>> entry : byGraticule.entrySet()) {
-                        byGraticuleList.add(entry.getValue());
+                        list.add(single);
                     }
 
                     // From here on out, the logic is mostly the same as in the
@@ -0,0 +1,220 @@
+/*
+ * BackfillWorker.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.services;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import net.exclaimindustries.geohashdroid.util.EpochDay;
+import net.exclaimindustries.geohashdroid.util.HashBuilder;
+import net.exclaimindustries.geohashdroid.util.StockBackfill;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.Calendar;
+
+/**
+ * <p>
+ * BackfillWorker loads a whole range of stocks into the stock cache in the
+ * background, either from the stock servers or from a CSV file, using a
+ * {@link StockBackfill}.  Once that's done, retrohashes in that range don't
+ * need the network at all.
+ * </p>
+ *
+ * <p>
+ * Only one backfill runs at a time; asking for another while one's going does
+ * nothing.  If a backfill from the servers gets stopped (or some days fail),
+ * WorkManager will try it again later, and since days already in the cache
+ * get skipped, it picks up where it left off.  Progress is reported through
+ * WorkManager's progress data, under {@link #PROGRESS_DONE} and
+ * {@link #PROGRESS_TOTAL}.
+ * </p>
+ */
+public class BackfillWorker extends Worker {
+    private static final String DEBUG_TAG = "BackfillWorker";
+
+    /**
+     * The unique work name for backfills, for watching their progress through
+     * WorkManager.
+     */
+    public static final String WORK_NAME = "net.exclaimindustries.geohashdroid.STOCK_BACKFILL";
+
+    /** Progress key for how many days (or CSV lines) are done.  An int. */
+    public static final String PROGRESS_DONE = "done";
+    /** Progress key for how many days (or CSV lines) there are in all.  An int. */
+    public static final String PROGRESS_TOTAL = "total";
+
+    /** Output key for how many new stocks got stored.  An int. */
+    public static final String OUTPUT_STORED = "stored";
+    /** Output key for how many stocks couldn't be found at all.  An int. */
+    public static final String OUTPUT_MISSING = "missing";
+
+    private static final String DATA_START = "startDay";
+    private static final String DATA_END = "endDay";
+    private static final String DATA_CSV_URI = "csvUri";
+
+    private volatile StockBackfill mBackfill;
+
+    /**
+     * Enqueues a backfill from the stock servers, covering every stock needed
+     * to make hashes for the given dates, inclusive.  This waits for a network
+     * connection.
+     *
+     * @param context a Context
+     * @param start first date to backfill
+     * @param end last date to backfill (if this is in the future, it'll stop
+     *            at today)
+     */
+    public static void enqueueWork(@NonNull Context context,
+                                   @NonNull Calendar start,
+                                   @NonNull Calendar end) {
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME,
+                ExistingWorkPolicy.KEEP,
+                new OneTimeWorkRequest.Builder(BackfillWorker.class)
+                        .setInputData(new Data.Builder()
+                                .putInt(DATA_START, EpochDay.fromCalendar(start))
+                                .putInt(DATA_END, EpochDay.fromCalendar(end))
+                                .build())
+                        .setConstraints(new Constraints.Builder()
+                                .setRequiredNetworkType(NetworkType.CONNECTED)
+                                .build())
+                        .build());
+    }
+
+    /**
+     * Enqueues an import of stocks from a CSV file.  See
+     * {@link StockBackfill#importCsv(Reader)} for what the file needs to look
+     * like.  If the app took persistable permission to read the file, this
+     * lets go of it when the import's done.
+     *
+     * @param context a Context
+     * @param csv Uri of the file, which the app has to be able to read
+     */
+    public static void enqueueImport(@NonNull Context context, @NonNull Uri csv) {
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME,
+                ExistingWorkPolicy.KEEP,
+                new OneTimeWorkRequest.Builder(BackfillWorker.class)
+                        .setInputData(new Data.Builder()
+                                .putString(DATA_CSV_URI, csv.toString())
+                                .build())
+                        .build());
+    }
+
+    public BackfillWorker(Context appContext, WorkerParameters workerParams) {
+        super(appContext, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Data data = getInputData();
+        Context context = getApplicationContext();
+        mBackfill = HashBuilder.makeStockBackfill(context);
+
+        // We might've been stopped while getting all that set up.
+        if(isStopped()) mBackfill.cancel();
+
+        String csv = data.getString(DATA_CSV_URI);
+        if(csv != null) return doImport(context, Uri.parse(csv));
+
+        int start = data.getInt(DATA_START, Integer.MIN_VALUE);
+        int end = data.getInt(DATA_END, Integer.MIN_VALUE);
+        if(start == Integer.MIN_VALUE || end == Integer.MIN_VALUE) {
+            Log.e(DEBUG_TAG, "BAILING OUT: There's no date range!");
+            return Result.failure();
+        }
+
+        // There's no sense asking about the future.
+        end = Math.min(end, EpochDay.fromCalendar(Calendar.getInstance()));
+        if(end < start) {
+            Log.e(DEBUG_TAG, "BAILING OUT: The date range is backwards (or entirely in the future)!");
+            return Result.failure();
+        }
+
+        try {
+            StockBackfill.Result result = mBackfill.backfill(start, end, (done, total) ->
+                    setProgressAsync(new Data.Builder()
+                            .putInt(PROGRESS_DONE, done)
+                            .putInt(PROGRESS_TOTAL, total)
+                            .build()));
+
+            // If anything failed for network-ish reasons, try again later.  It
+            // won't refetch what it already got.
+            if(!result.isComplete()) {
+                Log.i(DEBUG_TAG, "Backfill incomplete (" + result + "), retrying later...");
+                return Result.retry();
+            }
+
+            return Result.success(makeOutput(result));
+        } catch(InterruptedIOException iioe) {
+            // Stopped, most likely because WorkManager said so.  What we got
+            // so far is stored, so retrying will resume.
+            Log.i(DEBUG_TAG, "Backfill stopped partway through, will resume later.");
+            return Result.retry();
+        }
+    }
+
+    @NonNull
+    private Result doImport(@NonNull Context context, @NonNull Uri csv) {
+        try(InputStream in = context.getContentResolver().openInputStream(csv)) {
+            if(in == null) {
+                Log.e(DEBUG_TAG, "BAILING OUT: Couldn't open " + csv + "!");
+                return Result.failure();
+            }
+
+            StockBackfill.Result result = mBackfill.importCsv(new InputStreamReader(in, "UTF-8"));
+            return Result.success(makeOutput(result));
+        } catch(IOException ioe) {
+            Log.e(DEBUG_TAG, "BAILING OUT: Couldn't read " + csv + "!", ioe);
+            return Result.failure();
+        } finally {
+            // The preferences screen hung on to permission to read this so
+            // we'd still have it by the time we got here.  We're done with it
+            // now either way, so let it go.  If it was never held in the first
+            // place, no harm done.
+            try {
+                context.getContentResolver().releasePersistableUriPermission(csv,
+                        Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch(SecurityException se) {
+                // Oh well.
+            }
+        }
+    }
+
+    @NonNull
+    private static Data makeOutput(@NonNull StockBackfill.Result result) {
+        return new Data.Builder()
+                .putInt(PROGRESS_DONE, result.total)
+                .putInt(PROGRESS_TOTAL, result.total)
+                .putInt(OUTPUT_STORED, result.stored)
+                .putInt(OUTPUT_MISSING, result.missing)
+                .build();
+    }
+
+    @Override
+    public void onStopped() {
+        StockBackfill backfill = mBackfill;
+        if(backfill != null) backfill.cancel();
+        super.onStopped();
+    }
+}
@@ -10,10 +10,13 @@ package net.exclaimindustries.geohashdroid.services;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcelable;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.WorkManager;
 import androidx.work.Worker;
@@ -31,6 +34,8 @@ import java.io.Serializable;
 import java.util.Calendar;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * <p>
@@ -44,6 +49,15 @@ import java.util.List;
  * the way the second generation did, so it takes the same Intent as before and
  * converts it into Worker-related stuff.  Still broadcasts at the end, though.
  * </p>
+ *
+ * <p>
+ * If you're in the same process and just want to know if the answer's already
+ * on hand, {@link #getQuickResult(Calendar, Graticule, long, int)} and
+ * {@link #lookUpStored(Context, Calendar, Graticule, long, int, InProcessListener)}
+ * skip WorkManager and the broadcast entirely and hand back the same Bundle
+ * the broadcast would've had.  Only go through {@link #enqueueWork(Context, Intent)}
+ * if those come up empty, meaning it's off to the internet.
+ * </p>
  * 
  * @author Nicholas Killewald
  */
@@ -150,10 +164,10 @@ public class StockWorker extends Worker {
      * we can't define BroadcastReceivers in the manifest anymore (or, to be
      * exact, we can't define BroadcastReceivers with <i>implicit</i> Intents
      * and expect them to go through), which causes problems when talking back
-     * to, say, AlarmWorker's StockReceiver.  The presence of this Extra (and
+     * to a receiver that isn't registered on the fly.  The presence of this Extra (and
      * it being not null) will tell StockWorker to explicitly send the intent
      * to that class.  As such, it must be a class object (like, say,
-     * AlarmWorker.StockReceiver.class), and should preferably be something
+     * SomeWorker.StockReceiver.class), and should preferably be something
      * that can receive an Intent.  There's no telling what might happen if it
      * can't.
      * </p>
@@ -163,7 +177,7 @@ public class StockWorker extends Worker {
      * defined in the manifest, this doesn't affect when you're explicitly
      * registering the receiver on an as-needed basis, like what CentralMap
      * does.  In other words, this is likely only to be used in the Services,
-     * and because of that, is probably only going to matter to AlarmWorker.
+     * and AlarmWorker doesn't go through here anymore, so nothing currently does.
      * </p>
      *
      * <p>
@@ -231,6 +245,13 @@ public class StockWorker extends Worker {
      * implying you really ought to have checked the response code first.
      */
     public static final int FLAG_CACHED = 0x1;
+    /**
+     * Flag meaning this response never went through WorkManager or a
+     * broadcast; it came from {@link #getQuickResult(Calendar, Graticule, long, int)}
+     * or {@link #lookUpStored(Context, Calendar, Graticule, long, int, InProcessListener)}.
+     * Those always set {@link #FLAG_CACHED}, too.
+     */
+    public static final int FLAG_IN_PROCESS = 0x2;
 
     /** All okay response. */
     public static final int RESPONSE_OKAY = 0;
@@ -244,12 +265,59 @@ public class StockWorker extends Worker {
     /** Error response if there was some network error involved. */
     public static final int RESPONSE_NETWORK_ERROR = -3;
 
+    // The StockRunner currently going, if any, so onStopped can cancel it.
+    private volatile StockRunner mRunner;
+
+    // In-process lookups only ever touch the caches, so one thread's plenty.
+    // They'll queue up behind each other, but none of them take very long.
+    private static ExecutorService sInProcessExecutor;
+    private static Handler sMainHandler;
+
+    /**
+     * Listener for {@link #lookUpStored(Context, Calendar, Graticule, long, int, InProcessListener)}.
+     */
+    public interface InProcessListener {
+        /**
+         * Called on the main thread when an in-process lookup's done.
+         *
+         * @param result the same Bundle that would've been broadcast as
+         *               {@link #EXTRA_STUFF}, or null if the answer wasn't
+         *               stored and you'll need to use
+         *               {@link #enqueueWork(Context, Intent)} after all
+         */
+        void onStockResult(@Nullable Bundle result);
+    }
+
     /**
      * Convenience method for enqueuing work in to this Worker.  This is largely
      * to keep me from having to re-write everything from when this was
      * StockService.
      */
     public static void enqueueWork(@NonNull Context context, @NonNull Intent work) {
+        enqueueWork(context, work, null);
+    }
+
+    /**
+     * <p>
+     * Like {@link #enqueueWork(Context, Intent)}, but the request supersedes
+     * any earlier one enqueued with the same name.  If that earlier one's
+     * still waiting, it never runs; if it's already running, it gets stopped,
+     * which aborts whatever stock lookup it had going, and it won't broadcast
+     * anything.
+     * </p>
+     *
+     * <p>
+     * This is for things like CentralMap, where if the user picks some other
+     * Graticule or date, there's no point finishing the lookup for the old
+     * one.
+     * </p>
+     *
+     * @param context a Context
+     * @param work the request, same as enqueueWork(Context, Intent) takes
+     * @param uniqueName name for the line of requests this belongs to, or null
+     *                   if it doesn't supersede anything
+     */
+    public static void enqueueWork(@NonNull Context context, @NonNull Intent work, @Nullable String uniqueName) {
         // Remake the Intent into a Data.  I guess we're doing type checks here
         // now!
         Parcelable p = work.getParcelableExtra(EXTRA_GRATICULE);
@@ -286,7 +354,7 @@ public class StockWorker extends Worker {
         }
         String respondTo = s != null ? ((Class<?>)s).getName() : null;
 
-        WorkManager.getInstance(context).enqueue(new OneTimeWorkRequest.Builder(StockWorker.class)
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(StockWorker.class)
                 .setInputData(new Data.Builder()
                         .putLong(EXTRA_REQUEST_ID, work.getLongExtra(EXTRA_REQUEST_ID, -1L))
                         .putInt(EXTRA_REQUEST_FLAGS, work.getIntExtra(EXTRA_REQUEST_FLAGS, 0))
@@ -296,7 +364,144 @@ public class StockWorker extends Worker {
                         .putString(DATA_GRATICULE_LATITUDE, graticuleLatitude)
                         .putString(DATA_GRATICULE_LONGITUDE, graticuleLongitude)
                         .build())
-                .build());
+                .build();
+
+        if(uniqueName == null)
+            WorkManager.getInstance(context).enqueue(request);
+        else
+            WorkManager.getInstance(context).enqueueUniqueWork(uniqueName, ExistingWorkPolicy.REPLACE, request);
+    }
+
+    /**
+     * Cancels whatever request was last enqueued with
+     * {@link #enqueueWork(Context, Intent, String)} under the given name.  If
+     * it's running, its stock lookup gets aborted, and it won't broadcast
+     * anything.
+     *
+     * @param context a Context
+     * @param uniqueName the name it was enqueued under
+     */
+    public static void cancelWork(@NonNull Context context, @NonNull String uniqueName) {
+        WorkManager.getInstance(context).cancelUniqueWork(uniqueName);
+    }
+
+    /**
+     * <p>
+     * Tries to answer a stock request right here and now, out of the quick
+     * cache.  This doesn't touch the database or anything else that might
+     * block, so it's safe to call from the main thread.  If
+     * {@link #FLAG_INCLUDE_NEARBY_POINTS} is set, the nearby points have to be
+     * in the quick cache, too, or this won't answer at all.
+     * </p>
+     *
+     * <p>
+     * This only ever gives back successful results.  If it comes back null,
+     * try {@link #lookUpStored(Context, Calendar, Graticule, long, int, InProcessListener)}.
+     * </p>
+     *
+     * @param cal the date
+     * @param graticule the Graticule (null for a globalhash)
+     * @param requestId request ID, same as {@link #EXTRA_REQUEST_ID}
+     * @param flags request flags, same as {@link #EXTRA_REQUEST_FLAGS}
+     * @return the same Bundle that would've been broadcast as
+     *         {@link #EXTRA_STUFF}, or null if it's not in the quick cache
+     */
+    @Nullable
+    public static Bundle getQuickResult(@NonNull Calendar cal,
+                                        @Nullable Graticule graticule,
+                                        long requestId,
+                                        int flags) {
+        Info info = HashBuilder.getQuickCachedInfo(cal, graticule);
+        if(info == null) return null;
+
+        Info[] nearby = null;
+        if((flags & FLAG_INCLUDE_NEARBY_POINTS) != 0 && graticule != null) {
+            Info[] neighborhood = HashBuilder.getQuickCachedNeighborhood(cal, graticule, 1);
+            if(neighborhood == null) return null;
+            nearby = pickNearbyPoints(neighborhood);
+        }
+
+        return makeResultBundle(RESPONSE_OKAY, requestId, flags, FLAG_CACHED | FLAG_IN_PROCESS,
+                cal, graticule, info, nearby);
+    }
+
+    /**
+     * <p>
+     * Tries to answer a stock request out of the caches (quick cache, archive,
+     * and database) on a background thread, without going through WorkManager
+     * or a broadcast.  The listener gets called back on the main thread either
+     * way.  Like {@link #getQuickResult(Calendar, Graticule, long, int)}, this
+     * never goes to the internet, and if it comes back null, it's time for
+     * {@link #enqueueWork(Context, Intent)}.
+     * </p>
+     *
+     * <p>
+     * There's no cancelling these; they're over quickly enough that it's not
+     * worth it.  Just ignore the result if you don't want it anymore.
+     * </p>
+     *
+     * @param context a Context
+     * @param cal the date
+     * @param graticule the Graticule (null for a globalhash)
+     * @param requestId request ID, same as {@link #EXTRA_REQUEST_ID}
+     * @param flags request flags, same as {@link #EXTRA_REQUEST_FLAGS}
+     * @param listener who to tell when it's done
+     */
+    public static void lookUpStored(@NonNull Context context,
+                                    @NonNull Calendar cal,
+                                    @Nullable Graticule graticule,
+                                    long requestId,
+                                    int flags,
+                                    @NonNull InProcessListener listener) {
+        final Context appContext = context.getApplicationContext();
+
+        getInProcessExecutor().execute(() -> {
+            Bundle result = null;
+
+            Info info = HashBuilder.getStoredInfo(appContext, cal, graticule);
+            if(info != null) {
+                Info[] nearby = null;
+                boolean complete = true;
+
+                if((flags & FLAG_INCLUDE_NEARBY_POINTS) != 0 && graticule != null) {
+                    Info[] neighborhood = HashBuilder.getStoredNeighborhood(appContext, cal, graticule, 1);
+                    if(neighborhood != null)
+                        nearby = pickNearbyPoints(neighborhood);
+                    else
+                        complete = false;
+                }
+
+                // If a nearby point's missing, StockWorker proper can go get
+                // it, so let it.
+                if(complete)
+                    result = makeResultBundle(RESPONSE_OKAY, requestId, flags, FLAG_CACHED | FLAG_IN_PROCESS,
+                            cal, graticule, info, nearby);
+            }
+
+            final Bundle toSend = result;
+            getMainHandler().post(() -> listener.onStockResult(toSend));
+        });
+    }
+
+    @NonNull
+    private static synchronized ExecutorService getInProcessExecutor() {
+        if(sInProcessExecutor == null) {
+            sInProcessExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "StockWorker-InProcess");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        return sInProcessExecutor;
+    }
+
+    @NonNull
+    private static synchronized Handler getMainHandler() {
+        if(sMainHandler == null)
+            sMainHandler = new Handler(Looper.getMainLooper());
+
+        return sMainHandler;
     }
 
     public StockWorker(Context appContext, WorkerParameters workerParams) {
@@ -333,7 +538,7 @@ public class StockWorker extends Worker {
                 return Result.failure();
             }
 
-            graticule = new Graticule(lat, lon);
+            graticule = Graticule.of(lat, lon);
         }
 
         // Try to dig up a respondTo class.
@@ -371,7 +576,21 @@ public class StockWorker extends Worker {
                 dispatchIntent(context, RESPONSE_NO_CONNECTION, requestId, flags, respFlags, cal, graticule, null, null, respondTo);
             } else {
                 StockRunner runner = HashBuilder.requestStockRunner(context, cal, graticule);
+                mRunner = runner;
+
+                // We might've been stopped while getting all that set up.
+                if(isStopped()) runner.cancel();
+
                 runner.runStock();
+                mRunner = null;
+
+                // If we got stopped, whoever asked for this doesn't want it
+                // anymore (they probably asked for something else), so don't
+                // bother telling them about it.
+                if(runner.getStatus() == StockRunner.ABORTED || isStopped()) {
+                    Log.d(DEBUG_TAG, "Stopped before the stock came in, not broadcasting anything.");
+                    return Result.success();
+                }
 
                 // And the results are in!
                 int result = runner.getStatus();
@@ -392,8 +611,8 @@ public class StockWorker extends Worker {
                         break;
                     default:
                         // In all other cases, just assume it's a network error.
-                        // We either got ERROR_NETWORK, which is just that, or
-                        // we got IDLE, BUSY, or ABORTED, none of which make any
+                        // We either got ERROR_SERVER, which is just that, or
+                        // we got IDLE or BUSY, neither of which make any
                         // sense in this context, which means something went
                         // horribly, horribly wrong.
                         Log.e(DEBUG_TAG, "Network error!");
@@ -407,6 +626,13 @@ public class StockWorker extends Worker {
         return Result.success();
     }
 
+    @Override
+    public void onStopped() {
+        StockRunner runner = mRunner;
+        if(runner != null) runner.cancel();
+        super.onStopped();
+    }
+
     private static void dispatchIntent(Context context,
                                        int responseCode,
                                        long requestId,
@@ -428,6 +654,23 @@ public class StockWorker extends Worker {
         // Stuff all the extras into a Bundle.  There's ClassLoader issues on
         // some devices that require us to do it this way (see comments on
         // EXTRA_STUFF).
+        intent.putExtra(EXTRA_STUFF, makeResultBundle(responseCode, requestId, flags, respFlags,
+                date, graticule, info, nearby));
+        
+        // And away it goes!
+        Log.d(DEBUG_TAG, "Dispatching intent...");
+        context.sendBroadcast(intent);
+    }
+
+    @NonNull
+    private static Bundle makeResultBundle(int responseCode,
+                                           long requestId,
+                                           int flags,
+                                           int respFlags,
+                                           Calendar date,
+                                           Graticule graticule,
+                                           Info info,
+                                           Info[] nearby) {
         Bundle bun = new Bundle();
         bun.putInt(EXTRA_RESPONSE_CODE, responseCode);
         bun.putLong(EXTRA_REQUEST_ID, requestId);
@@ -440,61 +683,33 @@ public class StockWorker extends Worker {
             bun.putParcelableArray(EXTRA_NEARBY_POINTS, nearby);
         }
 
-        intent.putExtra(EXTRA_STUFF, bun);
-        
-        // And away it goes!
-        Log.d(DEBUG_TAG, "Dispatching intent...");
-        context.sendBroadcast(intent);
+        return bun;
     }
 
     private static Info[] getNearbyPoints(Context context, Calendar cal, Graticule g) {
         if(g == null) return new Info[0];
 
-        List<Info> infos = new LinkedList<>();
-
         // Hopefully, each nearby point is available.  In addition to cases
         // involving the poles, I *think* there's cases where a 30W point IS
-        // available, but a neighboring non-30W point ISN'T.  We'll just ignore
-        // those cases.
-        for(int i = -1; i <= 1; i++) {
-            for(int j = -1; j <= 1; j++) {
-                // Zero and zero isn't a nearby point, that's the very point
-                // we're at right now!
-                if(i == 0 && j == 0) continue;
-
-                // If the user's truly adventurous enough to go to the 90N/S
-                // graticules, there aren't any nearby points north/south of
-                // where they are.  Also, the nearby points aren't going to
-                // be drawn anyway due to the projection, but hey, that's
-                // nitpicking.
-                if(Math.abs((g.isSouth() ? -1 : 1) * g.getLatitude() + i) > 90)
-                    continue;
-
-                // Make a new Graticule, properly offset...
-                Graticule offset = Graticule.createOffsetFrom(g, i, j);
-
-                // ...then do the request.  Check the cache first!
-                Info info = HashBuilder.getStoredInfo(context, cal, offset);
-                if(info == null) {
-                    // It's not in the cache.  Try to make it be in the cache.
-                    StockRunner runner = HashBuilder.requestStockRunner(context, cal, offset);
-                    runner.runStock();
-
-                    if(runner.getStatus() == HashBuilder.StockRunner.ALL_OKAY) {
-                        // We've got a winner!
-                        info = runner.getLastResultObject();
-                    }
-                    // We'll just ignore it if not.  The user doesn't need to be
-                    // bugged about cache failures or whatnot, they already got
-                    // what they were looking for.
-                }
+        // available, but a neighboring non-30W point ISN'T.  HashBuilder
+        // leaves those as nulls, and we'll just ignore them.  The user doesn't
+        // need to be bugged about cache failures or whatnot, they already got
+        // what they were looking for.
+        return pickNearbyPoints(HashBuilder.getNeighborhood(context, cal, g, 1, true));
+    }
 
-                // Now, add that to the array, if it's not null...
-                if(info != null)
-                    infos.add(info);
+    @NonNull
+    private static Info[] pickNearbyPoints(@NonNull Info[] neighborhood) {
+        List<Info> infos = new LinkedList<>();
+        int center = HashBuilder.getNeighborhoodIndex(0, 0, 1);
 
-                // And continue on!
-            }
+        for(int i = 0; i < neighborhood.length; i++) {
+            // The center isn't a nearby point, that's the very point we're at
+            // right now!
+            if(i == center) continue;
+
+            if(neighborhood[i] != null)
+                infos.add(neighborhood[i]);
         }
 
         Info[] toReturn = new Info[8];
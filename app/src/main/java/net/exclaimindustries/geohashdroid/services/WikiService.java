@@ -628,7 +628,7 @@ public class WikiService extends PlainSQLiteQueueService {
                     if(gratObj != null) {
                         // Notably, this doesn't have to have a graticule.  It
                         // could be a globalhash.
-                        grat = new Graticule(gratObj.getInt("latitude"),
+                        grat = Graticule.of(gratObj.getInt("latitude"),
                                 gratObj.getBoolean("isSouth"),
                                 gratObj.getInt("longitude"),
                                 gratObj.getBoolean("isWest"));
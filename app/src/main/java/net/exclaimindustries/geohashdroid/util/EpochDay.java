@@ -0,0 +1,256 @@
+/*
+ * EpochDay.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.exclaimindustries.tools.DateTools;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * <p>
+ * <code>EpochDay</code> is a bunch of static methods for dealing with dates as
+ * plain ints, counting days since January 1, 1970.  That's all a hash needs to
+ * know about a date, and it's a whole lot cheaper than cloning and adding to
+ * Calendars all over the place.
+ * </p>
+ *
+ * <p>
+ * The idea is that Calendars come in from the UI, get turned into epoch days
+ * via {@link #fromCalendar(Calendar)} right away, and everything after that
+ * (stock lookups, the 30W Rule, weekends, database keys, the caches) just does
+ * arithmetic.  If the UI needs a Calendar back, {@link #toCalendar(int)} will
+ * make one.
+ * </p>
+ *
+ * <p>
+ * Epoch days don't have time zones.  They're whatever the year, month, and
+ * day-of-month fields of the Calendar said, same as the hash itself.
+ * </p>
+ */
+public final class EpochDay {
+    /**
+     * The last date on which the 30W Rule was NOT used, May 26, 2008.  Any day
+     * after this is fair game.
+     */
+    public static final int LIMIT_30W = DateTools.toEpochDay(2008, 5, 26);
+
+    // How far back to go to get to Friday, indexed by the day of the week
+    // (Sunday is zero).  Weekends always use Friday's stock.
+    private static final int[] WEEKEND_ROLLBACK = {2, 0, 0, 0, 0, 0, 1};
+
+    private EpochDay() { }
+
+    /**
+     * Gets the epoch day for the year, month, and day-of-month fields of the
+     * given Calendar.
+     *
+     * @param c Calendar to convert
+     * @return an epoch day
+     */
+    public static int fromCalendar(@NonNull Calendar c) {
+        return DateTools.getEpochDay(c);
+    }
+
+    /**
+     * Gets the epoch day for the given date.
+     *
+     * @param year the year
+     * @param month the month (January is 1, NOT Calendar.JANUARY)
+     * @param day the day of the month
+     * @return an epoch day
+     */
+    public static int of(int year, int month, int day) {
+        return DateTools.toEpochDay(year, month, day);
+    }
+
+    /**
+     * Makes a new Calendar at midnight (local time) on the given epoch day.
+     * This is for handing dates back to the UI; don't use it anywhere that's
+     * trying to go fast.
+     *
+     * @param epochDay the day to convert
+     * @return a new Calendar
+     */
+    @NonNull
+    public static Calendar toCalendar(int epochDay) {
+        return new GregorianCalendar(getYear(epochDay),
+                getMonth(epochDay) - 1,
+                getDayOfMonth(epochDay));
+    }
+
+    /**
+     * Gets the year of the given epoch day.
+     *
+     * @param epochDay the day
+     * @return the year
+     */
+    public static int getYear(int epochDay) {
+        return getDateKey(epochDay) / 10000;
+    }
+
+    /**
+     * Gets the month of the given epoch day.
+     *
+     * @param epochDay the day
+     * @return the month (January is 1, NOT Calendar.JANUARY)
+     */
+    public static int getMonth(int epochDay) {
+        return getDateKey(epochDay) / 100 % 100;
+    }
+
+    /**
+     * Gets the day of the month of the given epoch day.
+     *
+     * @param epochDay the day
+     * @return the day of the month
+     */
+    public static int getDayOfMonth(int epochDay) {
+        return getDateKey(epochDay) % 100;
+    }
+
+    /**
+     * Gets the day of the week of the given epoch day, using the same values
+     * Calendar does (that is, Calendar.SUNDAY through Calendar.SATURDAY).
+     *
+     * @param epochDay the day
+     * @return the day of the week
+     */
+    public static int getDayOfWeek(int epochDay) {
+        return dayOfWeekIndex(epochDay) + Calendar.SUNDAY;
+    }
+
+    /**
+     * <p>
+     * Packs the given epoch day into a yyyyMMdd int, which is what the
+     * database uses as its date column.  It's also easy to read in a log.
+     * </p>
+     *
+     * <p>
+     * This only makes sense for years zero through 9999, which I'm willing to
+     * bet covers everything we'll ever need.
+     * </p>
+     *
+     * @param epochDay the day
+     * @return a yyyyMMdd key
+     */
+    public static int getDateKey(int epochDay) {
+        // This is DateTools.toEpochDay, run backwards.  Shift to March 1, 0000
+        // so the leap day's at the end of the year, find the 400-year era,
+        // then the year in that era, then the day in that (March-based) year.
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * Unpacks a yyyyMMdd key made by {@link #getDateKey(int)}.
+     *
+     * @param dateKey the key
+     * @return an epoch day
+     */
+    public static int fromDateKey(int dateKey) {
+        return DateTools.toEpochDay(dateKey / 10000, dateKey / 100 % 100, dateKey % 100);
+    }
+
+    /**
+     * Makes a YYYY-MM-DD string out of the given epoch day, like what goes
+     * into the hash or out to the stock servers.
+     *
+     * @param epochDay the day
+     * @return a YYYY-MM-DD string
+     */
+    @NonNull
+    public static String toHyphenatedString(int epochDay) {
+        int key = getDateKey(epochDay);
+        int year = key / 10000;
+        int month = key / 100 % 100;
+        int day = key % 100;
+
+        StringBuilder sb = new StringBuilder(10);
+        sb.append(year).append('-');
+        if(month < 10) sb.append('0');
+        sb.append(month).append('-');
+        if(day < 10) sb.append('0');
+        sb.append(day);
+        return sb.toString();
+    }
+
+    /**
+     * Determines if a point on the given date in the given Graticule follows
+     * the 30W Rule.  Globalhashes (a null Graticule) always do.
+     *
+     * @param epochDay the (real, unadjusted) date
+     * @param g Graticule to check (null for a globalhash)
+     * @return true if 30W or global, false if not
+     */
+    public static boolean uses30WRule(int epochDay, @Nullable Graticule g) {
+        if(g == null) return true;
+
+        return epochDay > LIMIT_30W && g.uses30WRule();
+    }
+
+    /**
+     * Gets the epoch day of the stock price used for the given date and
+     * Graticule.  That is, back a day for the 30W Rule or globalhashes, then
+     * back to the last trading day if that lands on a weekend or a holiday
+     * (see {@link TradingCalendar}).
+     *
+     * @param epochDay the (real, unadjusted) date
+     * @param g Graticule to use to determine if the 30W Rule is in effect (if
+     *          null, assumes this is a globalhash which is always back a day)
+     * @return the adjusted epoch day
+     */
+    public static int makeAdjusted(int epochDay, @Nullable Graticule g) {
+        return TradingCalendar.getLastTradingDay(uses30WRule(epochDay, g) ? epochDay - 1 : epochDay);
+    }
+
+    /**
+     * Gets the epoch day of the stock price used for the given date for any
+     * graticule on the given side of the 30W line.  Like its Calendar-based
+     * cousin in Info, this respects the date the 30W Rule came into being, so
+     * don't use it for globalhashes from before then.
+     *
+     * @param epochDay the (real, unadjusted) date
+     * @param uses30W true if the graticule in question is east of 30W
+     * @return the adjusted epoch day
+     */
+    public static int makeAdjusted(int epochDay, boolean uses30W) {
+        return TradingCalendar.getLastTradingDay(uses30W && epochDay > LIMIT_30W ? epochDay - 1 : epochDay);
+    }
+
+    /**
+     * Rewinds the given epoch day to Friday if it's on a weekend.  Weekdays
+     * come back untouched, holidays or not; that's
+     * {@link TradingCalendar#getLastTradingDay(int)}'s job.
+     *
+     * @param epochDay the day
+     * @return the same day, or the Friday before it
+     */
+    public static int clampWeekend(int epochDay) {
+        return epochDay - WEEKEND_ROLLBACK[dayOfWeekIndex(epochDay)];
+    }
+
+    private static int dayOfWeekIndex(int epochDay) {
+        // January 1, 1970 was a Thursday, which is four days after Sunday.
+        // Keep it positive for dates before then, too.
+        int index = (epochDay + 4) % 7;
+        return index < 0 ? index + 7 : index;
+    }
+}
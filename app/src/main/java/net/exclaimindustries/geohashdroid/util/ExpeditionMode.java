@@ -782,7 +782,7 @@ public class ExpeditionMode
             mInitialCheckLocation = loc;
             mWaitingOnEmptyStartInfo = true;
             zoomToInitialCurrentLocation(loc);
-            requestStock(new Graticule(loc), Calendar.getInstance(), StockWorker.FLAG_USER_INITIATED | StockWorker.FLAG_FIND_CLOSEST);
+            requestStock(Graticule.of(loc), Calendar.getInstance(), StockWorker.FLAG_USER_INITIATED | StockWorker.FLAG_FIND_CLOSEST);
         } else {
             // Otherwise, it's off to the races.
             ErrorBanner banner = mCentralMap.getErrorBanner();
@@ -858,7 +858,7 @@ public class ExpeditionMode
         } else if(mInitialCheckLocation != null) {
             // If not, we might have an initial check location, so we can get
             // started from there.
-            g = new Graticule(mInitialCheckLocation);
+            g = Graticule.of(mInitialCheckLocation);
         } else {
             // If not, we're in Last Used Graticule mode, we failed the first
             // stock lookup, and we're changing the date.  Use the known
@@ -1055,7 +1055,7 @@ public class ExpeditionMode
 
                 // Second, ask for a stock using that location.
                 if(mInitialCalendar == null) mInitialCalendar = Calendar.getInstance();
-                requestStock(new Graticule(location), mInitialCalendar, StockWorker.FLAG_USER_INITIATED | StockWorker.FLAG_FIND_CLOSEST);
+                requestStock(Graticule.of(location), mInitialCalendar, StockWorker.FLAG_USER_INITIATED | StockWorker.FLAG_FIND_CLOSEST);
             }
         }
 
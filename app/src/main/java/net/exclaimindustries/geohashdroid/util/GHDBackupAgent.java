@@ -38,6 +38,7 @@ public class GHDBackupAgent extends BackupAgentHelper {
                 GHDConstants.PREF_STARTUP_BEHAVIOR,
                 GHDConstants.PREF_STOCK_ALARM,
                 GHDConstants.PREF_STOCK_CACHE_SIZE,
+                GHDConstants.PREF_STOCK_STORE_ENGINE,
                 GHDConstants.PREF_STOP_BUGGING_ME_PREFETCH_WARNING,
                 GHDConstants.PREF_WIKI_PASS,
                 GHDConstants.PREF_WIKI_USER,
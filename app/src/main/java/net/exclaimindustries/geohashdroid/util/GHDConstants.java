@@ -23,9 +23,9 @@ public final class GHDConstants {
     public static final String ACTION_SHOW_RADAR = "com.google.android.radar.SHOW_RADAR";
 
     /** Dummy Graticule that uses the 30W rule (51N, 0W). */
-    public static final Graticule DUMMY_YESTERDAY = new Graticule(51, false, 0, true);
+    public static final Graticule DUMMY_YESTERDAY = Graticule.of(51, false, 0, true);
     /** Dummy Graticule that doesn't use the 30W rule (38N, 84W). */
-    public static final Graticule DUMMY_TODAY = new Graticule(38, false, 84, true);
+    public static final Graticule DUMMY_TODAY = Graticule.of(38, false, 84, true);
 
     /** Prefs key specifying coordinate units. */
     public static final String PREF_COORD_UNITS = "CoordUnits";
@@ -37,6 +37,12 @@ public final class GHDConstants {
     public static final String PREF_INFOBOX = "InfoBox";
     /** Prefs key specifying stock cache size. */
     public static final String PREF_STOCK_CACHE_SIZE = "StockCacheSize";
+    /**
+     * Prefs key specifying which {@link StockStore} the stock cache uses.
+     * This only gets read when the store's opened, so changing it takes
+     * effect the next time the app starts.
+     */
+    public static final String PREF_STOCK_STORE_ENGINE = "StockStoreEngine";
     /** Prefs key specifying to show nearby meetup points. */
     public static final String PREF_NEARBY_POINTS = "NearbyPoints";
     /** Prefs key specifying to show known locations on the main map. */
@@ -150,6 +156,11 @@ public final class GHDConstants {
      * depending on the time of day.
      */
     public static final String PREFVAL_DAYNIGHT_SYSTEM = "System";
+
+    /** Prefs value to keep the stock cache in SQLite ({@link StockStoreDatabase}). */
+    public static final String PREFVAL_STOCK_STORE_SQLITE = "SQLite";
+    /** Prefs value to keep the stock cache in a log file ({@link StockStoreLog}). */
+    public static final String PREFVAL_STOCK_STORE_LOG = "Log";
     
     /** Threshold for the "Accuracy Low" warning (currently 64m). **/
     public static final int LOW_ACCURACY_THRESHOLD = 64;
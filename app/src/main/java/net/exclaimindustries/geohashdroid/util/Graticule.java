@@ -15,6 +15,8 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import androidx.annotation.NonNull;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
  * <p>
  * A <code>Graticule</code> represents, well, a graticule. A 1x1 square degree
@@ -26,6 +28,16 @@ import androidx.annotation.NonNull;
  * <p>
  * Note that Graticules are immutable.
  * </p>
+ *
+ * <p>
+ * Since there's only so many graticules on the planet (180 rows of latitude
+ * and 360 columns of longitude, counting the negative zeroes), there's a
+ * canonical instance of each one available through the various
+ * <code>of</code> methods.  Those never allocate after the first time a given
+ * Graticule is asked for, and two of them for the same graticule will always
+ * be the same object.  Each also has a dense integer ID from {@link #getId()},
+ * which can be used as an array index or a cheap map key.
+ * </p>
  * 
  * <p>
  * *: Well, maybe not the heart. At least the kidneys for sure.
@@ -34,6 +46,20 @@ import androidx.annotation.NonNull;
  * @author Nicholas Killewald
  */
 public class Graticule implements Parcelable {
+    /** The number of rows of latitude, counting both negative zeroes. */
+    private static final int ROWS = 180;
+    /** The number of columns of longitude, counting both negative zeroes. */
+    private static final int COLUMNS = 360;
+    /**
+     * The total number of graticules on the planet, and thus one more than the
+     * highest possible value from {@link #getId()}.
+     */
+    public static final int COUNT = ROWS * COLUMNS;
+
+    // The canonical instances, indexed by ID.  These get filled in as they're
+    // asked for.
+    private static final AtomicReferenceArray<Graticule> mTable = new AtomicReferenceArray<>(COUNT);
+
     private int mLatitude;
     private int mLongitude;
 
@@ -131,6 +157,138 @@ public class Graticule implements Parcelable {
         this.setLongitude(Math.abs(Integer.parseInt(longitude)));
     }
 
+    /**
+     * Gets the canonical Graticule for the given latitude and longitude.  This
+     * works just like {@link #Graticule(int, boolean, int, boolean)}, negative
+     * zeroes, clamping, and all, only it won't make a new object if the
+     * Graticule has been asked for before.
+     *
+     * @param latitude latitude to set
+     * @param south true if south, false if north
+     * @param longitude longitude to set
+     * @param west true if west, false if east
+     * @return the one and only Graticule for that spot
+     */
+    @NonNull
+    public static Graticule of(int latitude, boolean south, int longitude, boolean west) {
+        latitude = Math.min(Math.abs(latitude), 89);
+        longitude = Math.min(Math.abs(longitude), 179);
+
+        return fromId(makeRow(latitude, south) * COLUMNS + makeColumn(longitude, west));
+    }
+
+    /**
+     * Gets the canonical Graticule for the given latitude and longitude as
+     * doubles.  This works just like {@link #Graticule(double, double)}, only
+     * it won't make a new object if the Graticule has been asked for before.
+     *
+     * @param latitude latitude to use
+     * @param longitude longitude to use
+     * @return the one and only Graticule for that spot
+     */
+    @NonNull
+    public static Graticule of(double latitude, double longitude) {
+        return of((int)latitude, latitude < 0, (int)longitude, longitude < 0);
+    }
+
+    /**
+     * Gets the canonical Graticule for the given Location.
+     *
+     * @param location Location to use
+     * @return the one and only Graticule for that spot
+     */
+    @NonNull
+    public static Graticule of(@NonNull Location location) {
+        return of(location.getLatitude(), location.getLongitude());
+    }
+
+    /**
+     * Gets the canonical Graticule for the given LatLng.
+     *
+     * @param latLng LatLng to use
+     * @return the one and only Graticule for that spot
+     */
+    @NonNull
+    public static Graticule of(@NonNull LatLng latLng) {
+        return of(latLng.latitude, latLng.longitude);
+    }
+
+    /**
+     * Gets the canonical Graticule for the given String forms of the latitude
+     * and longitude.  This works just like {@link #Graticule(String, String)},
+     * "-0" and all.
+     *
+     * @param latitude latitude to use
+     * @param longitude longitude to use
+     * @return the one and only Graticule for that spot
+     * @throws NullPointerException either of the input strings were empty
+     * @throws NumberFormatException either of the input strings weren't numbers
+     */
+    @NonNull
+    public static Graticule of(String latitude, String longitude)
+            throws NullPointerException, NumberFormatException {
+        return of(Integer.parseInt(latitude), latitude.charAt(0) == '-',
+                Integer.parseInt(longitude), longitude.charAt(0) == '-');
+    }
+
+    /**
+     * Gets the canonical Graticule with the given ID, as from
+     * {@link #getId()}.
+     *
+     * @param id the ID
+     * @return the one and only Graticule with that ID
+     * @throws IndexOutOfBoundsException the ID isn't between 0 and
+     *                                   {@link #COUNT} - 1
+     */
+    @NonNull
+    public static Graticule fromId(int id) {
+        Graticule g = mTable.get(id);
+
+        if(g == null) {
+            int row = id / COLUMNS;
+            int column = id % COLUMNS;
+
+            g = new Graticule(row < 90 ? 89 - row : row - 90,
+                    row < 90,
+                    column < 180 ? 179 - column : column - 180,
+                    column < 180);
+
+            // If some other thread beat us to it, use theirs, so there's only
+            // ever the one.
+            if(!mTable.compareAndSet(id, null, g))
+                g = mTable.get(id);
+        }
+
+        return g;
+    }
+
+    /**
+     * <p>
+     * Gets this Graticule's ID.  Every graticule on the planet has its own ID
+     * from 0 to {@link #COUNT} - 1, negative zeroes included.  That makes it
+     * handy as an array index.
+     * </p>
+     *
+     * <p>
+     * The ID is the row times 360, plus the column.  Rows go from 89S (0) to
+     * 89N (179), and columns go from 179W (0) to 179E (359).  This is the same
+     * scheme a Graticule uses when it gets parceled.
+     * </p>
+     *
+     * @return this Graticule's ID
+     */
+    public int getId() {
+        return makeRow(mLatitude, mSouth) * COLUMNS + makeColumn(mLongitude, mWest);
+    }
+
+    private static int makeRow(int latitude, boolean south) {
+        return south ? 89 - latitude : latitude + 90;
+    }
+
+    private static int makeColumn(int longitude, boolean west) {
+        return west ? 179 - longitude : longitude + 180;
+    }
+
     /**
      * <p>
      * Constructs a new Graticule offset from an existing one.  That is to say,
@@ -150,86 +308,46 @@ public class Graticule implements Parcelable {
      * equator.
      * </p>
      *
+     * <p>
+     * The Graticule returned is the canonical one, as per
+     * {@link #of(int, boolean, int, boolean)}.
+     * </p>
+     *
      * @param g Graticule to copy
      * @param latOff number of degrees north to offset (negative is south)
      * @param lonOff number of degrees east to offset (negative is west)
-     * @return a brand spankin' new Graticule, offset as per suggestion
+     * @return a Graticule, offset as per suggestion
      */
     @NonNull
     public static Graticule createOffsetFrom(@NonNull Graticule g, int latOff, int lonOff) {
         // If we're just returning the same Graticule, seriously, come on now.
         if(latOff == 0 && lonOff == 0) return g;
 
-        // We already have all the data we need from the old Graticule.  But,
-        // we need to account for passing through the Prime Meridian and/or
-        // equator.  If the sign changes, decrement the amount of the change by
-        // one.  This logic is gratuitously loopy.
-        boolean goingSouth = (latOff < 0);
-        latOff = Math.abs(latOff);
-
-        int finalLat = g.getLatitude();
-        int finalLon = g.getLongitude();
-        boolean finalSouth = g.isSouth();
-        boolean finalWest = g.isWest();
-
-        // Skip the following if latitude is unaffected.
-        if (latOff != 0) {
-            if (g.isSouth() == goingSouth) {
-                // Going the same direction, no equator-hacking needed.
-                finalLat = g.getLatitude() + latOff;
-            } else {
-                // Going opposite directions, check for equator-hacking.
-                if (g.getLatitude() < latOff) {
-                    // We cross the equator!
-                    latOff--;
-                    finalSouth = !finalSouth;
-                }
-                finalLat = Math.abs(g.getLatitude() - latOff);
-            }
-        }
+        // The row/column scheme from getId() already takes care of the
+        // negative zeroes for us, as going one row south of 0N lands on 0S,
+        // and one column west of 0E lands on 0W.  So this is just arithmetic.
+        // Rows clamp at the poles, and columns wrap around the planet.
+        int id = g.getId();
+        int row = id / COLUMNS + latOff;
+        int column = (id % COLUMNS + lonOff) % COLUMNS;
 
-        // Meridian hacking can be handled differently to also cover planet-
-        // wrapping at the same time.  This entire stunt depends on treating
-        // the longitude as a value between 0 and 359, inclusive.  In this,
-        // 179W is 0, 0W is 179, 0E is 180, and 179E is 359.
-        
-        // Adjust us properly.  Remember the negative zero graticules!
-        if(finalWest)
-            finalLon = -finalLon + 179;
-        else
-            finalLon += 180;
-        
-        finalLon += lonOff;
-        finalLon %= 360;
-        
-        if(finalLon < 0) finalLon = 360 - Math.abs(finalLon);
-        
-        if(finalLon >= 180) {
-            finalWest = false;
-            finalLon -= 180;
-        } else {
-            finalWest = true;
-            finalLon -= 179;
-        }
-        
-        finalLon = Math.abs(finalLon);
-        
-        // Now make the new Graticule object and return it.
-        return new Graticule(finalLat, finalSouth, finalLon, finalWest);
-    }
-    
-    /**
-     * Deparcelizinate a Graticule.
-     * 
-     * @param in the parcel to deparcelize
-     */
-    private Graticule(Parcel in) {
-        readFromParcel(in);
+        if(row < 0) row = 0;
+        if(row >= ROWS) row = ROWS - 1;
+        if(column < 0) column += COLUMNS;
+
+        return fromId(row * COLUMNS + column);
     }
     
     public static final Parcelable.Creator<Graticule> CREATOR = new Parcelable.Creator<Graticule>() {
         public Graticule createFromParcel(Parcel in) {
-            return new Graticule(in);
+            // Deparcelizinate a Graticule.  The two ints in the parcel are the
+            // row and column (see writeToParcel), so we can go straight to
+            // the canonical instance.  Clamp 'em first, just in case.  There's
+            // no readFromParcel; the canonical instances are shared, so
+            // reading into one would change it for everybody.
+            int row = Math.max(0, Math.min(ROWS - 1, in.readInt()));
+            int column = Math.max(0, Math.min(COLUMNS - 1, in.readInt()));
+            return fromId(row * COLUMNS + column);
         }
 
         public Graticule[] newArray(int size) {
@@ -237,40 +355,6 @@ public class Graticule implements Parcelable {
         }
     };
     
-    /**
-     * Deparcel.  Read from parcel.  Deparcelize.  This constructs a Graticule
-     * from a Parcel.
-     * 
-     * @param in parcel to deparcelize
-     */
-    public void readFromParcel(Parcel in) {
-        // For the sake of efficiency, we store exactly two things in the
-        // parcel.  Specifically, the latitude and longitude, represented from
-        // 0-179 and 0-356, respectively, going from 89 south to 89 north and
-        // 179 west to 179 east (both including a negative zero).  We can
-        // determine mSouth and mWest from there.
-        int absLat = in.readInt();
-        int absLon = in.readInt();
-        
-        // I swear, if these wind up not being valid, I reserve the right to
-        // dope slap you.
-        if(absLat < 90) {
-            mSouth = true;
-            setLatitude(89 - absLat);
-        } else {
-            mSouth = false;
-            setLatitude(absLat - 90);
-        }
-        
-        if(absLon < 180) {
-            mWest = true;
-            setLongitude(179 - absLon);
-        } else {
-            mWest = false;
-            setLongitude(absLon - 180);
-        }
-    }
-    
     @Override
     public int describeContents() {
         // BLAH BLAH BLAH
@@ -281,7 +365,10 @@ public class Graticule implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         // Hey!  We've got a parcel to write out!  To compress this down a bit
         // further, we want to only store two ints (instead of two ints and two
-        // booleans).  See the comments in readFromParcel for details.  To wit:
+        // booleans).  Specifically, the latitude and longitude, represented
+        // from 0-179 and 0-359, respectively, going from 89 south to 89 north
+        // and 179 west to 179 east (both including a negative zero).  That's
+        // the same row and column as getId uses.  To wit:
         
         // Latitude!
         if(mSouth)
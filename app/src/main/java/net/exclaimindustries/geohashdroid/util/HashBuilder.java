@@ -8,30 +8,43 @@
 package net.exclaimindustries.geohashdroid.util;
 
 import android.content.Context;
+import android.database.SQLException;
+import android.preference.PreferenceManager;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
 
-import net.exclaimindustries.tools.DateTools;
 import net.exclaimindustries.tools.HexFraction;
 import net.exclaimindustries.tools.MD5Tools;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.security.InvalidParameterException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-import cz.msebera.android.httpclient.HttpResponse;
-import cz.msebera.android.httpclient.client.methods.HttpGet;
+import cz.msebera.android.httpclient.client.config.RequestConfig;
 import cz.msebera.android.httpclient.impl.client.CloseableHttpClient;
+import cz.msebera.android.httpclient.impl.client.DefaultConnectionKeepAliveStrategy;
 import cz.msebera.android.httpclient.impl.client.HttpClients;
+import cz.msebera.android.httpclient.impl.conn.PoolingHttpClientConnectionManager;
 
 /**
  * <p>
@@ -47,28 +60,92 @@ import cz.msebera.android.httpclient.impl.client.HttpClients;
  * </p>
  * 
  * <p>
- * This implementation uses the Crox site to get the DJIA, falling back to
- * the peeron.com site if Crox can't figure it out (upstream faults, server
- * failure, etc).
+ * This implementation uses the peeron.com site to get the DJIA, falling back
+ * to the Crox site if peeron can't figure it out (upstream faults, server
+ * failure, etc) or is taking too long about it.  Whichever of those has been
+ * faster and more reliable lately gets asked first, and more sources can be
+ * added.  See {@link StockFetcher}.
  * </p>
  * 
  * @author Nicholas Killewald
  */
 public class HashBuilder {
     
-    // This is used as the lock to prevent multiple requests from happening at
-    // once.  This really shouldn't ever happen, but just in case.
-    private static final Object locker = new Object();
+    // These are the stock lookups currently in progress, keyed by the
+    // (already-adjusted) date as an epoch day.  Two StockRunners after the
+    // same date share one lookup; StockRunners after different dates don't
+    // wait on each other at all.
+    private static final ConcurrentMap<Integer, StockFlight> mStockFlights = new ConcurrentHashMap<>();
+    // How many lookups actually went to the database and/or internet, and how
+    // many StockRunners just waited on one of those instead.
+    private static final AtomicLong mStockFlightsStarted = new AtomicLong();
+    private static final AtomicLong mStockFlightsCoalesced = new AtomicLong();
+    // The dates the servers recently said weren't posted yet.  Until it's
+    // worth asking again, those get answered right here.
+    private static final NotPostedCache mNotPosted = new NotPostedCache();
     
     private static final String DEBUG_TAG = "HashBuilder";
     
-    private static StockStoreDatabase mStore;
-    // This set allows for quick reloading of the most recent stock and hash in
-    // a given instance of the program, bypassing the SQLite database, as well
-    // as allow for a small cache even if the SQLite database is turned off by
-    // preferences.
-    private static Info mLastInfo;
-    private static Info mTwoInfosAgo;
+    // The stock store (SQLite or the log file, depending on the preference),
+    // which gets opened (and its most recently used hashes loaded into the
+    // quick cache) on its own thread as soon as anything calls warmUp.
+    // Anything that needs it waits on this, which by then is usually already
+    // done.  Only touch this while synchronized.
+    private static Future<StockStore> mStoreFuture;
+    // The thread the database gets compacted on, so nobody storing something
+    // has to wait on it.  Made on first use.  Only one compaction ever gets
+    // queued up at a time.
+    private static ExecutorService mCompactExecutor;
+    private static final AtomicBoolean mCompactionQueued = new AtomicBoolean();
+    // The bundled stock archive plus whatever's been fetched since, which gets
+    // checked before the database.  See StockArchive.
+    private static StockArchive mArchive;
+    // The pool for working out big batches of hashes.  This is made on first
+    // use, as most runs of the app never need it.
+    private static ForkJoinPool mHashPool;
+    // The one HTTP client every StockRunner shares.  It keeps a small pool of
+    // connections alive between lookups, so checking a stock doesn't mean
+    // setting up a whole new connection (and its thread, and its TLS) each
+    // time.  This is made on first use, too.
+    private static CloseableHttpClient mHttpClient;
+    // The threads stock requests run on, so more than one server can be asked
+    // at once.  Threads that sit around unused go away on their own.
+    private static ExecutorService mFetchExecutor;
+    // What actually goes out and asks the servers.  This is made on first use,
+    // same as the client.
+    private static StockFetcher mStockFetcher;
+    // How long to wait on one stock server before also asking the next one.
+    // Healthy servers answer well within this; dead ones would otherwise cost
+    // the whole connection timeout.
+    private static final long DEFAULT_HEDGE_DELAY_MS = 2000;
+    private static long mHedgeDelayMs = DEFAULT_HEDGE_DELAY_MS;
+    // How many days a backfill asks for at once.  Each of those might hedge
+    // to a second server, so this keeps a backfill inside the connection pool
+    // without hogging all of it.
+    private static final int BACKFILL_PARALLELISM = 4;
+    // This allows for quick reloading of recent hashes in a given instance of
+    // the program, bypassing the SQLite database, as well as allow for a small
+    // cache even if the SQLite database is turned off by preferences.  It's
+    // keyed by date and 30W-ness, so one entry covers every Graticule on the
+    // same side of the 30W line.  A 3x3 block of nearby points can need two
+    // entries per day (one on each side of the 30W line), so this leaves
+    // plenty of room for a couple weeks' worth of those.
+    private static final int QUICK_CACHE_CAPACITY = 32;
+    private static final HashCache mQuickCache = new HashCache(QUICK_CACHE_CAPACITY);
+
+    // The first day the Dow ever opened.  No store's going to have a stock
+    // from before then, so that's as far back as moving stocks from one store
+    // to another needs to look.
+    private static final int EARLIEST_STOCK_DAY = EpochDay.of(1896, 5, 26);
+
+    // Each thread that builds hashes gets its own buffers, so that
+    // a big pile of hashes doesn't turn into a big pile of garbage.
+    private static final ThreadLocal<HashScratch> sScratch = new ThreadLocal<HashScratch>() {
+        @Override
+        protected HashScratch initialValue() {
+            return new HashScratch();
+        }
+    };
 
     /**
      * <code>StockRunner</code> is what fetches the stocks.  It spawns off
@@ -80,10 +157,19 @@ public class HashBuilder {
     public static class StockRunner {
         private static final String DEBUG_TAG = "StockRunner";
 
-        // In milliseconds, remember.
+        // This applies separately to connecting, to waiting on data once
+        // connected, and to waiting for a connection out of the pool.
         private static final int CONNECTION_TIMEOUT_SEC = 10;
+        // The client wants it in milliseconds, remember.
         private static final int CONNECTION_TIMEOUT_MS = CONNECTION_TIMEOUT_SEC * 1000;
 
+        // The pool's small.  There's only ever a couple servers, and only
+        // ever a couple dates being looked up at once.
+        private static final int MAX_CONNECTIONS = 8;
+        private static final int MAX_CONNECTIONS_PER_SERVER = 4;
+        // Connections that sit idle longer than this get closed.
+        private static final int IDLE_CONNECTION_TIMEOUT_SEC = 30;
+
         /**
          * This is busy, either with getting the stock price or working out
          * the hash.
@@ -108,25 +194,55 @@ public class HashBuilder {
          * The last request couldn't be met because of some server error.
          */
         public static final int ERROR_SERVER = 4;
+        /**
+         * The last request was cancelled with {@link #cancel()} before it
+         * could finish.
+         */
+        public static final int ABORTED = 5;
+
+        /**
+         * Gets told when a StockRunner started with
+         * {@link #runStockAsync(Executor, Callback)} is done.
+         */
+        public interface Callback {
+            /**
+             * Called when the StockRunner's done, one way or another (except
+             * being cancelled; if it got cancelled, this never gets called).
+             * Check {@link #getStatus()} to see how it went.  This gets called
+             * on whatever thread the StockRunner ran on, so if you need the
+             * main thread, you'll have to get there yourself.
+             *
+             * @param runner the StockRunner that's done
+             */
+            void onStockResult(@NonNull StockRunner runner);
+        }
 
         private final Context mContext;
         private final Calendar mCal;
+        private final int mDay;
         private final Graticule mGrat;
-        private HttpGet mRequest;
-        private int mStatus;
-        private Info mLastObject;
-
-        // This may be expanded later to allow a user-definable list, hence why
-        // it doesn't follow the usual naming conventions I use.  Of course, in
-        // THAT case, we'd need to make it not be a raw array.  The general form
-        // is that %Y is the four-digit year, %m is the zero-padded month, and
-        // %d is the zero-padded date.
+        private volatile int mStatus;
+        private volatile Info mLastObject;
+
+        // Whether or not somebody called cancel().  Once that happens, this
+        // StockRunner's done for good.
+        private volatile boolean mCancelled;
+        // The thread runStock() is going on right now, if any, so cancel() can
+        // interrupt it.  That's what makes the StockFetcher abort whatever
+        // requests it's got going.  Only touch this while synchronized.
+        private Thread mThread;
+
+        // These are the mirrors every StockFetcher starts out with.  More can
+        // be added (or these removed) with addStockSource and
+        // removeStockSource.  The general form is that %Y is the four-digit
+        // year, %m is the zero-padded month, and %d is the zero-padded date.
         private final static String[] mServers = { "http://irc.peeron.com/xkcd/map/data/%Y/%m/%d",
                 "http://geo.crox.net/djia/%Y/%m/%d" };
 
         private StockRunner(@NonNull Context con, @NonNull Calendar c, @Nullable Graticule g) {
             mContext = con;
             mCal = c;
+            mDay = EpochDay.fromCalendar(c);
             mGrat = g;
             mStatus = IDLE;
         }
@@ -143,63 +259,165 @@ public class HashBuilder {
          * appropriate.  You can retrieve the status and data from
          * {@link #getStatus()} and {@link #getLastResultObject()}.
          * </p>
+         *
+         * <p>
+         * If {@link #cancel()} gets called from another thread while this is
+         * going, this returns early with a status of {@link #ABORTED}.
+         * </p>
          */
         public void runStock() {
+            synchronized(this) {
+                if(mCancelled) {
+                    mStatus = ABORTED;
+                    return;
+                }
+                mThread = Thread.currentThread();
+            }
+
+            try {
+                doRunStock();
+            } finally {
+                synchronized(this) {
+                    mThread = null;
+                    // If cancel() interrupted us, that interrupt was meant for
+                    // this StockRunner, not whatever this thread does next.
+                    if(mCancelled) Thread.interrupted();
+                }
+            }
+        }
+
+        /**
+         * <p>
+         * Runs the stock fetch on the given Executor, then tells the given
+         * Callback about it when it's done.  Cancelling the returned Future
+         * is the same as calling {@link #cancel()}.
+         * </p>
+         *
+         * <p>
+         * The Future's result is the same as {@link #getLastResultObject()}
+         * would be, which is to say, check the status before trusting it.
+         * </p>
+         *
+         * @param executor where to run the fetch
+         * @param callback who to tell when it's done (can be null)
+         * @return a Future for the fetch
+         */
+        @NonNull
+        public Future<Info> runStockAsync(@NonNull Executor executor, @Nullable Callback callback) {
+            FutureTask<Info> task = new FutureTask<Info>(() -> {
+                runStock();
+                return mLastObject;
+            }) {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    // Our own cancel() does the interrupting, and cleans up
+                    // after it, so FutureTask doesn't need to.
+                    StockRunner.this.cancel();
+                    return super.cancel(false);
+                }
+
+                @Override
+                protected void done() {
+                    if(callback != null && !isCancelled() && !mCancelled)
+                        callback.onStockResult(StockRunner.this);
+                }
+            };
+
+            executor.execute(task);
+            return task;
+        }
+
+        /**
+         * <p>
+         * Cancels this StockRunner.  If it's waiting on the stock servers,
+         * those requests get aborted, and if it's waiting on another
+         * StockRunner's lookup for the same date, it stops waiting.  If it's
+         * the one doing the lookup other StockRunners are waiting on, they
+         * stop waiting on it and one of them takes over the lookup.  If it
+         * hasn't started yet, it won't.
+         * </p>
+         *
+         * <p>
+         * Either way, the status ends up as {@link #ABORTED} (unless it
+         * already finished, in which case this does nothing).  This can be
+         * called from any thread.
+         * </p>
+         */
+        public void cancel() {
+            synchronized(this) {
+                if(mCancelled) return;
+                mCancelled = true;
+                if(mThread != null) {
+                    Log.d(DEBUG_TAG, "Cancelling the StockRunner for " + EpochDay.toHyphenatedString(mDay) + "...");
+                    mThread.interrupt();
+                }
+            }
+        }
+
+        /**
+         * Whether or not {@link #cancel()} has been called on this.
+         *
+         * @return true if cancelled, false if not
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        private void doRunStock() {
             Log.d(DEBUG_TAG, "Now starting a StockRunner for " +
-                DateTools.getHyphenatedDateString(mCal) +
+                EpochDay.toHyphenatedString(mDay) +
                     (mGrat == null ? " for the Globalhash" : " at " +
                         mGrat.getTitleString(false))
                     + "...");
             Info toReturn;
-            String stock;
+            long stock;
             
             mStatus = BUSY;
             
-            // First, we need to adjust the calendar in the event we're in the
-            // range of the 30W rule.  To that end, sCal is for stock calendar.
-            Calendar sCal = Info.makeAdjustedCalendar(mCal, mGrat);
-            
-            // Grab a lock on our lock object.
-            synchronized(locker) {
-                // First, if this exists in the cache, use it instead of going
-                // off to the internet.  This method uses the ACTUAL date, so
-                // we can ignore sCal for now.
-                toReturn = getStoredInfo(mContext, mCal, mGrat);
-                if(toReturn != null) {
-                    // Hey, whadya know, we've got something!  Send this data
-                    // back to the Handler and return!
-                    Log.d(DEBUG_TAG, "Found it in the cache!");
-                    mStatus = ALL_OKAY;
-                    sendMessage(toReturn);
+            // First, if this exists in the cache, use it instead of going off
+            // to the internet.  This method uses the ACTUAL date, so we don't
+            // need the stock date yet.  Note that there's no lock here; a cache
+            // hit never has to wait on somebody else's network trip.
+            toReturn = getStoredInfo(mContext, mCal, mGrat);
+            if(toReturn != null) {
+                // Hey, whadya know, we've got something!  Send this data back
+                // to the Handler and return!
+                Log.d(DEBUG_TAG, "Found it in the cache!");
+                mStatus = ALL_OKAY;
+                sendMessage(toReturn);
+                return;
+            }
+
+            // If that failed, we need a stock price, so we need to adjust the
+            // date for the 30W rule, weekends, and holidays.  To that end, sDay
+            // is for stock day.  By now the store's been opened, so the market
+            // closures are loaded, too.
+            int sDay = EpochDay.makeAdjusted(mDay, mGrat);
+
+            // If somebody else is already looking for the stock for this date,
+            // we'll just wait on their answer.  If not, WE'RE the ones who go
+            // looking, and anybody else who shows up for the same date waits
+            // on us.
+            try {
+                stock = resolveStock(sDay);
+            } catch (FileNotFoundException fnfe) {
+                // If we got a 404, assume it's not posted yet.
+                mStatus = ERROR_NOT_POSTED;
+                sendMessage(createInvalidInfo(mCal, mGrat));
+                return;
+            } catch (IOException ioe) {
+                if(mCancelled) {
+                    // Somebody doesn't want this anymore.  Fine by us.
+                    Log.d(DEBUG_TAG, "StockRunner for " + EpochDay.toHyphenatedString(mDay) + " was cancelled.");
+                    mStatus = ABORTED;
+                    mLastObject = null;
                     return;
                 }
-                
-                // If that failed, we need a stock price.  First, check to see
-                // if it's in the database.  
-                stock = getStoredStock(mContext, sCal);
-                
-                // If we found something, great!  Let's move on!
-                if(stock == null) {
-                    // Otherwise, we need to start heading off to the net.
-                    mStatus = BUSY;
-                    try {
-                        stock = fetchStock(sCal);
-                        // If this didn't throw an exception AND it's not blank,
-                        // stash it in the database.
-                        if(stock.trim().length() != 0)
-                            storeStock(mContext, sCal, stock);
-                    } catch (FileNotFoundException fnfe) {
-                        // If we got a 404, assume it's not posted yet.
-                        mStatus = ERROR_NOT_POSTED;
-                        sendMessage(createInvalidInfo(mCal, mGrat));
-                        return;
-                    } catch (IOException ioe) {
-                        // If we got anything else, assume a problem.
-                        mStatus = ERROR_SERVER;
-                        sendMessage(createInvalidInfo(mCal, mGrat));
-                        return;
-                    }
-                }
+
+                // If we got anything else, assume a problem.
+                mStatus = ERROR_SERVER;
+                sendMessage(createInvalidInfo(mCal, mGrat));
+                return;
             }
 
             // We assemble an Info object and get ready to return it.  This uses
@@ -216,6 +434,98 @@ public class HashBuilder {
             sendMessage(toReturn);
         }
         
+        /**
+         * Gets the stock for the given already-adjusted date, either from the
+         * database or the internet.  Only one of these runs per date at a
+         * time; if another StockRunner is already resolving the same date,
+         * this waits for that one and uses its answer (or its error) instead
+         * of going to the database or the internet itself.  If that other
+         * StockRunner gets cancelled partway through, this takes over the
+         * lookup itself.  Different dates never wait on each other.
+         *
+         * @param sDay already-adjusted date, as an epoch day
+         * @return the stock, packed up as a {@link StockValue}
+         * @throws FileNotFoundException the stock isn't posted yet
+         * @throws IOException anything else went wrong (including this
+         *                     StockRunner getting cancelled)
+         */
+        private long resolveStock(int sDay) throws IOException {
+            while(true) {
+                // If the servers just told somebody it's not posted, and it's
+                // not worth asking again yet, don't.
+                if(mNotPosted.isNotPosted(sDay, System.currentTimeMillis())) {
+                    Log.d(DEBUG_TAG, "Already know the stock for " + EpochDay.toHyphenatedString(sDay)
+                            + " isn't posted yet, not asking again");
+                    throw new FileNotFoundException("The stock for " + EpochDay.toHyphenatedString(sDay) + " isn't posted yet");
+                }
+
+                StockFlight flight = new StockFlight();
+                StockFlight existing = mStockFlights.putIfAbsent(sDay, flight);
+
+                if(existing != null) {
+                    // Somebody beat us to it.  Wait for them.
+                    long coalesced = mStockFlightsCoalesced.incrementAndGet();
+                    Log.d(DEBUG_TAG, "Already resolving a stock for " + EpochDay.toHyphenatedString(sDay)
+                            + ", waiting on that (coalesced so far: " + coalesced + ")");
+                    long stock = existing.await();
+                    if(stock != StockValue.NONE) return stock;
+
+                    // Whoever that was got cancelled before they found
+                    // anything.  Go around again; either we'll be the ones
+                    // doing the lookup this time, or somebody else already is.
+                    Log.d(DEBUG_TAG, "The lookup for " + EpochDay.toHyphenatedString(sDay) + " was abandoned, trying again...");
+                    continue;
+                }
+
+                mStockFlightsStarted.incrementAndGet();
+
+                try {
+                    // First, check to see if it's in the database.
+                    long stock = getStoredStockValue(mContext, sDay);
+
+                    // If we found something, great!  Let's move on!
+                    if(stock == StockValue.NONE) {
+                        // Otherwise, we need to start heading off to the net.
+                        mStatus = BUSY;
+                        try {
+                            stock = fetchStock(sDay);
+                        } catch(FileNotFoundException fnfe) {
+                            mNotPosted.markNotPosted(sDay, System.currentTimeMillis());
+                            throw fnfe;
+                        }
+                        // If this didn't throw an exception, it's a real stock,
+                        // so stash it in the database.
+                        storeStock(mContext, sDay, stock);
+                    }
+
+                    flight.succeed(stock);
+                    return stock;
+                } catch (IOException ioe) {
+                    // If we got cancelled, that's not the servers' fault, so
+                    // don't pass it on as an error to anybody waiting on us.
+                    // They can go ask for themselves.
+                    if(mCancelled)
+                        flight.abandon();
+                    else
+                        flight.fail(ioe);
+                    throw ioe;
+                } catch (RuntimeException re) {
+                    // Make sure nobody's left hanging if something blows up.
+                    flight.fail(new IOException(re));
+                    throw re;
+                } finally {
+                    mStockFlights.remove(sDay, flight);
+
+                    // Anything that isn't an IOException or RuntimeException
+                    // (an Error, say) sails right past the catches above.  So
+                    // no matter how we got here, let go of anybody still
+                    // waiting; they'll go ask for themselves.  If the flight
+                    // already finished, this doesn't do anything.
+                    flight.abandon();
+                }
+            }
+        }
+
         private void sendMessage(@NonNull Info toReturn) {
             mLastObject = toReturn;
         }
@@ -233,148 +543,273 @@ public class HashBuilder {
             return mLastObject;
         }
 
-        @NonNull
-        private String fetchStock(@NonNull Calendar sCal) throws IOException {
-            // Now, generate a string for the URL.
-            String sMonthStr = String.format(Locale.US, "%02d", sCal.get(Calendar.MONTH) + 1);
-            String sDayStr = String.format(Locale.US, "%02d", sCal.get(Calendar.DAY_OF_MONTH));
-
-            // Good, good! Now, to the web!  Go through our list of sites in
-            // order until we find an answer, we bottom out, or we abort.  In
-            // terms of what we report to the user, "Server error" is lowest-
-            // priority, with "Stock not posted" rating above it.  That is to
-            // say, if one server reports and error but another one explicitly
-            // tells us the stock wasn't found, the latter is what we use.  Of
-            // course, if we get an abort request, that takes absolute
-            // precedence.
-            int curStatus = ERROR_SERVER;
-            String result = "";
-
-            for(String s : mServers) {
-                // Do all our substitutions...
-                String location = s.replaceAll("%Y", Integer.toString(sCal.get(Calendar.YEAR)));
-                location = location.replaceAll("%m", sMonthStr);
-                location = location.replaceAll("%d", sDayStr);
-                Log.v(DEBUG_TAG, "Trying " + location + "...");
-                
-                // And go fetch!
-                CloseableHttpClient client = HttpClients.createDefault();
-                mRequest = new HttpGet(location);
+        private long fetchStock(int sDay) throws IOException {
+            // Off to the web!  The StockFetcher goes through our list of sites,
+            // fastest and healthiest first (hedging to the next one if one's
+            // being slow), until it finds an answer or they all give up.  If
+            // they all give up, "Stock not posted" wins over "Server error",
+            // which comes back to us as a FileNotFoundException instead of a
+            // plain IOException.
+            String read = getStockFetcher().fetch(sDay);
 
-                HttpResponse response;
+            // The fetcher already made sure this is a stock we can pack, but
+            // it doesn't hurt to be sure.
+            long stock = StockValue.parse(read);
+            if(stock == StockValue.NONE)
+                throw new IOException("The servers sent back something that wasn't a stock");
+            return stock;
+        }
 
-                // Get ready to time out if need be.  You never know.
-                TimerTask task = new TimerTask() {
-                    @Override
-                    public void run() {
-                        Log.i(DEBUG_TAG, "Stock fetch connection timed out, aborting now.");
-                        try {
-                            mRequest.abort();
-                        } catch (NullPointerException npe) {
-                            // It COULD be null at that point.  If it is, we can
-                            // just safely ignore it.
-                        }
-                    }
-                };
+        /**
+         * Returns whatever the current status is.  This is returned as a part
+         * of the Handler callback, but if, for instance, the Activity was
+         * destroyed between the call to get the stock value and the time it
+         * actually got it, the new caller will need to come here for the status.
+         *
+         * @return the current status
+         */
+        public int getStatus() {
+            return mStatus;
+        }
+    }
 
-                // Timer goes now!  We'll start the client immediately in the
-                // upcoming try block.
-                new Timer(true).schedule(task, CONNECTION_TIMEOUT_MS);
+    /**
+     * A <code>StockFlight</code> is a stock lookup that's in progress for a
+     * single date.  The StockRunner that started it fills in the result when
+     * it's done, and any other StockRunners that wanted the same date wait on
+     * it in the meantime.
+     */
+    private static class StockFlight {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private long mStock = StockValue.NONE;
+        private IOException mError;
 
-                try {
-                    response = client.execute(mRequest);
-                    task.cancel();
-
-                    // If that came out aborted, it was a timeout, so move on.
-                    if(mRequest.isAborted()) continue;
-                } catch (IOException e) {
-                    // If there was an exception, there was some issue with the
-                    // server.  It might've been aborted by timeout, but still,
-                    // move on to the next server.
-                    Log.d(DEBUG_TAG, "IOException!", e);
-                    continue;
-                }
+        void succeed(long stock) {
+            mStock = stock;
+            mDone.countDown();
+        }
 
-                if (response.getStatusLine().getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
-                    // If the server gives us a 404, that's saying it can't find
-                    // the stock for the day, which in turn implies it hasn't
-                    // been posted yet.  Log as such and try the next server.
-                    // Maybe they're just not in sync.
-                    Log.d(DEBUG_TAG, "Server said there was no stock for " + DateTools.getHyphenatedDateString(sCal));
-                    curStatus = ERROR_NOT_POSTED;
-                    continue;
-                } else if (response.getStatusLine().getStatusCode() != HttpURLConnection.HTTP_OK) {
-                    // A non-okay response that isn't a 404 is bad.  Count this
-                    // one as ERROR_SERVER and just continue.
-                    continue;
-                }
-                
-                // Well, we got this far!  Let's read!
-                result = getStringFromStream(response.getEntity().getContent());
-                
-                // With that done, we try to convert the output to the float.
-                // If this fails, we got bogus data and should roll on.
-                try {
-                    Float.parseFloat(result);
-                } catch (NumberFormatException nfe) {
-                    result = "";
-                    continue;
-                }
-                
-                // We survived!  Set the status flag and keep going!
-                Log.d(DEBUG_TAG, "Success!  Stock found!  It's " + result + "!");
-                curStatus = ALL_OKAY;
-                client.close();
-                break;
+        void fail(@NonNull IOException error) {
+            mError = error;
+            mDone.countDown();
+        }
+
+        /**
+         * Lets anybody waiting go without an answer, so they'll go ask for
+         * themselves.  This does nothing if the flight already succeeded or
+         * failed, so it's safe to call on the way out no matter what.
+         */
+        void abandon() {
+            mDone.countDown();
+        }
+
+        /**
+         * Waits for the lookup to finish, then returns the stock or throws
+         * the same kind of error the lookup ran into.  If the StockRunner
+         * doing the lookup got cancelled (or otherwise abandoned it), this
+         * returns {@link StockValue#NONE}, meaning whoever was waiting should
+         * go ask for themselves.
+         *
+         * @return the stock, packed up as a {@link StockValue}, or
+         *         {@link StockValue#NONE} if the lookup was abandoned
+         * @throws FileNotFoundException the stock isn't posted yet
+         * @throws IOException anything else went wrong (including getting
+         *                     interrupted while waiting)
+         */
+        long await() throws IOException {
+            try {
+                mDone.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting on another stock lookup");
             }
-            
-            // If we got this far and we still had an ERROR_SERVER or
-            // ERROR_NOT_POSTED, throw 'em.  We failed.
-            if(curStatus == ERROR_NOT_POSTED)
+
+            // The latch makes sure we see whatever got written before it was
+            // counted down.
+            if(mError instanceof FileNotFoundException)
                 throw new FileNotFoundException();
-            else if(curStatus == ERROR_SERVER)
-                throw new IOException();
+            else if(mError != null)
+                throw new IOException(mError);
 
-            // If we finally, FINALLY got this far, we've got a successful stock!
-            return result;
+            return mStock;
         }
-        
+    }
+
+    /**
+     * <p>
+     * A <code>HashRange</code> is the result of asking for the hash fractions
+     * of every day in a range of dates all at once.  Rather than a pile of
+     * Info objects, it's just two arrays of doubles, one for the latitude
+     * fractions and one for the longitude fractions, with index zero being the
+     * first day of the range.
+     * </p>
+     *
+     * <p>
+     * Any day for which the stock wasn't available will have NaN in both
+     * arrays.  {@link #isValid(int)} will tell you that without you needing to
+     * remember how to check for NaN.
+     * </p>
+     */
+    public static class HashRange {
+        private final int mStart;
+        private final boolean mUses30W;
+        private final double[] mLatHashes;
+        private final double[] mLonHashes;
+
+        private HashRange(int start, boolean uses30W, int days) {
+            mStart = start;
+            mUses30W = uses30W;
+            mLatHashes = new double[days];
+            mLonHashes = new double[days];
+        }
+
         /**
-         * Takes the given stream and makes a String out of whatever data it has. Be
-         * really careful with this, as it will just attempt to read whatever's in
-         * the stream until it stops, meaning it'll spin endlessly if this isn't the
-         * sort of stream that ends.
-         * 
-         * @param stream
-         *            InputStream to read from
-         * @return a String consisting of the data from the stream
+         * Gets the first date in this range.  Index zero, that is.
+         *
+         * @return a new Calendar for the first date in this range
          */
         @NonNull
-        private static String getStringFromStream(@NonNull InputStream stream)
-                throws IOException {
-            BufferedReader buff = new BufferedReader(new InputStreamReader(stream));
-
-            // Load it up...
-            StringBuilder tempstring = new StringBuilder();
-            char[] bean = new char[1024];
-            int read;
-            while ((read = buff.read(bean)) != -1) {
-                tempstring.append(bean, 0, read);
-            }
+        public Calendar getStartDate() {
+            return EpochDay.toCalendar(mStart);
+        }
+
+        /**
+         * Gets the first date in this range as an epoch day.  Index i is then
+         * just this plus i.
+         *
+         * @return the first date in this range, as an epoch day
+         */
+        public int getStartEpochDay() {
+            return mStart;
+        }
 
-            return tempstring.toString();
+        /**
+         * Gets whether or not this range was built for graticules that abide
+         * by the 30W Rule.
+         *
+         * @return true if 30W, false if not
+         */
+        public boolean uses30WRule() {
+            return mUses30W;
         }
 
         /**
-         * Returns whatever the current status is.  This is returned as a part
-         * of the Handler callback, but if, for instance, the Activity was
-         * destroyed between the call to get the stock value and the time it
-         * actually got it, the new caller will need to come here for the status.
+         * Gets the number of days in this range.
          *
-         * @return the current status
+         * @return the number of days in this range
          */
-        public int getStatus() {
-            return mStatus;
+        public int size() {
+            return mLatHashes.length;
+        }
+
+        /**
+         * Determines if there's a hash for the given day.
+         *
+         * @param day index of the day, with zero being the start date
+         * @return true if the stock was found and there's a hash, false if not
+         */
+        public boolean isValid(int day) {
+            return !Double.isNaN(mLatHashes[day]);
+        }
+
+        /**
+         * Gets the latitude fraction for the given day.
+         *
+         * @param day index of the day, with zero being the start date
+         * @return the latitude fraction, or NaN if there isn't one
+         */
+        public double getLatitudeHash(int day) {
+            return mLatHashes[day];
+        }
+
+        /**
+         * Gets the longitude fraction for the given day.
+         *
+         * @param day index of the day, with zero being the start date
+         * @return the longitude fraction, or NaN if there isn't one
+         */
+        public double getLongitudeHash(int day) {
+            return mLonHashes[day];
+        }
+
+        /**
+         * Gets the entire array of latitude fractions.  This is the actual
+         * array, not a copy, so please don't scribble on it.
+         *
+         * @return all the latitude fractions
+         */
+        @NonNull
+        public double[] getLatitudeHashes() {
+            return mLatHashes;
+        }
+
+        /**
+         * Gets the entire array of longitude fractions.  This is the actual
+         * array, not a copy, so please don't scribble on it.
+         *
+         * @return all the longitude fractions
+         */
+        @NonNull
+        public double[] getLongitudeHashes() {
+            return mLonHashes;
+        }
+    }
+
+    /**
+     * Fork/join task that works out the hash fractions for a chunk of a
+     * {@link HashRange}.  Everything it needs is worked out ahead of time on
+     * the calling thread, so each piece only ever touches its own slice of the
+     * arrays.
+     */
+    private static class HashRangeTask extends RecursiveAction {
+        // Below this many days, just do the work rather than splitting it up.
+        private static final int THRESHOLD = 32;
+
+        private final int[] mDates;
+        private final long[] mStocks;
+        private final double[] mLatHashes;
+        private final double[] mLonHashes;
+        private final int mFrom;
+        private final int mTo;
+
+        HashRangeTask(@NonNull int[] dates,
+                      @NonNull long[] stocks,
+                      @NonNull double[] latHashes,
+                      @NonNull double[] lonHashes,
+                      int from,
+                      int to) {
+            mDates = dates;
+            mStocks = stocks;
+            mLatHashes = latHashes;
+            mLonHashes = lonHashes;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(mTo - mFrom > THRESHOLD) {
+                int mid = (mFrom + mTo) >>> 1;
+                invokeAll(new HashRangeTask(mDates, mStocks, mLatHashes, mLonHashes, mFrom, mid),
+                        new HashRangeTask(mDates, mStocks, mLatHashes, mLonHashes, mid, mTo));
+                return;
+            }
+
+            HashScratch scratch = sScratch.get();
+
+            for(int i = mFrom; i < mTo; i++) {
+                long stock = mStocks[i];
+
+                if(stock == StockValue.NONE) {
+                    mLatHashes[i] = Double.NaN;
+                    mLonHashes[i] = Double.NaN;
+                    continue;
+                }
+
+                makeHashFractions(mDates[i], stock, scratch);
+                mLatHashes[i] = scratch.latHash;
+                mLonHashes[i] = scratch.lonHash;
+            }
         }
     }
 
@@ -382,71 +817,768 @@ public class HashBuilder {
     private HashBuilder() { }
 
     /**
-     * Initializes and returns a StockStoreDatabase object.  This should be used
-     * in ALL cases the mStore is needed to ensure it actually exists.  It can,
-     * for instance, stop existing if the app is destroyed to reclaim memory.
-     * 
-     * @param c Context with which StockStoreDatabase will be initialized.
-     * @return a new StockStoreDatabase object
+     * <p>
+     * Starts opening the stock database on a background thread, if it isn't
+     * open (or opening) already.  Along the way, this also loads the market
+     * closures, opens the stock archive, and loads the most recently used
+     * hashes from the database into the quick cache.  That's everything the
+     * first hashpoint lookup would otherwise have to do itself, on whatever
+     * thread it happened to be on.
+     * </p>
+     *
+     * <p>
+     * Call this as early as possible; GeohashDroidApplication does it when the
+     * process starts.  Calling it again just gives back the same Future.
+     * Anything that needs the database will wait on that Future, so there's
+     * no need to wait on it yourself unless you want to know when it's done.
+     * </p>
+     *
+     * @param c Context with which the database will be opened
+     * @return a Future that's done once the database is ready
      */
     @NonNull
-    private static synchronized StockStoreDatabase getStore(@NonNull Context c) {
-        if(mStore == null) {
-            mStore = new StockStoreDatabase().init(c);
+    public static synchronized Future<?> warmUp(@NonNull Context c) {
+        return getStoreFuture(c);
+    }
+
+    @NonNull
+    private static synchronized Future<StockStore> getStoreFuture(@NonNull Context c) {
+        if(mStoreFuture == null) {
+            final Context appContext = c.getApplicationContext();
+            FutureTask<StockStore> task = new FutureTask<>(() -> openStore(appContext));
+            mStoreFuture = task;
+
+            Thread t = new Thread(task, "StockStoreWarmUp");
+            t.setDaemon(true);
+            t.start();
         }
-        
-        return mStore;
+
+        return mStoreFuture;
     }
-    
+
     /**
-     * Requests a <code>StockRunner</code> object to perform a stock-fetching
-     * operation.
-     * 
-     * @param con Context for databasey stuff
-     * @param c Calendar object with the adventure date requested (this will
-     *          account for the 30W Rule, so don't put it in) 
-     * @param g Graticule to use
+     * Actually opens the store, whichever one the preferences say to use.
+     * This is what the warm-up thread runs.
+     *
+     * @param c Context with which the store will be opened
+     * @return the opened store
+     * @throws IOException the log file couldn't be opened
      */
     @NonNull
-    public static StockRunner requestStockRunner(@NonNull Context con, @NonNull Calendar c, @Nullable Graticule g) {
-        return new StockRunner(con, c, g);
+    private static StockStore openStore(@NonNull Context c) throws IOException {
+        long start = System.nanoTime();
+
+        String engine = PreferenceManager.getDefaultSharedPreferences(c)
+                .getString(GHDConstants.PREF_STOCK_STORE_ENGINE, GHDConstants.PREFVAL_STOCK_STORE_SQLITE);
+        StockStore store;
+        if(GHDConstants.PREFVAL_STOCK_STORE_LOG.equals(engine)) {
+            store = StockStoreLog.open(c);
+        } else {
+            store = new StockStoreDatabase().init(c);
+        }
+
+        // If the engine got switched, bring the other one's stocks along
+        // (backfilled ones especially; those might've taken a while to get),
+        // then get rid of it.
+        migrateInactiveStore(c, store);
+
+        // Any time we're about to look for stocks, we'll want to know which
+        // days there won't BE any stocks.  And the archive gets checked
+        // before the database, so it may as well be open, too.
+        TradingCalendar.loadClosures(c);
+        getArchive(c);
+
+        // Then, whatever was used most recently is probably what's about to
+        // be asked for again.
+        HashCache cache = getQuickCache();
+        int loaded = store.loadRecentHashes(cache, cache.getCapacity());
+
+        Log.d(DEBUG_TAG, "Stock store (" + engine + ") ready in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                + "ms, " + loaded + " hash(es) preloaded");
+        return store;
     }
 
     /**
-     * Attempt to construct an Info object from stored info and return it,
-     * explicitly without going to the internet.  If this can't be done, this
-     * will return null.
+     * <p>
+     * Moves the stocks from the store that ISN'T being used, if there is one,
+     * into the one that is, then deletes it.  Backfilled stocks stay
+     * backfilled.  Hashes don't come along, since those can be made again from
+     * the stocks without going anywhere near the network.
+     * </p>
      *
-     * @param con Context used to retrieve the database, if needed
-     * @param c Calendar object with the adventure date requested (this will
-     *          account for the 30W Rule, so don't put it in) 
-     * @param g Graticule to use
-     * @return the Info object for the given data, or null if can't be built
-     *         without going to the internet.
+     * <p>
+     * If the old one can't be read, it's left alone so this can try again the
+     * next time the store's opened.
+     * </p>
+     *
+     * @param c Context for the files and databases
+     * @param active the store that IS being used
      */
-    @Nullable
-    public static Info getStoredInfo(@NonNull Context con, @NonNull Calendar c, @Nullable Graticule g) {
-        // First, check the quick cache.  If it's in the quick cache, use it.
-        Log.v(DEBUG_TAG, "Checking caches for " + DateTools.getDateString(c)
-                + ((g == null || g.uses30WRule()) ? " with 30W rule" : " without 30W rule"));
-        Info result = getQuickCache(c, g);
-        if(result != null) {
-            Log.v(DEBUG_TAG, "Data found in quickcache!");
-            if(result.isGlobalHash()) return result;
-            else return cloneInfo(result, g);
+    private static void migrateInactiveStore(@NonNull Context c, @NonNull StockStore active) {
+        boolean fromLog = !(active instanceof StockStoreLog);
+        if(fromLog ? !StockStoreLog.exists(c) : !StockStoreDatabase.exists(c)) return;
+
+        StockStore old = null;
+        try {
+            old = fromLog ? StockStoreLog.open(c) : new StockStoreDatabase().init(c);
+
+            // Every stock there could possibly be, from the first DJIA opening
+            // on.  Backfilled ones go in through storeStocks so they keep
+            // their flag; everything else is just a normal stock.
+            SparseLongArray all = old.getStockValues(EARLIEST_STOCK_DAY, EpochDay.fromCalendar(Calendar.getInstance()));
+            SparseLongArray backfilled = old.getBackfilledStockValues();
+            SparseLongArray ordinary = new SparseLongArray(all.size());
+            SparseArray<String> toBackfill = new SparseArray<>(backfilled.size());
+
+            for(int i = 0; i < all.size(); i++) {
+                if(backfilled.indexOfKey(all.keyAt(i)) < 0)
+                    ordinary.append(all.keyAt(i), all.valueAt(i));
+            }
+            for(int i = 0; i < backfilled.size(); i++)
+                toBackfill.append(backfilled.keyAt(i), StockValue.toString(backfilled.valueAt(i)));
+
+            int stored = active.storeStocks(toBackfill) + active.storeBatch(ordinary, null);
+            Log.d(DEBUG_TAG, "Moved " + stored + " stock(s) (" + backfilled.size() + " backfilled) over from the "
+                    + (fromLog ? "log file" : "database"));
+        } catch(IOException | RuntimeException e) {
+            Log.w(DEBUG_TAG, "Couldn't move the stocks over from the other stock store engine, leaving it be for now", e);
+            return;
+        } finally {
+            if(old != null) old.finish();
         }
-        
-        // Otherwise, check the stock cache.
-        Info i = getStore(con).getInfo(c, g);
-        
-        if(i == null)
-            return null;
-            
-        Log.v(DEBUG_TAG, "Data found in database!  Quickcaching...");
+
+        deleteInactiveStore(c, active);
+    }
+
+    /**
+     * Deletes whatever the store that ISN'T being used left behind, if
+     * anything.  Anything worth keeping should've already been moved over by
+     * {@link #migrateInactiveStore(Context, StockStore)}.
+     *
+     * @param c Context for the files and databases
+     * @param active the store that IS being used
+     */
+    private static void deleteInactiveStore(@NonNull Context c, @NonNull StockStore active) {
+        boolean deleted = (active instanceof StockStoreLog)
+                ? StockStoreDatabase.delete(c)
+                : StockStoreLog.delete(c);
+
+        if(deleted)
+            Log.d(DEBUG_TAG, "Deleted the " + ((active instanceof StockStoreLog) ? "database" : "log file")
+                    + " left over from the other stock store engine");
+    }
+
+    /**
+     * Returns the StockStore, waiting for {@link #warmUp(Context)} to finish
+     * opening it if need be (and starting it if nothing has yet).  This should
+     * be used in ALL cases the store is needed to ensure it actually exists.
+     * Since it can wait on the disk, keep it off the main thread.
+     * 
+     * @param c Context with which the StockStore will be opened.
+     * @return the StockStore
+     * @throws SQLException the store couldn't be opened (the next call will
+     *                      try again)
+     */
+    @NonNull
+    private static StockStore getStore(@NonNull Context c) {
+        Future<StockStore> future = getStoreFuture(c);
+
+        // This isn't synchronized, so nothing else waiting on HashBuilder has
+        // to wait on the database opening, too.  Being interrupted doesn't
+        // stop it from waiting, either, same as back when opening it happened
+        // right here; the interrupt just gets passed along afterward.
+        boolean interrupted = false;
+        try {
+            while(true) {
+                try {
+                    return future.get();
+                } catch(InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        } catch(ExecutionException ee) {
+            // If it didn't open, forget about it so the next call gets to
+            // try again.
+            synchronized(HashBuilder.class) {
+                if(mStoreFuture == future) mStoreFuture = null;
+            }
+
+            Throwable cause = ee.getCause();
+            if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if(cause instanceof Error) throw (Error)cause;
+            throw new SQLException("Couldn't open the stock store", cause);
+        } finally {
+            if(interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Opens and returns the StockArchive, if it isn't open already.
+     *
+     * @param c Context with which the StockArchive will be opened
+     * @return the StockArchive
+     */
+    @NonNull
+    private static synchronized StockArchive getArchive(@NonNull Context c) {
+        if(mArchive == null) {
+            mArchive = StockArchive.open(c);
+        }
+
+        return mArchive;
+    }
+    
+    /**
+     * Requests a <code>StockRunner</code> object to perform a stock-fetching
+     * operation.
+     * 
+     * @param con Context for databasey stuff
+     * @param c Calendar object with the adventure date requested (this will
+     *          account for the 30W Rule, so don't put it in) 
+     * @param g Graticule to use
+     */
+    @NonNull
+    public static StockRunner requestStockRunner(@NonNull Context con, @NonNull Calendar c, @Nullable Graticule g) {
+        return new StockRunner(con, c, g);
+    }
+
+    /**
+     * <p>
+     * Works out the hashes for every date the stock on the given (already
+     * adjusted) date gets used for, on both sides of the 30W line, and puts
+     * them in the quick cache and the database.  Usually, that's the stock's
+     * own date west of 30W and the next day east of it, but a Friday's stock
+     * also covers the weekend (and Monday, east of 30W), and the day before a
+     * holiday covers the holiday, too.
+     * </p>
+     *
+     * <p>
+     * This doesn't go to the internet.  If the stock isn't stored yet, nothing
+     * happens.  It does hit the database, so keep it off the main thread.
+     * </p>
+     *
+     * @param con Context used to retrieve the database, if needed
+     * @param sDay already-adjusted stock date, as an epoch day
+     * @return how many hashes got worked out (zero if the stock isn't stored)
+     */
+    public static int precomputeHashes(@NonNull Context con, int sDay) {
+        long stock = getStoredStockValue(con, sDay);
+        if(stock == StockValue.NONE) return 0;
+
+        List<Info> infos = new ArrayList<>(4);
+        for(boolean uses30W : new boolean[] { false, true }) {
+            Graticule g = uses30W ? GHDConstants.DUMMY_YESTERDAY : GHDConstants.DUMMY_TODAY;
+
+            // The adjusted dates only ever go forward as the real dates do,
+            // so once we're past this stock, we're done.  The 30W side starts
+            // one day behind, which is why the first one might not count.
+            for(int day = sDay; ; day++) {
+                int adjusted = EpochDay.makeAdjusted(day, uses30W);
+                if(adjusted < sDay) continue;
+                if(adjusted > sDay) break;
+
+                // createInfo puts it in the quick cache on its own.
+                infos.add(createInfo(EpochDay.toCalendar(day), stock, g));
+            }
+        }
+
+        // A long weekend can be a handful of these, so they all go in at
+        // once.
+        StockStore store = getStore(con);
+        store.storeBatch(null, infos);
+        compactStoreIfNeeded(con, store);
+
+        int count = infos.size();
+        Log.d(DEBUG_TAG, "Precomputed " + count + " hash(es) from the stock for " + EpochDay.toHyphenatedString(sDay));
+        return count;
+    }
+
+    /**
+     * Attempt to construct an Info object from stored info and return it,
+     * explicitly without going to the internet.  If this can't be done, this
+     * will return null.
+     *
+     * @param con Context used to retrieve the database, if needed
+     * @param c Calendar object with the adventure date requested (this will
+     *          account for the 30W Rule, so don't put it in) 
+     * @param g Graticule to use
+     * @return the Info object for the given data, or null if can't be built
+     *         without going to the internet.
+     */
+    @Nullable
+    public static Info getStoredInfo(@NonNull Context con, @NonNull Calendar c, @Nullable Graticule g) {
+        // First, check the quick cache.  If it's in the quick cache, use it.
+        int day = EpochDay.fromCalendar(c);
+        boolean uses30W = EpochDay.uses30WRule(day, g);
+        Log.v(DEBUG_TAG, "Checking caches for " + EpochDay.toHyphenatedString(day)
+                + (uses30W ? " with 30W rule" : " without 30W rule"));
+        long key = HashCache.makeKey(day, uses30W);
+        double[] hashes = new double[2];
+        if(getQuickCache().get(key, hashes)) {
+            Log.v(DEBUG_TAG, "Data found in quickcache!");
+            return makeInfoFromHashes(c, g, hashes[0], hashes[1]);
+        }
+        
+        // Otherwise, check the stock cache.
+        Info i = getStore(con).getInfo(c, g);
+        
+        if(i == null)
+            return null;
+            
+        Log.v(DEBUG_TAG, "Data found in database!  Quickcaching...");
         // If it was in the main cache but not the quick cache, quick cache it.
         quickCache(i);
         return i;
     }
+
+    /**
+     * Like {@link #getStoredInfo(Context, Calendar, Graticule)}, but ONLY
+     * checks the quick cache.  No database, no archive, no nothing.  That
+     * makes it safe (and fast) to call from the main thread, which is the
+     * whole point; if this comes back null, go ask somewhere slower.
+     *
+     * @param c Calendar object with the adventure date requested (this will
+     *          account for the 30W Rule, so don't put it in)
+     * @param g Graticule to use to determine if the 30W Rule is in effect
+     * @return the Info, or null if it's not in the quick cache
+     */
+    @Nullable
+    public static Info getQuickCachedInfo(@NonNull Calendar c, @Nullable Graticule g) {
+        int day = EpochDay.fromCalendar(c);
+        double[] hashes = new double[2];
+
+        if(!getQuickCache().get(HashCache.makeKey(day, EpochDay.uses30WRule(day, g)), hashes))
+            return null;
+
+        return makeInfoFromHashes(c, g, hashes[0], hashes[1]);
+    }
+    
+    /**
+     * <p>
+     * Gets the Infos for every Graticule within the given radius of the given
+     * Graticule on the given date, all at once.  With a radius of 1, that's
+     * the usual 3x3 block of nearby points.  The hash only depends on the date
+     * and which side of the 30W line a Graticule is on, so this only ever
+     * needs to work out (at most) two sets of hash fractions, no matter how
+     * big the block is.
+     * </p>
+     *
+     * <p>
+     * The returned array is (2 * radius + 1) squared in size, in row-major
+     * order starting from the northwest corner.  Use
+     * {@link #getNeighborhoodIndex(int, int, int)} to find a specific offset
+     * in it; the center Graticule itself is at offset 0, 0.  Any spot past the
+     * poles (there's no such Graticule) will be null, as will any spot whose
+     * hash couldn't be found.  Going past 180E/W wraps around, same as
+     * {@link Graticule#createOffsetFrom(Graticule, int, int)}.
+     * </p>
+     *
+     * <p>
+     * If fetchIfNeeded is false, this won't go to the internet, just like
+     * {@link #getStoredInfo(Context, Calendar, Graticule)}.  If it's true,
+     * missing stocks will be fetched with a StockRunner, so don't do that on
+     * the main thread.
+     * </p>
+     *
+     * @param con Context used to retrieve the database, if needed
+     * @param c Calendar object with the adventure date requested (this will
+     *          account for the 30W Rule, so don't put it in)
+     * @param center Graticule in the middle of it all
+     * @param radius how many Graticules out from the center to go
+     * @param fetchIfNeeded true to go to the internet if a stock isn't stored
+     * @return an array of Infos, as described above
+     * @throws IllegalArgumentException radius is negative
+     */
+    @NonNull
+    public static Info[] getNeighborhood(@NonNull Context con,
+                                         @NonNull Calendar c,
+                                         @NonNull Graticule center,
+                                         int radius,
+                                         boolean fetchIfNeeded) {
+        Info[] toReturn = buildNeighborhood(con, c, center, radius, fetchIfNeeded, false);
+
+        // If it's not all-or-nothing, buildNeighborhood never gives up.  But
+        // just in case that ever changes, an all-holes neighborhood is still
+        // a perfectly valid answer, and better than a NullPointerException.
+        if(toReturn == null) {
+            Log.w(DEBUG_TAG, "buildNeighborhood gave up when it shouldn't have, returning an empty neighborhood...");
+            int size = 2 * radius + 1;
+            toReturn = new Info[size * size];
+        }
+
+        return toReturn;
+    }
+
+    /**
+     * Like {@link #getNeighborhood(Context, Calendar, Graticule, int, boolean)}
+     * without going to the internet, except if any hash it needs isn't
+     * stored, this gives up entirely rather than leaving holes.  That way, a
+     * null means "go ask the internet", not "some of these are missing and
+     * you can't tell which were past the poles".  This still hits the
+     * database, so keep it off the main thread.
+     *
+     * @param con Context used to retrieve the database, if needed
+     * @param c Calendar object with the adventure date requested (this will
+     *          account for the 30W Rule, so don't put it in)
+     * @param center Graticule in the middle of it all
+     * @param radius how many Graticules out from the center to go
+     * @return an array of Infos, same as getNeighborhood, or null if anything
+     *         wasn't stored
+     * @throws IllegalArgumentException radius is negative
+     */
+    @Nullable
+    public static Info[] getStoredNeighborhood(@NonNull Context con,
+                                               @NonNull Calendar c,
+                                               @NonNull Graticule center,
+                                               int radius) {
+        return buildNeighborhood(con, c, center, radius, false, true);
+    }
+
+    /**
+     * Like {@link #getNeighborhood(Context, Calendar, Graticule, int, boolean)},
+     * but ONLY checks the quick cache, so it's safe to call from the main
+     * thread.  Unlike getNeighborhood, if any hash it needs isn't in the
+     * quick cache, this gives up entirely rather than leaving holes; the
+     * holes might not be there if you asked the database.
+     *
+     * @param c Calendar object with the adventure date requested (this will
+     *          account for the 30W Rule, so don't put it in)
+     * @param center Graticule in the middle of it all
+     * @param radius how many Graticules out from the center to go
+     * @return an array of Infos, same as getNeighborhood, or null if the quick
+     *         cache didn't have everything
+     * @throws IllegalArgumentException radius is negative
+     */
+    @Nullable
+    public static Info[] getQuickCachedNeighborhood(@NonNull Calendar c,
+                                                    @NonNull Graticule center,
+                                                    int radius) {
+        return buildNeighborhood(null, c, center, radius, false, true);
+    }
+
+    // If con is null, this only looks in the quick cache.  If allOrNothing is
+    // true, this returns null as soon as any hash can't be found.
+    @Nullable
+    private static Info[] buildNeighborhood(@Nullable Context con,
+                                            @NonNull Calendar c,
+                                            @NonNull Graticule center,
+                                            int radius,
+                                            boolean fetchIfNeeded,
+                                            boolean allOrNothing) {
+        if(radius < 0)
+            throw new IllegalArgumentException("The radius can't be negative!");
+
+        int size = 2 * radius + 1;
+        Info[] toReturn = new Info[size * size];
+
+        // Index 0 is the 30W side, index 1 is the non-30W side.  We only work
+        // these out if and when a Graticule on that side shows up.
+        double[][] hashes = new double[2][];
+        boolean[] tried = new boolean[2];
+
+        // Latitude is a bit odd thanks to the negative zero graticules, so
+        // think of it as rows instead, with 89N being row 89 and 89S being row
+        // -90.  Anything outside that range would be past a pole.
+        int centerRow = center.isSouth() ? -center.getLatitude() - 1 : center.getLatitude();
+        int day = EpochDay.fromCalendar(c);
+
+        for(int latOff = radius; latOff >= -radius; latOff--) {
+            int row = centerRow + latOff;
+            if(row > 89 || row < -90) continue;
+
+            for(int lonOff = -radius; lonOff <= radius; lonOff++) {
+                Graticule g = Graticule.createOffsetFrom(center, latOff, lonOff);
+                int side = EpochDay.uses30WRule(day, g) ? 0 : 1;
+
+                if(!tried[side]) {
+                    tried[side] = true;
+                    hashes[side] = resolveHashes(con, c, day, g, fetchIfNeeded);
+                    if(hashes[side] == null && allOrNothing) return null;
+                }
+
+                if(hashes[side] != null) {
+                    toReturn[getNeighborhoodIndex(latOff, lonOff, radius)] =
+                            makeInfoFromHashes(c, g, hashes[side][0], hashes[side][1]);
+                }
+            }
+        }
+
+        return toReturn;
+    }
+
+    /**
+     * Gets where in the array from
+     * {@link #getNeighborhood(Context, Calendar, Graticule, int, boolean)} the
+     * Info for the given offset will be.
+     *
+     * @param latOff number of degrees north of the center (negative is south)
+     * @param lonOff number of degrees east of the center (negative is west)
+     * @param radius the radius that was used to make the array
+     * @return an index into the array
+     */
+    public static int getNeighborhoodIndex(int latOff, int lonOff, int radius) {
+        return (radius - latOff) * (2 * radius + 1) + (lonOff + radius);
+    }
+
+    /**
+     * Gets the hash fractions for the given date and Graticule, checking the
+     * quick cache, then the database, then (if allowed) the internet.  If
+     * there's no Context, it stops after the quick cache.
+     *
+     * @return a two-element array of latitude and longitude fractions, or
+     *         null if they couldn't be found
+     */
+    @Nullable
+    private static double[] resolveHashes(@Nullable Context con,
+                                          @NonNull Calendar c,
+                                          int day,
+                                          @Nullable Graticule g,
+                                          boolean fetchIfNeeded) {
+        double[] hashes = new double[2];
+        long key = HashCache.makeKey(day, EpochDay.uses30WRule(day, g));
+
+        if(getQuickCache().get(key, hashes))
+            return hashes;
+
+        if(con == null)
+            return null;
+
+        Info info = getStoredInfo(con, c, g);
+
+        if(info == null && fetchIfNeeded) {
+            StockRunner runner = requestStockRunner(con, c, g);
+            runner.runStock();
+
+            if(runner.getStatus() == StockRunner.ALL_OKAY) {
+                // That put the exact fractions in the quick cache, so go get
+                // them back out if they're still there.
+                if(getQuickCache().get(key, hashes))
+                    return hashes;
+
+                info = runner.getLastResultObject();
+            }
+        }
+
+        if(info == null)
+            return null;
+
+        hashes[0] = info.getLatitudeHash();
+        hashes[1] = info.getLongitudeHash();
+        return hashes;
+    }
+
+    /**
+     * <p>
+     * Gets the hash fractions for every day from start to end, inclusive, for
+     * graticules on the given side of the 30W line.  This is meant for when
+     * you need a LOT of days at once, like planning out a month of
+     * expeditions.  The stocks all come out of the database in one query, and
+     * the hashes get worked out in parallel.
+     * </p>
+     *
+     * <p>
+     * This, like {@link #getStoredInfo(Context, Calendar, Graticule)}, won't
+     * go to the internet.  Any day whose stock isn't already stored will come
+     * back as invalid in the HashRange; use a StockRunner for those if you
+     * really need them.  Globalhashes follow the 30W Rule, so pass true for
+     * those.
+     * </p>
+     *
+     * <p>
+     * Don't call this from the main thread.  It's still a database query.
+     * </p>
+     *
+     * @param con Context used to retrieve the database, if needed
+     * @param start first date requested (this will account for the 30W Rule,
+     *              so don't put it in)
+     * @param end last date requested, inclusive
+     * @param uses30W true to get hashes for graticules east of 30W (or
+     *                globalhashes), false for graticules west of it
+     * @return a HashRange with all the hash fractions that could be found
+     * @throws IllegalArgumentException end is before start
+     */
+    @NonNull
+    public static HashRange getStoredHashRange(@NonNull Context con,
+                                               @NonNull Calendar start,
+                                               @NonNull Calendar end,
+                                               boolean uses30W) {
+        int startDay = EpochDay.fromCalendar(start);
+        int endDay = EpochDay.fromCalendar(end);
+        if(endDay < startDay)
+            throw new IllegalArgumentException("The end of the range can't be before the start!");
+
+        // Going by epoch days means the time of day on either Calendar doesn't
+        // matter, and that's the last we'll need of the Calendars.
+        int days = endDay - startDay + 1;
+
+        Log.d(DEBUG_TAG, "Building a HashRange of " + days + " day(s) starting "
+                + EpochDay.toHyphenatedString(startDay)
+                + (uses30W ? " with 30W rule" : " without 30W rule"));
+
+        // Then, work out the real and adjusted dates for each day.  Open the
+        // store first so the adjustment knows about any market closures.
+        StockStore store = getStore(con);
+        int[] dates = new int[days];
+        int[] stockDates = new int[days];
+        for(int i = 0; i < days; i++) {
+            dates[i] = startDay + i;
+            stockDates[i] = EpochDay.makeAdjusted(startDay + i, uses30W);
+        }
+
+        // The archive's first.  If it's got everything, the database never
+        // needs to hear about this.
+        StockArchive archive = getArchive(con);
+        long[] stocks = new long[days];
+        boolean missing = false;
+        for(int i = 0; i < days; i++) {
+            stocks[i] = archive.getStockValue(stockDates[i]);
+            if(stocks[i] == StockValue.NONE) missing = true;
+        }
+
+        if(missing) {
+            // Otherwise, one trip to the database for the rest.  The adjusted
+            // dates can only ever go backwards, so the first day's adjusted
+            // date is as far back as we need to look.
+            SparseLongArray stored = store.getStockValues(stockDates[0], endDay);
+
+            for(int i = 0; i < days; i++) {
+                if(stocks[i] == StockValue.NONE) stocks[i] = stored.get(stockDates[i], StockValue.NONE);
+            }
+        }
+
+        // And off to fork/join it goes!
+        HashRange toReturn = new HashRange(startDay, uses30W, days);
+        getHashPool().invoke(new HashRangeTask(dates, stocks,
+                toReturn.mLatHashes, toReturn.mLonHashes, 0, days));
+
+        return toReturn;
+    }
+
+    @NonNull
+    private static synchronized CloseableHttpClient getHttpClient() {
+        if(mHttpClient == null) {
+            PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+            manager.setMaxTotal(StockRunner.MAX_CONNECTIONS);
+            manager.setDefaultMaxPerRoute(StockRunner.MAX_CONNECTIONS_PER_SERVER);
+
+            RequestConfig config = RequestConfig.custom()
+                    .setConnectTimeout(StockRunner.CONNECTION_TIMEOUT_MS)
+                    .setSocketTimeout(StockRunner.CONNECTION_TIMEOUT_MS)
+                    .setConnectionRequestTimeout(StockRunner.CONNECTION_TIMEOUT_MS)
+                    .build();
+
+            mHttpClient = HttpClients.custom()
+                    .setConnectionManager(manager)
+                    .setDefaultRequestConfig(config)
+                    .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                    .evictExpiredConnections()
+                    .evictIdleConnections(StockRunner.IDLE_CONNECTION_TIMEOUT_SEC, TimeUnit.SECONDS)
+                    .build();
+        }
+
+        return mHttpClient;
+    }
+
+    @NonNull
+    private static synchronized StockFetcher getStockFetcher() {
+        if(mStockFetcher == null) {
+            mFetchExecutor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "StockFetcher");
+                t.setDaemon(true);
+                return t;
+            });
+
+            List<StockSource> sources = new ArrayList<>(StockRunner.mServers.length);
+            for(String server : StockRunner.mServers)
+                sources.add(new HttpStockSource(server, getHttpClient()));
+
+            mStockFetcher = new StockFetcher(sources, mFetchExecutor, mHedgeDelayMs);
+        }
+
+        return mStockFetcher;
+    }
+
+    /**
+     * Adds another place to look up stocks.  It goes to the end of the list,
+     * but if it turns out to be faster than the others, it'll get asked first
+     * soon enough.  If you just want another mirror server, wrap its URL
+     * template in an {@link HttpStockSource}.
+     *
+     * @param source the source to add
+     * @throws IllegalArgumentException there's already a source by that name
+     */
+    public static void addStockSource(@NonNull StockSource source) {
+        getStockFetcher().addSource(source);
+    }
+
+    /**
+     * Removes a place to look up stocks.  The default mirrors are named after
+     * their hosts (irc.peeron.com and geo.crox.net).
+     *
+     * @param name name of the source to remove
+     * @return true if it was removed, false if there wasn't one by that name
+     */
+    public static boolean removeStockSource(@NonNull String name) {
+        return getStockFetcher().removeSource(name);
+    }
+
+    /**
+     * Gets all the places stocks are looked up, in the order they were added
+     * (which isn't necessarily the order they're asked in).
+     *
+     * @return a new List of StockSources
+     */
+    @NonNull
+    public static List<StockSource> getStockSources() {
+        return getStockFetcher().getSources();
+    }
+
+    /**
+     * Gets a snapshot of how each stock source has been doing: how fast it's
+     * been, how often it's failed, and whether it's been benched for failing
+     * too much.  This is for diagnostics; nothing needs it to get a stock.
+     *
+     * @return a new List of MirrorHealths
+     */
+    @NonNull
+    public static List<StockFetcher.MirrorHealth> getStockSourceHealth() {
+        return getStockFetcher().getMirrorHealth();
+    }
+
+    /**
+     * Makes a new StockBackfill, hooked up to the stock cache and the usual
+     * stock sources, for loading a whole range of stocks at once.  Stocks
+     * loaded this way won't get pruned from the cache.
+     *
+     * @param con Context used to retrieve the database, if needed
+     * @return a new StockBackfill
+     */
+    @NonNull
+    public static StockBackfill makeStockBackfill(@NonNull Context con) {
+        return new StockBackfill(getStore(con), getStockFetcher(), BACKFILL_PARALLELISM);
+    }
+
+    /**
+     * Sets how long a StockRunner waits on one stock server before also
+     * asking the next one.  Zero asks all of them at once, and
+     * {@link StockFetcher#HEDGE_NEVER} asks them one at a time, only moving on
+     * once the previous one's failed or timed out.
+     *
+     * @param hedgeDelayMs the delay, in milliseconds
+     */
+    public static synchronized void setStockHedgeDelay(long hedgeDelayMs) {
+        mHedgeDelayMs = hedgeDelayMs;
+        if(mStockFetcher != null)
+            mStockFetcher.setHedgeDelay(hedgeDelayMs);
+    }
+
+    @NonNull
+    private static synchronized ForkJoinPool getHashPool() {
+        if(mHashPool == null) {
+            mHashPool = new ForkJoinPool();
+        }
+
+        return mHashPool;
+    }
     
     /**
      * Attempt to get the stock value stored in the database for the given
@@ -459,83 +1591,241 @@ public class HashBuilder {
      */
     @Nullable
     public static String getStoredStock(@NonNull Context con, @NonNull Calendar c) {
-        // We don't quickcache the stock values.
-        Log.v(DEBUG_TAG, "Going to the database for a stock for " + DateTools.getDateString(c));
+        return getStoredStock(con, EpochDay.fromCalendar(c));
+    }
+
+    /**
+     * Attempt to get the stock value stored in the archive or the database for
+     * the given already-adjusted date, given as an epoch day.  This won't go
+     * to the internet; that's the responsibility of a StockRunner.
+     *
+     * @param con Context used to retrieve the archive and database, if needed
+     * @param sDay already-adjusted date to check, as an epoch day
+     * @return the String representation of the stock, or null if it's not there
+     */
+    @Nullable
+    public static String getStoredStock(@NonNull Context con, int sDay) {
+        long stock = getStoredStockValue(con, sDay);
+        return (stock == StockValue.NONE) ? null : StockValue.toString(stock);
+    }
+
+    /**
+     * Same as {@link #getStoredStock(Context, int)}, only the stock comes back
+     * packed up as a {@link StockValue}, ready to go straight into a hash.
+     *
+     * @param con Context used to retrieve the archive and database, if needed
+     * @param sDay already-adjusted date to check, as an epoch day
+     * @return the packed stock, or {@link StockValue#NONE} if it's not there
+     */
+    private static long getStoredStockValue(@NonNull Context con, int sDay) {
+        // We don't quickcache the stock values.  We do, however, have the
+        // archive, which is faster than the database anyway.
+        long stock = getArchive(con).getStockValue(sDay);
+        if(stock != StockValue.NONE) return stock;
+
+        Log.v(DEBUG_TAG, "Going to the database for a stock for " + EpochDay.toHyphenatedString(sDay));
         
-        return getStore(con).getStock(c);
+        return getStore(con).getStockValue(sDay);
     }
     
     /**
-     * Puts the given data into the quick cache.  Note that the Calendar object
-     * is the date of the stock, not the date of the expedition.
+     * Puts the given data into the quick cache.  Only the hash fractions are
+     * kept, so this covers every Graticule on the same side of the 30W line as
+     * the given Info.
      * 
      * @param i Info to store
      */
     private static void quickCache(@NonNull Info i) {
-        // Slide over!
-        mTwoInfosAgo = mLastInfo;
-        mLastInfo = i;
+        getQuickCache().put(HashCache.makeKey(i.getEpochDay(), i.uses30WRule()),
+                i.getLatitudeHash(),
+                i.getLongitudeHash());
+    }
+
+    /**
+     * Gets the quick cache, the in-memory cache of recent hashes that gets
+     * checked before the database.  This is mostly here so its hit, miss, and
+     * eviction counters can be looked at.
+     *
+     * @return the quick cache
+     */
+    @NonNull
+    public static HashCache getQuickCache() {
+        // The cache does its own synchronizing, so there's no need to hold up
+        // anybody else waiting on HashBuilder just to hand it out.
+        return mQuickCache;
     }
     
     /**
      * Stores Info data away in the database.  This won't do anything if the
-     * day's Info already exists therein.
+     * day's Info already exists therein.  Neither this nor storeStock is
+     * synchronized; the database takes care of its own writes, and anything
+     * else waiting on HashBuilder (like getQuickCache) shouldn't have to wait
+     * on the disk, too.
      * 
      * @param con Context used to retrieve the database, if needed
      * @param i an Info bundle with everything we need
      */
-    private synchronized static void storeInfo(@NonNull Context con, @NonNull Info i) {
-        // First, replace the last-known results.
-        quickCache(i);
-        
-        StockStoreDatabase store = getStore(con);
+    private static void storeInfo(@NonNull Context con, @NonNull Info i) {
+        // The quick cache already got this back in createInfo, so just write
+        // it to the database.
+        StockStore store = getStore(con);
         
-        // Then, write it to the database.
         store.storeInfo(i);
-        store.cleanup(con);
+        compactStoreIfNeeded(con, store);
     }
     
-    private synchronized static void storeStock(@NonNull Context con, @NonNull Calendar cal, @NonNull String stock) {
-        StockStoreDatabase store = getStore(con);
+    private static void storeStock(@NonNull Context con, int sDay, long stock) {
+        StockStore store = getStore(con);
         
-        store.storeStock(cal, stock);
-        store.cleanup(con);
+        store.storeStock(sDay, stock);
+        compactStoreIfNeeded(con, store);
+
+        // The archive's delta keeps a lot more days than the database does
+        // (see StockArchive.MAX_DELTA_SIZE), so this one'll stick around well
+        // after the database forgets it.
+        getArchive(con).append(sDay, stock);
+
+        // And it's definitely posted now.
+        mNotPosted.remove(sDay);
+    }
+
+    /**
+     * If enough has been stored since the last time, queue up a compaction of
+     * the database on the compaction thread.  Storing things shouldn't have
+     * to wait on pruning them.
+     */
+    private static void compactStoreIfNeeded(@NonNull Context con, @NonNull StockStore store) {
+        if(!store.needsCompaction() || !mCompactionQueued.compareAndSet(false, true))
+            return;
+
+        final Context appContext = con.getApplicationContext();
+        getCompactExecutor().execute(() -> {
+            // Clear the flag first, so anything stored while this is going
+            // can queue up the next one.
+            mCompactionQueued.set(false);
+            store.cleanup(appContext);
+        });
+    }
+
+    /**
+     * Compacts the database right now, on this thread, whether or not it's
+     * due for it.  This is for the daily background jobs, so the cache gets
+     * tidied up even on days nothing much gets stored.  Don't call it from
+     * the main thread.
+     *
+     * @param con Context used to retrieve the database and preferences
+     * @return how many rows were thrown out
+     */
+    public static int compactStore(@NonNull Context con) {
+        return getStore(con).cleanup(con);
+    }
+
+    @NonNull
+    private static synchronized ExecutorService getCompactExecutor() {
+        if(mCompactExecutor == null) {
+            mCompactExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "StockStoreCompactor");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+        }
+
+        return mCompactExecutor;
+    }
+
+    /**
+     * Gets the number of stock lookups that actually had to go to the database
+     * and/or the internet since the app started.
+     *
+     * @return the number of stock lookups started
+     */
+    public static long getStockLookupsStarted() {
+        return mStockFlightsStarted.get();
+    }
+
+    /**
+     * Gets the number of StockRunners that didn't start their own stock
+     * lookup because another one for the same date was already in progress,
+     * since the app started.
+     *
+     * @return the number of StockRunners that were coalesced into another
+     *         lookup
+     */
+    public static long getStockLookupsCoalesced() {
+        return mStockFlightsCoalesced.get();
+    }
+
+    /**
+     * Gets the cache of stocks the servers said weren't posted yet.  This is
+     * mostly here so its hit counter can be looked at, or so it can be told
+     * how long to wait before asking again.
+     *
+     * @return the not-posted cache
+     */
+    @NonNull
+    public static NotPostedCache getNotPostedCache() {
+        return mNotPosted;
     }
 
     /**
-     * Wipes out the entire stock cache.  No, seriously.
+     * Wipes out the entire stock cache.  No, seriously.  This can wait on the
+     * store being opened, so keep it off the main thread.
      * 
      * @param con Context used to retrieve the database
      * @return true on success, false on failure
      */
-    public synchronized static boolean deleteCache(@NonNull Context con) {
-        return getStore(con).deleteCache();
+    public static boolean deleteCache(@NonNull Context con) {
+        // Wait for the store first, and NOT while synchronized, since opening
+        // it needs the HashBuilder lock, too.  That also means the warm-up's
+        // done filling the quick cache before we go and empty it.
+        StockStore store = getStore(con);
+
+        getQuickCache().clear();
+        mNotPosted.clear();
+
+        // The bundled archive stays, but anything we added to it goes.  So
+        // does anything the other engine might've left behind, just in case.
+        boolean deltaCleared = getArchive(con).clearDelta();
+        deleteInactiveStore(con, store);
+        return store.deleteCache() && deltaCleared;
     }
     
     /**
      * Build an Info object.  Since this assumes we already have a stock price
      * AND the Graticule can tell us if we need to use the 30W rule, use the
-     * REAL date on the Calendar object.
+     * REAL date on the Calendar object.  This is package-private so the tests
+     * can check it against known hashes without going through the network or
+     * the stock store first.
      * 
      * @param c date from which this hash comes
-     * @param stockPrice effective stock price (already adjusted for the 30W Rule)
+     * @param stockPrice effective stock price (already adjusted for the 30W
+     *                   Rule), packed up as a {@link StockValue}
      * @param g the graticule in question
      * @return a new Info object
      */
     @NonNull
-    private static Info createInfo(@NonNull Calendar c, @NonNull String stockPrice, @Nullable Graticule g) {
+    static Info createInfo(@NonNull Calendar c, long stockPrice, @Nullable Graticule g) {
         // This creates the Info object that'll go right back to whatever was
-        // calling it.  In general, this is the Handler in StockRunner.
+        // calling it.  In general, this is the Handler in StockRunner.  This
+        // also puts the hash in the quick cache.
         
-        // So to that end, we first build up the hash.
-        String hash = makeHash(c, stockPrice);
+        // So to that end, we first build up the hash fractions.  This goes
+        // through the per-thread scratch space, so no Strings or BigDecimals
+        // get made along the way.
+        int day = EpochDay.fromCalendar(c);
+        HashScratch scratch = sScratch.get();
+        makeHashFractions(day, stockPrice, scratch);
         
-        // Then, get the latitude and longitude from that.
-        double lat = getLatitude(g, hash);
-        double lon = getLongitude(g, hash);
+        // While we've got the exact fractions handy, toss them in the quick
+        // cache.  Info only gives them back after a round trip through the
+        // full coordinates, which can lose a bit or two.
+        getQuickCache().put(HashCache.makeKey(day, EpochDay.uses30WRule(day, g)),
+                scratch.latHash,
+                scratch.lonHash);
         
-        // And finally...
-        return new Info(lat, lon, g, c);
+        // Then, get the latitude and longitude from that.  And finally...
+        return makeInfoFromHashes(c, g, scratch.latHash, scratch.lonHash);
     }
     
     /**
@@ -551,158 +1841,139 @@ public class HashBuilder {
     }
     
     /**
-     * Builds a new Info object by applying a new Graticule to an existing Info
-     * object.  That is to say, change the destination of an Info object to
-     * somewhere else, as if it were the same day and same stock value (and
-     * thus the same hash).  Note that this will throw an exception if the 
-     * existing Info's 30W-alignment isn't the same as the new Graticule's,
-     * because that might require a trip back to the internet, and by this
-     * point, we should know that we don't need to do so.
-     * 
-     * Also note that you can't do any cloning actions on a globalhash, since
-     * that doesn't make any sense.
-     * 
-     * @param i old Info object to clone
-     * @param g new Graticule to apply
-     * @throws InvalidParameterException the Info and Graticule do not lie on
-     *                                   the same side of the 30W line, or one
-     *                                   of the Graticules in question
-     *                                   represents a globalhash.
-     * @return a new, improved Info object
+     * Builds a new Info object out of the fractional parts of a hash.  That
+     * is, put the given Graticule back on the hash.  The fractions had better
+     * be from a hash on the same side of the 30W line as the Graticule, or
+     * you'll get the wrong answer.
+     *
+     * @param c date from which this hash comes
+     * @param g the graticule in question (null for a globalhash)
+     * @param latHash the fractional part of the latitude
+     * @param lonHash the fractional part of the longitude
+     * @return a new Info object
      */
     @NonNull
-    private static Info cloneInfo(@NonNull Info i, @Nullable Graticule g) {
-        if(i.isGlobalHash() || g == null)
-            throw new InvalidParameterException("You can't clone a globalhash point, since that doesn't make any sense.");
-
-        Graticule source = i.getGraticule();
-
-        if(source == null)
-            throw new InvalidParameterException("You can't clone a globalhash point, since that doesn't make any sense.");
-        
-        // This sort of requires the 30W-itude of both to match.
-        if(source.uses30WRule() != g.uses30WRule())
-            throw new InvalidParameterException("The given Info and Graticule do not lie on the same side of the 30W line; this should not have happened.");
-        
-        // Get the destination set...
-        double lat = (g.getLatitude() + i.getLatitudeHash()) * (g.isSouth() ? -1 : 1);
-        double lon = (g.getLongitude() + i.getLongitudeHash()) * (g.isWest() ? -1 : 1);
-        
-        // Then...
-        return new Info(lat, lon, g, i.getCalendar());
+    private static Info makeInfoFromHashes(@NonNull Calendar c,
+                                           @Nullable Graticule g,
+                                           double latHash,
+                                           double lonHash) {
+        return new Info(getLatitude(g, latHash), getLongitude(g, lonHash), g, c);
     }
     
     /**
-     * Generate the hash string from the date and stock price.  The REAL date,
-     * that is.  Not a 30W Rule-adjusted date.
-     * 
-     * @param c date to use
-     * @param stockPrice stock price to use
-     * @return the hash you're looking for
+     * <p>
+     * Generate the hash fractions from the date and stock price.  The REAL
+     * date, that is.  Not a 30W Rule-adjusted date.  The results wind up in
+     * the given scratch object's latHash and lonHash fields.
+     * </p>
+     *
+     * <p>
+     * This is the same thing as MD5ing the "YYYY-MM-DD-stock" string and
+     * running each half of the hex digest through {@link HexFraction}, only
+     * without making that string, the hex digest, or any BigDecimals along the
+     * way.  The date and stock get written straight into the scratch buffer as
+     * bytes, and the fractions get read straight out of the digest bytes.  The
+     * results are bit-for-bit identical.
+     * </p>
+     *
+     * <p>
+     * This takes the date as an epoch day rather than a Calendar so it can be
+     * run from multiple threads at once without sharing anything.
+     * </p>
+     *
+     * @param epochDay date to use, as an epoch day
+     * @param stockPrice stock price to use, packed up as a {@link StockValue}
+     * @param scratch the current thread's scratch space
      */
-    @NonNull
-    private static String makeHash(@NonNull Calendar c, @NonNull String stockPrice) {
-        // Just reset the hash. This can be handy alone if the graticule has
-        // changed.  Remember, c is the REAL date, not the STOCK date!
-        return MD5Tools.MD5hash(String.format(Locale.US,
-                "%4d-%02d-%02d-%s",
-                c.get(Calendar.YEAR),
-                c.get(Calendar.MONTH) + 1,
-                c.get(Calendar.DAY_OF_MONTH),
-                stockPrice));
-    }
+    private static void makeHashFractions(int epochDay,
+                                          long stockPrice,
+                                          @NonNull HashScratch scratch) {
+        int dateKey = EpochDay.getDateKey(epochDay);
+        int year = dateKey / 10000;
+        int month = (dateKey / 100) % 100;
+        int day = dateKey % 100;
 
-    @Nullable
-    private static Info getQuickCache(@NonNull Calendar sCal, @Nullable Graticule g) {
-        // We don't use Calendar.equals here, as that checks all properties,
-        // including potentially some we don't really care about.
-        boolean is30W = (g == null || g.uses30WRule());
-        
-        // At any rate, first off, the most recent date/30W combo.  Then, the
-        // second-most.  Failing THAT, return null.
-        Log.v(DEBUG_TAG, "Checking quickcache for data...");
-        if(mLastInfo != null) {
-            Calendar stored = mLastInfo.getCalendar();
-            
-            if(stored.get(Calendar.MONTH) ==  sCal.get(Calendar.MONTH)
-                    && stored.get(Calendar.DAY_OF_MONTH) ==  sCal.get(Calendar.DAY_OF_MONTH)
-                    && stored.get(Calendar.YEAR) ==  sCal.get(Calendar.YEAR)
-                    && ((mLastInfo.getGraticule() == null && g == null)
-                            || (mLastInfo.getGraticule() != null && g != null))
-                    && mLastInfo.uses30WRule() == is30W) {
-                Log.v(DEBUG_TAG, "Hash data is in quick cache (mLastInfo): " + mLastInfo.getLatitudeHash() + ", " + mLastInfo.getLongitudeHash());
-                return mLastInfo;
-            }
-        }
-        
-        if(mTwoInfosAgo != null) {
-            Calendar stored = mTwoInfosAgo.getCalendar();
-            
-            if(stored.get(Calendar.MONTH) ==  sCal.get(Calendar.MONTH)
-                    && stored.get(Calendar.DAY_OF_MONTH) ==  sCal.get(Calendar.DAY_OF_MONTH)
-                    && stored.get(Calendar.YEAR) ==  sCal.get(Calendar.YEAR)
-                    && ((mTwoInfosAgo.getGraticule() == null && g == null)
-                            || (mTwoInfosAgo.getGraticule() != null && g != null))
-                    && mTwoInfosAgo.uses30WRule() == is30W) {
-                Log.v(DEBUG_TAG, "Hash data is in quick cache (mTwoInfosAgo): " + mTwoInfosAgo.getLatitudeHash() + ", " + mTwoInfosAgo.getLongitudeHash());
-                return mTwoInfosAgo;
-            }
+        // Remember, this is the REAL date, not the STOCK date!  Ten bytes for
+        // the date, one for the hyphen, and however many the stock needs.
+        int len = 11 + StockValue.getLength(stockPrice);
+        byte[] in = scratch.ensureInput(len);
+
+        // The year is "%4d", which space-pads.  Not that we'll be getting
+        // hashes from before the year 1000 any time soon, but still.
+        int pos = 0;
+        for(int div = 1000; div > 0; div /= 10) {
+            in[pos++] = (year < div && div > 1) ? (byte)' ' : (byte)('0' + (year / div) % 10);
         }
-        
-        Log.v(DEBUG_TAG, "Data wasn't in quickcache.");
-        
-        return null;
+        in[pos++] = '-';
+        pos = writeTwoDigits(in, pos, month);
+        in[pos++] = '-';
+        pos = writeTwoDigits(in, pos, day);
+        in[pos++] = '-';
+
+        // The stock gets its digits written out right from the packed value,
+        // exactly as the servers sent them.
+        StockValue.writeAscii(stockPrice, in, pos);
+
+        byte[] out = scratch.output;
+        MD5Tools.digestInto(in, len, out);
+
+        scratch.latHash = HexFraction.fromBytes(out, 0);
+        scratch.lonHash = HexFraction.fromBytes(out, 8);
     }
-    
-    /**
-     * Gets the latitude value of the location for the current date. This is
-     * attached to the current graticule integer value to produce the longitude.
-     * 
-     * @return the fractional latitude value
-     */
-    private static double getLatitudeHash(@NonNull String hash) {
-        String chunk = hash.substring(0, 16);
-        return HexFraction.calculate(chunk);
+
+    private static int writeTwoDigits(@NonNull byte[] buf, int pos, int value) {
+        buf[pos++] = (byte)('0' + (value / 10) % 10);
+        buf[pos++] = (byte)('0' + value % 10);
+        return pos;
     }
 
     /**
-     * Gets the longitude value of the location for the current date. This is
-     * attached to the current graticule integer value to produce the latitude.
-     * 
-     * @return the fractional longitude value
+     * Per-thread scratch space for {@link #makeHashFractions(int, long, HashScratch)}.
+     * This holds onto the buffers it needs, so that building thousands of
+     * hashes in a row doesn't allocate anything new after the first one on
+     * each thread.  The digest itself lives over in {@link MD5Tools}.
      */
-    private static double getLongitudeHash(@NonNull String hash) {
-        String chunk = hash.substring(16, 32);
-        return HexFraction.calculate(chunk);
+    private static class HashScratch {
+        final byte[] output = new byte[MD5Tools.DIGEST_LENGTH];
+        byte[] input = new byte[32];
+        double latHash;
+        double lonHash;
+
+        @NonNull
+        byte[] ensureInput(int len) {
+            if(input.length < len)
+                input = new byte[len];
+            return input;
+        }
     }
 
-    private static double getLatitude(@Nullable Graticule g, @NonNull String hash) {
+    private static double getLatitude(@Nullable Graticule g, double latHash) {
         // If the Graticule's not null, this is a normal hash.  If it is, it's a
         // globalhash, and has to be treated differently.
         if(g != null) {
             int lat = g.getLatitude();
             if (g.isSouth()) {
-                return (lat + getLatitudeHash(hash)) * -1;
+                return (lat + latHash) * -1;
             } else {
-                return lat + getLatitudeHash(hash);
+                return lat + latHash;
             }
         } else {
-            return getLatitudeHash(hash);
+            return latHash;
         }
 
     }
 
-    private static double getLongitude(@Nullable Graticule g, @NonNull String hash) {
+    private static double getLongitude(@Nullable Graticule g, double lonHash) {
         // Same deal as with getLatitude.
         if(g != null) {
             int lon = g.getLongitude();
             if (g.isWest()) {
-                return (lon + getLongitudeHash(hash)) * -1;
+                return (lon + lonHash) * -1;
             } else {
-                return lon + getLongitudeHash(hash);
+                return lon + lonHash;
             }
         } else {
-            return getLongitudeHash(hash);
+            return lonHash;
         }
     }
 
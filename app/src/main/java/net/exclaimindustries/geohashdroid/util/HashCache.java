@@ -0,0 +1,290 @@
+/*
+ * HashCache.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A <code>HashCache</code> is a small, bounded, in-memory cache of hash
+ * fractions, evicting the least-recently-used entry when it fills up.  It's
+ * what {@link HashBuilder} checks before it bothers the database.
+ * </p>
+ *
+ * <p>
+ * Entries are keyed by a packed long made from the date (as an epoch day) and
+ * whether or not the 30W Rule was in effect; see {@link #makeKey(int, boolean)}.
+ * That's all that determines the hash, so one entry covers every Graticule on
+ * the same side of the 30W line.  The values are just the two fractions, not
+ * whole Info objects, so it's up to the caller to put the Graticule back on.
+ * </p>
+ *
+ * <p>
+ * Everything is stored in primitive arrays, with an open-addressed index into
+ * them, so lookups don't box anything or make any garbage.  All methods are
+ * synchronized, as StockWorkers run on whatever thread WorkManager feels like.
+ * </p>
+ */
+public class HashCache {
+    // Marks an empty spot in the index, or the end of the LRU list.
+    private static final int NONE = -1;
+
+    private final int mCapacity;
+
+    // The entries themselves.  An entry's slot never changes once it's in.
+    private final long[] mKeys;
+    private final double[] mLatHashes;
+    private final double[] mLonHashes;
+
+    // The LRU list, as a doubly-linked list of slots.  mHead is the most
+    // recently used, mTail the least.
+    private final int[] mPrev;
+    private final int[] mNext;
+    private int mHead = NONE;
+    private int mTail = NONE;
+
+    // The index, mapping keys to slots via linear probing.  This is always a
+    // power of two and at least twice the capacity, so it never gets too full.
+    private final int[] mIndex;
+    private final int mIndexMask;
+
+    private int mSize;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    /**
+     * Makes a new, empty HashCache.
+     *
+     * @param capacity the most entries this will hold before it starts
+     *                 evicting things
+     * @throws IllegalArgumentException capacity is less than one
+     */
+    public HashCache(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("A HashCache needs room for at least one entry!");
+
+        mCapacity = capacity;
+        mKeys = new long[capacity];
+        mLatHashes = new double[capacity];
+        mLonHashes = new double[capacity];
+        mPrev = new int[capacity];
+        mNext = new int[capacity];
+
+        int indexSize = Integer.highestOneBit(capacity) << 2;
+        mIndex = new int[indexSize];
+        mIndexMask = indexSize - 1;
+        Arrays.fill(mIndex, NONE);
+    }
+
+    /**
+     * Packs a date and 30W-ness into a key for this cache.
+     *
+     * @param epochDay the date, as days since January 1, 1970 (this is the
+     *                 REAL date, not one adjusted for the 30W Rule)
+     * @param uses30W true if the 30W Rule is in effect (or it's a globalhash)
+     * @return a key
+     */
+    public static long makeKey(int epochDay, boolean uses30W) {
+        return ((long)epochDay << 1) | (uses30W ? 1 : 0);
+    }
+
+    /**
+     * Looks up the fractions for the given key.  If they're there, they'll be
+     * written into out, latitude first, and this entry becomes the most
+     * recently used.
+     *
+     * @param key the key, from {@link #makeKey(int, boolean)}
+     * @param out a two-element array to hold the fractions
+     * @return true if found (and out was filled in), false if not
+     */
+    public synchronized boolean get(long key, double[] out) {
+        int slot = findSlot(key);
+
+        if(slot == NONE) {
+            mMisses++;
+            return false;
+        }
+
+        mHits++;
+        moveToHead(slot);
+        out[0] = mLatHashes[slot];
+        out[1] = mLonHashes[slot];
+        return true;
+    }
+
+    /**
+     * Puts fractions into the cache.  If the key's already in there, its
+     * fractions get replaced.  If the cache is full, the least-recently-used
+     * entry gets evicted to make room.
+     *
+     * @param key the key, from {@link #makeKey(int, boolean)}
+     * @param latHash the latitude fraction
+     * @param lonHash the longitude fraction
+     */
+    public synchronized void put(long key, double latHash, double lonHash) {
+        int slot = findSlot(key);
+
+        if(slot == NONE) {
+            if(mSize < mCapacity) {
+                // There's still room.  Use the next slot up.
+                slot = mSize++;
+            } else {
+                // Out with the old...
+                slot = mTail;
+                unlink(slot);
+                removeFromIndex(mKeys[slot]);
+                mEvictions++;
+            }
+
+            mKeys[slot] = key;
+            addToIndex(key, slot);
+            linkAtHead(slot);
+        } else {
+            moveToHead(slot);
+        }
+
+        mLatHashes[slot] = latHash;
+        mLonHashes[slot] = lonHash;
+    }
+
+    /**
+     * Empties the cache.  The counters are left alone.
+     */
+    public synchronized void clear() {
+        Arrays.fill(mIndex, NONE);
+        mHead = NONE;
+        mTail = NONE;
+        mSize = 0;
+    }
+
+    /**
+     * Gets the number of entries currently in the cache.
+     *
+     * @return the size
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Gets the most entries this cache will hold.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Gets the number of lookups that found what they were looking for.
+     *
+     * @return the hit count
+     */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /**
+     * Gets the number of lookups that didn't find anything.
+     *
+     * @return the miss count
+     */
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * Gets the number of entries that were thrown out to make room.
+     *
+     * @return the eviction count
+     */
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HashCache with " + mSize + "/" + mCapacity + " entries; "
+                + mHits + " hits, " + mMisses + " misses, "
+                + mEvictions + " evictions";
+    }
+
+    private int indexOf(long key) {
+        // Mix the bits up a bit, since consecutive days would otherwise all
+        // land right next to each other.
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h >>> 32) & mIndexMask;
+    }
+
+    private int findSlot(long key) {
+        for(int i = indexOf(key); ; i = (i + 1) & mIndexMask) {
+            int slot = mIndex[i];
+            if(slot == NONE) return NONE;
+            if(mKeys[slot] == key) return slot;
+        }
+    }
+
+    private void addToIndex(long key, int slot) {
+        int i = indexOf(key);
+        while(mIndex[i] != NONE)
+            i = (i + 1) & mIndexMask;
+        mIndex[i] = slot;
+    }
+
+    private void removeFromIndex(long key) {
+        int i = indexOf(key);
+        while(mKeys[mIndex[i]] != key)
+            i = (i + 1) & mIndexMask;
+
+        // Linear probing means we can't just leave a hole, or anything that
+        // probed past this spot would get lost.  Shift back anything later in
+        // the run that would be happier here.
+        int hole = i;
+        for(int j = (i + 1) & mIndexMask; mIndex[j] != NONE; j = (j + 1) & mIndexMask) {
+            int home = indexOf(mKeys[mIndex[j]]);
+
+            // Move j's entry into the hole if its home spot isn't between the
+            // hole and j (cyclically speaking).
+            boolean between = hole <= j
+                    ? (home > hole && home <= j)
+                    : (home > hole || home <= j);
+            if(!between) {
+                mIndex[hole] = mIndex[j];
+                hole = j;
+            }
+        }
+        mIndex[hole] = NONE;
+    }
+
+    private void linkAtHead(int slot) {
+        mPrev[slot] = NONE;
+        mNext[slot] = mHead;
+        if(mHead != NONE) mPrev[mHead] = slot;
+        mHead = slot;
+        if(mTail == NONE) mTail = slot;
+    }
+
+    private void unlink(int slot) {
+        int prev = mPrev[slot];
+        int next = mNext[slot];
+
+        if(prev != NONE) mNext[prev] = next;
+        else mHead = next;
+
+        if(next != NONE) mPrev[next] = prev;
+        else mTail = prev;
+    }
+
+    private void moveToHead(int slot) {
+        if(slot == mHead) return;
+        unlink(slot);
+        linkAtHead(slot);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * HttpStockSource.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+
+import cz.msebera.android.httpclient.client.methods.CloseableHttpResponse;
+import cz.msebera.android.httpclient.client.methods.HttpGet;
+import cz.msebera.android.httpclient.impl.client.CloseableHttpClient;
+import cz.msebera.android.httpclient.util.EntityUtils;
+
+/**
+ * <p>
+ * An <code>HttpStockSource</code> is a {@link StockSource} that's one of the
+ * stock mirror servers out on the web.  It takes a URL template, where %Y is
+ * the four-digit year, %m is the zero-padded month, and %d is the zero-padded
+ * date, and a plain text stock value is expected back.
+ * </p>
+ *
+ * <p>
+ * The HTTP client comes from whoever makes this, so it can be shared (and
+ * pooled) between all the mirrors.  It should have its timeouts set up
+ * already.
+ * </p>
+ */
+public class HttpStockSource implements StockSource {
+    private static final String DEBUG_TAG = "HttpStockSource";
+
+    private final String mName;
+    private final String mTemplate;
+    private final CloseableHttpClient mClient;
+
+    private class HttpRequest implements Request {
+        private final String mLocation;
+        private final HttpGet mRequest;
+
+        HttpRequest(@NonNull String location) {
+            mLocation = location;
+            mRequest = new HttpGet(location);
+        }
+
+        @NonNull
+        @Override
+        public String execute() throws IOException {
+            Log.v(DEBUG_TAG, "Trying " + mLocation + "...");
+
+            // The response has to be closed no matter what, or its connection
+            // never makes it back to the pool.
+            try(CloseableHttpResponse response = mClient.execute(mRequest)) {
+                int statusCode = response.getStatusLine().getStatusCode();
+
+                if(statusCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                    // If the server gives us a 404, that's saying it can't find
+                    // the stock for the day, which in turn implies it hasn't
+                    // been posted yet.  Maybe another server's more on top of
+                    // things.
+                    Log.d(DEBUG_TAG, mLocation + " said there was no stock");
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    throw new FileNotFoundException(mLocation + " doesn't have that stock");
+                } else if(statusCode != HttpURLConnection.HTTP_OK) {
+                    // A non-okay response that isn't a 404 is bad.
+                    Log.d(DEBUG_TAG, mLocation + " came back with HTTP " + statusCode);
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    throw new IOException(mLocation + " came back with HTTP " + statusCode);
+                }
+
+                return getStringFromStream(response.getEntity().getContent());
+            }
+        }
+
+        @Override
+        public void cancel() {
+            mRequest.abort();
+        }
+    }
+
+    /**
+     * Makes a new HttpStockSource, named after the host in the template.
+     *
+     * @param template URL template to use
+     * @param client HTTP client to make requests with
+     */
+    public HttpStockSource(@NonNull String template,
+                           @NonNull CloseableHttpClient client) {
+        this(getHost(template), template, client);
+    }
+
+    /**
+     * Makes a new HttpStockSource with a name of your choosing.
+     *
+     * @param name what to call this source
+     * @param template URL template to use
+     * @param client HTTP client to make requests with
+     */
+    public HttpStockSource(@NonNull String name,
+                           @NonNull String template,
+                           @NonNull CloseableHttpClient client) {
+        mName = name;
+        mTemplate = template;
+        mClient = client;
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Gets the URL template this source uses.
+     *
+     * @return the template
+     */
+    @NonNull
+    public String getTemplate() {
+        return mTemplate;
+    }
+
+    @NonNull
+    @Override
+    public Request makeRequest(int sDay) {
+        return new HttpRequest(makeLocation(sDay));
+    }
+
+    @NonNull
+    private String makeLocation(int sDay) {
+        return mTemplate.replace("%Y", Integer.toString(EpochDay.getYear(sDay)))
+                .replace("%m", String.format(Locale.US, "%02d", EpochDay.getMonth(sDay)))
+                .replace("%d", String.format(Locale.US, "%02d", EpochDay.getDayOfMonth(sDay)));
+    }
+
+    @NonNull
+    private static String getHost(@NonNull String template) {
+        // Not using URI here, as the %Y, %m, and %d placeholders in the
+        // template make it throw a fit (a % has to be followed by two hex
+        // digits).  The host doesn't have any of those, so just cut it out by
+        // hand.
+        int start = template.indexOf("://");
+        start = (start < 0) ? 0 : start + 3;
+
+        int end = template.indexOf('/', start);
+        return (end < 0) ? template.substring(start) : template.substring(start, end);
+    }
+
+    /**
+     * Takes the given stream and makes a String out of whatever data it has. Be
+     * really careful with this, as it will just attempt to read whatever's in
+     * the stream until it stops, meaning it'll spin endlessly if this isn't the
+     * sort of stream that ends.
+     *
+     * @param stream
+     *            InputStream to read from
+     * @return a String consisting of the data from the stream
+     */
+    @NonNull
+    private static String getStringFromStream(@NonNull InputStream stream)
+            throws IOException {
+        BufferedReader buff = new BufferedReader(new InputStreamReader(stream));
+
+        // Load it up...
+        StringBuilder tempstring = new StringBuilder();
+        char[] bean = new char[1024];
+        int read;
+        while ((read = buff.read(bean)) != -1) {
+            tempstring.append(bean, 0, read);
+        }
+
+        return tempstring.toString();
+    }
+}
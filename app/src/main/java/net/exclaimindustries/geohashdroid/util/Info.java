@@ -9,7 +9,6 @@ package net.exclaimindustries.geohashdroid.util;
 
 import java.util.Date;
 import java.util.Calendar;
-import java.util.GregorianCalendar;
 
 import android.location.Location;
 import android.os.Parcel;
@@ -40,9 +39,6 @@ import net.exclaimindustries.tools.DateTools;
  * 
  */
 public class Info implements Parcelable {
-    /** The earliest date at which the 30W Rule is used. */
-    private static final Calendar LIMIT_30W = new GregorianCalendar(2008, Calendar.MAY, 26);
-
     private double mLatitude;
     private double mLongitude;
     private Graticule mGraticule;
@@ -210,7 +206,17 @@ public class Info implements Parcelable {
     public Date getDate() {
         return mDate.getTime();
     }
-    
+
+    /**
+     * Gets the date used to generate this set of information as an epoch day
+     * (see {@link EpochDay}).
+     *
+     * @return the epoch day
+     */
+    public int getEpochDay() {
+        return EpochDay.fromCalendar(mDate);
+    }
+
     /**
      * Gets the distance, in meters, from the given Location and the final
      * destination.
@@ -226,7 +232,8 @@ public class Info implements Parcelable {
     /**
      * Returns a calendar representing the date from which the stock price was
      * pulled from a given date/graticule pair.  That is, back a day for the 30W
-     * Rule or globalhashes and rewinding to Friday if it falls on a weekend.
+     * Rule or globalhashes and rewinding to the last trading day if it falls on
+     * a weekend or a market holiday.
      * 
      * @param c date to adjust
      * @param g Graticule to use to determine if the 30W Rule is in effect (if
@@ -235,31 +242,43 @@ public class Info implements Parcelable {
      */
     @NonNull
     public static Calendar makeAdjustedCalendar(@NonNull Calendar c, @Nullable Graticule g) {
+        // If g is null, assume we're in a globalhash (that is, adjustment is
+        // always needed, no matter the date).  EpochDay knows that already.
+        int day = EpochDay.fromCalendar(c);
+        return shiftCalendar(c, EpochDay.makeAdjusted(day, g) - day);
+    }
+
+    /**
+     * Returns a calendar representing the date from which the stock price was
+     * pulled from a given date for a graticule on the given side of the 30W
+     * line.  This works like {@link #makeAdjustedCalendar(Calendar, Graticule)},
+     * but for when there's no specific Graticule in mind.  Note that this
+     * WILL respect the date the 30W Rule came into being, so don't use it for
+     * globalhashes from before then (not that there were any).
+     *
+     * @param c date to adjust
+     * @param uses30W true if the graticule in question is east of 30W
+     * @return a new adjusted Calendar
+     */
+    @NonNull
+    public static Calendar makeAdjustedCalendar(@NonNull Calendar c, boolean uses30W) {
         // This adjusts the calendar for both the 30W Rule and to clamp all
-        // weekend stocks to the preceding Friday.  This saves a few database
-        // entries, as the weekend will always be Friday's value.  Note that
-        // this doesn't account for holidays when the US stocks aren't trading.
-        
-        // First, clone the calendar.  We don't want to muck about with the
-        // original for various reasons.
+        // weekend and holiday stocks to the preceding trading day.  This saves
+        // a few database entries, as the weekend will always be Friday's value,
+        // and it saves asking the stock servers for values that don't exist.
+        // The actual work's all in EpochDay now; this is just for anything
+        // that really wants a Calendar back.
+        int day = EpochDay.fromCalendar(c);
+        return shiftCalendar(c, EpochDay.makeAdjusted(day, uses30W) - day);
+    }
+
+    @NonNull
+    private static Calendar shiftCalendar(@NonNull Calendar c, int days) {
+        // Clone the calendar.  We don't want to muck about with the original
+        // for various reasons.
         Calendar cal = (Calendar)(c.clone());
-        
-        // Second, 30W Rule hackery.  If g is null, assume we're in a globalhash
-        // (that is, adjustment is needed).  If the date is May 26, 2008 or
-        // earlier (and this isn't a globalhash), ignore it anyway (the 30W Rule
-        // only applies to non-globalhashes AFTER it was created).
-        if(g == null || (cal.after(LIMIT_30W) && g.uses30WRule()))
-            cal.add(Calendar.DAY_OF_MONTH, -1);
-        
-        // Third, if this new date is a weekend, clamp it back to Friday.
-        if(cal.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY)
-            // Saturday: Back one day
-            cal.add(Calendar.DAY_OF_MONTH, -1);
-        else if(cal.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY)
-            // SUNDAY SUNDAY SUNDAY!!!!!!: Back two days
-            cal.add(Calendar.DAY_OF_MONTH, -2);
-        
-        // There!  Done!
+        if(days != 0)
+            cal.add(Calendar.DAY_OF_MONTH, days);
         return cal;
     }
 
@@ -270,11 +289,21 @@ public class Info implements Parcelable {
      * @return true if 30W or global, false if not
      */
     public boolean uses30WRule() {
-        // If mGraticule is null, this is always 30W.
-        if(mGraticule == null) return true;
-        
-        // Otherwise, just forward it to the graticule itself.
-        return mDate.after(LIMIT_30W) && mGraticule.uses30WRule();
+        return uses30WRule(mDate, mGraticule);
+    }
+
+    /**
+     * Determines if a point on the given date in the given Graticule follows
+     * the 30W Rule.  This is the same as {@link #uses30WRule()}, only without
+     * needing an Info first.  Note that globalhashes always follow the 30W
+     * Rule.
+     *
+     * @param c date to check
+     * @param g Graticule to check (null for a globalhash)
+     * @return true if 30W or global, false if not
+     */
+    public static boolean uses30WRule(@NonNull Calendar c, @Nullable Graticule g) {
+        return EpochDay.uses30WRule(EpochDay.fromCalendar(c), g);
     }
     
     /**
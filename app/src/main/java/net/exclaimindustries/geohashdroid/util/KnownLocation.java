@@ -326,7 +326,7 @@ public class KnownLocation implements Parcelable {
     public Info getClosestInfo(@NonNull Context con,
                                @NonNull Calendar cal) throws IllegalArgumentException {
         // Get us a base Graticule.
-        Graticule base = new Graticule(mLocation);
+        Graticule base = Graticule.of(mLocation);
 
         // If we're in graticule restriction, short-circuit it to ONLY stick
         // to the base Graticule.
@@ -342,32 +342,24 @@ public class KnownLocation implements Parcelable {
         double bestSoFar = Double.MAX_VALUE;
         Info bestInfo = null;
 
-        for(int i = -1; i <= 1; i++) {
-            for(int j = -1; j <= 1; j++) {
-                // Offset the base Graticule, if need be...
-                Graticule check = base;
-                if(i != 0 && j != 0) {
-                    check = Graticule.createOffsetFrom(base, i, j);
-                }
-
-                // Okay, now we can get an Info...
-                Info info = HashBuilder.getStoredInfo(con, cal, check);
-
-                if(info == null) {
-                    // If the info is ever null, we're asking for a date that
-                    // doesn't exist yet.  Doesn't matter if some of the infos
-                    // in this loop succeeded (unless we already returned true);
-                    // ALL the infos SHOULD ALWAYS exist if any of them do, so
-                    // that's still really really bad.
-                    throw new IllegalArgumentException("Info didn't exist in the cache for that date!");
-                }
-
-                // Now, how close is it?
-                double dist = getDistanceFrom(info);
-                if(dist < bestSoFar) {
-                    bestSoFar = dist;
-                    bestInfo = info;
-                }
+        // Get the whole 3x3 block at once.  That's at most two trips to the
+        // caches, rather than nine.
+        Info[] neighborhood = HashBuilder.getNeighborhood(con, cal, base, 1, false);
+
+        // If the center is null, we're asking for a date that doesn't exist
+        // yet.  The others can be null if they're past the poles, or if
+        // they're across the 30W line and that day's stock isn't in yet.
+        if(neighborhood[HashBuilder.getNeighborhoodIndex(0, 0, 1)] == null)
+            throw new IllegalArgumentException("Info didn't exist in the cache for that date!");
+
+        for(Info info : neighborhood) {
+            if(info == null) continue;
+
+            // Now, how close is it?
+            double dist = getDistanceFrom(info);
+            if(dist < bestSoFar) {
+                bestSoFar = dist;
+                bestInfo = info;
             }
         }
 
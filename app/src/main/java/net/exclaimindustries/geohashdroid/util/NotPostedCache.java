@@ -0,0 +1,138 @@
+/*
+ * NotPostedCache.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A <code>NotPostedCache</code> remembers which stocks the servers said
+ * weren't posted yet, so we don't have to keep asking them.  It's keyed by
+ * the (already-adjusted) stock date, as an epoch day.
+ * </p>
+ *
+ * <p>
+ * How long "not posted" sticks depends on when the stock SHOULD show up.  The
+ * DJIA opens at 9:30am ET, so if it's not 9:30am ET on the stock's date yet,
+ * there's no way the servers will have it any sooner, and the answer sticks
+ * until then.  If it's already past that and the servers still don't have it,
+ * they're probably just running a little behind, so the answer only sticks for
+ * a short while (see {@link #setRetryAfterOpen(long)}) before we try again.
+ * </p>
+ *
+ * <p>
+ * Everything here is safe to call from any thread.
+ * </p>
+ */
+public class NotPostedCache {
+    /** By default, once the market's open, ask again after this long. */
+    public static final long DEFAULT_RETRY_AFTER_OPEN_MS = 2 * 60 * 1000;
+
+    private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+
+    // Expiry times, in milliseconds since the epoch, keyed by stock date.
+    private final Map<Integer, Long> mExpiries = new ConcurrentHashMap<>();
+    private volatile long mRetryAfterOpenMs = DEFAULT_RETRY_AFTER_OPEN_MS;
+
+    private final AtomicLong mHits = new AtomicLong();
+
+    /**
+     * Checks if the servers recently said the stock for the given date wasn't
+     * posted, recently enough that there's no point asking again.
+     *
+     * @param sDay already-adjusted stock date, as an epoch day
+     * @param now the current time, in milliseconds since the epoch
+     * @return true if it's not worth asking yet, false if it is
+     */
+    public boolean isNotPosted(int sDay, long now) {
+        Long expiry = mExpiries.get(sDay);
+        if(expiry == null) return false;
+
+        if(now >= expiry) {
+            mExpiries.remove(sDay, expiry);
+            return false;
+        }
+
+        mHits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remembers that the servers said the stock for the given date wasn't
+     * posted.  This also clears out anything that's expired, so this never
+     * gets any bigger than the handful of dates that might still be waiting on
+     * a stock.
+     *
+     * @param sDay already-adjusted stock date, as an epoch day
+     * @param now the current time, in milliseconds since the epoch
+     */
+    public void markNotPosted(int sDay, long now) {
+        for(Iterator<Long> i = mExpiries.values().iterator(); i.hasNext(); ) {
+            if(now >= i.next()) i.remove();
+        }
+
+        long opening = getExpectedPostTime(sDay);
+        mExpiries.put(sDay, (now < opening) ? opening : now + mRetryAfterOpenMs);
+    }
+
+    /**
+     * Forgets about the given date, presumably because its stock showed up.
+     *
+     * @param sDay already-adjusted stock date, as an epoch day
+     */
+    public void remove(int sDay) {
+        mExpiries.remove(sDay);
+    }
+
+    /**
+     * Forgets everything.
+     */
+    public void clear() {
+        mExpiries.clear();
+    }
+
+    /**
+     * Sets how long a "not posted" answer sticks if it came after the stock
+     * should've been posted.
+     *
+     * @param retryAfterOpenMs how long, in milliseconds
+     */
+    public void setRetryAfterOpen(long retryAfterOpenMs) {
+        mRetryAfterOpenMs = Math.max(0, retryAfterOpenMs);
+    }
+
+    /**
+     * Gets how many times a stock lookup was answered from here instead of
+     * going out to the servers.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return mHits.get();
+    }
+
+    /**
+     * Gets when the stock for the given date ought to be posted, which is to
+     * say, 9:30am ET that day.
+     *
+     * @param sDay already-adjusted stock date, as an epoch day
+     * @return the time, in milliseconds since the epoch
+     */
+    public static long getExpectedPostTime(int sDay) {
+        Calendar cal = new GregorianCalendar(NEW_YORK);
+        cal.clear();
+        cal.set(EpochDay.getYear(sDay), EpochDay.getMonth(sDay) - 1, EpochDay.getDayOfMonth(sDay), 9, 30);
+        return cal.getTimeInMillis();
+    }
+}
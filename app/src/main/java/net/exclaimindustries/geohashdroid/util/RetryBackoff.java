@@ -0,0 +1,84 @@
+/*
+ * RetryBackoff.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+
+/**
+ * <p>
+ * A <code>RetryBackoff</code> works out how long to wait before trying
+ * something again.  Each attempt waits about twice as long as the last, up to
+ * a limit, so a few quick tries happen right away without hammering anything
+ * if it turns out to take a while.
+ * </p>
+ *
+ * <p>
+ * Every delay is also jittered: half of it is fixed, the other half random.
+ * That's mostly for the stock servers' sake.  Every copy of the app wakes up
+ * at 9:30am ET, and if they all retried on the exact same schedule, the
+ * servers would get every retry from everybody in the same instant.
+ * </p>
+ */
+public class RetryBackoff {
+    private final long mInitialMs;
+    private final long mMaxMs;
+    private final Random mRandom;
+
+    /**
+     * Makes a new RetryBackoff.
+     *
+     * @param initialMs the longest the first delay can be, in milliseconds
+     * @param maxMs the longest any delay can be, in milliseconds
+     * @param random where the jitter comes from
+     * @throws IllegalArgumentException initialMs isn't positive, or maxMs is
+     *                                  less than initialMs
+     */
+    public RetryBackoff(long initialMs, long maxMs, @NonNull Random random) {
+        if(initialMs <= 0)
+            throw new IllegalArgumentException("The initial delay has to be positive!");
+        if(maxMs < initialMs)
+            throw new IllegalArgumentException("The maximum delay can't be less than the initial delay!");
+
+        mInitialMs = initialMs;
+        mMaxMs = maxMs;
+        mRandom = random;
+    }
+
+    /**
+     * Gets the upper bound on the delay for the given attempt, before jitter.
+     * That's the initial delay, doubled once per attempt, up to the maximum.
+     *
+     * @param attempt how many attempts have failed so far, minus one (that is,
+     *                zero for the first retry)
+     * @return the longest the delay can be, in milliseconds
+     */
+    public long getCeiling(int attempt) {
+        if(attempt <= 0) return mInitialMs;
+
+        // Shifting past the top of a long wraps around, so stop doubling once
+        // it's obviously past the maximum anyway.
+        if(attempt >= 62 || mInitialMs > (mMaxMs >> attempt)) return mMaxMs;
+        return Math.min(mMaxMs, mInitialMs << attempt);
+    }
+
+    /**
+     * Gets how long to wait before the given attempt.  This is somewhere
+     * between half of {@link #getCeiling(int)} and all of it.
+     *
+     * @param attempt how many attempts have failed so far, minus one (that is,
+     *                zero for the first retry)
+     * @return the delay, in milliseconds
+     */
+    public long getDelay(int attempt) {
+        long ceiling = getCeiling(attempt);
+        long half = ceiling / 2;
+        return half + (long)(mRandom.nextDouble() * (ceiling - half));
+    }
+}
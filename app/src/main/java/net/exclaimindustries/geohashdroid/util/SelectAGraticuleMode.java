@@ -235,7 +235,7 @@ public class SelectAGraticuleMode
                 clearFindClosest();
 
                 // And that's our target!
-                Graticule g = new Graticule(nearest.getFinalLocation());
+                Graticule g = Graticule.of(nearest.getFinalLocation());
                 mPicker.setNewGraticule(g);
                 outlineGraticule(g);
             } else {
@@ -265,7 +265,7 @@ public class SelectAGraticuleMode
     @Override
     public void onMapClick(@NonNull LatLng latLng) {
         // Okay, so now we've got a Graticule.  Well, we will right here:
-        Graticule g = new Graticule(latLng);
+        Graticule g = Graticule.of(latLng);
         removeDestinationPoint();
 
         // We can update the fragment with that.  We'll get updateGraticule back
@@ -280,6 +280,10 @@ public class SelectAGraticuleMode
 
         removeDestinationPoint();
 
+        // If Find Closest was still going, it isn't anymore.  This request
+        // replaces it, so it'll never come back to reset the button.
+        if(mWaitingOnFindClosest || mLastLocation != null) clearFindClosest();
+
         // Fetch the stock, too.
         requestStock(g, mCalendar, StockWorker.FLAG_USER_INITIATED | StockWorker.FLAG_SELECT_A_GRATICULE);
     }
@@ -323,7 +327,7 @@ public class SelectAGraticuleMode
         banner.animateBanner(true);
 
         mLastLocation = loc;
-        requestStock(new Graticule(loc), mCalendar, StockWorker.FLAG_USER_INITIATED | StockWorker.FLAG_FIND_CLOSEST);
+        requestStock(Graticule.of(loc), mCalendar, StockWorker.FLAG_USER_INITIATED | StockWorker.FLAG_FIND_CLOSEST);
     }
 
     private void outlineGraticule(Graticule g) {
@@ -0,0 +1,481 @@
+/*
+ * StockArchive.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * A <code>StockArchive</code> is a read-only pile of historical stocks that
+ * ships with the app, plus a small file of stocks we've fetched since.  It sits
+ * in front of the {@link StockStore}: if a stock's in here, looking it up
+ * is just reading four bytes out of a buffer, no SQLite and no network.
+ * </p>
+ *
+ * <p>
+ * The bundled archive lives in the app's assets as {@link #ASSET_NAME}.  It's
+ * a 16-byte header (the magic number "GHDA", a format version, the first epoch
+ * day in the archive, and how many days it covers), followed by one
+ * big-endian int per calendar day.  Each int is the stock in hundredths (so
+ * 10458.68 is stored as 1045868), or zero if there's no stock that day.  Since
+ * every day gets a slot, finding a day is just arithmetic.  It's stored
+ * uncompressed in the APK so it can be memory-mapped straight out of there; if
+ * it somehow got compressed anyway, it gets read into a direct buffer instead.
+ * Make one with {@link #writeArchive(SparseArray, OutputStream)}, say from a
+ * {@link StockBackfill}ed database.
+ * </p>
+ *
+ * <p>
+ * Stocks fetched after the archive was built go in the delta file,
+ * {@link #DELTA_NAME}, in the app's files directory.  That's appended to,
+ * eight bytes per stock (the epoch day and the stock in hundredths), and gets
+ * read into memory when this is opened.  If the app died halfway through
+ * writing a record, the partial record just gets chopped off.  It's capped at
+ * {@link #MAX_DELTA_SIZE} stocks; past that, the oldest days get dropped
+ * (they're still in the database, if the database kept them).  Anything a
+ * newer bundled archive already covers gets dropped when it's opened, too.
+ * </p>
+ *
+ * <p>
+ * Only stocks with exactly two decimal places can go in here, since that's
+ * the only way to be sure they come back out as the exact same string (and
+ * the exact same string is what the hash needs).  Anything else just stays in
+ * the database.
+ * </p>
+ */
+public class StockArchive {
+    private static final String DEBUG_TAG = "StockArchive";
+
+    /** The name of the bundled archive in the assets. */
+    public static final String ASSET_NAME = "stock_archive.bin";
+    /** The name of the delta file in the files directory. */
+    public static final String DELTA_NAME = "stock_delta.bin";
+
+    private static final int MAGIC = 0x47484441; // "GHDA"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 4;
+    private static final int DELTA_RECORD_SIZE = 8;
+
+    /**
+     * The most stocks the delta file will hold.  That's about eight years of
+     * trading days, in 16KB.  Once it's over, it gets cut back to three
+     * quarters of this, oldest days first, so it isn't rewritten on every
+     * single append after that.
+     */
+    public static final int MAX_DELTA_SIZE = 2048;
+
+    private final ByteBuffer mArchive;
+    private final int mFirstDay;
+    private final int mDayCount;
+
+    private final File mDeltaFile;
+    private final SparseIntArray mDelta = new SparseIntArray();
+
+    /**
+     * Opens the bundled archive and the delta file.  If the archive isn't
+     * there or doesn't make sense, it's treated as empty, and if the delta
+     * file can't be read, it's started over.  Either way, this always comes
+     * back with something usable.
+     *
+     * @param c Context for the assets and files directory
+     * @return a new StockArchive
+     */
+    @NonNull
+    public static StockArchive open(@NonNull Context c) {
+        return new StockArchive(loadAsset(c), new File(c.getFilesDir(), DELTA_NAME));
+    }
+
+    /**
+     * Makes a StockArchive out of an archive that's already been loaded and a
+     * delta file.  This is mostly here for testing; use
+     * {@link #open(Context)} instead.
+     *
+     * @param archive the archive, positioned at its start (null for none)
+     * @param deltaFile where the delta file is (it's fine if it doesn't exist)
+     */
+    StockArchive(@Nullable ByteBuffer archive, @NonNull File deltaFile) {
+        int firstDay = 0;
+        int dayCount = 0;
+
+        if(archive != null) {
+            if(archive.capacity() < HEADER_SIZE
+                    || archive.getInt(0) != MAGIC
+                    || archive.getInt(4) != VERSION) {
+                Log.w(DEBUG_TAG, "The stock archive isn't a stock archive I know how to read, ignoring it...");
+                archive = null;
+            } else {
+                firstDay = archive.getInt(8);
+                dayCount = archive.getInt(12);
+
+                if(dayCount < 0 || (long)HEADER_SIZE + (long)dayCount * RECORD_SIZE > archive.capacity()) {
+                    Log.w(DEBUG_TAG, "The stock archive is truncated, ignoring it...");
+                    archive = null;
+                    dayCount = 0;
+                }
+            }
+        }
+
+        mArchive = archive;
+        mFirstDay = firstDay;
+        mDayCount = dayCount;
+        mDeltaFile = deltaFile;
+
+        loadDelta();
+
+        Log.v(DEBUG_TAG, "Stock archive has " + mDayCount + " day(s) starting "
+                + EpochDay.toHyphenatedString(mFirstDay) + ", delta has " + mDelta.size() + " stock(s)");
+    }
+
+    /**
+     * Gets the stock for the given already-adjusted date, if the archive or
+     * the delta file has it.
+     *
+     * @param sDay already-adjusted date, as an epoch day
+     * @return the stock, or null if it's not in here
+     */
+    @Nullable
+    public String getStock(int sDay) {
+        long packed = getStockValue(sDay);
+        return (packed == StockValue.NONE) ? null : StockValue.toString(packed);
+    }
+
+    /**
+     * Gets the stock for the given already-adjusted date as a packed
+     * {@link StockValue}, if the archive or the delta file has it.  This skips
+     * making a String, which is nice when the stock's just going straight into
+     * a hash.
+     *
+     * @param sDay already-adjusted date, as an epoch day
+     * @return the packed stock, or {@link StockValue#NONE} if it's not in here
+     */
+    public long getStockValue(int sDay) {
+        int encoded = 0;
+
+        int index = sDay - mFirstDay;
+        if(mArchive != null && index >= 0 && index < mDayCount)
+            encoded = mArchive.getInt(HEADER_SIZE + index * RECORD_SIZE);
+
+        if(encoded == 0) {
+            synchronized(mDelta) {
+                encoded = mDelta.get(sDay, 0);
+            }
+        }
+
+        return (encoded == 0) ? StockValue.NONE : decode(encoded);
+    }
+
+    /**
+     * Adds a freshly-fetched stock to the delta file.  If it's already in the
+     * archive or the delta, or it isn't something that can be stored exactly
+     * (see the class docs), this doesn't do anything.
+     *
+     * @param sDay already-adjusted date, as an epoch day
+     * @param stock the stock
+     */
+    public void append(int sDay, @NonNull String stock) {
+        append(sDay, StockValue.parse(stock));
+    }
+
+    /**
+     * Adds a freshly-fetched stock, already packed up as a {@link StockValue},
+     * to the delta file.  Same rules as {@link #append(int, String)}.
+     *
+     * @param sDay already-adjusted date, as an epoch day
+     * @param stock the packed stock
+     */
+    public void append(int sDay, long stock) {
+        int encoded = encode(stock);
+        if(encoded == 0) {
+            Log.v(DEBUG_TAG, "The stock " + (stock == StockValue.NONE ? "(none)" : StockValue.toString(stock))
+                    + " can't be archived exactly, leaving it to the database");
+            return;
+        }
+
+        synchronized(mDelta) {
+            if(getStockValue(sDay) != StockValue.NONE) return;
+
+            // Write the whole record in one go, so there's as little chance as
+            // possible of leaving half of one behind.
+            byte[] record = ByteBuffer.allocate(DELTA_RECORD_SIZE).putInt(sDay).putInt(encoded).array();
+            try(FileOutputStream out = new FileOutputStream(mDeltaFile, true)) {
+                out.write(record);
+            } catch(IOException ioe) {
+                Log.w(DEBUG_TAG, "Couldn't write to the stock delta file: " + ioe);
+                return;
+            }
+
+            mDelta.put(sDay, encoded);
+
+            if(mDelta.size() > MAX_DELTA_SIZE) {
+                dropOldest(mDelta.size() - MAX_DELTA_SIZE * 3 / 4);
+                rewriteDelta();
+            }
+        }
+    }
+
+    /**
+     * Empties out the delta file.  The bundled archive stays as it is, of
+     * course.
+     *
+     * @return true if it worked, false if the file couldn't be deleted
+     */
+    public boolean clearDelta() {
+        synchronized(mDelta) {
+            mDelta.clear();
+            return !mDeltaFile.exists() || mDeltaFile.delete();
+        }
+    }
+
+    /**
+     * Gets how many days the bundled archive covers, stock or no stock.
+     *
+     * @return the number of days in the archive
+     */
+    public int getArchivedDayCount() {
+        return mDayCount;
+    }
+
+    /**
+     * Gets how many stocks are in the delta file.
+     *
+     * @return the number of stocks in the delta file
+     */
+    public int getDeltaSize() {
+        synchronized(mDelta) {
+            return mDelta.size();
+        }
+    }
+
+    private boolean isArchived(int sDay) {
+        int index = sDay - mFirstDay;
+        return mArchive != null && index >= 0 && index < mDayCount
+                && mArchive.getInt(HEADER_SIZE + index * RECORD_SIZE) != 0;
+    }
+
+    private void loadDelta() {
+        if(!mDeltaFile.exists()) return;
+
+        long length = mDeltaFile.length();
+        long records = length / DELTA_RECORD_SIZE;
+        int redundant = 0;
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mDeltaFile)))) {
+            for(long i = 0; i < records; i++) {
+                int sDay = in.readInt();
+                int encoded = in.readInt();
+                if(encoded <= 0) continue;
+
+                // If the bundled archive's been updated since this got
+                // fetched, there's no need to keep it around anymore.
+                if(isArchived(sDay)) {
+                    redundant++;
+                    continue;
+                }
+
+                mDelta.put(sDay, encoded);
+            }
+        } catch(IOException ioe) {
+            Log.w(DEBUG_TAG, "Couldn't read the stock delta file, starting it over: " + ioe);
+            mDelta.clear();
+            if(!mDeltaFile.delete())
+                Log.w(DEBUG_TAG, "Couldn't even delete it!  Oh well.");
+            return;
+        }
+
+        int dropped = 0;
+        if(mDelta.size() > MAX_DELTA_SIZE) {
+            dropped = mDelta.size() - MAX_DELTA_SIZE;
+            dropOldest(dropped);
+        }
+
+        if(length % DELTA_RECORD_SIZE != 0 || redundant > 0 || dropped > 0) {
+            // Either a write got cut off, or there's stuff in there we don't
+            // need anymore.  Either way, write out just what we've got, so the
+            // next append lines up again.
+            Log.d(DEBUG_TAG, "Rewriting the stock delta file ("
+                    + (length % DELTA_RECORD_SIZE != 0 ? "partial record at the end, " : "")
+                    + redundant + " already archived, " + dropped + " over the limit)");
+            rewriteDelta();
+        }
+    }
+
+    private void dropOldest(int count) {
+        // SparseIntArray keeps its keys in order, so the oldest are first.
+        // Copy out the rest and put them back, rather than deleting one at a
+        // time and shifting everything down each time.
+        int keep = mDelta.size() - count;
+        int[] days = new int[keep];
+        int[] encoded = new int[keep];
+        for(int i = 0; i < keep; i++) {
+            days[i] = mDelta.keyAt(count + i);
+            encoded[i] = mDelta.valueAt(count + i);
+        }
+
+        mDelta.clear();
+        for(int i = 0; i < keep; i++)
+            mDelta.append(days[i], encoded[i]);
+    }
+
+    private void rewriteDelta() {
+        // Write it all to a temporary file first, then swap it in, so a crash
+        // partway through doesn't lose what was already there.
+        File temp = new File(mDeltaFile.getPath() + ".tmp");
+        ByteBuffer buf = ByteBuffer.allocate(mDelta.size() * DELTA_RECORD_SIZE);
+        for(int i = 0; i < mDelta.size(); i++)
+            buf.putInt(mDelta.keyAt(i)).putInt(mDelta.valueAt(i));
+
+        try(FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(buf.array());
+            out.getFD().sync();
+        } catch(IOException ioe) {
+            Log.w(DEBUG_TAG, "Couldn't rewrite the stock delta file, leaving it as it is: " + ioe);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+
+        if(!temp.renameTo(mDeltaFile)) {
+            Log.w(DEBUG_TAG, "Couldn't swap in the rewritten stock delta file, leaving it as it is.");
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    @Nullable
+    private static ByteBuffer loadAsset(@NonNull Context c) {
+        // Map it straight out of the APK if we can.  That only works if it
+        // wasn't compressed, which the build should've made sure of.  The
+        // mapping stays good after the descriptor's closed.
+        try(AssetFileDescriptor afd = c.getAssets().openFd(ASSET_NAME);
+            FileInputStream fis = afd.createInputStream()) {
+            return fis.getChannel().map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength());
+        } catch(FileNotFoundException fnfe) {
+            // Either it's compressed or it isn't there at all.  Fall through
+            // and find out which.
+        } catch(IOException ioe) {
+            Log.w(DEBUG_TAG, "Couldn't map the stock archive, trying to read it instead: " + ioe);
+        }
+
+        try(InputStream in = c.getAssets().open(ASSET_NAME)) {
+            DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+            byte[] header = new byte[HEADER_SIZE];
+            din.readFully(header);
+
+            int dayCount = ByteBuffer.wrap(header).getInt(12);
+            if(dayCount < 0) return null;
+
+            ByteBuffer buf = ByteBuffer.allocateDirect(HEADER_SIZE + dayCount * RECORD_SIZE);
+            buf.put(header);
+
+            byte[] chunk = new byte[8192];
+            while(buf.hasRemaining()) {
+                int read = din.read(chunk, 0, Math.min(chunk.length, buf.remaining()));
+                if(read < 0) break;
+                buf.put(chunk, 0, read);
+            }
+
+            buf.flip();
+            return buf;
+        } catch(FileNotFoundException fnfe) {
+            Log.v(DEBUG_TAG, "There's no bundled stock archive.");
+        } catch(IOException ioe) {
+            Log.w(DEBUG_TAG, "Couldn't read the stock archive, going without it: " + ioe);
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes out an archive of the given stocks, in the format described in
+     * the class docs.  It covers every day from the first stock to the last,
+     * so try not to have any wild outliers in there.  Any stocks that can't be
+     * stored exactly are left out.
+     *
+     * @param stocks the stocks, keyed by already-adjusted epoch day
+     * @param out where to write the archive (this doesn't get closed)
+     * @throws IOException something went wrong writing it
+     */
+    public static void writeArchive(@NonNull SparseArray<String> stocks, @NonNull OutputStream out)
+            throws IOException {
+        int firstDay = (stocks.size() == 0) ? 0 : stocks.keyAt(0);
+        int dayCount = (stocks.size() == 0) ? 0 : stocks.keyAt(stocks.size() - 1) - firstDay + 1;
+
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.writeInt(MAGIC);
+        dout.writeInt(VERSION);
+        dout.writeInt(firstDay);
+        dout.writeInt(dayCount);
+
+        for(int i = 0; i < dayCount; i++) {
+            String stock = stocks.get(firstDay + i);
+            dout.writeInt((stock == null) ? 0 : encode(stock));
+        }
+
+        dout.flush();
+    }
+
+    /**
+     * Turns a stock like "10458.68" into hundredths, like 1045868.  Only
+     * stocks with exactly two decimal places (and no more digits than fit)
+     * work; anything else comes back as zero, meaning it can't be stored
+     * exactly.
+     *
+     * @param stock the stock
+     * @return the stock in hundredths, or zero
+     */
+    static int encode(@NonNull String stock) {
+        return encode(StockValue.parse(stock));
+    }
+
+    /**
+     * Turns a packed {@link StockValue} into hundredths.  Same rules as
+     * {@link #encode(String)}: if it doesn't have exactly two decimal places
+     * or won't fit in an int, it comes back as zero.
+     *
+     * @param packed the packed stock
+     * @return the stock in hundredths, or zero
+     */
+    static int encode(long packed) {
+        if(packed == StockValue.NONE || StockValue.getScale(packed) != 2) return 0;
+
+        long value = StockValue.getUnscaled(packed);
+        return (value > 0 && value <= Integer.MAX_VALUE) ? (int)value : 0;
+    }
+
+    /**
+     * Turns hundredths back into a packed {@link StockValue}.  This is the
+     * reverse of {@link #encode(long)}.
+     *
+     * @param encoded the stock in hundredths
+     * @return the packed stock
+     */
+    static long decode(int encoded) {
+        return StockValue.pack(encoded, 2);
+    }
+}
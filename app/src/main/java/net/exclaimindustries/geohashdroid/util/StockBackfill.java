@@ -0,0 +1,390 @@
+/*
+ * StockBackfill.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * A <code>StockBackfill</code> loads a whole range of stocks into the
+ * {@link StockStore} at once, so that retrohashes and looking at a
+ * bunch of days at a time (see {@link HashBuilder#getStoredHashRange}) can work
+ * without going to the internet for every single day.  The stocks can either
+ * come from the usual mirrors (see {@link #backfill(int, int, ProgressListener)})
+ * or from a CSV file (see {@link #importCsv(Reader)}).
+ * </p>
+ *
+ * <p>
+ * Fetching from the mirrors asks for several days at once, and writes what it
+ * gets in batches, each batch in one transaction.  Days already in the
+ * database are skipped entirely, so if a backfill gets stopped partway
+ * through (or some days fail), running it again over the same range just
+ * picks up what's missing.  That's how resuming works.
+ * </p>
+ *
+ * <p>
+ * Get one of these from {@link HashBuilder#makeStockBackfill(android.content.Context)}.
+ * </p>
+ */
+public class StockBackfill {
+    private static final String DEBUG_TAG = "StockBackfill";
+
+    // How many days get written to the database per transaction.  If the
+    // backfill gets stopped, this is the most that'd have to be fetched again.
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Gets told how a backfill is going.  This gets called from whatever
+     * thread the backfill is running on, so don't go touching the UI directly.
+     */
+    public interface ProgressListener {
+        /**
+         * Called whenever another day's been dealt with, one way or another.
+         *
+         * @param done how many days are done
+         * @param total how many days there are in all
+         */
+        void onProgress(int done, int total);
+    }
+
+    /**
+     * What happened with a backfill or import.
+     */
+    public static final class Result {
+        /** How many trading days were in the range (or rows in the CSV). */
+        public final int total;
+        /** How many of those were already in the database. */
+        public final int alreadyStored;
+        /** How many new stocks went into the database. */
+        public final int stored;
+        /** How many the mirrors said weren't posted (or the CSV couldn't parse). */
+        public final int missing;
+        /** How many failed some other way, and are worth trying again later. */
+        public final int failed;
+
+        Result(int total, int alreadyStored, int stored, int missing, int failed) {
+            this.total = total;
+            this.alreadyStored = alreadyStored;
+            this.stored = stored;
+            this.missing = missing;
+            this.failed = failed;
+        }
+
+        /**
+         * Whether or not there's any point running the same backfill again.
+         *
+         * @return true if nothing failed in a way that might work next time
+         */
+        public boolean isComplete() {
+            return failed == 0;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d total, %d already stored, %d stored, %d missing, %d failed",
+                    total, alreadyStored, stored, missing, failed);
+        }
+    }
+
+    /** One day's worth of fetching. */
+    private static final class Fetched {
+        final int day;
+        final String stock;
+        final boolean failed;
+
+        Fetched(int day, @Nullable String stock, boolean failed) {
+            this.day = day;
+            this.stock = stock;
+            this.failed = failed;
+        }
+    }
+
+    private final StockStore mStore;
+    private final StockFetcher mFetcher;
+    private final int mParallelism;
+    private volatile boolean mCancelled;
+
+    /**
+     * Makes a new StockBackfill.  You probably want
+     * {@link HashBuilder#makeStockBackfill(android.content.Context)} instead.
+     *
+     * @param store where the stocks go
+     * @param fetcher where the stocks come from
+     * @param parallelism how many days to fetch at once
+     */
+    public StockBackfill(@NonNull StockStore store,
+                         @NonNull StockFetcher fetcher,
+                         int parallelism) {
+        mStore = store;
+        mFetcher = fetcher;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Stops a backfill that's running (or about to run).  Whatever's been
+     * fetched so far still gets written, and
+     * {@link #backfill(int, int, ProgressListener)} will throw an
+     * InterruptedIOException shortly.  Once cancelled, this StockBackfill
+     * stays cancelled; make a new one to try again.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * <p>
+     * Fetches and stores every stock needed to make hashes for every date in
+     * the given range, inclusive, on either side of the 30W line.  That's the
+     * last trading day before the start date through the last trading day on
+     * or before the end date.  Anything already in the database isn't fetched
+     * again, but it does get flagged as backfilled so it sticks around, too.
+     * </p>
+     *
+     * <p>
+     * This blocks for quite a while, so don't call it from the main thread.
+     * </p>
+     *
+     * @param startDay first date to be able to hash, as an epoch day
+     * @param endDay last date to be able to hash, as an epoch day
+     * @param listener who to tell about progress (can be null)
+     * @return what happened
+     * @throws InterruptedIOException the backfill was cancelled or the thread
+     *                                was interrupted
+     */
+    @NonNull
+    public Result backfill(int startDay, int endDay, @Nullable ProgressListener listener)
+            throws InterruptedIOException {
+        // A day before the start takes care of the 30W Rule and globalhashes.
+        int first = TradingCalendar.getLastTradingDay(startDay - 1);
+        int last = TradingCalendar.getLastTradingDay(endDay);
+
+        List<Integer> days = new ArrayList<>();
+        for(int d = first; d <= last; d++) {
+            if(TradingCalendar.isTradingDay(d)) days.add(d);
+        }
+
+        // Anything we already have, we don't need to fetch.  It still needs
+        // flagging as backfilled, though, or compaction would throw it out
+        // like any other stock that hasn't been used in a while, and the whole
+        // point of this is to have every day in the range.
+        SparseArray<String> existing = mStore.getStocks(first, last);
+        mStore.storeStocks(existing);
+        List<Integer> toFetch = new ArrayList<>(days.size());
+        for(int d : days) {
+            if(existing.get(d) == null) toFetch.add(d);
+        }
+
+        int total = days.size();
+        int alreadyStored = total - toFetch.size();
+        int done = alreadyStored;
+        int stored = 0;
+        int missing = 0;
+        int failed = 0;
+
+        Log.d(DEBUG_TAG, "Backfilling " + EpochDay.toHyphenatedString(first) + " to "
+                + EpochDay.toHyphenatedString(last) + ": " + toFetch.size() + " of " + total + " day(s) to fetch");
+        if(listener != null) listener.onProgress(done, total);
+
+        ExecutorService executor = Executors.newFixedThreadPool(mParallelism, r -> {
+            Thread t = new Thread(r, "StockBackfill");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            for(int start = 0; start < toFetch.size(); start += BATCH_SIZE) {
+                List<Integer> batch = toFetch.subList(start, Math.min(start + BATCH_SIZE, toFetch.size()));
+                SparseArray<String> fetched = new SparseArray<>(batch.size());
+
+                CompletionService<Fetched> completion = new ExecutorCompletionService<>(executor);
+                List<Future<Fetched>> futures = new ArrayList<>(batch.size());
+                for(int d : batch) futures.add(completion.submit(() -> fetchOne(d)));
+
+                try {
+                    for(int i = 0; i < batch.size(); i++) {
+                        if(mCancelled) throw new InterruptedException();
+
+                        Fetched f;
+                        try {
+                            f = completion.take().get();
+                        } catch(ExecutionException ee) {
+                            // fetchOne catches its own IOExceptions, so this
+                            // would be something really weird.
+                            Log.w(DEBUG_TAG, "A backfill request blew up!", ee.getCause());
+                            f = null;
+                        }
+
+                        if(f == null || f.failed) {
+                            failed++;
+                        } else if(f.stock == null) {
+                            missing++;
+                        } else {
+                            fetched.put(f.day, f.stock);
+                        }
+
+                        done++;
+                        if(listener != null) listener.onProgress(done, total);
+                    }
+                } catch(InterruptedException ie) {
+                    for(Future<Fetched> f : futures) f.cancel(true);
+                    stored += mStore.storeStocks(fetched);
+                    if(!mCancelled) Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Backfill stopped after " + done + " of " + total + " day(s)");
+                }
+
+                stored += mStore.storeStocks(fetched);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Result result = new Result(total, alreadyStored, stored, missing, failed);
+        Log.d(DEBUG_TAG, "Backfill done: " + result);
+        return result;
+    }
+
+    /**
+     * Gets one day's stock.  If the mirrors say it isn't posted (which, for a
+     * day in the past, means it's never going to be), the stock is null.
+     */
+    @NonNull
+    private Fetched fetchOne(int sDay) {
+        try {
+            return new Fetched(sDay, mFetcher.fetch(sDay), false);
+        } catch(FileNotFoundException fnfe) {
+            return new Fetched(sDay, null, false);
+        } catch(IOException ioe) {
+            Log.d(DEBUG_TAG, "Couldn't get the stock for " + EpochDay.toHyphenatedString(sDay) + ": " + ioe);
+            return new Fetched(sDay, null, true);
+        }
+    }
+
+    /**
+     * <p>
+     * Imports stocks from a CSV file, all in one transaction.  Each line needs
+     * a YYYY-MM-DD date in the first column and the DJIA opening value in
+     * another.  If the first line is a header (that is, its first column isn't
+     * a date), a column named "Open" is used for the value; otherwise, it's the
+     * second column.  That covers the usual historical-prices downloads as
+     * well as plain date,value files.
+     * </p>
+     *
+     * <p>
+     * Values get rounded to two decimal places, since that's what the hash
+     * uses.  Lines that don't make sense are counted as missing and skipped,
+     * and dates already in the database keep the stock they've got (but get
+     * flagged as backfilled, same as everything else in the file).
+     * </p>
+     *
+     * @param reader where the CSV comes from (this doesn't get closed)
+     * @return what happened
+     * @throws IOException the reader couldn't be read
+     */
+    @NonNull
+    public Result importCsv(@NonNull Reader reader) throws IOException {
+        BufferedReader br = new BufferedReader(reader);
+        SparseArray<String> stocks = new SparseArray<>();
+        int column = 1;
+        int total = 0;
+        int missing = 0;
+        boolean firstLine = true;
+
+        String line;
+        while((line = br.readLine()) != null) {
+            line = line.trim();
+            if(line.isEmpty()) continue;
+
+            String[] fields = line.split(",");
+
+            if(firstLine) {
+                firstLine = false;
+                if(parseDate(fields[0]) == null) {
+                    // That's a header.  Go find the Open column.
+                    for(int i = 0; i < fields.length; i++) {
+                        if(unquote(fields[i]).equalsIgnoreCase("open")) {
+                            column = i;
+                            break;
+                        }
+                    }
+                    continue;
+                }
+            }
+
+            total++;
+            Integer day = parseDate(fields[0]);
+            String stock = (day != null && column < fields.length) ? parseStock(fields[column]) : null;
+
+            if(stock == null) {
+                Log.d(DEBUG_TAG, "Couldn't make sense of the CSV line \"" + line + "\", skipping it...");
+                missing++;
+            } else {
+                stocks.put(day, stock);
+            }
+        }
+
+        int stored = mStore.storeStocks(stocks);
+        Result result = new Result(total, stocks.size() - stored, stored, missing, 0);
+        Log.d(DEBUG_TAG, "CSV import done: " + result);
+        return result;
+    }
+
+    @Nullable
+    private static Integer parseDate(@NonNull String field) {
+        String[] parts = unquote(field).split("-");
+        if(parts.length != 3) return null;
+
+        try {
+            return EpochDay.of(Integer.parseInt(parts[0]),
+                    Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]));
+        } catch(NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String parseStock(@NonNull String field) {
+        try {
+            BigDecimal value = new BigDecimal(unquote(field));
+            if(value.signum() <= 0) return null;
+            return value.setScale(2, RoundingMode.HALF_UP).toPlainString();
+        } catch(NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    @NonNull
+    private static String unquote(@NonNull String field) {
+        field = field.trim();
+        if(field.length() >= 2 && field.startsWith("\"") && field.endsWith("\""))
+            field = field.substring(1, field.length() - 1).trim();
+        return field;
+    }
+}
@@ -0,0 +1,665 @@
+/*
+ * StockFetcher.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * A <code>StockFetcher</code> goes out to the stock sources (usually mirror
+ * servers, see {@link StockSource}) and comes back with a stock value.  It
+ * knows about more than one source, and if the first one's taking its sweet
+ * time about answering, it'll start asking the next one without waiting for
+ * the first one to time out (that's "hedging").  Whichever answers first with
+ * something that's actually a number wins, and any others still going get
+ * cancelled.
+ * </p>
+ *
+ * <p>
+ * How long to wait before hedging is up to you.  A delay of zero asks every
+ * source at once, and {@link #HEDGE_NEVER} goes back to the old way of asking
+ * one at a time, only moving on once the previous one has given up.  Either
+ * way, if a source fails outright, the next one gets asked right away; there's
+ * no sense waiting on a source that's already said no.
+ * </p>
+ *
+ * <p>
+ * "First" and "next" aren't just the order the sources were added in, though.
+ * Every source keeps running averages (EWMAs) of how long it takes to answer
+ * and how often it fails, and each fetch asks the one with the best score
+ * first.  A source that hasn't been asked anything yet gets tried early, just
+ * so we find out how it does.  Ties go to whichever was added first.
+ * </p>
+ *
+ * <p>
+ * On top of that, each source has a circuit breaker.  If it fails enough times
+ * in a row, the breaker opens and that source gets left out entirely for a
+ * while.  Once the cooldown's up, it gets one trial request; if that works,
+ * it's back in, and if not, it sits out twice as long.  If EVERY source's
+ * breaker is open, they all get asked anyway, since a long shot beats no shot.
+ * A "not posted yet" answer counts as healthy, by the way; that source did its
+ * job just fine.
+ * </p>
+ *
+ * <p>
+ * {@link #getMirrorHealth()} reports how everyone's been doing, for
+ * diagnostics.  The threads the requests run on come from whoever makes this,
+ * so they can be shared.
+ * </p>
+ */
+public class StockFetcher {
+    private static final String DEBUG_TAG = "StockFetcher";
+
+    /** Hedge delay meaning to never hedge, and just ask one source at a time. */
+    public static final long HEDGE_NEVER = -1;
+
+    /** By default, this many failures in a row opens a source's breaker. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    /** By default, an open breaker stays open for this long the first time. */
+    public static final long DEFAULT_BREAKER_COOLDOWN_MS = 60000;
+    // And no matter how many times the trial request fails, it never stays
+    // open longer than this.
+    private static final long MAX_BREAKER_COOLDOWN_MS = 30 * 60000;
+
+    // How much each new sample counts toward the running averages.  0.3 means
+    // a source that suddenly gets slow (or fast) will show it within a few
+    // requests, without one weird request throwing everything off.
+    private static final double EWMA_ALPHA = 0.3;
+    // How many milliseconds of latency a 100% error rate is "worth" when
+    // ranking sources.  A source that fails half the time is thus about as
+    // bad as one that takes five seconds longer to answer.
+    private static final double ERROR_PENALTY_MS = 10000;
+
+    /** The state of a source's circuit breaker. */
+    public enum BreakerState {
+        /** All's well, the source gets asked as usual. */
+        CLOSED,
+        /** The source's been failing, so it's sitting out for now. */
+        OPEN,
+        /** The cooldown's up and a trial request is out. */
+        HALF_OPEN
+    }
+
+    /**
+     * A snapshot of how one source has been doing.  This won't change after
+     * it's made; call {@link #getMirrorHealth()} again for fresh numbers.
+     */
+    public static final class MirrorHealth {
+        /** The source's name. */
+        @NonNull
+        public final String name;
+        /** The source's breaker state. */
+        @NonNull
+        public final BreakerState state;
+        /** Average latency, in milliseconds, or -1 if it hasn't been asked yet. */
+        public final double latencyMs;
+        /** Average error rate, from 0 to 1. */
+        public final double errorRate;
+        /** How many times it's answered (including "not posted"). */
+        public final int successes;
+        /** How many times it's failed. */
+        public final int failures;
+        /** How many times it's failed since the last time it answered. */
+        public final int consecutiveFailures;
+        /** If OPEN, how long until it gets a trial request, in milliseconds. */
+        public final long retryInMs;
+
+        MirrorHealth(@NonNull String name,
+                     @NonNull BreakerState state,
+                     double latencyMs,
+                     double errorRate,
+                     int successes,
+                     int failures,
+                     int consecutiveFailures,
+                     long retryInMs) {
+            this.name = name;
+            this.state = state;
+            this.latencyMs = latencyMs;
+            this.errorRate = errorRate;
+            this.successes = successes;
+            this.failures = failures;
+            this.consecutiveFailures = consecutiveFailures;
+            this.retryInMs = retryInMs;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append(": ").append(state);
+            if(state == BreakerState.OPEN)
+                sb.append(" (retry in ").append(retryInMs / 1000).append("s)");
+
+            if(latencyMs < 0)
+                sb.append(", not asked yet");
+            else
+                sb.append(String.format(Locale.US, ", %.0fms, %.0f%% errors", latencyMs, errorRate * 100));
+
+            return sb.append(" (").append(successes).append(" ok, ")
+                    .append(failures).append(" failed)").toString();
+        }
+    }
+
+    private enum Outcome {
+        SUCCESS,
+        NOT_POSTED,
+        FAILURE,
+        CANCELLED
+    }
+
+    /**
+     * One source and everything we know about how it's been doing.  All the
+     * bookkeeping is synchronized on the Mirror itself, since results come in
+     * from the worker threads.
+     */
+    private class Mirror {
+        final StockSource source;
+
+        private boolean mSampled;
+        private double mLatencyMs;
+        private double mErrorRate;
+        private int mSuccesses;
+        private int mFailures;
+        private int mConsecutiveFailures;
+
+        private BreakerState mState = BreakerState.CLOSED;
+        private long mOpenedAt;
+        private long mCooldownMs = mBaseCooldownMs;
+
+        Mirror(@NonNull StockSource source) {
+            this.source = source;
+        }
+
+        synchronized double getScore() {
+            // Unsampled sources score a flat zero, so they get tried early.
+            if(!mSampled) return 0;
+            return mLatencyMs + mErrorRate * ERROR_PENALTY_MS;
+        }
+
+        /**
+         * Sees if this source can be asked right now, according to its breaker.
+         * If the cooldown's up, this moves it to HALF_OPEN, meaning whoever
+         * called this is now responsible for the trial request.
+         */
+        synchronized boolean tryAcquire(long now) {
+            switch(mState) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if(now - mOpenedAt >= TimeUnit.MILLISECONDS.toNanos(mCooldownMs)) {
+                        Log.d(DEBUG_TAG, source.getName() + " is out of the penalty box for a trial request");
+                        mState = BreakerState.HALF_OPEN;
+                        return true;
+                    }
+                    return false;
+                default:
+                    // HALF_OPEN means someone else has the trial request.
+                    return false;
+            }
+        }
+
+        synchronized long getReopensAt() {
+            return mOpenedAt + TimeUnit.MILLISECONDS.toNanos(mCooldownMs);
+        }
+
+        synchronized void record(@NonNull Outcome outcome, long elapsedNanos) {
+            double elapsedMs = elapsedNanos / 1e6;
+
+            switch(outcome) {
+                case SUCCESS:
+                case NOT_POSTED:
+                    sampleLatency(elapsedMs);
+                    mErrorRate = mSampled ? mErrorRate * (1 - EWMA_ALPHA) : 0;
+                    mSampled = true;
+                    mSuccesses++;
+                    mConsecutiveFailures = 0;
+
+                    if(mState != BreakerState.CLOSED)
+                        Log.d(DEBUG_TAG, source.getName() + " is back!");
+                    mState = BreakerState.CLOSED;
+                    mCooldownMs = mBaseCooldownMs;
+                    break;
+                case FAILURE:
+                    sampleLatency(elapsedMs);
+                    mErrorRate = mSampled ? mErrorRate * (1 - EWMA_ALPHA) + EWMA_ALPHA : 1;
+                    mSampled = true;
+                    mFailures++;
+                    mConsecutiveFailures++;
+
+                    if(mState != BreakerState.CLOSED) {
+                        // Failing the trial request (or failing while we were
+                        // asking it out of desperation) means it sits out
+                        // longer this time.
+                        trip(Math.min(mCooldownMs * 2, MAX_BREAKER_COOLDOWN_MS));
+                    } else if(mConsecutiveFailures >= mFailureThreshold) {
+                        trip(mBaseCooldownMs);
+                    }
+                    break;
+                case CANCELLED:
+                    // Getting beaten by another source doesn't say it failed,
+                    // but it does say it's at least this slow, so if that's
+                    // slower than we thought, take note.
+                    if(mSampled && elapsedMs > mLatencyMs) sampleLatency(elapsedMs);
+
+                    // If that was the trial request, let somebody else have a
+                    // go at it.  The cooldown's already up, so it'll be the
+                    // very next fetch.
+                    if(mState == BreakerState.HALF_OPEN) mState = BreakerState.OPEN;
+                    break;
+            }
+        }
+
+        private void sampleLatency(double elapsedMs) {
+            mLatencyMs = mSampled ? mLatencyMs + EWMA_ALPHA * (elapsedMs - mLatencyMs) : elapsedMs;
+        }
+
+        private void trip(long cooldownMs) {
+            Log.d(DEBUG_TAG, source.getName() + " has failed " + mConsecutiveFailures
+                    + " time(s) in a row, benching it for " + cooldownMs + "ms");
+            mState = BreakerState.OPEN;
+            mOpenedAt = System.nanoTime();
+            mCooldownMs = cooldownMs;
+        }
+
+        @NonNull
+        synchronized MirrorHealth getHealth(long now) {
+            long retryIn = 0;
+            if(mState == BreakerState.OPEN)
+                retryIn = Math.max(0, TimeUnit.NANOSECONDS.toMillis(getReopensAt() - now));
+
+            return new MirrorHealth(source.getName(),
+                    mState,
+                    mSampled ? mLatencyMs : -1,
+                    mErrorRate,
+                    mSuccesses,
+                    mFailures,
+                    mConsecutiveFailures,
+                    retryIn);
+        }
+    }
+
+    /**
+     * One request to one source.  The Request gets made up front, so that it
+     * can be cancelled from outside if another source beats it.  Whichever of
+     * finishing or getting cancelled happens first gets to tell the Mirror how
+     * it went.
+     */
+    private static class Attempt implements Callable<Attempt> {
+        final Mirror mirror;
+        final StockSource.Request request;
+        final long started = System.nanoTime();
+        final AtomicBoolean settled = new AtomicBoolean();
+        Future<Attempt> future;
+
+        Outcome outcome = Outcome.CANCELLED;
+        String result;
+
+        Attempt(@NonNull Mirror mirror, int sDay) {
+            this.mirror = mirror;
+            request = mirror.source.makeRequest(sDay);
+        }
+
+        @Override
+        public Attempt call() {
+            String name = mirror.source.getName();
+            Outcome out;
+            String read = null;
+
+            try {
+                read = request.execute();
+
+                // If it's not a stock written out the way a stock ought to
+                // be, it's bogus data, and that's as good as a server error.
+                // That means exactly the text we'd hash, too; something like
+                // "10458.68\n" might parse as a number, but it wouldn't make
+                // the right hash.
+                if(StockValue.parse(read) != StockValue.NONE) {
+                    out = Outcome.SUCCESS;
+                } else {
+                    Log.d(DEBUG_TAG, name + " sent back something that wasn't a stock");
+                    out = Outcome.FAILURE;
+                }
+            } catch(FileNotFoundException fnfe) {
+                out = Outcome.NOT_POSTED;
+            } catch(IOException ioe) {
+                // Timeouts, connection failures, and getting cancelled because
+                // somebody else won all wind up here.
+                if(!settled.get())
+                    Log.d(DEBUG_TAG, "IOException from " + name + "!", ioe);
+                out = Outcome.FAILURE;
+            } catch(RuntimeException re) {
+                Log.w(DEBUG_TAG, name + " blew up!", re);
+                out = Outcome.FAILURE;
+            }
+
+            if(settled.compareAndSet(false, true)) {
+                mirror.record(out, System.nanoTime() - started);
+                outcome = out;
+                if(out == Outcome.SUCCESS) result = read;
+            }
+
+            return this;
+        }
+
+        void cancel() {
+            if(settled.compareAndSet(false, true)) {
+                request.cancel();
+                mirror.record(Outcome.CANCELLED, System.nanoTime() - started);
+            }
+            future.cancel(true);
+        }
+    }
+
+    private final List<Mirror> mMirrors = new CopyOnWriteArrayList<>();
+    private final ExecutorService mExecutor;
+    private volatile long mHedgeDelayMs;
+    private volatile int mFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long mBaseCooldownMs = DEFAULT_BREAKER_COOLDOWN_MS;
+
+    /**
+     * Makes a new StockFetcher.
+     *
+     * @param sources the sources to use, in order of preference (when there's
+     *                nothing else to go on, at least)
+     * @param executor where the requests will run; this needs to be able to
+     *                 run as many requests at once as there are sources, or
+     *                 hedging won't do much good
+     * @param hedgeDelayMs how long to wait on a source before also asking the
+     *                     next one, in milliseconds (zero to ask them all at
+     *                     once, or {@link #HEDGE_NEVER})
+     * @throws IllegalArgumentException two sources have the same name
+     */
+    public StockFetcher(@NonNull List<? extends StockSource> sources,
+                        @NonNull ExecutorService executor,
+                        long hedgeDelayMs) {
+        mExecutor = executor;
+        mHedgeDelayMs = hedgeDelayMs;
+
+        for(StockSource source : sources) addSource(source);
+    }
+
+    /**
+     * Adds a source to the end of the list.  It'll get tried pretty soon, as
+     * nobody knows how it does yet.
+     *
+     * @param source the source to add
+     * @throws IllegalArgumentException there's already a source by that name
+     */
+    public void addSource(@NonNull StockSource source) {
+        synchronized(mMirrors) {
+            if(findMirror(source.getName()) != null)
+                throw new IllegalArgumentException("There's already a source named " + source.getName() + "!");
+
+            mMirrors.add(new Mirror(source));
+        }
+    }
+
+    /**
+     * Removes a source, along with everything we knew about it.  Any request
+     * to it that's already going will still finish.
+     *
+     * @param name name of the source to remove
+     * @return true if it was removed, false if there wasn't one by that name
+     */
+    public boolean removeSource(@NonNull String name) {
+        synchronized(mMirrors) {
+            Mirror m = findMirror(name);
+            return m != null && mMirrors.remove(m);
+        }
+    }
+
+    /**
+     * Gets all the sources, in the order they were added.
+     *
+     * @return a new List of sources
+     */
+    @NonNull
+    public List<StockSource> getSources() {
+        List<StockSource> toReturn = new ArrayList<>(mMirrors.size());
+        for(Mirror m : mMirrors) toReturn.add(m.source);
+        return toReturn;
+    }
+
+    /**
+     * Gets a snapshot of how every source has been doing, in the order they
+     * were added.
+     *
+     * @return a new List of MirrorHealths
+     */
+    @NonNull
+    public List<MirrorHealth> getMirrorHealth() {
+        long now = System.nanoTime();
+        List<MirrorHealth> toReturn = new ArrayList<>(mMirrors.size());
+        for(Mirror m : mMirrors) toReturn.add(m.getHealth(now));
+        return toReturn;
+    }
+
+    /**
+     * Sets how long to wait on a source before also asking the next one.
+     *
+     * @param hedgeDelayMs the delay, in milliseconds (zero to ask every source
+     *                     at once, or {@link #HEDGE_NEVER})
+     */
+    public void setHedgeDelay(long hedgeDelayMs) {
+        mHedgeDelayMs = hedgeDelayMs;
+    }
+
+    /**
+     * Gets how long this waits on a source before also asking the next one.
+     *
+     * @return the delay, in milliseconds, or {@link #HEDGE_NEVER}
+     */
+    public long getHedgeDelay() {
+        return mHedgeDelayMs;
+    }
+
+    /**
+     * Sets up the circuit breakers.  This takes effect the next time a
+     * breaker opens; any that are already open stay that way for as long as
+     * they were going to.
+     *
+     * @param failureThreshold how many failures in a row open a breaker
+     * @param cooldownMs how long a breaker stays open the first time, in
+     *                   milliseconds
+     */
+    public void setCircuitBreaker(int failureThreshold, long cooldownMs) {
+        mFailureThreshold = Math.max(1, failureThreshold);
+        mBaseCooldownMs = Math.max(0, cooldownMs);
+    }
+
+    /**
+     * Fetches the stock for the given date.  This blocks until a source comes
+     * up with an answer or they all fail, so don't call it from the main
+     * thread.
+     *
+     * @param sDay already-adjusted date to fetch, as an epoch day
+     * @return the stock, as a String
+     * @throws FileNotFoundException no source had it, and at least one said it
+     *                               isn't posted yet
+     * @throws InterruptedIOException the thread was interrupted while waiting
+     * @throws IOException every source failed some other way (or there aren't
+     *                     any sources)
+     */
+    @NonNull
+    public String fetch(int sDay) throws IOException {
+        List<Mirror> mirrors = rankMirrors();
+        if(mirrors.isEmpty())
+            throw new IOException("There aren't any stock sources to ask!");
+
+        long delay = mHedgeDelayMs;
+
+        CompletionService<Attempt> completion = new ExecutorCompletionService<>(mExecutor);
+        List<Attempt> attempts = new ArrayList<>(mirrors.size());
+
+        int inFlight = 0;
+        boolean notPosted = false;
+
+        try {
+            // The first source goes right away, of course.
+            launch(completion, attempts, mirrors.get(0), sDay);
+            inFlight++;
+
+            while(inFlight > 0) {
+                Future<Attempt> done;
+
+                if(attempts.size() < mirrors.size() && delay >= 0) {
+                    // There's another source we could hedge to.  Wait for the
+                    // delay, and if nothing's come back by then, bring it in.
+                    done = completion.poll(delay, TimeUnit.MILLISECONDS);
+
+                    if(done == null) {
+                        Mirror next = mirrors.get(attempts.size());
+                        Log.d(DEBUG_TAG, "Nothing back after " + delay + "ms, hedging to " + next.source.getName());
+                        launch(completion, attempts, next, sDay);
+                        inFlight++;
+                        continue;
+                    }
+                } else {
+                    done = completion.take();
+                }
+
+                inFlight--;
+
+                Attempt attempt;
+                try {
+                    attempt = done.get();
+                } catch(ExecutionException ee) {
+                    // Attempts catch their own exceptions, so this would be
+                    // something really weird.  Count it as a server error.
+                    Log.w(DEBUG_TAG, "A stock request blew up!", ee.getCause());
+                    attempt = null;
+                }
+
+                if(attempt != null) {
+                    if(attempt.outcome == Outcome.SUCCESS) {
+                        Log.d(DEBUG_TAG, "Success!  Stock found at " + attempt.mirror.source.getName() + "!  It's " + attempt.result + "!");
+                        return attempt.result;
+                    } else if(attempt.outcome == Outcome.NOT_POSTED) {
+                        notPosted = true;
+                    }
+                }
+
+                // That one's out, so there's no sense waiting out the delay
+                // before trying the next one, even if others are still going.
+                // Otherwise, a failure while a hedge is running would leave
+                // the source after it waiting for nothing.
+                if(attempts.size() < mirrors.size()) {
+                    launch(completion, attempts, mirrors.get(attempts.size()), sDay);
+                    inFlight++;
+                }
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching the stock");
+        } finally {
+            // Whatever's still going lost (or we're giving up), so cancel it.
+            for(Attempt a : attempts) {
+                if(!a.future.isDone()) a.cancel();
+            }
+
+            // Any source we had lined up but never got around to asking has to
+            // give back its trial request, if it had one.
+            for(int i = attempts.size(); i < mirrors.size(); i++)
+                mirrors.get(i).record(Outcome.CANCELLED, 0);
+        }
+
+        // If we got this far, nobody had it.  "Not posted" beats "server
+        // error", as at least somebody gave us a straight answer.
+        if(notPosted)
+            throw new FileNotFoundException("The stock for " + EpochDay.toHyphenatedString(sDay) + " isn't posted yet");
+        else
+            throw new IOException("Couldn't get the stock for " + EpochDay.toHyphenatedString(sDay) + " from any source");
+    }
+
+    private static void launch(@NonNull CompletionService<Attempt> completion,
+                               @NonNull List<Attempt> attempts,
+                               @NonNull Mirror mirror,
+                               int sDay) {
+        Attempt a = new Attempt(mirror, sDay);
+        a.future = completion.submit(a);
+        attempts.add(a);
+    }
+
+    /**
+     * Figures out who to ask, and in what order.  That's every source whose
+     * breaker will let it be asked, best score first.  If nobody qualifies,
+     * it's everybody, soonest-to-reopen first.
+     */
+    @NonNull
+    private List<Mirror> rankMirrors() {
+        long now = System.nanoTime();
+        List<Mirror> all = new ArrayList<>(mMirrors);
+        List<Mirror> ready = new ArrayList<>(all.size());
+        final List<Double> scores = new ArrayList<>(all.size());
+
+        for(Mirror m : all) {
+            if(m.tryAcquire(now)) {
+                ready.add(m);
+                scores.add(m.getScore());
+            }
+        }
+
+        if(ready.isEmpty()) {
+            if(!all.isEmpty())
+                Log.w(DEBUG_TAG, "Every stock source is benched!  Asking them all anyway...");
+
+            final List<Long> reopens = new ArrayList<>(all.size());
+            for(Mirror m : all) reopens.add(m.getReopensAt());
+
+            List<Integer> order = makeOrder(all.size());
+            Collections.sort(order, (a, b) -> Long.compare(reopens.get(a), reopens.get(b)));
+            return reorder(all, order);
+        }
+
+        // Collections.sort is stable, so ties stay in the order the sources
+        // were added.  Scores are read once up front, as they could change
+        // mid-sort otherwise, and sort doesn't like that one bit.
+        List<Integer> order = makeOrder(ready.size());
+        Collections.sort(order, (a, b) -> Double.compare(scores.get(a), scores.get(b)));
+        return reorder(ready, order);
+    }
+
+    @NonNull
+    private static List<Integer> makeOrder(int size) {
+        List<Integer> order = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) order.add(i);
+        return order;
+    }
+
+    @NonNull
+    private static List<Mirror> reorder(@NonNull List<Mirror> mirrors, @NonNull List<Integer> order) {
+        List<Mirror> toReturn = new ArrayList<>(mirrors.size());
+        for(int i : order) toReturn.add(mirrors.get(i));
+        return toReturn;
+    }
+
+    private Mirror findMirror(@NonNull String name) {
+        for(Mirror m : mMirrors) {
+            if(m.source.getName().equals(name)) return m;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * StockSource.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * <p>
+ * A <code>StockSource</code> is somewhere a stock value can come from.  In
+ * practice, that's one of the stock mirror servers (see
+ * {@link HttpStockSource}), but anything that can come up with a DJIA opening
+ * value for a date will do, which makes it easy to stub one out.
+ * </p>
+ *
+ * <p>
+ * {@link StockFetcher} keeps a list of these, tracks how well each one's been
+ * doing, and decides which ones to ask and in what order.  A source doesn't
+ * need to worry about any of that; it just needs to answer when asked.
+ * </p>
+ */
+public interface StockSource {
+    /**
+     * One request for one stock from one source.  It gets run on some worker
+     * thread, and may get cancelled from another thread if some other source
+     * beat it to the punch.
+     */
+    interface Request {
+        /**
+         * Goes and gets the stock.  This blocks, so it'll only ever be called
+         * off the main thread.
+         *
+         * @return the stock, as a String (StockFetcher will make sure it's a
+         *         number)
+         * @throws FileNotFoundException the source says the stock isn't
+         *                               posted yet
+         * @throws IOException anything else went wrong, including getting
+         *                     cancelled
+         */
+        @NonNull
+        String execute() throws IOException;
+
+        /**
+         * Cancels the request, if it's still going.  If execute() is in the
+         * middle of things, it should give up and throw as soon as it can.
+         * This may be called more than once, or before execute() is called at
+         * all.
+         */
+        void cancel();
+    }
+
+    /**
+     * Gets a short name for this source, for logs and diagnostics.  Names
+     * should be unique among the sources a StockFetcher knows about.
+     *
+     * @return the name
+     */
+    @NonNull
+    String getName();
+
+    /**
+     * Makes a new request for the stock on the given date.  This shouldn't
+     * actually go anywhere yet; that's what {@link Request#execute()} is for.
+     *
+     * @param sDay already-adjusted date of the stock, as an epoch day
+     * @return a new Request
+     */
+    @NonNull
+    Request makeRequest(int sDay);
+}
@@ -0,0 +1,276 @@
+/*
+ * StockStore.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Calendar;
+import java.util.Collection;
+
+/**
+ * <p>
+ * A <code>StockStore</code> is the stock cache: somewhere to keep stocks and
+ * hashes we've already fetched or worked out, so they don't have to be fetched
+ * or worked out again.  {@link HashBuilder} is the only thing that really
+ * needs one, and it picks which one based on
+ * {@link GHDConstants#PREF_STOCK_STORE_ENGINE}.
+ * </p>
+ *
+ * <p>
+ * There's two of them.  {@link StockStoreDatabase} is the SQLite one, which
+ * is what it's always been.  {@link StockStoreLog} is an append-only file with
+ * all of it (plus an index) kept in memory, which skips SQLite entirely.  Only
+ * one of them is ever kept; switching engines deletes the other one's data.
+ * </p>
+ *
+ * <p>
+ * Either way, stocks are keyed by their (already-adjusted) date and stored
+ * packed up as {@link StockValue}s, and hashes are keyed by their (real) date
+ * and whether they use the 30W Rule.  Storing something that's already there
+ * quietly doesn't do anything.  Lookups should never have to wait on a write,
+ * and every method is safe to call from any thread, but anything that touches
+ * the disk should stay off the main thread.
+ * </p>
+ */
+public interface StockStore {
+    /**
+     * How many stocks and hashes can be stored before {@link #needsCompaction()}
+     * starts saying yes.
+     */
+    int COMPACT_AFTER_WRITES = 32;
+
+    /**
+     * By default, how long something can go without being used before
+     * compaction throws it out, no matter how much room's left.
+     */
+    long DEFAULT_MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Retrieves a stock value for the given date, packed up as a
+     * {@link StockValue}.  This date should already be adjusted for weekends
+     * and such.
+     *
+     * @param epochDay already-adjusted date for which to get a stock, as an
+     *                 epoch day
+     * @return the packed stock, or {@link StockValue#NONE} if none is stored
+     */
+    long getStockValue(int epochDay);
+
+    /**
+     * Same as {@link #getStockValue(int)}, only as a String.
+     *
+     * @param epochDay already-adjusted date for which to get a stock, as an
+     *                 epoch day
+     * @return the String representation of the stock, or null if none is stored
+     */
+    @Nullable
+    default String getStock(int epochDay) {
+        long stock = getStockValue(epochDay);
+        return (stock == StockValue.NONE) ? null : StockValue.toString(stock);
+    }
+
+    /**
+     * Retrieves enough data to construct an Info bundle, if such data exists.
+     * If not, returns null instead.
+     *
+     * @param c Calendar containing the date to retrieve (this should NOT be
+     *          adjusted for the 30W Rule)
+     * @param g Graticule to use to determine if the 30W Rule is in effect and
+     *          to create the new Info bundle with
+     * @return Info bundle you're looking for, or null if it isn't stored
+     */
+    @Nullable
+    Info getInfo(@NonNull Calendar c, @Nullable Graticule g);
+
+    /**
+     * Stores a stock value, already packed up as a {@link StockValue}.
+     * Presumably, the given date is already adjusted for weekends and 30W
+     * (that is, this is the raw stock value for that date).
+     *
+     * @param epochDay the date of the stock, as an epoch day
+     * @param stock the packed stock
+     */
+    void storeStock(int epochDay, long stock);
+
+    /**
+     * Same as {@link #storeStock(int, long)}, only with the stock as a String.
+     * If it can't be packed into a {@link StockValue}, this doesn't store
+     * anything.
+     *
+     * @param epochDay the date of the stock, as an epoch day
+     * @param stock the stock itself, as a string
+     */
+    default void storeStock(int epochDay, @NonNull String stock) {
+        long packed = StockValue.parse(stock);
+        if(packed == StockValue.NONE) {
+            Log.w("StockStore", "Can't store " + stock + " as a stock, ignoring...");
+            return;
+        }
+
+        storeStock(epochDay, packed);
+    }
+
+    /**
+     * Stores a bundle of Info.  That is, its hash fractions, so they can be
+     * put back on any Graticule later.
+     *
+     * @param i the aforementioned bundle of Info to be stored
+     */
+    void storeInfo(@NonNull Info i);
+
+    /**
+     * Stores a bunch of stocks and hashes at once, all or nothing.  Otherwise,
+     * this is the same as calling {@link #storeStock(int, long)} and
+     * {@link #storeInfo(Info)} on everything, just faster.
+     *
+     * @param stocks packed stocks to store, keyed by (already-adjusted) epoch
+     *               day, or null if there's none
+     * @param infos Info bundles to store, or null if there's none
+     * @return how many stocks and hashes were actually stored
+     */
+    int storeBatch(@Nullable SparseLongArray stocks, @Nullable Collection<Info> infos);
+
+    /**
+     * Stores a whole bunch of backfilled stocks at once, all or nothing.
+     * Stocks stored this way never get thrown out by
+     * {@link #compact(int, long)}, and don't count toward its limit.  Anything
+     * that can't be packed into a {@link StockValue} is skipped.  Dates that
+     * already have a stock keep it, but get flagged as backfilled all the
+     * same, so they won't get thrown out, either.
+     *
+     * @param stocks the stocks to store, keyed by (already-adjusted) epoch day
+     * @return how many stocks were actually stored
+     */
+    int storeStocks(@NonNull SparseArray<String> stocks);
+
+    /**
+     * Retrieves every stock value between the two given dates, inclusive.
+     * These dates should already be adjusted for weekends and such.  The
+     * results are keyed by epoch day.  Any date without a stored stock simply
+     * won't be in there.
+     *
+     * @param start already-adjusted first date for which to get a stock, as an
+     *              epoch day
+     * @param end already-adjusted last date for which to get a stock, as an
+     *            epoch day
+     * @return a SparseLongArray of whatever stocks are stored in that range
+     */
+    @NonNull
+    SparseLongArray getStockValues(int start, int end);
+
+    /**
+     * Retrieves every stock that was stored by {@link #storeStocks(SparseArray)}
+     * (or flagged by it), that is, everything compaction has to leave alone.
+     * This is for moving them to another StockStore when the engine gets
+     * switched.  It doesn't count as using any of them.
+     *
+     * @return a SparseLongArray of every backfilled stock, keyed by
+     *         (already-adjusted) epoch day
+     */
+    @NonNull
+    SparseLongArray getBackfilledStockValues();
+
+    /**
+     * Same as {@link #getStockValues(int, int)}, only as Strings.
+     *
+     * @param start already-adjusted first date for which to get a stock, as an
+     *              epoch day
+     * @param end already-adjusted last date for which to get a stock, as an
+     *            epoch day
+     * @return a SparseArray of whatever stocks are stored in that range
+     */
+    @NonNull
+    default SparseArray<String> getStocks(int start, int end) {
+        SparseLongArray stocks = getStockValues(start, end);
+        SparseArray<String> toReturn = new SparseArray<>(stocks.size());
+
+        for(int i = 0; i < stocks.size(); i++)
+            toReturn.append(stocks.keyAt(i), StockValue.toString(stocks.valueAt(i)));
+
+        return toReturn;
+    }
+
+    /**
+     * Loads the most recently used hashes into a {@link HashCache}.  The most
+     * recently used one goes in last, so it's the last to be evicted.  This
+     * doesn't count as using any of them.
+     *
+     * @param cache the cache to fill
+     * @param limit the most hashes to load
+     * @return how many hashes were loaded
+     */
+    int loadRecentHashes(@NonNull HashCache cache, int limit);
+
+    /**
+     * Checks if enough has been stored since the last compaction that it's
+     * time for another one.  This doesn't touch the disk, so it's cheap enough
+     * to call after every store.
+     *
+     * @return true if it's time to call {@link #compact(int, long)}
+     */
+    boolean needsCompaction();
+
+    /**
+     * Compacts the cache.  Anything that hasn't been used in maxAgeMs gets
+     * thrown out, then if there's still more than maxEntries stocks or hashes
+     * left, the least recently used ones go until there's only maxEntries.
+     * Backfilled stocks never get thrown out.
+     *
+     * @param maxEntries how many stocks and how many hashes to keep, at most
+     * @param maxAgeMs how long something can go unused before it goes
+     * @return how many stocks and hashes were thrown out
+     */
+    int compact(int maxEntries, long maxAgeMs);
+
+    /**
+     * Performs cache cleanup.  This is {@link #compact(int, long)}, using the
+     * cache size preference as the limit and {@link #DEFAULT_MAX_AGE_MS} as
+     * the age limit.
+     *
+     * @param c Context to use to get preferences and such
+     * @return how many stocks and hashes were thrown out
+     */
+    default int cleanup(@NonNull Context c) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
+
+        int max;
+        try {
+            // Presumably, initPrefs was already run from the GeohashDroid
+            // class.  If it's not parseable into an int anyway, go with the
+            // default.
+            max = Integer.parseInt(prefs.getString(GHDConstants.PREF_STOCK_CACHE_SIZE, "15"));
+        } catch(NumberFormatException nfe) {
+            Log.w("StockStore", "The stock cache size preference isn't a number, going with 15...");
+            max = 15;
+        }
+
+        return compact(max, DEFAULT_MAX_AGE_MS);
+    }
+
+    /**
+     * Erases everything from the stock cache.  This is really only to be used
+     * if something's gone horribly wrong.
+     *
+     * @return true on success, false on failure
+     */
+    boolean deleteCache();
+
+    /**
+     * Finishes up, closing whatever needs closing.  Don't use this store again
+     * afterward.
+     */
+    void finish();
+}
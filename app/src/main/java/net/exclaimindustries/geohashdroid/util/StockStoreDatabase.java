@@ -9,41 +9,117 @@ package net.exclaimindustries.geohashdroid.util;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.preference.PreferenceManager;
+import android.database.sqlite.SQLiteStatement;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
 
-import net.exclaimindustries.tools.DateTools;
-
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>
  * A <code>StockStoreDatabase</code> object talks to the database to store and
  * retrieve stock prices to and from (respectively) the cache.  It does this via
  * <code>Info</code> bundles, so it will account for the 30W Rule as need be,
- * assuming it was created properly from <code>HashBuilder</code>.
+ * assuming it was created properly from <code>HashBuilder</code>.  It's the
+ * SQLite flavor of {@link StockStore}, and the default one.
+ * </p>
+ *
+ * <p>
+ * Each date only gets one stock, and each date/30W pair only gets one hash;
+ * the database itself makes sure of that with unique indexes, so storing
+ * something that's already there just quietly doesn't do anything.  Single
+ * lookups and stores all go through statements that get compiled once when
+ * the store's opened, so they don't build any SQL or allocate any cursors.
+ * </p>
+ *
+ * <p>
+ * Storing things doesn't prune anything.  Instead, {@link #compact(int, long)}
+ * (or {@link #cleanup(Context)}) throws out whatever hasn't been used in a
+ * while, then whatever was used least recently if there's still too much.
+ * Lookups don't write anything to remember they happened; they just make a
+ * note in memory, and compaction writes those notes down before it decides
+ * what goes.  Call {@link #needsCompaction()} after storing things to find
+ * out if it's time.
+ * </p>
+ *
+ * <p>
+ * The database is in write-ahead logging mode, so anything reading from it
+ * (StockWorker, AlarmWorker, the maps, whatever) gets its own connection and
+ * doesn't have to wait for something else to finish writing.  Writes still
+ * go one at a time, but when there's a bunch of them at once, use
+ * {@link #storeBatch(SparseLongArray, Collection)} to get them all in one
+ * transaction instead of one each.
  * </p>
  * 
  * @author Nicholas Killewald
  */
-public class StockStoreDatabase {
+public class StockStoreDatabase implements StockStore {
     private DatabaseHelper mHelper;
     private SQLiteDatabase mDatabase;
-    
+
+    // All of these get compiled in init and closed in finish.  The inserts,
+    // updates, and anything else that writes are only ever used while
+    // synchronized on mWriteLock.  The selects aren't, since reads shouldn't
+    // wait on writes, but two threads can't bind the same statement at the
+    // same time, so each select (or pair of them, for hashes) is
+    // synchronized on itself.
+    private SQLiteStatement mSelectStock;
+    private SQLiteStatement mInsertStock;
+    private SQLiteStatement mInsertBackfilledStock;
+    private SQLiteStatement mMarkBackfilledStock;
+    private SQLiteStatement mSelectLatHash;
+    private SQLiteStatement mSelectLonHash;
+    private SQLiteStatement mInsertHash;
+    private SQLiteStatement mTouchStock;
+    private SQLiteStatement mTouchHash;
+
+    // Stocks and hashes that were looked up since the last compaction, so it
+    // knows not to throw them out.  Stocks are keyed by date key, hashes by
+    // getHashKey.  These get added to without mWriteLock, so they need to be
+    // safe for that.
+    private final Set<Integer> mUsedStocks = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<Long> mUsedHashes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    // Only changed while synchronized on mWriteLock, but read without it.
+    private volatile int mWritesSinceCompaction = 0;
+
+    private final Object mWriteLock = new Object();
+
     private static final String DEBUG_TAG = "StockStoreDatabase";
     
     /** The name of the column for the row's ID. */
     private static final String KEY_STOCKS_ROWID = "_id";
     /** The name of the date column. */
     private static final String KEY_STOCKS_DATE = "date";
-    /** The name of the stock value column. */
+    /**
+     * The name of the stock value column.  As of version 5, this is the stock
+     * packed up as a {@link StockValue}, not the text.
+     */
     private static final String KEY_STOCKS_STOCK = "stock";
+    /**
+     * The name of the column flagging if the stock came in from a backfill,
+     * which means cleanup leaves it alone.
+     */
+    private static final String KEY_STOCKS_BACKFILLED = "backfilled";
+    /**
+     * The name of the column for when the stock was last used (stored, or
+     * looked up as of the last compaction), in milliseconds since the epoch.
+     */
+    private static final String KEY_STOCKS_USED = "used";
     
     /** The name of the column for the row's IDs for hashes. */
     private static final String KEY_HASHES_ROWID = "_id";
@@ -51,13 +127,22 @@ public class StockStoreDatabase {
     private static final String KEY_HASHES_DATE = "date";
     /** The name of the column flagging if the 30W rule was in effect here. */
     private static final String KEY_HASHES_30W = "uses30w";
-    /** The name of the latitude hashpart column. */
-    private static final String KEY_HASHES_LATHASH = "lathash";
-    /** The name of the longitude hashpart column. */
-    private static final String KEY_HASHES_LONHASH = "lonhash";
+    /**
+     * The name of the latitude hashpart column.  As of version 6, this is the
+     * raw bits of the double, since a compiled statement can only hand back a
+     * double as a long or a (rounded) string.
+     */
+    private static final String KEY_HASHES_LATHASH = "latbits";
+    /** The name of the longitude hashpart column.  Also raw bits. */
+    private static final String KEY_HASHES_LONHASH = "lonbits";
+    /** The name of the last-used column for hashes. */
+    private static final String KEY_HASHES_USED = "used";
     
     private static final String TABLE_STOCKS = "stocks";
     private static final String TABLE_HASHES = "hashes";
+
+    private static final String INDEX_STOCKS_DATE = "stocks_date";
+    private static final String INDEX_HASHES_DATE_30W = "hashes_date_30w";
     
     /**
      * Implements SQLiteOpenHelper.  Much like Hamburger Helper, this can take
@@ -67,30 +152,46 @@ public class StockStoreDatabase {
      */
     private static class DatabaseHelper extends SQLiteOpenHelper {
         private static final String DATABASE_NAME = "stockstore";
-        private static final int DATABASE_VERSION = 3;
+        private static final int DATABASE_VERSION = 7;
 
         private static final String CREATE_STOCKS_TABLE =
                 "CREATE TABLE " + TABLE_STOCKS
                         + " (" + KEY_STOCKS_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                         + KEY_STOCKS_DATE + " INTEGER NOT NULL, "
-                        + KEY_STOCKS_STOCK + " TEXT NOT NULL);";
+                        + KEY_STOCKS_STOCK + " INTEGER NOT NULL, "
+                        + KEY_STOCKS_BACKFILLED + " INTEGER NOT NULL DEFAULT 0, "
+                        + KEY_STOCKS_USED + " INTEGER NOT NULL DEFAULT 0);";
 
         private static final String CREATE_HASHES_TABLE =
                 "CREATE TABLE " + TABLE_HASHES
                         + " (" + KEY_HASHES_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                         + KEY_HASHES_DATE + " INTEGER NOT NULL, "
                         + KEY_HASHES_30W + " INTEGER NOT NULL, "
-                        + KEY_HASHES_LATHASH + " REAL NOT NULL, "
-                        + KEY_HASHES_LONHASH + " REAL NOT NULL);";
+                        + KEY_HASHES_LATHASH + " INTEGER NOT NULL, "
+                        + KEY_HASHES_LONHASH + " INTEGER NOT NULL, "
+                        + KEY_HASHES_USED + " INTEGER NOT NULL DEFAULT 0);";
+
+        private static final String CREATE_STOCKS_INDEX =
+                "CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_STOCKS_DATE
+                        + " ON " + TABLE_STOCKS + " (" + KEY_STOCKS_DATE + ");";
+
+        private static final String CREATE_HASHES_INDEX =
+                "CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_HASHES_DATE_30W
+                        + " ON " + TABLE_HASHES + " (" + KEY_HASHES_DATE + ", " + KEY_HASHES_30W + ");";
+
+        DatabaseHelper(Context context, String name, boolean writeAheadLogging) {
+            super(context, name, null, DATABASE_VERSION);
 
-        DatabaseHelper(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            // This has to be set before the database is opened.
+            setWriteAheadLoggingEnabled(writeAheadLogging);
         }
 
         @Override
         public void onCreate(SQLiteDatabase db) {
             db.execSQL(CREATE_STOCKS_TABLE);
             db.execSQL(CREATE_HASHES_TABLE);
+            db.execSQL(CREATE_STOCKS_INDEX);
+            db.execSQL(CREATE_HASHES_INDEX);
         }
 
         @Override
@@ -98,9 +199,105 @@ public class StockStoreDatabase {
             if(oldVersion == 1 || oldVersion == 2) {
                 // Versions 1 and 2 only had one table, named "stocks".
                 db.execSQL("DROP TABLE IF EXISTS stocks");
-                db.execSQL(CREATE_STOCKS_TABLE);
+                onCreate(db);
+                return;
+            }
+
+            if(oldVersion == 3) {
+                // Version 3 didn't know about backfilling.  Everything in
+                // there came in one day at a time, so it can all stay.
+                db.execSQL("ALTER TABLE " + TABLE_STOCKS + " ADD COLUMN "
+                        + KEY_STOCKS_BACKFILLED + " INTEGER NOT NULL DEFAULT 0");
+            }
+
+            if(oldVersion <= 4) {
+                // Version 4 kept the stocks as text.  SQLite can't change a
+                // column's type in place, so this builds a new table and
+                // packs each stock into it on the way over.
+                packStocks(db);
+            }
+
+            if(oldVersion <= 5) {
+                // Version 5 didn't have any indexes, and it made sure there
+                // weren't dupes by checking first, which SHOULD have worked.
+                // Just in case it didn't, keep the first of any dupes so the
+                // unique index can go on.
+                db.execSQL("DELETE FROM " + TABLE_STOCKS + " WHERE " + KEY_STOCKS_ROWID
+                        + " NOT IN (SELECT MIN(" + KEY_STOCKS_ROWID + ") FROM " + TABLE_STOCKS
+                        + " GROUP BY " + KEY_STOCKS_DATE + ")");
+                db.execSQL(CREATE_STOCKS_INDEX);
+
+                // The hashes changed from REALs to raw bits.  They're just a
+                // cache of what the stocks already give us, so rather than
+                // converting them, start them over.
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_HASHES);
                 db.execSQL(CREATE_HASHES_TABLE);
+                db.execSQL(CREATE_HASHES_INDEX);
+            }
+
+            // Version 7 added the last-used columns.  Any table that got
+            // rebuilt above already has them.
+            if(oldVersion == 5 || oldVersion == 6) {
+                db.execSQL("ALTER TABLE " + TABLE_STOCKS + " ADD COLUMN "
+                        + KEY_STOCKS_USED + " INTEGER NOT NULL DEFAULT 0");
+            }
+
+            if(oldVersion == 6) {
+                db.execSQL("ALTER TABLE " + TABLE_HASHES + " ADD COLUMN "
+                        + KEY_HASHES_USED + " INTEGER NOT NULL DEFAULT 0");
+            }
+
+            if(oldVersion <= 6) {
+                // Nobody knows when any of this was last used, so call it
+                // now.  Otherwise it'd all look ancient and get thrown out
+                // the first chance compaction gets.
+                long now = System.currentTimeMillis();
+                db.execSQL("UPDATE " + TABLE_STOCKS + " SET " + KEY_STOCKS_USED + " = " + now);
+                db.execSQL("UPDATE " + TABLE_HASHES + " SET " + KEY_HASHES_USED + " = " + now);
+            }
+        }
+
+        private static void packStocks(SQLiteDatabase db) {
+            String oldTable = TABLE_STOCKS + "_old";
+            db.execSQL("ALTER TABLE " + TABLE_STOCKS + " RENAME TO " + oldTable);
+            db.execSQL(CREATE_STOCKS_TABLE);
+
+            Cursor cursor = db.query(oldTable,
+                    new String[] {KEY_STOCKS_ROWID, KEY_STOCKS_DATE, KEY_STOCKS_STOCK, KEY_STOCKS_BACKFILLED},
+                    null, null, null, null, KEY_STOCKS_ROWID);
+
+            int packed = 0;
+            int dropped = 0;
+
+            if(cursor != null) {
+                ContentValues toGo = new ContentValues();
+
+                while(cursor.moveToNext()) {
+                    String text = cursor.getString(2);
+                    long stock = (text == null) ? StockValue.NONE : StockValue.parse(text);
+
+                    // If it can't be packed, it couldn't have made a correct
+                    // hash anyway.  It can be fetched again if need be.
+                    if(stock == StockValue.NONE) {
+                        dropped++;
+                        continue;
+                    }
+
+                    // Keep the row IDs, since cleanup goes by them.
+                    toGo.clear();
+                    toGo.put(KEY_STOCKS_ROWID, cursor.getLong(0));
+                    toGo.put(KEY_STOCKS_DATE, cursor.getInt(1));
+                    toGo.put(KEY_STOCKS_STOCK, stock);
+                    toGo.put(KEY_STOCKS_BACKFILLED, cursor.getInt(3));
+                    db.insert(TABLE_STOCKS, null, toGo);
+                    packed++;
+                }
+
+                cursor.close();
             }
+
+            db.execSQL("DROP TABLE " + oldTable);
+            Log.d(DEBUG_TAG, "Packed " + packed + " stock(s), dropped " + dropped + " that couldn't be packed");
         }
     }
 
@@ -115,16 +312,119 @@ public class StockStoreDatabase {
      * @throws SQLException if the database could be neither opened or created
      */
     public StockStoreDatabase init(@NonNull Context c) throws SQLException {
-        mHelper = new DatabaseHelper(c);
+        return init(c, DatabaseHelper.DATABASE_NAME, true);
+    }
+
+    /**
+     * Deletes the database outright, for when the log file's being used
+     * instead and this would otherwise just sit there taking up space.  Don't
+     * call this while it's open.
+     *
+     * @param c Context for the database
+     * @return true if there was a database to delete and it got deleted
+     */
+    public static boolean delete(@NonNull Context c) {
+        return c.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+    }
+
+    /**
+     * Checks if there's a database at all, without making one if there isn't.
+     *
+     * @param c Context for the database
+     * @return true if the database exists
+     */
+    public static boolean exists(@NonNull Context c) {
+        return c.getDatabasePath(DatabaseHelper.DATABASE_NAME).exists();
+    }
+
+    /**
+     * Same as {@link #init(Context)}, but with a different database file and,
+     * if need be, the old rollback journal instead of write-ahead logging.
+     * This is really only for tests and benchmarks, which shouldn't be
+     * stomping on the real cache.
+     *
+     * @param c the Context to use to make the database helper
+     * @param databaseName the name of the database file
+     * @param writeAheadLogging true to use write-ahead logging (like the real
+     *                          one does), false to not
+     * @return this
+     * @throws SQLException if the database could be neither opened or created
+     */
+    StockStoreDatabase init(@NonNull Context c, @NonNull String databaseName, boolean writeAheadLogging)
+            throws SQLException {
+        mHelper = new DatabaseHelper(c, databaseName, writeAheadLogging);
         mDatabase = mHelper.getWritableDatabase();
+
+        mSelectStock = mDatabase.compileStatement("SELECT " + KEY_STOCKS_STOCK + " FROM " + TABLE_STOCKS
+                + " WHERE " + KEY_STOCKS_DATE + " = ?");
+        mInsertStock = mDatabase.compileStatement("INSERT OR IGNORE INTO " + TABLE_STOCKS
+                + " (" + KEY_STOCKS_DATE + ", " + KEY_STOCKS_STOCK + ", " + KEY_STOCKS_BACKFILLED
+                + ", " + KEY_STOCKS_USED + ") VALUES (?, ?, 0, ?)");
+        mInsertBackfilledStock = mDatabase.compileStatement("INSERT OR IGNORE INTO " + TABLE_STOCKS
+                + " (" + KEY_STOCKS_DATE + ", " + KEY_STOCKS_STOCK + ", " + KEY_STOCKS_BACKFILLED
+                + ", " + KEY_STOCKS_USED + ") VALUES (?, ?, 1, ?)");
+        // UPSERT needs a newer SQLite than minSdk 23 guarantees, so a stock
+        // that was already there gets flagged separately.
+        mMarkBackfilledStock = mDatabase.compileStatement("UPDATE " + TABLE_STOCKS
+                + " SET " + KEY_STOCKS_BACKFILLED + " = 1 WHERE " + KEY_STOCKS_DATE + " = ? AND "
+                + KEY_STOCKS_BACKFILLED + " = 0");
+
+        // A compiled statement only gives back one column, so the hashes take
+        // two.  They're both single lookups on the same index, though.
+        String hashWhere = " WHERE " + KEY_HASHES_DATE + " = ? AND "
+                + KEY_HASHES_30W + " = ?";
+        mSelectLatHash = mDatabase.compileStatement("SELECT " + KEY_HASHES_LATHASH + " FROM " + TABLE_HASHES + hashWhere);
+        mSelectLonHash = mDatabase.compileStatement("SELECT " + KEY_HASHES_LONHASH + " FROM " + TABLE_HASHES + hashWhere);
+        mInsertHash = mDatabase.compileStatement("INSERT OR IGNORE INTO " + TABLE_HASHES
+                + " (" + KEY_HASHES_DATE + ", " + KEY_HASHES_30W + ", " + KEY_HASHES_LATHASH + ", "
+                + KEY_HASHES_LONHASH + ", " + KEY_HASHES_USED + ") VALUES (?, ?, ?, ?, ?)");
+        mTouchStock = mDatabase.compileStatement("UPDATE " + TABLE_STOCKS + " SET " + KEY_STOCKS_USED
+                + " = ? WHERE " + KEY_STOCKS_DATE + " = ?");
+        mTouchHash = mDatabase.compileStatement("UPDATE " + TABLE_HASHES + " SET " + KEY_HASHES_USED
+                + " = ?" + hashWhere);
+
         return this;
     }
     
     /**
      * Finishes up.  In this case, closes the database.
      */
+    @Override
     public void finish() {
-        mHelper.close();
+        synchronized(mWriteLock) {
+            synchronized(mSelectStock) {
+                mSelectStock.close();
+            }
+            synchronized(mSelectLatHash) {
+                mSelectLatHash.close();
+                mSelectLonHash.close();
+            }
+            mInsertStock.close();
+            mInsertBackfilledStock.close();
+            mMarkBackfilledStock.close();
+            mInsertHash.close();
+            mTouchStock.close();
+            mTouchHash.close();
+            mHelper.close();
+        }
+    }
+
+    /**
+     * Runs a compiled statement that looks up a single long.
+     *
+     * @param statement the statement, with its arguments already bound
+     * @param notFound what to return if there's no such row
+     * @return the long, or notFound
+     */
+    private static long queryForLong(@NonNull SQLiteStatement statement, long notFound) {
+        try {
+            return statement.simpleQueryForLong();
+        } catch(SQLiteDoneException sde) {
+            // That's how a compiled statement says there's no row.
+            return notFound;
+        } finally {
+            statement.clearBindings();
+        }
     }
     
     /**
@@ -135,64 +435,216 @@ public class StockStoreDatabase {
      * 
      * @param i the aforementioned bundle of Info to be stored into the database
      */
-    public void storeInfo(Info i) {
-        synchronized(this) {
-            // Fortunately, there's a handy ContentValues object for this sort
-            // of thing.  I mean, we COULD do manual SQLite calls, but why
-            // bother?
-            
-            // But first!  First we need to know if this already exists.  If it
-            // does, return a -1.
-            // TODO: No, wrong.  I need a better mechanism for that.
-            if(getInfo(i.getCalendar(), i.getGraticule()) != null) {
+    @Override
+    public void storeInfo(@NonNull Info i) {
+        synchronized(mWriteLock) {
+            if(insertInfo(i, System.currentTimeMillis())) {
+                mWritesSinceCompaction++;
+                Log.v(DEBUG_TAG, "NOW STORING TO HASHES " + EpochDay.getDateKey(i.getEpochDay())
+                        + (i.uses30WRule() ? " (30W)" : "") + " : "
+                        + i.getLatitudeHash() + "," + i.getLongitudeHash());
+            } else {
                 Log.v(DEBUG_TAG, "Info already exists for that data, ignoring...");
-                return;
             }
-            
-            ContentValues toGo = new ContentValues();
-            Calendar cal = i.getCalendar();
-            toGo.put(KEY_HASHES_DATE, DateTools.getDateString(cal));
-            toGo.put(KEY_HASHES_30W, i.uses30WRule());
-            toGo.put(KEY_HASHES_LATHASH, i.getLatitudeHash());
-            toGo.put(KEY_HASHES_LONHASH, i.getLongitudeHash());
-            
-            Log.v(DEBUG_TAG, "NOW STORING TO HASHES " + DateTools.getDateString(cal)
-                    + (i.uses30WRule() ? " (30W)" : "") + " : "
-                    + i.getLatitudeHash() + "," + i.getLongitudeHash());
-
-            mDatabase.insert(TABLE_HASHES, null, toGo);
+        }
+    }
+
+    /**
+     * Runs the hash insert for one Info.  Only call this while synchronized on
+     * mWriteLock.
+     *
+     * @param i the Info to store
+     * @param now the time to call its last use
+     * @return true if it was stored, false if it was already there
+     */
+    private boolean insertInfo(@NonNull Info i, long now) {
+        // If it's already there, the unique index means this just won't do
+        // anything, and comes back as -1.
+        mInsertHash.bindLong(1, EpochDay.getDateKey(i.getEpochDay()));
+        mInsertHash.bindLong(2, i.uses30WRule() ? 1 : 0);
+        mInsertHash.bindLong(3, Double.doubleToRawLongBits(i.getLatitudeHash()));
+        mInsertHash.bindLong(4, Double.doubleToRawLongBits(i.getLongitudeHash()));
+        mInsertHash.bindLong(5, now);
+
+        try {
+            return mInsertHash.executeInsert() != -1;
+        } finally {
+            mInsertHash.clearBindings();
         }
     }
     
     /**
-     * Stores a stock value in the stock table.  Presumably, the given calendar
-     * value is already adjusted for weekends and 30W (that is, this is the raw
-     * stock value for that date).
-     * 
-     * @param cal the date of the stock
-     * @param stock the stock itself, as a string
+     * Stores a stock value in the stock table, already packed up as a
+     * {@link StockValue}.  Same deal as {@link #storeStock(int, String)}
+     * otherwise.
+     *
+     * @param epochDay the date of the stock, as an epoch day
+     * @param stock the packed stock
      */
-    public void storeStock(Calendar cal, String stock) {
-        synchronized(this) {
-            // First, check over the database to make sure it doesn't already
-            // exist.
-            if(getStock(cal) != null) {
-                Log.v(DEBUG_TAG, "Stock price already exists in database for " + DateTools.getDateString(cal) + ", ignoring...");
-                return;
+    @Override
+    public void storeStock(int epochDay, long stock) {
+        synchronized(mWriteLock) {
+            int dateKey = EpochDay.getDateKey(epochDay);
+
+            if(insertStock(mInsertStock, dateKey, stock, System.currentTimeMillis())) {
+                mWritesSinceCompaction++;
+                Log.v(DEBUG_TAG, "NOW STORING TO STOCKS " + dateKey
+                        + " : " + StockValue.toString(stock));
+            } else {
+                Log.v(DEBUG_TAG, "Stock price already exists in database for " + dateKey + ", ignoring...");
             }
-            
-            // Otherwise, store away!
-            ContentValues toGo = new ContentValues();
-            toGo.put(KEY_STOCKS_DATE, DateTools.getDateString(cal));
-            toGo.put(KEY_STOCKS_STOCK, stock);
-            
-            Log.v(DEBUG_TAG, "NOW STORING TO STOCKS " + DateTools.getDateString(cal)
-                    + " : " + stock);
-
-            mDatabase.insert(TABLE_STOCKS, null, toGo);
+        }
+    }
+
+    /**
+     * Runs one of the stock inserts.  Only call this while synchronized on
+     * mWriteLock.
+     *
+     * @param insert mInsertStock or mInsertBackfilledStock
+     * @param dateKey the date key of the stock
+     * @param stock the packed stock
+     * @param now the time to call its last use
+     * @return true if it was stored, false if it was already there
+     */
+    private static boolean insertStock(@NonNull SQLiteStatement insert, int dateKey, long stock, long now) {
+        // Same as insertInfo, dupes get ignored by the unique index.
+        insert.bindLong(1, dateKey);
+        insert.bindLong(2, stock);
+        insert.bindLong(3, now);
+
+        try {
+            return insert.executeInsert() != -1;
+        } finally {
+            insert.clearBindings();
         }
     }
     
+    /**
+     * <p>
+     * Stores a whole bunch of stock values in the stock table at once, all in
+     * one transaction.  This is for backfilling; it's a LOT faster than
+     * calling {@link #storeStock(int, String)} a few thousand times, and it
+     * either all goes in or none of it does.  Dates that already have a stock
+     * keep the stock they've got, same as storeStock, and any stocks that
+     * can't be packed into a {@link StockValue} are skipped.
+     * </p>
+     *
+     * <p>
+     * Stocks stored this way are flagged as backfilled, meaning
+     * {@link #compact(int, long)} won't prune them.  After all, the whole point
+     * was to keep them around.  That goes for dates that were already there,
+     * too; they get flagged just the same.
+     * </p>
+     *
+     * @param stocks the stocks to store, keyed by (already-adjusted) epoch day
+     * @return how many stocks were actually stored
+     * @throws SQLException something went wrong, and nothing was stored
+     */
+    @Override
+    public int storeStocks(@NonNull SparseArray<String> stocks) throws SQLException {
+        if(stocks.size() == 0) return 0;
+
+        synchronized(mWriteLock) {
+            int stored = 0;
+            int marked = 0;
+            long now = System.currentTimeMillis();
+
+            // Non-exclusive, so anyone reading can keep reading the whole
+            // time.
+            mDatabase.beginTransactionNonExclusive();
+            try {
+                for(int i = 0; i < stocks.size(); i++) {
+                    long packed = StockValue.parse(stocks.valueAt(i));
+                    if(packed == StockValue.NONE) continue;
+
+                    int dateKey = EpochDay.getDateKey(stocks.keyAt(i));
+                    if(insertStock(mInsertBackfilledStock, dateKey, packed, now)) {
+                        stored++;
+                    } else {
+                        // Already there, probably from an ordinary lookup.
+                        // That one's staying now, too.
+                        mMarkBackfilledStock.bindLong(1, dateKey);
+                        try {
+                            marked += mMarkBackfilledStock.executeUpdateDelete();
+                        } finally {
+                            mMarkBackfilledStock.clearBindings();
+                        }
+                    }
+                }
+
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+
+            Log.v(DEBUG_TAG, "Backfilled " + stored + " stock(s), " + (stocks.size() - stored) + " already there ("
+                    + marked + " newly flagged as backfilled)");
+            return stored;
+        }
+    }
+    
+    /**
+     * <p>
+     * Stores a bunch of stocks and hashes at once, all in one transaction.
+     * Storing things one at a time means one transaction (and one trip to the
+     * disk) apiece, which adds up fast if there's more than a couple of them.
+     * This is one trip, and either all of it goes in or none of it does.
+     * </p>
+     *
+     * <p>
+     * Otherwise, this is the same as calling {@link #storeStock(int, long)}
+     * and {@link #storeInfo(Info)} on everything: anything that's already
+     * stored is skipped, and the stocks aren't flagged as backfilled.
+     * </p>
+     *
+     * @param stocks packed stocks to store, keyed by (already-adjusted) epoch
+     *               day, or null if there's none
+     * @param infos Info bundles to store, or null if there's none
+     * @return how many rows (stocks and hashes together) were actually stored
+     * @throws SQLException something went wrong, and nothing was stored
+     */
+    @Override
+    public int storeBatch(@Nullable SparseLongArray stocks, @Nullable Collection<Info> infos)
+            throws SQLException {
+        int stockCount = (stocks == null) ? 0 : stocks.size();
+        int infoCount = (infos == null) ? 0 : infos.size();
+        if(stockCount + infoCount == 0) return 0;
+
+        synchronized(mWriteLock) {
+            int stored = 0;
+            long now = System.currentTimeMillis();
+            long startTime = System.nanoTime();
+
+            mDatabase.beginTransactionNonExclusive();
+            try {
+                for(int i = 0; i < stockCount; i++) {
+                    if(insertStock(mInsertStock, EpochDay.getDateKey(stocks.keyAt(i)), stocks.valueAt(i), now))
+                        stored++;
+                }
+
+                if(infos != null) {
+                    for(Info i : infos) {
+                        if(insertInfo(i, now))
+                            stored++;
+                    }
+                }
+
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+
+            mWritesSinceCompaction += stored;
+
+            long elapsedNanos = System.nanoTime() - startTime;
+            Log.v(DEBUG_TAG, "Batch stored " + stored + " of " + (stockCount + infoCount)
+                    + " row(s) in " + (elapsedNanos / 1000) + "us ("
+                    + (elapsedNanos > 0 ? (stockCount + infoCount) * 1000000000L / elapsedNanos : 0)
+                    + " rows/s)");
+            return stored;
+        }
+    }
+
     /**
      * Retrieves enough data from the database to construct an Info bundle, if
      * such data exists.  If not, returns null instead.
@@ -204,157 +656,342 @@ public class StockStoreDatabase {
      * @return Info bundle you're looking for, or null if the database doesn't
      *         have the data you want
      */
-    public Info getInfo(Calendar c, Graticule g) {
-        synchronized(this) {
-            Log.v(DEBUG_TAG, "Querying the hashes database...");
-            // First, adjust the calendar if we need to.
-            Info toReturn = null;
-            
-            // Now, to the database!
-            Cursor cursor = mDatabase.query(TABLE_HASHES, new String[] {KEY_HASHES_LATHASH, KEY_HASHES_LONHASH},
-                    KEY_HASHES_DATE + " = " + DateTools.getDateString(c) + " AND " + KEY_HASHES_30W + " = "
-                    + ((g == null || g.uses30WRule()) ? "1" : "0"),
-                    null, null, null, null);
-            
-            if(cursor == null) {
-                // If a problem happens, assume there's no stock to get.
-                Log.w(DEBUG_TAG, "HEY!  The cursor returned from the query was null!");
-                return null;
-            } else if(cursor.getCount() == 0) {
-                // If nothing resulted from this, the stock doesn't exist in the
+    @Override
+    public Info getInfo(@NonNull Calendar c, @Nullable Graticule g) {
+        Log.v(DEBUG_TAG, "Querying the hashes database...");
+        int day = EpochDay.fromCalendar(c);
+        int dateKey = EpochDay.getDateKey(day);
+        long uses30W = EpochDay.uses30WRule(day, g) ? 1 : 0;
+
+        long latBits;
+        long lonBits;
+
+        // Both hash selects go under the latitude's lock, since they're only
+        // ever used together.  Nothing here waits on mWriteLock; write-ahead
+        // logging means this reads whatever was last committed, even if
+        // something's in the middle of writing.
+        synchronized(mSelectLatHash) {
+            // Now, to the database!  A hash is never stored without both
+            // halves, but each of these queries is its own read, and
+            // compaction (or a wipe) can get in between them.  So the
+            // longitude might still go missing, and that counts as a miss,
+            // too.
+            mSelectLatHash.bindLong(1, dateKey);
+            mSelectLatHash.bindLong(2, uses30W);
+            mSelectLonHash.bindLong(1, dateKey);
+            mSelectLonHash.bindLong(2, uses30W);
+
+            // There's no bit pattern that could stand for "not found" that a
+            // real hash couldn't also have, so the latitude query's run first
+            // on its own to see if anything's there.
+            try {
+                latBits = mSelectLatHash.simpleQueryForLong();
+            } catch(SQLiteDoneException sde) {
+                // If nothing resulted from this, the hash doesn't exist in the
                 // cache.
                 Log.v(DEBUG_TAG, "Info doesn't exist in database");
-            } else {
-                // Otherwise, grab the first one we come across.
-                if(!cursor.moveToFirst()) return null;
-                
-                double latHash = cursor.getDouble(0);
-                double lonHash = cursor.getDouble(1);
-                Log.v(DEBUG_TAG, "Info found -- Today's lucky numbers are " + latHash + "," + lonHash);
-                
-                // Get the destination set...
-                if(g != null) {
-                    double lat = (g.getLatitude() + latHash) * (g.isSouth() ? -1 : 1);
-                    double lon = (g.getLongitude() + lonHash) * (g.isWest() ? -1 : 1);
-                    
-                    toReturn = new Info(lat, lon, g, c);
-                } else {
-                    toReturn = new Info(latHash, lonHash, null, c);
-                }
+                mSelectLonHash.clearBindings();
+                return null;
+            } finally {
+                mSelectLatHash.clearBindings();
+            }
+
+            try {
+                lonBits = mSelectLonHash.simpleQueryForLong();
+            } catch(SQLiteDoneException sde) {
+                Log.v(DEBUG_TAG, "Info's longitude went away before it could be read, treating it as missing");
+                return null;
+            } finally {
+                mSelectLonHash.clearBindings();
             }
-            
-            cursor.close();
-            return toReturn;
+        }
+
+        mUsedHashes.add(getHashKey(dateKey, uses30W));
+
+        double latHash = Double.longBitsToDouble(latBits);
+        double lonHash = Double.longBitsToDouble(lonBits);
+        Log.v(DEBUG_TAG, "Info found -- Today's lucky numbers are " + latHash + "," + lonHash);
+
+        // Get the destination set...
+        if(g != null) {
+            double lat = (g.getLatitude() + latHash) * (g.isSouth() ? -1 : 1);
+            double lon = (g.getLongitude() + lonHash) * (g.isWest() ? -1 : 1);
+
+            return new Info(lat, lon, g, c);
+        } else {
+            return new Info(latHash, lonHash, null, c);
         }
     }
     
     /**
-     * Retrieves a stock value from the database for the given date.  This date
-     * should already be adjusted for weekends and such.
-     * 
-     * @param cal already-adjusted date for which to get a stock
-     * @return the String representation of the stock, or null if none is stored 
+     * Loads the most recently used hashes into a {@link HashCache}, so the
+     * first few lookups after the app starts don't have to come here at all.
+     * The most recently used one goes in last, so it's the last to be evicted.
+     * This doesn't count as using any of them.
+     *
+     * @param cache the cache to fill
+     * @param limit the most hashes to load
+     * @return how many hashes were loaded
      */
-    public String getStock(Calendar cal) {
-        synchronized(this) {
-            Log.v(DEBUG_TAG, "Querying the stock database...");
-            
-            String toReturn = null;
-            
-            // Go!
-            Cursor cursor = mDatabase.query(TABLE_STOCKS, new String[] {KEY_STOCKS_STOCK},
-                    KEY_STOCKS_DATE + " = " + DateTools.getDateString(cal),
-                    null, null, null, null);
-            
-            // And now the check...
-            if(cursor == null) {
-                // If a problem happens, assume there's no stock to get.
-                Log.w(DEBUG_TAG, "HEY!  The cursor returned from the query was null!");
-                return null;
-            } else if(cursor.getCount() == 0) {
-                // If nothing resulted from this, the stock doesn't exist in the
-                // cache.
-                Log.v(DEBUG_TAG, "Stock doesn't exist in database");
-            } else {
-                // Otherwise, grab the first one we come across.
-                if(!cursor.moveToFirst()) return null;
-                
-                toReturn = cursor.getString(0);
-                Log.v(DEBUG_TAG, "Stock found -- Today's lucky number is " + toReturn);
+    @Override
+    public int loadRecentHashes(@NonNull HashCache cache, int limit) {
+        if(limit <= 0) return 0;
+
+        // "SELECT date, uses30w, latbits, lonbits FROM hashes ORDER BY used DESC, _id DESC LIMIT ?;"
+        Cursor cursor = mDatabase.query(TABLE_HASHES,
+                new String[] {KEY_HASHES_DATE, KEY_HASHES_30W, KEY_HASHES_LATHASH, KEY_HASHES_LONHASH},
+                null, null, null, null,
+                KEY_HASHES_USED + " DESC, " + KEY_HASHES_ROWID + " DESC",
+                Integer.toString(limit));
+
+        if(cursor == null) {
+            Log.w(DEBUG_TAG, "HEY!  The cursor returned from the query was null!");
+            return 0;
+        }
+
+        int loaded = 0;
+        try {
+            // Backwards, so the most recent is the freshest in the cache.
+            if(cursor.moveToLast()) {
+                do {
+                    cache.put(HashCache.makeKey(EpochDay.fromDateKey(cursor.getInt(0)), cursor.getInt(1) != 0),
+                            Double.longBitsToDouble(cursor.getLong(2)),
+                            Double.longBitsToDouble(cursor.getLong(3)));
+                    loaded++;
+                } while(cursor.moveToPrevious());
             }
-            
+        } finally {
             cursor.close();
+        }
+
+        Log.v(DEBUG_TAG, "Loaded " + loaded + " recent hash(es) into the cache");
+        return loaded;
+    }
+
+    /**
+     * Retrieves a stock value from the database for the given date, packed up
+     * as a {@link StockValue}.  This date should already be adjusted for
+     * weekends and such.
+     *
+     * @param epochDay already-adjusted date for which to get a stock, as an
+     *                 epoch day
+     * @return the packed stock, or {@link StockValue#NONE} if none is stored
+     */
+    @Override
+    public long getStockValue(int epochDay) {
+        Log.v(DEBUG_TAG, "Querying the stock database...");
+
+        // Go!  NONE is never stored, so it's fine to use for "not found".
+        // Like getInfo, this doesn't wait on anything that's writing.
+        long toReturn;
+        synchronized(mSelectStock) {
+            mSelectStock.bindLong(1, EpochDay.getDateKey(epochDay));
+            toReturn = queryForLong(mSelectStock, StockValue.NONE);
+        }
+
+        if(toReturn == StockValue.NONE) {
+            Log.v(DEBUG_TAG, "Stock doesn't exist in database");
+        } else {
+            Log.v(DEBUG_TAG, "Stock found -- Today's lucky number is " + StockValue.toString(toReturn));
+            mUsedStocks.add(EpochDay.getDateKey(epochDay));
+        }
+
+        return toReturn;
+    }
+    
+    /**
+     * Same as {@link #getStocks(int, int)}, only the stocks stay packed up as
+     * {@link StockValue}s.  That's a lot less garbage when there's a few
+     * thousand of them on their way to being hashed.
+     *
+     * @param start already-adjusted first date for which to get a stock, as an
+     *              epoch day
+     * @param end already-adjusted last date for which to get a stock, as an
+     *            epoch day
+     * @return a SparseLongArray of whatever stocks are stored in that range
+     */
+    @Override
+    @NonNull
+    public SparseLongArray getStockValues(int start, int end) {
+        Log.v(DEBUG_TAG, "Querying the stock database for a range...");
+
+        SparseLongArray toReturn = new SparseLongArray();
+
+        // A range can come back with more than one row, so this one still
+        // needs a cursor.  It's still on the index, though.  And it doesn't
+        // need a lock, since nothing else shares the cursor.
+        Cursor cursor = mDatabase.query(TABLE_STOCKS, new String[] {KEY_STOCKS_DATE, KEY_STOCKS_STOCK},
+                KEY_STOCKS_DATE + " >= ? AND " + KEY_STOCKS_DATE + " <= ?",
+                new String[] {Integer.toString(EpochDay.getDateKey(start)),
+                        Integer.toString(EpochDay.getDateKey(end))},
+                null, null, null);
+
+        if(cursor == null) {
+            // If a problem happens, assume there's no stock to get.
+            Log.w(DEBUG_TAG, "HEY!  The cursor returned from the query was null!");
             return toReturn;
         }
+
+        while(cursor.moveToNext()) {
+            toReturn.put(EpochDay.fromDateKey(cursor.getInt(0)), cursor.getLong(1));
+        }
+
+        Log.v(DEBUG_TAG, "Stocks found in range: " + toReturn.size());
+
+        cursor.close();
+        return toReturn;
+    }
+
+    @Override
+    @NonNull
+    public SparseLongArray getBackfilledStockValues() {
+        SparseLongArray toReturn = new SparseLongArray();
+
+        // "SELECT date, stock FROM stocks WHERE backfilled = 1;"
+        Cursor cursor = mDatabase.query(TABLE_STOCKS, new String[] {KEY_STOCKS_DATE, KEY_STOCKS_STOCK},
+                KEY_STOCKS_BACKFILLED + " = 1", null, null, null, null);
+
+        if(cursor == null) {
+            Log.w(DEBUG_TAG, "HEY!  The cursor returned from the query was null!");
+            return toReturn;
+        }
+
+        while(cursor.moveToNext()) {
+            toReturn.put(EpochDay.fromDateKey(cursor.getInt(0)), cursor.getLong(1));
+        }
+
+        Log.v(DEBUG_TAG, "Backfilled stocks found: " + toReturn.size());
+
+        cursor.close();
+        return toReturn;
     }
     
     /**
-     * Performs cache cleanup.  This involves pruning the cache down to however
-     * many entries should be the max.
+     * Checks if enough has been stored since the last compaction that it's
+     * time for another one.  This doesn't touch the database, so it's cheap
+     * enough to call after every store.
+     *
+     * @return true if it's time to call {@link #compact(int, long)}
+     */
+    @Override
+    public boolean needsCompaction() {
+        return mWritesSinceCompaction >= COMPACT_AFTER_WRITES;
+    }
+
+    /**
+     * <p>
+     * Compacts the cache.  First, anything that was looked up since the last
+     * compaction gets marked as used just now.  Then, anything that hasn't
+     * been used in maxAgeMs gets thrown out.  Then, if there's still more
+     * than maxEntries stocks or hashes left, the least recently used ones go
+     * until there's only maxEntries.
+     * </p>
+     *
+     * <p>
+     * Backfilled stocks never get thrown out, and don't count toward the
+     * limit, so a big backfill can't push out the everyday ones.
+     * </p>
      *
-     * @param c Context to use to get preferences and such
+     * <p>
+     * This is all one transaction, and it doesn't care if there's holes in
+     * the row IDs.  It's still a handful of writes, so keep it off the main
+     * thread.
+     * </p>
+     *
+     * @param maxEntries how many stocks and how many hashes to keep, at most
+     * @param maxAgeMs how long something can go unused before it goes
+     * @return how many rows were thrown out
      */
-    public void cleanup(@NonNull Context c) {
-        synchronized(this) {
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
-            
-            Log.v(DEBUG_TAG, "Pruning database...");
+    @Override
+    public int compact(int maxEntries, long maxAgeMs) {
+        synchronized(mWriteLock) {
+            Log.v(DEBUG_TAG, "Compacting database...");
+
+            long now = System.currentTimeMillis();
+            long cutoff = now - maxAgeMs;
+            int deleted = 0;
+
+            // Lookups can keep making notes while this is going, so take a
+            // copy of what's there now, and only forget those once they've
+            // been written down.
+            List<Integer> usedStocks = new ArrayList<>(mUsedStocks);
+            List<Long> usedHashes = new ArrayList<>(mUsedHashes);
+
+            mDatabase.beginTransactionNonExclusive();
             try {
-                // Presumably, initPrefs was already run from the GeohashDroid
-                // class.  Thus, if the pref doesn't exist at this point or
-                // isn't parseable into an int, we can quite justifiably spaz
-                // out.
-                int max = Integer.parseInt(prefs.getString(GHDConstants.PREF_STOCK_CACHE_SIZE, "15"));
-                
-                // Step one: Get the highest row ID.  I could probably ram this
-                // all into one big monolithic SQL statement, but that would get
-                // more than a bit unreadable.  Also note very carefully, this
-                // entire method depends on there being no holes in the rowids.
-                // "SELECT _rowid FROM stocks ORDER BY _rowid DESC LIMIT 1;"
-                Cursor cursor = mDatabase.query(TABLE_STOCKS, new String[] {KEY_STOCKS_ROWID},
-                        null, null, null, null, KEY_STOCKS_ROWID + " DESC", "1");
-                
-                cursor.moveToFirst();
-                int highest = cursor.getInt(0);
-                cursor.close();
-                
-                // Step two: Delete anything in the database older than the
-                // highest minus the max.
-                // "DELETE FROM stocks WHERE _rowid < (highest - max);"
-                int deleted = mDatabase.delete(TABLE_STOCKS, KEY_STOCKS_ROWID + " <= " + (highest - max), null);
-
-                Log.v(DEBUG_TAG, "Stock rows deleted: " + deleted);
-                
-                // Now, do all that again, but for hashes.
-                
-                cursor = mDatabase.query(TABLE_HASHES, new String[] {KEY_HASHES_ROWID},
-                        null, null, null, null, KEY_HASHES_ROWID + " DESC", "1");
-                
-                cursor.moveToFirst();
-                highest = cursor.getInt(0);
-                cursor.close();
-                
-                deleted = mDatabase.delete(TABLE_HASHES, KEY_HASHES_ROWID + " <= " + (highest - max), null);
-                
-                Log.v(DEBUG_TAG, "Info rows deleted: " + deleted);
-            } catch (Exception e) {
-                // If something went wrong, let it go.
-                Log.w(DEBUG_TAG, "HEY!  Couldn't prune the stock cache database: " + e.toString());
+                // Step one: Write down what's been used.
+                mTouchStock.bindLong(1, now);
+                for(int dateKey : usedStocks) {
+                    mTouchStock.bindLong(2, dateKey);
+                    mTouchStock.executeUpdateDelete();
+                }
+                mTouchStock.clearBindings();
+
+                mTouchHash.bindLong(1, now);
+                for(long hashKey : usedHashes) {
+                    mTouchHash.bindLong(2, hashKey >> 1);
+                    mTouchHash.bindLong(3, hashKey & 1);
+                    mTouchHash.executeUpdateDelete();
+                }
+                mTouchHash.clearBindings();
+
+                // Step two: Throw out anything too old.
+                // "DELETE FROM stocks WHERE backfilled = 0 AND used < cutoff;"
+                deleted += mDatabase.delete(TABLE_STOCKS, KEY_STOCKS_BACKFILLED + " = 0 AND "
+                        + KEY_STOCKS_USED + " < " + cutoff, null);
+                deleted += mDatabase.delete(TABLE_HASHES, KEY_HASHES_USED + " < " + cutoff, null);
+
+                // Step three: If there's still too much, keep only the most
+                // recently used.  A negative LIMIT means no limit, so this
+                // picks everything past the first maxEntries.
+                // "DELETE FROM stocks WHERE _id IN (SELECT _id FROM stocks
+                //  WHERE backfilled = 0 ORDER BY used DESC, _id DESC LIMIT -1 OFFSET max);"
+                int max = Math.max(0, maxEntries);
+                deleted += mDatabase.delete(TABLE_STOCKS, KEY_STOCKS_ROWID + " IN (SELECT "
+                        + KEY_STOCKS_ROWID + " FROM " + TABLE_STOCKS + " WHERE " + KEY_STOCKS_BACKFILLED
+                        + " = 0 ORDER BY " + KEY_STOCKS_USED + " DESC, " + KEY_STOCKS_ROWID
+                        + " DESC LIMIT -1 OFFSET " + max + ")", null);
+                deleted += mDatabase.delete(TABLE_HASHES, KEY_HASHES_ROWID + " IN (SELECT "
+                        + KEY_HASHES_ROWID + " FROM " + TABLE_HASHES + " ORDER BY " + KEY_HASHES_USED
+                        + " DESC, " + KEY_HASHES_ROWID + " DESC LIMIT -1 OFFSET " + max + ")", null);
+
+                mDatabase.setTransactionSuccessful();
+
+                mUsedStocks.removeAll(usedStocks);
+                mUsedHashes.removeAll(usedHashes);
+                mWritesSinceCompaction = 0;
+            } catch(SQLException e) {
+                // If something went wrong, let it go.  It'll get another shot
+                // next time.
+                Log.w(DEBUG_TAG, "HEY!  Couldn't compact the stock cache database: " + e.toString());
+            } finally {
+                mDatabase.endTransaction();
             }
+
+            Log.v(DEBUG_TAG, "Rows deleted: " + deleted);
+            return deleted;
         }
     }
+
+    private static long getHashKey(int dateKey, long uses30W) {
+        return ((long)dateKey << 1) | uses30W;
+    }
     
     /**
      * Erases everything from the stock cache database.  This is really only to
      * be used if something's gone horribly wrong.
      */
+    @Override
     public boolean deleteCache() {
-        synchronized(this) {
+        synchronized(mWriteLock) {
             try {
                 Log.v(DEBUG_TAG, "Emptying the stock cache...");
                 // KABOOM!
                 mDatabase.delete(TABLE_STOCKS, null, null);
                 mDatabase.delete(TABLE_HASHES, null, null);
+                mUsedStocks.clear();
+                mUsedHashes.clear();
+                mWritesSinceCompaction = 0;
                 return true;
             } catch (Exception e) {
                 // If something went wrong, let it go.
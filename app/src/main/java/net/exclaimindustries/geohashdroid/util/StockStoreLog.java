@@ -0,0 +1,892 @@
+/*
+ * StockStoreLog.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A <code>StockStoreLog</code> is a {@link StockStore} that skips SQLite and
+ * just appends records to a file, {@link #FILE_NAME} in the app's files
+ * directory.  Everything in that file is also kept in memory (each stock
+ * and hash, when it was last used, and an index to find them by), which gets
+ * rebuilt by reading the whole file when it's opened.  That's sixteen bytes
+ * of data per record, which even for years of stocks and hashes is small, so
+ * a lookup is one probe of that index and never touches the disk.  The file
+ * is only ever read when it's opened or compacted.
+ * </p>
+ *
+ * <p>
+ * The file is an 8-byte header (the magic number "GHDL" and a format
+ * version), then 32-byte records, all big-endian: the date as an epoch day
+ * (adjusted for stocks, real for hashes), flags saying what kind of record it
+ * is, two longs of data (a packed {@link StockValue} and nothing, or the raw
+ * bits of the two hash fractions), when it was last used in minutes since the
+ * epoch, and a CRC32 of all that.  If the app died halfway through writing a
+ * record, its CRC won't match, and it (and anything after it) gets chopped
+ * off the next time the file's opened.
+ * </p>
+ *
+ * <p>
+ * Nothing in the file ever changes once it's written.  Lookups only note when
+ * things were used in memory, and a stock that gets backfilled after it was
+ * already stored gets a flagged copy appended instead of being rewritten.
+ * {@link #compact(int, long)} writes out a whole new file with just what's
+ * being kept (and when it was last used, and whether it was backfilled), then
+ * swaps it in.  Writing takes its own lock, and lookups only ever wait on the
+ * moment it takes to add the new records to the index.
+ * </p>
+ */
+public class StockStoreLog implements StockStore {
+    private static final String DEBUG_TAG = "StockStoreLog";
+
+    /** The name of the log file in the files directory. */
+    public static final String FILE_NAME = "stockstore.log";
+
+    private static final int MAGIC = 0x4748444C; // "GHDL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 32;
+
+    // Where everything is in a record.
+    private static final int OFFSET_DAY = 0;
+    private static final int OFFSET_FLAGS = 4;
+    private static final int OFFSET_FIRST = 8;
+    private static final int OFFSET_SECOND = 16;
+    private static final int OFFSET_USED = 24;
+    private static final int OFFSET_CRC = 28;
+
+    // The low two bits of a record's flags (and of its key) say what it is.
+    private static final int KIND_STOCK = 0;
+    private static final int KIND_HASH = 1;
+    private static final int KIND_HASH_30W = 2;
+    private static final int KIND_MASK = 3;
+    // Set on stocks that came from a backfill, which compaction leaves alone.
+    private static final int FLAG_BACKFILLED = 4;
+
+    // How many records get read or written at a time when going through the
+    // whole file.
+    private static final int CHUNK_RECORDS = 256;
+
+    // Marks an empty spot in the index.
+    private static final int NONE = -1;
+
+    private final File mFile;
+
+    // Anything that writes to the file holds this the whole time.
+    private final Object mWriteLock = new Object();
+    // Guards everything in memory and the file handles.  Lookups hold the read
+    // lock.  Writers only take the write lock once the file part's done, to
+    // add the new records to the index or swap in a compacted file.
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    private FileOutputStream mWriter;
+
+    // One entry per record, in file order, so a record's number is also where
+    // it is in the file.
+    private long[] mKeys;
+    private byte[] mFlags;
+    // Each record's two longs of data, so lookups don't have to go back to
+    // the file for them.
+    private long[] mFirst;
+    private long[] mSecond;
+    // When each record was last used, in minutes since the epoch.  Lookups
+    // set these while only holding the read lock, but an int gets written all
+    // at once, and if two lookups race, either one's time is fine.
+    private int[] mUsed;
+    private int mCount;
+
+    // The index, mapping keys to record numbers via linear probing, same as
+    // HashCache.  This is always a power of two and at least twice the number
+    // of records in it.
+    private int[] mIndex;
+    private int mIndexMask;
+    private int mIndexed;
+
+    private volatile int mWritesSinceCompaction = 0;
+
+    /**
+     * Opens the log file, or creates it if there isn't one yet.  Anything in
+     * it that doesn't make sense gets thrown out.
+     *
+     * @param c Context for the files directory
+     * @return a new StockStoreLog
+     * @throws IOException the file couldn't be read or created
+     */
+    @NonNull
+    public static StockStoreLog open(@NonNull Context c) throws IOException {
+        return new StockStoreLog(new File(c.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Checks if there's a log file at all, without making one if there isn't.
+     *
+     * @param c Context for the files directory
+     * @return true if the log file exists
+     */
+    public static boolean exists(@NonNull Context c) {
+        return new File(c.getFilesDir(), FILE_NAME).exists();
+    }
+
+    /**
+     * Deletes the log file outright (and any compaction that didn't finish),
+     * for when the database is being used instead and this would otherwise
+     * just sit there taking up space.  Don't call this while it's open.
+     *
+     * @param c Context for the files directory
+     * @return true if there was a log file to delete and it got deleted
+     */
+    public static boolean delete(@NonNull Context c) {
+        File file = new File(c.getFilesDir(), FILE_NAME);
+        //noinspection ResultOfMethodCallIgnored
+        new File(file.getPath() + ".tmp").delete();
+        return file.delete();
+    }
+
+    /**
+     * Opens a StockStoreLog on the given file.  This is mostly here for
+     * testing; use {@link #open(Context)} instead.
+     *
+     * @param file the log file (it's fine if it doesn't exist)
+     * @throws IOException the file couldn't be read or created
+     */
+    StockStoreLog(@NonNull File file) throws IOException {
+        mFile = file;
+
+        long start = System.nanoTime();
+        load();
+        openFiles();
+
+        Log.d(DEBUG_TAG, "Loaded " + mIndexed + " stock(s) and hash(es) in "
+                + ((System.nanoTime() - start) / 1000000) + "ms");
+    }
+
+    private static long makeKey(int epochDay, int kind) {
+        return ((long)epochDay << 2) | kind;
+    }
+
+    private static int hashKind(boolean uses30W) {
+        return uses30W ? KIND_HASH_30W : KIND_HASH;
+    }
+
+    private static int nowMinutes() {
+        return (int)(System.currentTimeMillis() / 60000);
+    }
+
+    private void load() throws IOException {
+        clearIndex();
+
+        try(RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            long length = raf.length();
+            boolean fresh = length < HEADER_SIZE;
+
+            if(!fresh && (raf.readInt() != MAGIC || raf.readInt() != VERSION)) {
+                Log.w(DEBUG_TAG, "The stock store log isn't one I know how to read, starting over...");
+                fresh = true;
+            }
+
+            if(fresh) {
+                raf.setLength(0);
+                raf.seek(0);
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                length = HEADER_SIZE;
+            }
+
+            long records = (length - HEADER_SIZE) / RECORD_SIZE;
+            byte[] chunk = new byte[CHUNK_RECORDS * RECORD_SIZE];
+            ByteBuffer buf = ByteBuffer.wrap(chunk);
+            CRC32 crc = new CRC32();
+
+            reading:
+            for(long done = 0; done < records; ) {
+                int n = (int)Math.min(CHUNK_RECORDS, records - done);
+                raf.readFully(chunk, 0, n * RECORD_SIZE);
+
+                for(int i = 0; i < n; i++) {
+                    int off = i * RECORD_SIZE;
+                    int flags = buf.getInt(off + OFFSET_FLAGS);
+
+                    crc.reset();
+                    crc.update(chunk, off, OFFSET_CRC);
+                    if((int)crc.getValue() != buf.getInt(off + OFFSET_CRC) || (flags & KIND_MASK) > KIND_HASH_30W) {
+                        // Anything from here on is suspect.
+                        Log.w(DEBUG_TAG, "Record " + (done + i) + " of the stock store log is garbage, chopping it off...");
+                        break reading;
+                    }
+
+                    addRecord(makeKey(buf.getInt(off + OFFSET_DAY), flags & KIND_MASK),
+                            flags, buf.getInt(off + OFFSET_USED),
+                            buf.getLong(off + OFFSET_FIRST), buf.getLong(off + OFFSET_SECOND));
+                }
+
+                done += n;
+            }
+
+            long validLength = HEADER_SIZE + (long)mCount * RECORD_SIZE;
+            if(raf.length() != validLength) raf.setLength(validLength);
+        }
+    }
+
+    private void openFiles() throws IOException {
+        mWriter = new FileOutputStream(mFile, true);
+    }
+
+    private void closeFiles() {
+        try {
+            if(mWriter != null) mWriter.close();
+        } catch(IOException ioe) {
+            // Oh well.
+        }
+
+        mWriter = null;
+    }
+
+    @Override
+    public long getStockValue(int epochDay) {
+        long[] values = new long[2];
+        if(!lookUp(makeKey(epochDay, KIND_STOCK), values)) {
+            Log.v(DEBUG_TAG, "Stock doesn't exist in the log");
+            return StockValue.NONE;
+        }
+
+        return values[0];
+    }
+
+    @Nullable
+    @Override
+    public Info getInfo(@NonNull Calendar c, @Nullable Graticule g) {
+        int day = EpochDay.fromCalendar(c);
+
+        long[] values = new long[2];
+        if(!lookUp(makeKey(day, hashKind(EpochDay.uses30WRule(day, g))), values)) {
+            Log.v(DEBUG_TAG, "Info doesn't exist in the log");
+            return null;
+        }
+
+        double latHash = Double.longBitsToDouble(values[0]);
+        double lonHash = Double.longBitsToDouble(values[1]);
+
+        if(g != null) {
+            double lat = (g.getLatitude() + latHash) * (g.isSouth() ? -1 : 1);
+            double lon = (g.getLongitude() + lonHash) * (g.isWest() ? -1 : 1);
+
+            return new Info(lat, lon, g, c);
+        } else {
+            return new Info(latHash, lonHash, null, c);
+        }
+    }
+
+    /**
+     * Looks up a record and reads its two longs of data.  This counts as
+     * using it.
+     *
+     * @param key the record's key
+     * @param out a two-element array to hold the data
+     * @return true if found (and out was filled in), false if not
+     */
+    private boolean lookUp(long key, @NonNull long[] out) {
+        mLock.readLock().lock();
+        try {
+            int record = findRecord(key);
+            if(record == NONE) return false;
+
+            readValues(record, out);
+            mUsed[record] = nowMinutes();
+            return true;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    // Only call this while holding the read lock (or the write lock).
+    private void readValues(int record, @NonNull long[] out) {
+        out[0] = mFirst[record];
+        out[1] = mSecond[record];
+    }
+
+    @NonNull
+    @Override
+    public SparseLongArray getStockValues(int start, int end) {
+        SparseLongArray toReturn = new SparseLongArray();
+        long[] values = new long[2];
+
+        // Every day in the range is its own probe, which is still a lot less
+        // than a cursor.
+        for(int day = start; day <= end; day++) {
+            if(lookUp(makeKey(day, KIND_STOCK), values))
+                toReturn.append(day, values[0]);
+        }
+
+        Log.v(DEBUG_TAG, "Stocks found in range: " + toReturn.size());
+        return toReturn;
+    }
+
+    @NonNull
+    @Override
+    public SparseLongArray getBackfilledStockValues() {
+        SparseLongArray toReturn = new SparseLongArray();
+
+        mLock.readLock().lock();
+        try {
+            for(int record = 0; record < mCount; record++) {
+                if((mFlags[record] & KIND_MASK) == KIND_STOCK && isBackfilled(record)
+                        && findRecord(mKeys[record]) == record)
+                    toReturn.put((int)(mKeys[record] >> 2), mFirst[record]);
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+
+        Log.v(DEBUG_TAG, "Backfilled stocks found: " + toReturn.size());
+        return toReturn;
+    }
+
+    @Override
+    public int loadRecentHashes(@NonNull HashCache cache, int limit) {
+        if(limit <= 0) return 0;
+
+        int loaded = 0;
+        mLock.readLock().lock();
+        try {
+            // Sort the hashes by when they were used, then by where they are in
+            // the file, all packed into longs so it's one primitive sort.
+            long[] order = new long[mIndexed];
+            int n = 0;
+            for(int record = 0; record < mCount; record++) {
+                if((mFlags[record] & KIND_MASK) != KIND_STOCK && findRecord(mKeys[record]) == record)
+                    order[n++] = ((long)mUsed[record] << 32) | record;
+            }
+            Arrays.sort(order, 0, n);
+
+            // The most recent is at the end, and goes in last.
+            long[] values = new long[2];
+            for(int i = Math.max(0, n - limit); i < n; i++) {
+                int record = (int)order[i];
+                readValues(record, values);
+                cache.put(HashCache.makeKey((int)(mKeys[record] >> 2), (mFlags[record] & KIND_MASK) == KIND_HASH_30W),
+                        Double.longBitsToDouble(values[0]),
+                        Double.longBitsToDouble(values[1]));
+                loaded++;
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+
+        Log.v(DEBUG_TAG, "Loaded " + loaded + " recent hash(es) into the cache");
+        return loaded;
+    }
+
+    @Override
+    public void storeStock(int epochDay, long stock) {
+        synchronized(mWriteLock) {
+            if(findRecord(makeKey(epochDay, KIND_STOCK)) != NONE) {
+                Log.v(DEBUG_TAG, "Stock already exists in the log for " + EpochDay.toHyphenatedString(epochDay) + ", ignoring...");
+                return;
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+            putRecord(buf, new CRC32(), epochDay, KIND_STOCK, stock, 0, nowMinutes());
+            if(appendRecords(buf.array(), 1))
+                Log.v(DEBUG_TAG, "NOW STORING TO LOG " + EpochDay.toHyphenatedString(epochDay)
+                        + " : " + StockValue.toString(stock));
+        }
+    }
+
+    @Override
+    public void storeInfo(@NonNull Info i) {
+        synchronized(mWriteLock) {
+            int kind = hashKind(i.uses30WRule());
+            if(findRecord(makeKey(i.getEpochDay(), kind)) != NONE) {
+                Log.v(DEBUG_TAG, "Info already exists for that data, ignoring...");
+                return;
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+            putRecord(buf, new CRC32(), i.getEpochDay(), kind,
+                    Double.doubleToRawLongBits(i.getLatitudeHash()),
+                    Double.doubleToRawLongBits(i.getLongitudeHash()),
+                    nowMinutes());
+            if(appendRecords(buf.array(), 1))
+                Log.v(DEBUG_TAG, "NOW STORING TO LOG " + EpochDay.toHyphenatedString(i.getEpochDay())
+                        + (i.uses30WRule() ? " (30W)" : "") + " : "
+                        + i.getLatitudeHash() + "," + i.getLongitudeHash());
+        }
+    }
+
+    @Override
+    public int storeBatch(@Nullable SparseLongArray stocks, @Nullable Collection<Info> infos) {
+        int stockCount = (stocks == null) ? 0 : stocks.size();
+        int infoCount = (infos == null) ? 0 : infos.size();
+        if(stockCount + infoCount == 0) return 0;
+
+        synchronized(mWriteLock) {
+            long startTime = System.nanoTime();
+            int now = nowMinutes();
+            ByteBuffer buf = ByteBuffer.allocate((stockCount + infoCount) * RECORD_SIZE);
+            CRC32 crc = new CRC32();
+
+            // A SparseLongArray can't have the same date twice, so the stocks
+            // only need to be checked against what's already there.
+            for(int i = 0; i < stockCount; i++) {
+                int day = stocks.keyAt(i);
+                if(findRecord(makeKey(day, KIND_STOCK)) == NONE)
+                    putRecord(buf, crc, day, KIND_STOCK, stocks.valueAt(i), 0, now);
+            }
+
+            // Infos can, though, so anything already in this batch gets
+            // skipped, too.
+            if(infos != null) {
+                Set<Long> batched = new HashSet<>();
+                for(Info i : infos) {
+                    int kind = hashKind(i.uses30WRule());
+                    long key = makeKey(i.getEpochDay(), kind);
+                    if(findRecord(key) == NONE && batched.add(key))
+                        putRecord(buf, crc, i.getEpochDay(), kind,
+                                Double.doubleToRawLongBits(i.getLatitudeHash()),
+                                Double.doubleToRawLongBits(i.getLongitudeHash()),
+                                now);
+                }
+            }
+
+            int stored = buf.position() / RECORD_SIZE;
+            if(stored > 0 && !appendRecords(buf.array(), stored))
+                stored = 0;
+
+            long elapsedNanos = System.nanoTime() - startTime;
+            Log.v(DEBUG_TAG, "Batch stored " + stored + " of " + (stockCount + infoCount)
+                    + " record(s) in " + (elapsedNanos / 1000) + "us ("
+                    + (elapsedNanos > 0 ? (stockCount + infoCount) * 1000000000L / elapsedNanos : 0)
+                    + " records/s)");
+            return stored;
+        }
+    }
+
+    @Override
+    public int storeStocks(@NonNull SparseArray<String> stocks) {
+        if(stocks.size() == 0) return 0;
+
+        synchronized(mWriteLock) {
+            int now = nowMinutes();
+            ByteBuffer buf = ByteBuffer.allocate(stocks.size() * RECORD_SIZE);
+            CRC32 crc = new CRC32();
+
+            int stored = 0;
+            int marked = 0;
+            for(int i = 0; i < stocks.size(); i++) {
+                long packed = StockValue.parse(stocks.valueAt(i));
+                if(packed == StockValue.NONE) continue;
+
+                int day = stocks.keyAt(i);
+                int record = findRecord(makeKey(day, KIND_STOCK));
+                if(record == NONE) {
+                    putRecord(buf, crc, day, KIND_STOCK | FLAG_BACKFILLED, packed, 0, now);
+                    stored++;
+                } else if(!isBackfilled(record)) {
+                    // It's already there, but it needs to stay there now.
+                    // Records never change, so this goes in as a flagged
+                    // copy of the one we've got, which addRecord folds into
+                    // the original (and compaction gets rid of).
+                    putRecord(buf, crc, day, KIND_STOCK | FLAG_BACKFILLED, mFirst[record], 0, mUsed[record]);
+                    marked++;
+                }
+            }
+
+            int count = buf.position() / RECORD_SIZE;
+            if(count > 0 && !appendRecords(buf.array(), count)) {
+                stored = 0;
+                marked = 0;
+            }
+
+            Log.v(DEBUG_TAG, "Backfilled " + stored + " stock(s), " + (stocks.size() - stored)
+                    + " already there (or unpackable), " + marked + " newly flagged as backfilled");
+            return stored;
+        }
+    }
+
+    private static void putRecord(@NonNull ByteBuffer buf, @NonNull CRC32 crc, int epochDay, int flags,
+                                  long first, long second, int used) {
+        int off = buf.position();
+        buf.putInt(epochDay).putInt(flags).putLong(first).putLong(second).putInt(used);
+
+        crc.reset();
+        crc.update(buf.array(), off, OFFSET_CRC);
+        buf.putInt((int)crc.getValue());
+    }
+
+    /**
+     * Writes records to the end of the file, then adds them to the index.
+     * Only call this while synchronized on mWriteLock.
+     *
+     * @param records the records, one after another
+     * @param count how many records there are
+     * @return true if it worked, false if they couldn't be written (in which
+     *         case none of them were)
+     */
+    private boolean appendRecords(@NonNull byte[] records, int count) {
+        if(mWriter == null) {
+            Log.w(DEBUG_TAG, "The stock store log isn't open, can't store anything!");
+            return false;
+        }
+
+        // All in one go, so there's as little chance as possible of leaving
+        // half of one behind.
+        try {
+            mWriter.write(records, 0, count * RECORD_SIZE);
+        } catch(IOException ioe) {
+            Log.w(DEBUG_TAG, "Couldn't write to the stock store log: " + ioe);
+
+            // If part of it made it, chop it off, or the next thing written
+            // would be stuck behind half a record.
+            try {
+                mWriter.getChannel().truncate(HEADER_SIZE + (long)mCount * RECORD_SIZE);
+            } catch(IOException ioe2) {
+                // Then the CRCs will have to sort it out next time.
+            }
+            return false;
+        }
+
+        // Now that they're in the file, they can be found.
+        ByteBuffer buf = ByteBuffer.wrap(records);
+        mLock.writeLock().lock();
+        try {
+            for(int i = 0; i < count; i++) {
+                int off = i * RECORD_SIZE;
+                int flags = buf.getInt(off + OFFSET_FLAGS);
+                addRecord(makeKey(buf.getInt(off + OFFSET_DAY), flags & KIND_MASK),
+                        flags, buf.getInt(off + OFFSET_USED),
+                        buf.getLong(off + OFFSET_FIRST), buf.getLong(off + OFFSET_SECOND));
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+
+        mWritesSinceCompaction += count;
+        return true;
+    }
+
+    @Override
+    public boolean needsCompaction() {
+        return mWritesSinceCompaction >= COMPACT_AFTER_WRITES;
+    }
+
+    @Override
+    public int compact(int maxEntries, long maxAgeMs) {
+        synchronized(mWriteLock) {
+            Log.v(DEBUG_TAG, "Compacting the stock store log...");
+
+            int cutoff = (int)((System.currentTimeMillis() - maxAgeMs) / 60000);
+            int count;
+            int[] used;
+            boolean[] keep;
+            int deleted = 0;
+
+            // Only writers change anything but the used times, and this is the
+            // only writer right now, so the write lock's just for getting a
+            // good look at those.
+            mLock.writeLock().lock();
+            try {
+                count = mCount;
+                used = Arrays.copyOf(mUsed, count);
+                keep = new boolean[count];
+                for(int record = 0; record < count; record++)
+                    keep[record] = findRecord(mKeys[record]) == record;
+            } finally {
+                mLock.writeLock().unlock();
+            }
+
+            // Step one: Throw out anything too old.
+            for(int record = 0; record < count; record++) {
+                if(keep[record] && !isBackfilled(record) && used[record] < cutoff) {
+                    keep[record] = false;
+                    deleted++;
+                }
+            }
+
+            // Step two: If there's still too much, keep only the most recently
+            // used.
+            int max = Math.max(0, maxEntries);
+            deleted += trimToMostRecent(keep, used, false, max);
+            deleted += trimToMostRecent(keep, used, true, max);
+
+            // Step three: Write out what's left to a new file and swap it in.
+            File temp = new File(mFile.getPath() + ".tmp");
+            try {
+                writeCompacted(temp, keep, used);
+            } catch(IOException ioe) {
+                // If something went wrong, let it go.  It'll get another shot
+                // next time.
+                Log.w(DEBUG_TAG, "HEY!  Couldn't compact the stock store log: " + ioe);
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+                return 0;
+            }
+
+            mLock.writeLock().lock();
+            try {
+                closeFiles();
+
+                if(!temp.renameTo(mFile)) {
+                    Log.w(DEBUG_TAG, "HEY!  Couldn't swap in the compacted stock store log!");
+                    //noinspection ResultOfMethodCallIgnored
+                    temp.delete();
+                    deleted = 0;
+                } else {
+                    long[] keys = mKeys;
+                    byte[] flags = mFlags;
+                    long[] first = mFirst;
+                    long[] second = mSecond;
+                    clearIndex();
+                    for(int record = 0; record < count; record++) {
+                        if(keep[record])
+                            addRecord(keys[record], flags[record], used[record], first[record], second[record]);
+                    }
+                }
+
+                openFiles();
+            } catch(IOException ioe) {
+                Log.w(DEBUG_TAG, "HEY!  Couldn't reopen the stock store log: " + ioe);
+                closeFiles();
+            } finally {
+                mLock.writeLock().unlock();
+            }
+
+            mWritesSinceCompaction = 0;
+            Log.v(DEBUG_TAG, "Records deleted: " + deleted);
+            return deleted;
+        }
+    }
+
+    private boolean isBackfilled(int record) {
+        return (mFlags[record] & FLAG_BACKFILLED) != 0;
+    }
+
+    /**
+     * Throws out all but the max most recently used stocks or hashes that are
+     * still being kept.  Backfilled stocks don't count.
+     *
+     * @return how many were thrown out
+     */
+    private int trimToMostRecent(@NonNull boolean[] keep, @NonNull int[] used, boolean hashes, int max) {
+        long[] order = new long[keep.length];
+        int n = 0;
+        for(int record = 0; record < keep.length; record++) {
+            boolean isHash = (mFlags[record] & KIND_MASK) != KIND_STOCK;
+            if(keep[record] && isHash == hashes && !isBackfilled(record))
+                order[n++] = ((long)used[record] << 32) | record;
+        }
+
+        if(n <= max) return 0;
+
+        // Oldest first, and for things used in the same minute, whatever was
+        // stored first.
+        Arrays.sort(order, 0, n);
+        for(int i = 0; i < n - max; i++)
+            keep[(int)order[i]] = false;
+
+        return n - max;
+    }
+
+    // Only call this while synchronized on mWriteLock.
+    private void writeCompacted(@NonNull File temp, @NonNull boolean[] keep, @NonNull int[] used) throws IOException {
+        byte[] chunk = new byte[CHUNK_RECORDS * RECORD_SIZE];
+        ByteBuffer buf = ByteBuffer.wrap(chunk);
+        CRC32 crc = new CRC32();
+
+        try(RandomAccessFile in = new RandomAccessFile(mFile, "r");
+            FileOutputStream fos = new FileOutputStream(temp)) {
+            BufferedOutputStream out = new BufferedOutputStream(fos, chunk.length);
+            out.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array());
+
+            in.seek(HEADER_SIZE);
+            for(int done = 0; done < keep.length; ) {
+                int n = Math.min(CHUNK_RECORDS, keep.length - done);
+                in.readFully(chunk, 0, n * RECORD_SIZE);
+
+                for(int i = 0; i < n; i++) {
+                    int record = done + i;
+                    if(!keep[record]) continue;
+
+                    // The used time and the backfilled flag are the only
+                    // things that change, so the CRC needs redoing.
+                    int off = i * RECORD_SIZE;
+                    buf.putInt(off + OFFSET_FLAGS, mFlags[record]);
+                    buf.putInt(off + OFFSET_USED, used[record]);
+                    crc.reset();
+                    crc.update(chunk, off, OFFSET_CRC);
+                    buf.putInt(off + OFFSET_CRC, (int)crc.getValue());
+                    out.write(chunk, off, RECORD_SIZE);
+                }
+
+                done += n;
+            }
+
+            out.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    @Override
+    public boolean deleteCache() {
+        synchronized(mWriteLock) {
+            Log.v(DEBUG_TAG, "Emptying the stock store log...");
+
+            mLock.writeLock().lock();
+            try {
+                // KABOOM!
+                closeFiles();
+                try(RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+                    raf.setLength(0);
+                    raf.writeInt(MAGIC);
+                    raf.writeInt(VERSION);
+                }
+                clearIndex();
+                openFiles();
+                mWritesSinceCompaction = 0;
+                return true;
+            } catch(IOException ioe) {
+                // If something went wrong, let it go.
+                Log.w(DEBUG_TAG, "HEY!  Couldn't erase the stock store log: " + ioe);
+                return false;
+            } finally {
+                mLock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void finish() {
+        synchronized(mWriteLock) {
+            mLock.writeLock().lock();
+            try {
+                closeFiles();
+            } finally {
+                mLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Gets how many stocks and hashes are stored.
+     *
+     * @return the number of stocks and hashes
+     */
+    public int size() {
+        mLock.readLock().lock();
+        try {
+            return mIndexed;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    // Everything from here down is the index.  Only call any of it while
+    // holding the write lock (or while synchronized on mWriteLock, if it's
+    // just to look something up).
+
+    private void clearIndex() {
+        mKeys = new long[16];
+        mFlags = new byte[16];
+        mFirst = new long[16];
+        mSecond = new long[16];
+        mUsed = new int[16];
+        mCount = 0;
+
+        mIndex = new int[32];
+        Arrays.fill(mIndex, NONE);
+        mIndexMask = mIndex.length - 1;
+        mIndexed = 0;
+    }
+
+    private int indexOf(long key) {
+        // Mix the bits up a bit, since consecutive days would otherwise all
+        // land right next to each other.
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h >>> 32) & mIndexMask;
+    }
+
+    private int findRecord(long key) {
+        for(int i = indexOf(key); ; i = (i + 1) & mIndexMask) {
+            int record = mIndex[i];
+            if(record == NONE) return NONE;
+            if(mKeys[record] == key) return record;
+        }
+    }
+
+    private void addRecord(long key, int flags, int used, long first, long second) {
+        if(mCount == mKeys.length) {
+            int size = mKeys.length * 2;
+            mKeys = Arrays.copyOf(mKeys, size);
+            mFlags = Arrays.copyOf(mFlags, size);
+            mFirst = Arrays.copyOf(mFirst, size);
+            mSecond = Arrays.copyOf(mSecond, size);
+            mUsed = Arrays.copyOf(mUsed, size);
+        }
+
+        int record = mCount++;
+        mKeys[record] = key;
+        mFlags[record] = (byte)flags;
+        mFirst[record] = first;
+        mSecond[record] = second;
+        mUsed[record] = used;
+
+        // Nothing should ever write the same thing twice, except to flag a
+        // stock as backfilled.  Either way, the first one wins, except that
+        // it picks up the backfilled flag, and compaction gets rid of the
+        // other.
+        int existing = findRecord(key);
+        if(existing != NONE) {
+            mFlags[existing] |= (byte)(flags & FLAG_BACKFILLED);
+            return;
+        }
+
+        if((mIndexed + 1) * 2 > mIndex.length) growIndex();
+
+        int i = indexOf(key);
+        while(mIndex[i] != NONE)
+            i = (i + 1) & mIndexMask;
+        mIndex[i] = record;
+        mIndexed++;
+    }
+
+    private void growIndex() {
+        int[] old = mIndex;
+        mIndex = new int[old.length * 2];
+        Arrays.fill(mIndex, NONE);
+        mIndexMask = mIndex.length - 1;
+
+        for(int record : old) {
+            if(record == NONE) continue;
+
+            int i = indexOf(mKeys[record]);
+            while(mIndex[i] != NONE)
+                i = (i + 1) & mIndexMask;
+            mIndex[i] = record;
+        }
+    }
+}
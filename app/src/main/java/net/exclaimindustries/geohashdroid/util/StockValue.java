@@ -0,0 +1,196 @@
+/*
+ * StockValue.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import androidx.annotation.NonNull;
+
+/**
+ * <p>
+ * <code>StockValue</code> packs a stock into a single long, without losing
+ * anything.  That matters because the hash doesn't use the stock's value, it
+ * uses the stock's <i>text</i>: "10458.68" and "10458.680" are the same number
+ * but make completely different hashes.  So a stock is kept as a scaled
+ * integer (1045868) plus how many digits came after the decimal point (2),
+ * which is enough to write out the exact same text again.
+ * </p>
+ *
+ * <p>
+ * The low {@link #SCALE_BITS} bits of the long are the number of decimal
+ * places, and the rest is the scaled integer.  Only stocks in canonical form
+ * can be packed: digits, optionally a decimal point followed by at least one
+ * more digit, no sign, no exponent, no whitespace, and no leading zeroes
+ * (apart from a lone zero before the point).  Anything else is something no
+ * stock server would send anyway, and {@link #parse(CharSequence)} turns it
+ * into {@link #NONE}.
+ * </p>
+ *
+ * <p>
+ * Two packed stocks are equal if and only if their text is, so comparing
+ * stocks is just comparing longs.
+ * </p>
+ */
+public final class StockValue {
+    /** How many low bits of a packed stock hold the decimal places. */
+    public static final int SCALE_BITS = 4;
+    /** The most decimal places a packed stock can have. */
+    public static final int MAX_SCALE = (1 << SCALE_BITS) - 1;
+
+    /**
+     * What {@link #parse(CharSequence)} returns for anything that can't be
+     * packed, and what stands in for "no stock at all".  Zero (as in "0")
+     * would pack to this, too, but there's never been a day the DJIA opened
+     * at zero.
+     */
+    public static final long NONE = 0;
+
+    private static final long MAX_UNSCALED = Long.MAX_VALUE >> SCALE_BITS;
+    private static final long SCALE_MASK = (1L << SCALE_BITS) - 1;
+
+    private StockValue() { }
+
+    /**
+     * Packs a stock.
+     *
+     * @param stock the stock, as the servers sent it
+     * @return the packed stock, or {@link #NONE} if it isn't in canonical form
+     *         (or is too big to fit)
+     */
+    public static long parse(@NonNull CharSequence stock) {
+        int len = stock.length();
+        if(len == 0) return NONE;
+
+        long unscaled = 0;
+        int scale = -1;
+
+        for(int i = 0; i < len; i++) {
+            char ch = stock.charAt(i);
+
+            if(ch == '.') {
+                // Only one point, and it needs a digit on both sides.
+                if(scale >= 0 || i == 0 || i == len - 1) return NONE;
+                scale = 0;
+                continue;
+            }
+
+            if(ch < '0' || ch > '9') return NONE;
+
+            // A leading zero wouldn't come back out the same way, unless it's
+            // the only digit before the point.
+            if(i == 1 && stock.charAt(0) == '0' && scale < 0) return NONE;
+
+            if(unscaled > (MAX_UNSCALED - (ch - '0')) / 10) return NONE;
+            unscaled = unscaled * 10 + (ch - '0');
+
+            if(scale >= 0 && ++scale > MAX_SCALE) return NONE;
+        }
+
+        return pack(unscaled, Math.max(scale, 0));
+    }
+
+    /**
+     * Packs a scaled integer and a number of decimal places.  As in, 1045868
+     * with a scale of 2 is 10458.68.
+     *
+     * @param unscaled the stock without its decimal point
+     * @param scale how many of those digits come after the decimal point
+     * @return the packed stock
+     * @throws IllegalArgumentException the unscaled value is negative or too
+     *                                  big, or the scale is out of range
+     */
+    public static long pack(long unscaled, int scale) {
+        if(unscaled < 0 || unscaled > MAX_UNSCALED)
+            throw new IllegalArgumentException("Unscaled value " + unscaled + " is out of range!");
+        if(scale < 0 || scale > MAX_SCALE)
+            throw new IllegalArgumentException("Scale " + scale + " is out of range!");
+
+        return (unscaled << SCALE_BITS) | scale;
+    }
+
+    /**
+     * Gets the scaled integer part of a packed stock.
+     *
+     * @param packed the packed stock
+     * @return the stock without its decimal point
+     */
+    public static long getUnscaled(long packed) {
+        return packed >>> SCALE_BITS;
+    }
+
+    /**
+     * Gets how many decimal places a packed stock has.
+     *
+     * @param packed the packed stock
+     * @return the number of digits after the decimal point
+     */
+    public static int getScale(long packed) {
+        return (int)(packed & SCALE_MASK);
+    }
+
+    /**
+     * Gets how many characters the text of a packed stock is.
+     *
+     * @param packed the packed stock
+     * @return the length of the stock's text
+     */
+    public static int getLength(long packed) {
+        int scale = getScale(packed);
+        int digits = 1;
+        for(long u = getUnscaled(packed); u >= 10; u /= 10) digits++;
+
+        // There's always at least one digit before the point.
+        if(scale == 0) return digits;
+        return Math.max(digits, scale + 1) + 1;
+    }
+
+    /**
+     * Writes the text of a packed stock into a byte array, one ASCII byte per
+     * character.  That's exactly what the hash wants, and it saves making a
+     * String just to take it apart again.
+     *
+     * @param packed the packed stock
+     * @param buf where to write it (there'd better be
+     *            {@link #getLength(long)} bytes of room)
+     * @param pos where in buf to start
+     * @return the position right after the last byte written
+     */
+    public static int writeAscii(long packed, @NonNull byte[] buf, int pos) {
+        int scale = getScale(packed);
+        long unscaled = getUnscaled(packed);
+        int end = pos + getLength(packed);
+
+        // Back to front is easiest.
+        int i = end;
+        for(int digit = 0; i > pos; digit++) {
+            if(scale > 0 && digit == scale) {
+                buf[--i] = '.';
+            } else {
+                buf[--i] = (byte)('0' + (unscaled % 10));
+                unscaled /= 10;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Turns a packed stock back into its text, exactly as it was before it
+     * was packed.
+     *
+     * @param packed the packed stock
+     * @return the stock's text
+     */
+    @NonNull
+    public static String toString(long packed) {
+        byte[] buf = new byte[getLength(packed)];
+        writeAscii(packed, buf, 0);
+
+        char[] chars = new char[buf.length];
+        for(int i = 0; i < buf.length; i++) chars[i] = (char)buf[i];
+        return new String(chars);
+    }
+}
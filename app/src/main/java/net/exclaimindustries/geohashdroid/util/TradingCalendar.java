@@ -0,0 +1,259 @@
+/*
+ * TradingCalendar.java
+ * Copyright (C)2021 Nicholas Killewald
+ *
+ * This file is distributed under the terms of the BSD license.
+ * The source package should have a LICENSE file at the toplevel.
+ */
+package net.exclaimindustries.geohashdroid.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import net.exclaimindustries.geohashdroid.R;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Calendar;
+
+/**
+ * <p>
+ * <code>TradingCalendar</code> knows which days the NYSE was (or will be)
+ * open.  On any day it's closed, there's no new opening value, so the hash
+ * uses the value from the last day it WAS open.  That's what
+ * {@link #getLastTradingDay(int)} gives you.  Weekends are the obvious case,
+ * but holidays count too, and without knowing about them, we'd go ask the
+ * stock servers for a value that'll never exist.
+ * </p>
+ *
+ * <p>
+ * The regular holidays are worked out by rule, from 1990 through 2099.  The
+ * one-off closures (funerals, hurricanes, that sort of thing) are in the
+ * market_closures raw resource, which gets read in the first time
+ * {@link #loadClosures(Context)} is called.  If the NYSE closes for something
+ * new, that's the file to update.  Anything outside of 1990 through 2099
+ * only gets the weekend treatment, same as before this class existed.
+ * </p>
+ *
+ * <p>
+ * Everything's boiled down ahead of time into a table of how many days back
+ * the last trading day is for every day in that range, so a lookup is just an
+ * array access.  All dates are epoch days (see {@link EpochDay}).
+ * </p>
+ */
+public final class TradingCalendar {
+    private static final String DEBUG_TAG = "TradingCalendar";
+
+    private static final int FIRST_YEAR = 1990;
+    private static final int LAST_YEAR = 2099;
+
+    private static final int FIRST_DAY = EpochDay.of(FIRST_YEAR, 1, 1);
+    private static final int LAST_DAY = EpochDay.of(LAST_YEAR, 12, 31);
+
+    // Every closed weekday in the range, by rule or from the resource.
+    private static final boolean[] mClosed = new boolean[LAST_DAY - FIRST_DAY + 1];
+
+    // How many days back the last trading day is, for every day in the range.
+    // This gets swapped out wholesale when closures are added, so readers
+    // never see one half-built.
+    private static volatile byte[] mRollback;
+
+    private static boolean mClosuresLoaded = false;
+
+    static {
+        for(int year = FIRST_YEAR; year <= LAST_YEAR; year++) {
+            addHolidays(year);
+        }
+
+        rebuild();
+    }
+
+    private TradingCalendar() { }
+
+    /**
+     * Gets the last day on or before the given day that the NYSE was open.
+     * That's the given day itself on a normal weekday.
+     *
+     * @param epochDay the day in question
+     * @return the last trading day on or before it
+     */
+    public static int getLastTradingDay(int epochDay) {
+        if(epochDay < FIRST_DAY || epochDay > LAST_DAY)
+            return EpochDay.clampWeekend(epochDay);
+
+        return epochDay - mRollback[epochDay - FIRST_DAY];
+    }
+
+    /**
+     * Determines if the NYSE was open on the given day.
+     *
+     * @param epochDay the day in question
+     * @return true if it's a trading day, false if it's a weekend or holiday
+     */
+    public static boolean isTradingDay(int epochDay) {
+        return getLastTradingDay(epochDay) == epochDay;
+    }
+
+    /**
+     * Reads the one-off closures from the bundled market_closures resource.
+     * This only does anything the first time it's called, so feel free to call
+     * it whenever there's a Context handy.  If the file can't be read, we just
+     * go on without it; the worst that happens is a wasted trip to the stock
+     * servers on one of those days.
+     *
+     * @param c a Context, for getting at the resource
+     */
+    public static void loadClosures(@NonNull Context c) {
+        synchronized(mClosed) {
+            if(mClosuresLoaded) return;
+            mClosuresLoaded = true;
+
+            int count = 0;
+
+            try(BufferedReader br = new BufferedReader(new InputStreamReader(
+                    c.getResources().openRawResource(R.raw.market_closures)))) {
+                String line;
+                while((line = br.readLine()) != null) {
+                    int hash = line.indexOf('#');
+                    if(hash >= 0) line = line.substring(0, hash);
+                    line = line.trim();
+                    if(line.isEmpty()) continue;
+
+                    try {
+                        if(markClosed(parseDate(line))) count++;
+                    } catch(NumberFormatException nfe) {
+                        Log.w(DEBUG_TAG, "Couldn't make sense of the closure date " + line + ", skipping it...");
+                    }
+                }
+            } catch(IOException ioe) {
+                Log.w(DEBUG_TAG, "Couldn't read the market closures, going without them: " + ioe.toString());
+            }
+
+            Log.v(DEBUG_TAG, "Loaded " + count + " market closure(s)");
+            rebuild();
+        }
+    }
+
+    private static int parseDate(@NonNull String date) {
+        // YYYY-MM-DD, no more, no less.
+        if(date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-')
+            throw new NumberFormatException("Not a YYYY-MM-DD date: " + date);
+
+        return EpochDay.of(Integer.parseInt(date.substring(0, 4)),
+                Integer.parseInt(date.substring(5, 7)),
+                Integer.parseInt(date.substring(8, 10)));
+    }
+
+    private static void addHolidays(int year) {
+        // New Year's Day.  If it's on a Sunday, Monday's off.  If it's on a
+        // Saturday, though, the NYSE stays open on the Friday before, as that
+        // would be the last trading day of the previous year.
+        int newYear = EpochDay.of(year, 1, 1);
+        if(EpochDay.getDayOfWeek(newYear) == Calendar.SUNDAY)
+            markClosed(newYear + 1);
+        else
+            markClosed(newYear);
+
+        // Martin Luther King, Jr. Day, third Monday in January, since 1998.
+        if(year >= 1998)
+            markClosed(nthWeekday(year, 1, Calendar.MONDAY, 3));
+
+        // Presidents' Day, third Monday in February.
+        markClosed(nthWeekday(year, 2, Calendar.MONDAY, 3));
+
+        // Good Friday, two days before Easter.
+        markClosed(getEaster(year) - 2);
+
+        // Memorial Day, last Monday in May.
+        markClosed(lastWeekday(year, 5, Calendar.MONDAY));
+
+        // Juneteenth, since 2022.
+        if(year >= 2022)
+            markClosed(observed(EpochDay.of(year, 6, 19)));
+
+        // Independence Day.
+        markClosed(observed(EpochDay.of(year, 7, 4)));
+
+        // Labor Day, first Monday in September.
+        markClosed(nthWeekday(year, 9, Calendar.MONDAY, 1));
+
+        // Thanksgiving, fourth Thursday in November.
+        markClosed(nthWeekday(year, 11, Calendar.THURSDAY, 4));
+
+        // Christmas.
+        markClosed(observed(EpochDay.of(year, 12, 25)));
+    }
+
+    private static int observed(int holiday) {
+        // Saturday holidays are observed on Friday, Sunday ones on Monday.
+        switch(EpochDay.getDayOfWeek(holiday)) {
+            case Calendar.SATURDAY:
+                return holiday - 1;
+            case Calendar.SUNDAY:
+                return holiday + 1;
+            default:
+                return holiday;
+        }
+    }
+
+    private static int nthWeekday(int year, int month, int dayOfWeek, int n) {
+        int first = EpochDay.of(year, month, 1);
+        int offset = (dayOfWeek - EpochDay.getDayOfWeek(first) + 7) % 7;
+        return first + offset + (n - 1) * 7;
+    }
+
+    private static int lastWeekday(int year, int month, int dayOfWeek) {
+        int last = EpochDay.of(year, month + 1, 1) - 1;
+        int offset = (EpochDay.getDayOfWeek(last) - dayOfWeek + 7) % 7;
+        return last - offset;
+    }
+
+    private static int getEaster(int year) {
+        // The anonymous Gregorian algorithm, AKA Meeus/Jones/Butcher.  Don't
+        // ask me to explain it.
+        int a = year % 19;
+        int b = year / 100;
+        int c = year % 100;
+        int d = b / 4;
+        int e = b % 4;
+        int f = (b + 8) / 25;
+        int g = (b - f + 1) / 3;
+        int h = (19 * a + b - d - g + 15) % 30;
+        int i = c / 4;
+        int k = c % 4;
+        int l = (32 + 2 * e + 2 * i - h - k) % 7;
+        int m = (a + 11 * h + 22 * l) / 451;
+        int month = (h + l - 7 * m + 114) / 31;
+        int day = ((h + l - 7 * m + 114) % 31) + 1;
+
+        return EpochDay.of(year, month, day);
+    }
+
+    private static boolean markClosed(int epochDay) {
+        if(epochDay < FIRST_DAY || epochDay > LAST_DAY) return false;
+
+        mClosed[epochDay - FIRST_DAY] = true;
+        return true;
+    }
+
+    private static void rebuild() {
+        byte[] rollback = new byte[mClosed.length];
+
+        // Anything before the table starts only knows about weekends.
+        int lastOpen = EpochDay.clampWeekend(FIRST_DAY - 1);
+
+        for(int i = 0; i < rollback.length; i++) {
+            int day = FIRST_DAY + i;
+
+            if(!mClosed[i] && EpochDay.clampWeekend(day) == day)
+                lastOpen = day;
+
+            rollback[i] = (byte)(day - lastOpen);
+        }
+
+        mRollback = rollback;
+    }
+}
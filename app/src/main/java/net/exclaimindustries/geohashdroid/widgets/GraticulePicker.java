@@ -241,9 +241,9 @@ public class GraticulePicker extends RelativeLayout {
             // matter what the inputs say, even if those inputs are invalid.
             return null;
         } else {
-            // Otherwise, make a Graticule.  The constructor will throw as need
+            // Otherwise, make a Graticule.  Graticule.of will throw as need
             // be.
-            return new Graticule(mLat.getText().toString(), mLon.getText().toString());
+            return Graticule.of(mLat.getText().toString(), mLon.getText().toString());
         }
     }
 
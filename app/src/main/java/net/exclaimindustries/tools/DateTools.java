@@ -103,4 +103,42 @@ public class DateTools {
         comparator.add(Calendar.DAY_OF_MONTH, 2);
         return isSameDate(isThisTomorrow, comparator);
     }
+
+    /**
+     * Gets the number of days between January 1, 1970 and the given date,
+     * going purely by the year, month, and day of the month.  Time zones,
+     * daylight saving, and the time of day don't enter into it.
+     *
+     * @param c Calendar from which to get the date
+     * @return the number of days since January 1, 1970 (negative if before)
+     */
+    public static int getEpochDay(@NonNull Calendar c) {
+        return toEpochDay(c.get(Calendar.YEAR),
+                c.get(Calendar.MONTH) + 1,
+                c.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Gets the number of days between January 1, 1970 and the given date in
+     * the proleptic Gregorian calendar.  This is plain arithmetic, so it's
+     * quick and doesn't need a Calendar.
+     *
+     * @param year the year
+     * @param month the month (January is 1, NOT Calendar.JANUARY)
+     * @param day the day of the month
+     * @return the number of days since January 1, 1970 (negative if before)
+     */
+    public static int toEpochDay(int year, int month, int day) {
+        // Shift the year to start in March, so the leap day is at the very
+        // end of it.  Then it's just counting up 400-year eras, years in the
+        // era, and days in the year.
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        // 719468 is the number of days from March 1, 0000 to January 1, 1970.
+        return era * 146097 + dayOfEra - 719468;
+    }
 }
@@ -10,8 +10,18 @@ package net.exclaimindustries.tools;
 import java.math.BigDecimal;
 
 /**
+ * <p>
  * Contains a static method for parsing a hex string as if it were the
  * fractional part of a number and returning its fractional double value.
+ * </p>
+ *
+ * <p>
+ * There's also a fast mode for when there's no more than sixteen hexits (or
+ * eight bytes straight out of a digest) to deal with, which is what the
+ * geohashing algorithm uses.  Sixteen hexits is exactly 64 bits, so it fits
+ * in a long, and with a little bit-fiddling, that gets the same correctly
+ * rounded answer as the BigDecimal route without any of the BigDecimals.
+ * </p>
  * 
  * @author Nicholas Killewald
  */
@@ -49,4 +59,82 @@ public class HexFraction {
         // Finally, return at will!
         return curvalue.doubleValue();
     }
+
+    /**
+     * Converts a string of up to sixteen hexits into its fractional decimal
+     * counterpart, the same as {@link #calculate(String)}, but without going
+     * through BigDecimal.  If there's more than sixteen hexits, this just
+     * falls back to {@link #calculate(String)}, since those won't fit into a
+     * long.
+     *
+     * @param s the hex string to convert
+     * @return a double value of the hex string
+     * @throws NumberFormatException parsing error with the string
+     */
+    public static double calculateFast(String s) throws NumberFormatException {
+        int len = s.length();
+        if(len > 16) return calculate(s);
+
+        long bits = 0;
+        for(int i = 0; i < len; i++) {
+            int part = Character.digit(s.charAt(i), 16);
+            if(part < 0)
+                throw new NumberFormatException("For input string: \"" + s.charAt(i) + "\"");
+            bits = (bits << 4) | part;
+        }
+
+        // Fewer than sixteen hexits are just the leftmost ones, with zeroes
+        // filling out the rest.
+        if(len > 0 && len < 16)
+            bits <<= 4 * (16 - len);
+
+        return fromLong(bits);
+    }
+
+    /**
+     * Converts eight bytes, presumably straight out of a digest, into the
+     * fractional value of the sixteen hexits they'd make if written out as a
+     * hex string.  The first byte is the most significant.
+     *
+     * @param bytes the bytes to convert
+     * @param offset where in the array to start
+     * @return a double value of those bytes
+     * @throws ArrayIndexOutOfBoundsException there weren't eight bytes left
+     *                                        in the array past the offset
+     */
+    public static double fromBytes(byte[] bytes, int offset) {
+        long bits = 0;
+        for(int i = offset; i < offset + 8; i++) {
+            bits = (bits << 8) | (bytes[i] & 0xFF);
+        }
+
+        return fromLong(bits);
+    }
+
+    /**
+     * Converts 64 bits into their fractional value.  That is, the long is
+     * treated as unsigned and divided by 2<sup>64</sup>, rounded to the
+     * nearest double.  This is the same answer {@link #calculate(String)}
+     * would give on the long's sixteen-hexit string.
+     *
+     * @param bits the bits to convert, as an unsigned long
+     * @return a double from 0 to 1, inclusive
+     */
+    public static double fromLong(long bits) {
+        // A conversion from a non-negative long to a double is correctly
+        // rounded, and multiplying by a power of two is exact, so that alone
+        // gets us the same answer BigDecimal.doubleValue() would.  If the top
+        // bit is set, though, the long is "negative".  In that case, halve it
+        // first, but keep the lowest bit around as a sticky bit so that it
+        // still rounds correctly (all it can do is break what would otherwise
+        // look like a tie).
+        double value;
+        if(bits >= 0) {
+            value = (double)bits;
+        } else {
+            value = (double)((bits >>> 1) | (bits & 1)) * 2.0;
+        }
+
+        return value * 0x1.0p-64;
+    }
 }
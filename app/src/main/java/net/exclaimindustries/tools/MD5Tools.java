@@ -8,17 +8,44 @@
 
 package net.exclaimindustries.tools;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 /**
+ * <p>
  * <code>MD5Tools</code> consists of a helper method for the common gruntwork
  * tasks commonly associated with MD5 hashing. Most common of these would be the
  * hashing of a simple string.
+ * </p>
+ *
+ * <p>
+ * For when there's a LOT of hashing to do, there's also
+ * {@link #digestInto(byte[], int, byte[])}, which hashes raw bytes into a
+ * caller-supplied buffer.  Each thread gets its own reusable MessageDigest, so
+ * there's no provider lookup per hash, nothing new gets allocated, and threads
+ * hashing in parallel never wait on each other.
+ * </p>
  * 
  * @author Nicholas Killewald
  */
 public class MD5Tools {
+    /** The length of an MD5 digest, in bytes. */
+    public static final int DIGEST_LENGTH = 16;
+
+    // One digest per thread.  MessageDigests aren't thread-safe, but they ARE
+    // reusable, and digest() resets them when it's done.  A null in here means
+    // MD5 isn't available at all, in which case we're all doomed anyway.
+    private static final ThreadLocal<MessageDigest> sDigests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+    };
 
     /**
      * Hashes a string through the MD5 algorithm. If something goes wrong with
@@ -29,11 +56,9 @@ public class MD5Tools {
      * @return the MD5 hash of the input
      */
     public static String MD5hash(String input) {
-        MessageDigest diggy;
+        MessageDigest diggy = sDigests.get();
 
-        try {
-            diggy = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
+        if (diggy == null) {
             // No, seriously, if this fails, we're all doomed.
             return "";
         }
@@ -43,4 +68,46 @@ public class MD5Tools {
         return CharToByte.bytesToString(diggy.digest());
     }
 
+    /**
+     * Hashes the first <code>len</code> bytes of the input through the MD5
+     * algorithm, writing the digest into the first {@link #DIGEST_LENGTH}
+     * bytes of the output.  This uses the current thread's MessageDigest, so
+     * it's safe to call from as many threads at once as you like, so long as
+     * they're not sharing buffers.
+     *
+     * @param in
+     *            bytes to hash
+     * @param len
+     *            how many of those bytes to hash, starting from the first
+     * @param out
+     *            where the digest goes; must be at least
+     *            {@link #DIGEST_LENGTH} bytes long
+     * @return the number of bytes written to out (always {@link #DIGEST_LENGTH})
+     * @throws IllegalArgumentException
+     *             out is too short
+     * @throws IllegalStateException
+     *             MD5 isn't available on this device
+     */
+    public static int digestInto(byte[] in, int len, byte[] out) {
+        if (out.length < DIGEST_LENGTH)
+            throw new IllegalArgumentException("The output buffer needs to be at least " + DIGEST_LENGTH + " bytes long!");
+
+        MessageDigest diggy = sDigests.get();
+
+        if (diggy == null)
+            throw new IllegalStateException("MD5 isn't available?");
+
+        diggy.update(in, 0, len);
+
+        try {
+            return diggy.digest(out, 0, DIGEST_LENGTH);
+        } catch (DigestException de) {
+            // We already checked the length, so this really shouldn't happen.
+            // If it does, make sure the digest doesn't carry leftovers into
+            // the next call on this thread.
+            diggy.reset();
+            throw new IllegalArgumentException("Couldn't write the digest out!", de);
+        }
+    }
+
 }